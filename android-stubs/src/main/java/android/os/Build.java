@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * JVM stand-in of the android Build, the library runs as on a recent device.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 34;
+    }
+
+    public static class VERSION_CODES {
+        public static final int N = 24;
+    }
+}
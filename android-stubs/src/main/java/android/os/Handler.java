@@ -0,0 +1,27 @@
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * JVM stand-in of the android Handler, so HttpConnection runs off a device in the tests and benchmarks.
+ * <p>
+ * The runnables posted to the main looper run in order on one daemon thread standing for the main thread,
+ * the callbacks of the benchmarked calls wait for it as they would for the ui thread.
+ */
+public class Handler {
+
+    private static final ExecutorService MAIN_THREAD = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Handler(Looper looper) {
+    }
+
+    public boolean post(Runnable runnable) {
+        MAIN_THREAD.execute(runnable);
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * JVM stand-in of the android Looper, see {@link Handler}.
+ */
+public class Looper {
+
+    private static final Looper MAIN_LOOPER = new Looper();
+
+    public static Looper getMainLooper() {
+        return MAIN_LOOPER;
+    }
+}
@@ -0,0 +1,23 @@
+package com.blacksoft.arrowbow.storage_manager;
+
+import java.util.UUID;
+
+/**
+ * JVM stand-in of the StorageUtils of the storage manager, only what HttpConnection calls.
+ */
+public class StorageUtils {
+
+    /**
+     * @return a unique file name with the extension of the content type, "bin" if it has none.
+     */
+    public static String randomNameWithExtension(String prefix, String contentType) {
+        String extension = "bin";
+        if (contentType != null) {
+            int slash = contentType.indexOf('/');
+            int end = contentType.indexOf(';');
+            String subtype = contentType.substring(slash + 1, end < 0 ? contentType.length() : end).trim();
+            if (slash >= 0 && !subtype.isEmpty()) extension = subtype;
+        }
+        return prefix + "_" + UUID.randomUUID() + "." + extension;
+    }
+}
@@ -0,0 +1,91 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.HttpConnection;
+import com.beastwall.httpcall.networking.Request;
+import com.beastwall.httpcall.networking.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of {@link HttpConnection#execute(Request)} under the different execution modes, against a local
+ * server answering every request after {@code waitMillis}.
+ * <p>
+ * Unlike {@link ExecutionModeBenchmark}, every call goes through the request path of the library: connection,
+ * headers, response parsing and the delivery of its flags. The server runs a virtual thread per request,
+ * so its waits don't queue behind each other.
+ * <p>
+ * java -jar target/benchmarks.jar ExecuteBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    @Param({"THREAD_PER_REQUEST", "POOLED_DISPATCHER", "VIRTUAL_THREAD_DISPATCHER"})
+    public ExecutionMode mode;
+
+    @Param({"100", "1000"})
+    public int inFlight;
+
+    @Param({"10"})
+    public int waitMillis;
+
+    private LocalServer server;
+    private Executor executor;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalServer(Executors.newVirtualThreadPerTaskExecutor());
+        executor = mode.newExecutor(inFlight);
+        url = server.url() + "/wait?ms=" + waitMillis;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * One operation is a whole fan-out, multiply the score by inFlight to get calls per second.
+     */
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(inFlight);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < inFlight; i++) {
+            executor.execute(() -> {
+                try {
+                    Response response = new HttpConnection().execute(Request.get(url));
+                    if (response.getFlag() != HttpConnection.FLAG_RESPONSE_IS_READY) failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        if (failures.get() > 0) throw new IllegalStateException(failures.get() + " calls of " + inFlight + " failed");
+    }
+}
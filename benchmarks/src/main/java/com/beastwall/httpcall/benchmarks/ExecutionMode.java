@@ -0,0 +1,45 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.Dispatcher;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The ways a call can be given a thread, compared by the benchmarks.
+ */
+public enum ExecutionMode {
+
+    /**
+     * What HttpConnection used to do: a new platform thread for every call.
+     */
+    THREAD_PER_REQUEST,
+
+    /**
+     * The default bounded dispatcher, sized to let every call of the benchmark run at once.
+     */
+    POOLED_DISPATCHER,
+
+    /**
+     * The dispatcher running every call on a virtual thread.
+     */
+    VIRTUAL_THREAD_DISPATCHER;
+
+    /**
+     * @param inFlight: number of calls that must be able to block at the same time.
+     * @return an executor submitting calls the way this mode does.
+     */
+    public Executor newExecutor(int inFlight) {
+        switch (this) {
+            case THREAD_PER_REQUEST:
+                return command -> new Thread(command).start();
+            case POOLED_DISPATCHER: {
+                Dispatcher dispatcher = new Dispatcher(inFlight, inFlight, inFlight, inFlight);
+                return command -> dispatcher.enqueue("localhost", command);
+            }
+            default: {
+                Dispatcher dispatcher = Dispatcher.newVirtualThreadDispatcher(inFlight, inFlight, inFlight);
+                return command -> dispatcher.enqueue("localhost", command);
+            }
+        }
+    }
+}
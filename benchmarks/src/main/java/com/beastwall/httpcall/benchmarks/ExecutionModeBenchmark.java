@@ -0,0 +1,72 @@
+package com.beastwall.httpcall.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of blocking calls under the different execution modes.
+ * <p>
+ * Every operation fans out {@code inFlight} calls that each block for {@code blockMillis},
+ * standing for the time a request waits on the network, and waits for all of them.
+ * {@link ExecuteBenchmark} does the same with real requests.
+ * <p>
+ * java -jar target/benchmarks.jar ExecutionModeBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    @Param({"THREAD_PER_REQUEST", "POOLED_DISPATCHER", "VIRTUAL_THREAD_DISPATCHER"})
+    public ExecutionMode mode;
+
+    @Param({"100", "1000", "10000"})
+    public int inFlight;
+
+    @Param({"10"})
+    public int blockMillis;
+
+    private Executor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = mode.newExecutor(inFlight);
+    }
+
+    /**
+     * One operation is a whole fan-out, multiply the score by inFlight to get calls per second.
+     */
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
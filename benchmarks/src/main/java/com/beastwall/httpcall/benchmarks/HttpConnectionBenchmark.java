@@ -0,0 +1,174 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.items.Field;
+import com.beastwall.httpcall.networking.Dispatcher;
+import com.beastwall.httpcall.networking.HttpConnection;
+import com.beastwall.httpcall.networking.NioEngine;
+import com.beastwall.httpcall.networking.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The request path of HttpConnection end to end against a local server: getText, getFile, postText and
+ * postMultiPartDataForm, at several body sizes, with every dispatcher and with or without the NIO engine.
+ * <p>
+ * Every benchmark thread runs one call at a time and waits for its result, the number of threads is the
+ * number of calls in flight. The engine only carries the plain GETs, the posts ignore it.
+ * <p>
+ * java -jar target/benchmarks.jar HttpConnectionBenchmark -t 16 -prof gc
+ * <p>
+ * or through {@link #main(String[])}, which runs it with 1, 16 and 64 threads and the gc profiler:
+ * java -cp target/benchmarks.jar com.beastwall.httpcall.benchmarks.HttpConnectionBenchmark [jmh options]
+ * <p>
+ * thrpt is in calls per millisecond, sample gives the latency percentiles of a call,
+ * gc.alloc.rate.norm the bytes allocated per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class HttpConnectionBenchmark {
+
+    /**
+     * numbers of calls in flight run by {@link #main(String[])}
+     */
+    private static final int[] CONCURRENCY_LEVELS = {1, 16, 64};
+
+    /**
+     * the most calls in flight the dispatchers are sized for
+     */
+    private static final int MAX_IN_FLIGHT = 256;
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    @Param({"POOLED", "VIRTUAL_THREADS"})
+    public String dispatcherMode;
+
+    @Param({"false", "true"})
+    public boolean nioEngine;
+
+    private LocalServer server;
+    private Dispatcher dispatcher;
+    private NioEngine engine;
+    private String bytesUrl;
+    private String echoUrl;
+    private String text;
+    private Field[] fields;
+    private Path downloads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalServer(32);
+        bytesUrl = server.url() + "/bytes?size=" + bodySize;
+        echoUrl = server.url() + "/echo";
+        dispatcher = dispatcherMode.equals("VIRTUAL_THREADS")
+                ? Dispatcher.newVirtualThreadDispatcher(MAX_IN_FLIGHT * 4, MAX_IN_FLIGHT, MAX_IN_FLIGHT)
+                : new Dispatcher(MAX_IN_FLIGHT, MAX_IN_FLIGHT * 4, MAX_IN_FLIGHT, MAX_IN_FLIGHT);
+        engine = nioEngine ? new NioEngine().setMaxConnectionsPerHost(64) : null;
+
+        byte[] body = LocalServer.body(bodySize);
+        text = new String(body, StandardCharsets.UTF_8);
+        downloads = Files.createTempDirectory("arrowbow-benchmark");
+        Path upload = downloads.resolve("upload.json");
+        Files.write(upload, body);
+        fields = new Field[]{new Field("name", "arrowbow"), new Field("file", upload.toString())};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (engine != null) engine.shutdown();
+        dispatcher.shutdown();
+        server.close();
+        try (Stream<Path> files = Files.walk(downloads)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private HttpConnection newConnection() {
+        return new HttpConnection().setDispatcher(dispatcher).setNioEngine(engine);
+    }
+
+    /**
+     * @return the result of a call that succeeded, an exception stops the benchmark otherwise.
+     */
+    private static Object resultOf(Response response) {
+        if (response.getFlag() != HttpConnection.FLAG_RESPONSE_IS_READY)
+            throw new IllegalStateException("Call failed with flag " + response.getFlag() + ": " + response.getResult());
+        return response.getResult();
+    }
+
+    @Benchmark
+    public Object getText() throws ExecutionException, InterruptedException {
+        return resultOf(newConnection().getTextAsync(bytesUrl, null).get());
+    }
+
+    /**
+     * The downloaded file is deleted right away, deleting it is part of the score.
+     */
+    @Benchmark
+    public Object getFile() throws ExecutionException, InterruptedException, IOException {
+        Object path = resultOf(newConnection().getFileAsync(bytesUrl, null, downloads.toString()).get());
+        Files.delete(Path.of((String) path));
+        return path;
+    }
+
+    @Benchmark
+    public Object postText() throws ExecutionException, InterruptedException {
+        return resultOf(newConnection()
+                .postTextAsync(echoUrl, null, text, HttpConnection.DATATYPE_TEXT, null).get());
+    }
+
+    @Benchmark
+    public Object postMultiPartDataForm() throws ExecutionException, InterruptedException {
+        return resultOf(newConnection()
+                .postMultiPartDataFormAsync(echoUrl, null, HttpConnection.DATATYPE_TEXT, null, fields).get());
+    }
+
+    /**
+     * Runs the benchmark at every concurrency level with the gc profiler, the other options are the ones of JMH,
+     * "-p bodySize=1024" for example. The results of every level go to httpconnection-tN.json.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int threads : CONCURRENCY_LEVELS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(HttpConnectionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("httpconnection-t" + threads + ".json")
+                    .build()).run();
+        }
+    }
+}
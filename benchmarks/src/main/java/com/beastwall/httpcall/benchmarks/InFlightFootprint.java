@@ -0,0 +1,72 @@
+package com.beastwall.httpcall.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory used by one in-flight call for every execution mode.
+ * <p>
+ * Parks {@code inFlight} calls, then measures the heap and the resident memory of the process
+ * (Linux only) before releasing them. Run every mode in a fresh JVM to keep the numbers apart:
+ * <p>
+ * java -cp target/benchmarks.jar com.beastwall.httpcall.benchmarks.InFlightFootprint VIRTUAL_THREAD_DISPATCHER 10000
+ */
+public class InFlightFootprint {
+
+    public static void main(String[] args) throws Exception {
+        ExecutionMode mode = ExecutionMode.valueOf(args.length > 0 ? args[0] : "VIRTUAL_THREAD_DISPATCHER");
+        int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        Executor executor = mode.newExecutor(inFlight);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long rssBefore = residentBytes();
+
+        CountDownLatch started = new CountDownLatch(inFlight);
+        CountDownLatch release = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < inFlight; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        started.await();
+        long startMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.gc();
+        long heap = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+        long rss = residentBytes() - rssBefore;
+        release.countDown();
+
+        System.out.printf("%s, %d in-flight calls started in %d ms%n", mode, inFlight, startMillis);
+        System.out.printf("heap: %d bytes per call%n", heap / inFlight);
+        if (rssBefore > 0) System.out.printf("resident: %d bytes per call%n", rss / inFlight);
+        System.out.printf("live threads: %d%n", ManagementFactory.getThreadMXBean().getThreadCount());
+        System.exit(0);
+    }
+
+    /**
+     * @return resident set size of this process, or 0 when /proc isn't available.
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (Exception ignored) {
+        }
+        return 0;
+    }
+}
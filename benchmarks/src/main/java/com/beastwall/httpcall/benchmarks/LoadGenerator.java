@@ -0,0 +1,325 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.Dispatcher;
+import com.beastwall.httpcall.networking.HttpConnection;
+import com.beastwall.httpcall.networking.LatencyHistogram;
+import com.beastwall.httpcall.networking.MetricsRecorder;
+import com.beastwall.httpcall.networking.MetricsRegistry;
+import com.beastwall.httpcall.networking.NioEngine;
+import com.beastwall.httpcall.networking.Response;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests with HttpConnection at a fixed rate and reports their latency, errors and throughput
+ * every second and at the end.
+ * <p>
+ * The schedule is open-loop: request i is due at start + i / rps whether the earlier ones answered or not,
+ * like the users of an app that don't wait for each other. A request is timed from the instant it was due,
+ * not from the instant it was actually sent, so a client or server that stalls is charged for every request
+ * that should have gone meanwhile (coordinated omission). The latency from the actual send is reported too,
+ * the gap between both shows how much a closed-loop benchmark would have hidden.
+ * <p>
+ * Without --url it starts a {@link LocalServer} and calls it, to size the dispatcher and the pools on one box:
+ * <p>
+ * java -cp target/benchmarks.jar com.beastwall.httpcall.benchmarks.LoadGenerator --rps 2000 --duration 30
+ */
+public final class LoadGenerator {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: LoadGenerator [options]",
+            "  --url URL             url to call, a local server is started when it's missing",
+            "  --method GET|POST     GET reads text, POST sends a text body (GET)",
+            "  --body-size BYTES     size of the local server responses, or of the POST bodies (1024)",
+            "  --rps N               requests started per second (1000)",
+            "  --duration SECONDS    length of the measured run (30)",
+            "  --warmup SECONDS      run at the same rate before measuring (5)",
+            "  --dispatcher pooled|virtual",
+            "                        threads running the calls (pooled)",
+            "  --max-requests N      calls the dispatcher runs at once (256)",
+            "  --max-outstanding N   requests in flight beyond which the due ones fail as dropped (10000)",
+            "  --nio                 read the GETs with the non-blocking engine",
+            "  --timeout MILLIS      connect and read timeouts (3000)");
+
+    /**
+     * how long the run waits for the requests still in flight once the last one was sent
+     */
+    private static final long DRAIN_MILLIS = 10_000;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private String url;
+    private String method = "GET";
+    private int bodySize = 1024;
+    private double rps = 1000;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private String dispatcherMode = "pooled";
+    private int maxRequests = 256;
+    private int maxOutstanding = 10_000;
+    private boolean nio = false;
+    private int timeoutMillis = 3000;
+
+    private Dispatcher dispatcher;
+    private NioEngine engine;
+    private String body;
+    private final MetricsRegistry phases = new MetricsRegistry();
+
+    /**
+     * latencies from the due instant and from the actual send, of the whole run and of the current second
+     */
+    final LatencyHistogram corrected = new LatencyHistogram();
+    final LatencyHistogram uncorrected = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> currentSecond = new AtomicReference<>(new LatencyHistogram());
+
+    /**
+     * requests sent and not answered yet, the answer or the end of the run that removes one counts it
+     */
+    private final Set<InFlight> inFlight = ConcurrentHashMap.newKeySet();
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong succeeded = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    private final AtomicLong secondSucceeded = new AtomicLong();
+    private final AtomicLong secondFailed = new AtomicLong();
+    final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    /**
+     * requests due before this instant are part of the warmup and aren't measured
+     */
+    private long measuredFromNanos;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(generator.run() ? 0 : 1);
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--help") || option.equals("-h")) throw new IllegalArgumentException("");
+            if (option.equals("--nio")) {
+                nio = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value of " + option);
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--url": url = value; break;
+                    case "--method": method = value.toUpperCase(); break;
+                    case "--body-size": bodySize = Integer.parseInt(value); break;
+                    case "--rps": rps = Double.parseDouble(value); break;
+                    case "--duration": durationSeconds = Integer.parseInt(value); break;
+                    case "--warmup": warmupSeconds = Integer.parseInt(value); break;
+                    case "--dispatcher": dispatcherMode = value; break;
+                    case "--max-requests": maxRequests = Integer.parseInt(value); break;
+                    case "--max-outstanding": maxOutstanding = Integer.parseInt(value); break;
+                    case "--timeout": timeoutMillis = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong value of " + option + ": " + value);
+            }
+        }
+        if (!method.equals("GET") && !method.equals("POST"))
+            throw new IllegalArgumentException("Unsupported method " + method);
+        if (rps <= 0 || durationSeconds <= 0 || warmupSeconds < 0)
+            throw new IllegalArgumentException("--rps and --duration must be positive");
+    }
+
+    /**
+     * @return true if every measured request succeeded.
+     */
+    boolean run() throws IOException, InterruptedException {
+        LocalServer server = null;
+        if (url == null) {
+            server = new LocalServer(Math.max(16, Runtime.getRuntime().availableProcessors() * 2));
+            url = server.url() + (method.equals("GET") ? "/bytes?size=" + bodySize : "/echo");
+        }
+        dispatcher = dispatcherMode.equals("virtual")
+                ? Dispatcher.newVirtualThreadDispatcher(maxOutstanding, maxRequests, maxRequests)
+                : new Dispatcher(maxRequests, maxOutstanding, maxRequests, maxRequests);
+        engine = nio ? new NioEngine().setMaxConnectionsPerHost(Math.min(maxRequests, 64)) : null;
+        body = new String(LocalServer.body(bodySize), StandardCharsets.UTF_8);
+
+        System.out.printf("%s %s at %.0f req/s for %ds after %ds of warmup, %s dispatcher of %d%s%n",
+                method, url, rps, durationSeconds, warmupSeconds, dispatcherMode, maxRequests, nio ? ", nio engine" : "");
+        try {
+            schedule();
+        } finally {
+            dispatcher.shutdown();
+            if (engine != null) engine.shutdown();
+            if (server != null) server.close();
+        }
+        report();
+        return failed.get() == 0;
+    }
+
+    /**
+     * Sends every request at its due instant, from one thread that never waits for a response.
+     */
+    private void schedule() throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+        long start = System.nanoTime();
+        measuredFromNanos = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measuredFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextReport = measuredFromNanos + TimeUnit.SECONDS.toNanos(1);
+        int second = 0;
+
+        for (long i = 0; ; i++) {
+            long due = start + i * intervalNanos;
+            if (due >= end) break;
+            /**
+             * a scheduler that fell behind sends the late requests right away, they keep their due instant
+             */
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                if (now >= nextReport) break;
+                LockSupport.parkNanos(Math.min(due, nextReport) - now);
+            }
+            if (now >= nextReport) {
+                reportSecond(++second);
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+                i--;
+                continue;
+            }
+            send(due);
+        }
+
+        long drainEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        while (!inFlight.isEmpty() && System.nanoTime() < drainEnd) Thread.sleep(10);
+        reportSecond(++second);
+        /**
+         * the requests that never answered are counted with the time they waited so far, from their due instant,
+         * an answer arriving after them isn't counted again
+         */
+        long now = System.nanoTime();
+        for (InFlight request : inFlight) {
+            if (!inFlight.remove(request) || !request.measured) continue;
+            corrected.record(now - request.due);
+            failed.incrementAndGet();
+            errors.computeIfAbsent("unfinished", key -> new LongAdder()).increment();
+        }
+    }
+
+    private void send(final long due) {
+        final boolean measured = due >= measuredFromNanos;
+        if (measured) sent.incrementAndGet();
+        if (inFlight.size() >= maxOutstanding) {
+            onResult(due, System.nanoTime(), measured, null, "dropped");
+            return;
+        }
+        final InFlight request = new InFlight(due, measured);
+        inFlight.add(request);
+        final long sentNanos = System.nanoTime();
+        HttpConnection connection = new HttpConnection()
+                .setDispatcher(dispatcher)
+                .setNioEngine(engine)
+                .setMetricsRecorder(measured ? phases : null);
+        connection.setConnectionTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        CompletableFuture<Response> future = method.equals("GET")
+                ? connection.getTextAsync(url, null)
+                : connection.postTextAsync(url, null, body, HttpConnection.DATATYPE_TEXT, null);
+        future.whenComplete((response, failure) -> {
+            if (!inFlight.remove(request)) return;
+            onResult(due, sentNanos, measured, response, failure == null ? null : failure.getClass().getSimpleName());
+        });
+    }
+
+    private void onResult(long due, long sentNanos, boolean measured, Response response, String failure) {
+        if (!measured) return;
+        long now = System.nanoTime();
+        corrected.record(now - due);
+        uncorrected.record(now - sentNanos);
+        currentSecond.get().record(now - due);
+
+        String error = failure;
+        if (error == null && response.getFlag() != HttpConnection.FLAG_RESPONSE_IS_READY) {
+            error = response.getResponseCode() > 0 ? "HTTP " + response.getResponseCode() : "flag " + response.getFlag();
+        }
+        if (error == null) {
+            succeeded.incrementAndGet();
+            secondSucceeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+            secondFailed.incrementAndGet();
+            errors.computeIfAbsent(error, key -> new LongAdder()).increment();
+        }
+    }
+
+    private void reportSecond(int second) {
+        LatencyHistogram latencies = currentSecond.getAndSet(new LatencyHistogram());
+        long ok = secondSucceeded.getAndSet(0);
+        long errorCount = secondFailed.getAndSet(0);
+        System.out.printf("%4ds  %7d req/s  %5d errors  %6d in flight  p50 %8.2f  p99 %8.2f  max %8.2f ms%n",
+                second, ok + errorCount, errorCount, inFlight.size(),
+                latencies.getMillisAtPercentile(50), latencies.getMillisAtPercentile(99),
+                latencies.getMax() / 1e6);
+    }
+
+    private void report() {
+        long completed = succeeded.get() + failed.get();
+        System.out.println();
+        System.out.printf("requests %d, succeeded %d, failed %d (%.3f%%), throughput %.1f req/s%n",
+                sent.get(), succeeded.get(), failed.get(),
+                completed == 0 ? 0 : 100.0 * failed.get() / completed, (double) completed / durationSeconds);
+        Map<String, Long> sortedErrors = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> error : errors.entrySet()) sortedErrors.put(error.getKey(), error.getValue().sum());
+        for (Map.Entry<String, Long> error : sortedErrors.entrySet())
+            System.out.printf("  %-24s %d%n", error.getKey(), error.getValue());
+
+        System.out.println();
+        System.out.printf("%-28s %9s %9s %9s %9s %9s%n", "latency (ms)", "p50", "p90", "p99", "p99.9", "max");
+        printLatencies("corrected (from due time)", corrected);
+        printLatencies("uncorrected (from send)", uncorrected);
+
+        System.out.println();
+        System.out.println("phases of the measured requests:");
+        String[] names = {"queue wait", "connect", "request write", "time to first byte", "body read",
+                "callback dispatch", "total"};
+        for (int phase = 0; phase < MetricsRecorder.PHASE_COUNT; phase++) {
+            LatencyHistogram histogram = phases.getAggregate(phase);
+            if (histogram.getCount() > 0) printLatencies("  " + names[phase], histogram);
+        }
+    }
+
+    /**
+     * A request sent and not answered yet, compared by identity
+     */
+    private static final class InFlight {
+        final long due;
+        final boolean measured;
+
+        InFlight(long due, boolean measured) {
+            this.due = due;
+            this.measured = measured;
+        }
+    }
+
+    private static void printLatencies(String name, LatencyHistogram histogram) {
+        StringBuilder line = new StringBuilder(String.format("%-28s", name));
+        for (double percentile : PERCENTILES)
+            line.append(String.format(" %9.2f", histogram.getMillisAtPercentile(percentile)));
+        line.append(String.format(" %9.2f", histogram.getMax() / 1e6));
+        System.out.println(line);
+    }
+}
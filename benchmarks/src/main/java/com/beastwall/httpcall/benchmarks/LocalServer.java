@@ -0,0 +1,153 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process http server on the loopback interface, so benchmarks run offline.
+ * <p>
+ * GET /bytes?size=N  answers N bytes of json made of random values.
+ * <p>
+ * POST /echo         reads the request body and answers its size.
+ * <p>
+ * GET /wait?ms=N     answers 1 KB after N milliseconds, standing for a slow backend.
+ */
+public final class LocalServer implements AutoCloseable {
+
+    static {
+        /**
+         * the server writes the headers and the body of a response apart, with Nagle's algorithm the body
+         * of a small response waits for the delayed ack of the client: about 40ms added to every call
+         */
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * tags of the records of the bodies
+     */
+    private static final String[] TAGS = {"new", "sale", "featured", "archived", "draft", "premium", "local"};
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param threads: number of threads answering requests.
+     */
+    public LocalServer(int threads) throws IOException {
+        this(Executors.newFixedThreadPool(threads));
+    }
+
+    /**
+     * @param executor: runs the handlers, a virtual thread per request keeps /wait from holding the server.
+     */
+    public LocalServer(ExecutorService executor) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+        this.executor = executor;
+        server.setExecutor(executor);
+        server.createContext("/bytes", LocalServer::bytes);
+        server.createContext("/echo", LocalServer::echo);
+        server.createContext("/wait", LocalServer::waitAndAnswer);
+        server.start();
+    }
+
+    /**
+     * @return base url of the server, without trailing slash.
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return a body of this size made of json records. Their keys repeat and their values are random,
+     * so it compresses like the json of an api rather than like a repeated pattern.
+     * The same size always gives the same body.
+     */
+    public static byte[] body(int size) {
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size + 256).append('[');
+        while (text.length() < size) {
+            text.append("{\"id\":").append(random.nextInt(10_000_000))
+                    .append(",\"name\":\"").append(letters(random, 3 + random.nextInt(10)))
+                    .append(' ').append(letters(random, 4 + random.nextInt(12)))
+                    .append("\",\"score\":").append(random.nextInt(100_000) / 100.0)
+                    .append(",\"active\":").append(random.nextBoolean())
+                    .append(",\"token\":\"").append(Long.toHexString(random.nextLong()))
+                    .append(Long.toHexString(random.nextLong()))
+                    .append("\",\"tags\":[\"").append(TAGS[random.nextInt(TAGS.length)])
+                    .append("\",\"").append(TAGS[random.nextInt(TAGS.length)]).append("\"]},\n");
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), size);
+    }
+
+    private static String letters(Random random, int count) {
+        char[] letters = new char[count];
+        for (int i = 0; i < count; i++) letters[i] = (char) ('a' + random.nextInt(26));
+        return new String(letters);
+    }
+
+    private static void bytes(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        int size = query != null && query.startsWith("size=") ? Integer.parseInt(query.substring(5)) : 1024;
+        byte[] body = body(size);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void waitAndAnswer(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        try {
+            Thread.sleep(query != null && query.startsWith("ms=") ? Long.parseLong(query.substring(3)) : 0);
+        } catch (InterruptedException e) {
+            exchange.close();
+            return;
+        }
+        byte[] body = body(1024);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void echo(HttpExchange exchange) throws IOException {
+        long size = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int count;
+            while ((count = in.read(buffer)) != -1) size += count;
+        }
+        byte[] body = ("{\"received\":" + size + "}").getBytes();
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the server alone, useful to point the load generator or a profiler at it.
+     */
+    public static void main(String[] args) throws Exception {
+        LocalServer server = new LocalServer(args.length > 0 ? Integer.parseInt(args[0]) : 16);
+        System.out.println("Listening on " + server.url() + " " + Arrays.toString(args));
+        Thread.currentThread().join();
+    }
+}
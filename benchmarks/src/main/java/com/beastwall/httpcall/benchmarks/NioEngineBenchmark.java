@@ -0,0 +1,131 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.Dispatcher;
+import com.beastwall.httpcall.networking.NioEngine;
+import com.beastwall.httpcall.networking.Transport;
+import com.beastwall.httpcall.networking.UrlConnectionTransport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 10k concurrent GET requests against a local server, carried by the non-blocking engine
+ * or by blocking connections on dispatcher threads.
+ * <p>
+ * java -jar target/benchmarks.jar NioEngineBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class NioEngineBenchmark {
+
+    @Param({"10000"})
+    public int concurrentRequests;
+
+    @Param({"1024"})
+    public int bodySize;
+
+    /**
+     * requests pipelined on one connection by the engine
+     */
+    @Param({"1", "8"})
+    public int pipelinedRequests;
+
+    private LocalServer server;
+    private NioEngine engine;
+    private Dispatcher dispatcher;
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalServer(32);
+        url = new URL(server.url() + "/bytes?size=" + bodySize);
+        engine = new NioEngine().setMaxConnectionsPerHost(64).setMaxPipelinedRequests(pipelinedRequests);
+        dispatcher = new Dispatcher(256, concurrentRequests, 256, 256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+        dispatcher.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public int nioEngine() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(concurrentRequests);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < concurrentRequests; i++) {
+            engine.send(url, "GET", null, new NioEngine.Callback() {
+                @Override
+                public void onProgress(long numberOfReadBytes, long contentLength) {
+                }
+
+                @Override
+                public void onResponse(int responseCode, Map<String, List<String>> headers, NioEngine.PooledBody body) {
+                    if (responseCode != 200 || body.length() != bodySize) failures.incrementAndGet();
+                    body.release();
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    /**
+     * The same requests on 256 dispatcher threads blocking on platform connections.
+     */
+    @Benchmark
+    public int blockingDispatcher() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(concurrentRequests);
+        final AtomicInteger failures = new AtomicInteger();
+        final Transport transport = UrlConnectionTransport.getDefault();
+        for (int i = 0; i < concurrentRequests; i++) {
+            dispatcher.enqueue(url.getHost(), () -> {
+                try {
+                    HttpURLConnection connection = transport.open(url);
+                    try (InputStream in = connection.getInputStream()) {
+                        if (in.readAllBytes().length != bodySize) failures.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+}
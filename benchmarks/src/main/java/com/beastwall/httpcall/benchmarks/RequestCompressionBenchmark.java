@@ -0,0 +1,151 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.HttpConnection;
+import com.beastwall.httpcall.networking.Request;
+import com.beastwall.httpcall.networking.Response;
+import com.beastwall.httpcall.networking.Transport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU spent against bytes saved when text bodies are gzipped before they are sent.
+ * <p>
+ * Every operation is a postText run by {@link HttpConnection#execute(Request)}, with or without
+ * {@link HttpConnection#setRequestCompression(boolean, int)}, over a transport whose connections count the bytes
+ * written to them and answer at once: the score is the request path of the library without the network.
+ * <p>
+ * java -jar target/benchmarks.jar RequestCompressionBenchmark
+ * <p>
+ * The setup prints the size put on the wire per body: divide the bytes saved by the uplink speed
+ * and compare with the time of gzip to find the threshold worth compressing from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestCompressionBenchmark {
+
+    private static final String URL = "http://localhost/echo";
+
+    @Param({"512", "4096", "65536", "1048576", "8388608"})
+    public int payloadSize;
+
+    private String payload;
+    private CountingTransport transport;
+
+    @Setup
+    public void setUp() {
+        payload = new String(LocalServer.body(payloadSize), StandardCharsets.UTF_8);
+        transport = new CountingTransport();
+        long identity = identity();
+        long gzip = gzip();
+        System.out.printf("%nbody of %d bytes: %d bytes sent as it is, %d bytes gzipped (%.1fx)%n",
+                payloadSize, identity, gzip, (double) identity / gzip);
+    }
+
+    @Benchmark
+    public long identity() {
+        return post(new HttpConnection());
+    }
+
+    @Benchmark
+    public long gzip() {
+        return post(new HttpConnection().setRequestCompression(true, 0));
+    }
+
+    /**
+     * @return the number of bytes written to the connection.
+     */
+    private long post(HttpConnection connection) {
+        Response response = connection.setTransport(transport).execute(Request.post(URL, payload));
+        if (response.getFlag() != HttpConnection.FLAG_RESPONSE_IS_READY)
+            throw new IllegalStateException("Call failed with flag " + response.getFlag() + ": " + response.getResult());
+        return transport.last.written;
+    }
+
+    /**
+     * Opens connections that only count what is written to them.
+     */
+    private static final class CountingTransport implements Transport {
+        volatile CountingConnection last;
+
+        @Override
+        public HttpURLConnection open(URL url) {
+            return last = new CountingConnection(url);
+        }
+
+        @Override
+        public void release(HttpURLConnection connection) {
+        }
+    }
+
+    /**
+     * Stands for a connection: it counts the body of the request and answers 200 with an empty json.
+     */
+    private static final class CountingConnection extends HttpURLConnection {
+        long written;
+
+        CountingConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    written++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    written += len;
+                }
+            };
+        }
+
+        @Override
+        public int getResponseCode() {
+            return HTTP_OK;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
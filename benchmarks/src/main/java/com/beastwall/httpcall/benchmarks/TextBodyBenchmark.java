@@ -0,0 +1,79 @@
+package com.beastwall.httpcall.benchmarks;
+
+import com.beastwall.httpcall.networking.TextBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading json bodies of 1 to 50 MB: the former line by line reader against the byte level one.
+ * <p>
+ * java -jar target/benchmarks.jar TextBodyBenchmark -prof gc
+ * <p>
+ * gc.alloc.rate.norm shows the bytes allocated per body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class TextBodyBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int megabytes;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = LocalServer.body(megabytes * 1024 * 1024);
+    }
+
+    /**
+     * What HttpConnection did before: readLine, then getBytes on every line to count progress.
+     */
+    @Benchmark
+    public String lineReader() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        StringBuilder stringBuilder = new StringBuilder();
+        long numberOfReadBytes = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            stringBuilder.append(line);
+            numberOfReadBytes += line.getBytes().length;
+        }
+        if (numberOfReadBytes < 0) throw new IllegalStateException();
+        return stringBuilder.toString();
+    }
+
+    @Benchmark
+    public String byteReader() throws IOException {
+        return TextBody.read(new ByteArrayInputStream(body), body.length, StandardCharsets.UTF_8, null);
+    }
+
+    /**
+     * Same as byteReader when the server doesn't send a Content-Length.
+     */
+    @Benchmark
+    public String byteReaderUnknownLength() throws IOException {
+        return TextBody.read(new ByteArrayInputStream(body), -1, StandardCharsets.UTF_8, null);
+    }
+}
@@ -0,0 +1,49 @@
+package com.beastwall.httpcall.benchmarks;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpConnectionBenchmarkTest {
+
+    /**
+     * Runs every benchmark method once with these parameters, the way a JMH trial would
+     */
+    private static void runOnce(int bodySize, String dispatcherMode, boolean nioEngine) throws Exception {
+        HttpConnectionBenchmark benchmark = new HttpConnectionBenchmark();
+        benchmark.bodySize = bodySize;
+        benchmark.dispatcherMode = dispatcherMode;
+        benchmark.nioEngine = nioEngine;
+        benchmark.setUp();
+        try {
+            String name = bodySize + " " + dispatcherMode + " " + nioEngine;
+            assertEquals(name, new String(LocalServer.body(bodySize), StandardCharsets.UTF_8), benchmark.getText());
+
+            /**
+             * the downloaded file is gone once the call is measured
+             */
+            String path = (String) benchmark.getFile();
+            assertFalse(name, new File(path).exists());
+
+            assertEquals(name, "{\"received\":" + bodySize + "}", benchmark.postText());
+            String multiPart = (String) benchmark.postMultiPartDataForm();
+            assertTrue(name, Long.parseLong(multiPart.replaceAll("\\D", "")) > bodySize);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    @Test
+    public void everyCallOfTheBenchmarkSucceeds() throws Exception {
+        for (int bodySize : new int[]{1024, 65536}) {
+            for (String dispatcherMode : new String[]{"POOLED", "VIRTUAL_THREADS"}) {
+                for (boolean nioEngine : new boolean[]{false, true}) runOnce(bodySize, dispatcherMode, nioEngine);
+            }
+        }
+    }
+}
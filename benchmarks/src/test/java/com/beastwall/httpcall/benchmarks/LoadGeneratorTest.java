@@ -0,0 +1,98 @@
+package com.beastwall.httpcall.benchmarks;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadGeneratorTest {
+
+    private static void assertRefused(String... args) {
+        try {
+            new LoadGenerator().parse(args);
+            fail("Accepted " + String.join(" ", args));
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void wrongOptionsAreRefused() {
+        assertRefused("--unknown", "1");
+        assertRefused("--method", "DELETE");
+        assertRefused("--rps", "0");
+        assertRefused("--rps", "many");
+        assertRefused("--duration");
+    }
+
+    @Test
+    public void measuredRequestsAreTheOnesDueAfterTheWarmup() throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(new String[]{"--rps", "50", "--duration", "1", "--warmup", "1"});
+        assertTrue(generator.run());
+        assertEquals(50, generator.sent.get());
+        assertEquals(50, generator.succeeded.get());
+        assertEquals(0, generator.failed.get());
+        assertEquals(50, generator.corrected.getCount());
+        assertEquals(50, generator.uncorrected.getCount());
+    }
+
+    @Test
+    public void postsSendTheirBody() throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(new String[]{"--method", "post", "--rps", "20", "--duration", "1", "--warmup", "0"});
+        assertTrue(generator.run());
+        assertEquals(20, generator.succeeded.get());
+    }
+
+    @Test
+    public void requestsThatNeverAnswerAreChargedFromTheirDueInstant() throws Exception {
+        /**
+         * a server accepting the connections and never answering
+         */
+        final ServerSocket serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        final List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) accepted.add(serverSocket.accept());
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(new String[]{"--url", "http://127.0.0.1:" + serverSocket.getLocalPort() + "/",
+                    "--rps", "10", "--duration", "1", "--warmup", "0", "--max-outstanding", "2",
+                    "--timeout", "60000"});
+            assertFalse(generator.run());
+        } finally {
+            serverSocket.close();
+            for (Socket socket : accepted) socket.close();
+        }
+
+        /**
+         * two requests wait until the end of the run, the others are dropped as soon as they're due
+         */
+        assertEquals(10, generator.sent.get());
+        assertEquals(10, generator.failed.get());
+        assertEquals(2, generator.errors.get("unfinished").sum());
+        assertEquals(8, generator.errors.get("dropped").sum());
+        assertEquals(10, generator.corrected.getCount());
+        assertTrue(generator.corrected.getMax() >= TimeUnit.SECONDS.toNanos(9));
+    }
+}
@@ -0,0 +1,171 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body of a response published chunk by chunk, the result of {@link HttpConnection#DATATYPE_BODY_PUBLISHER}.
+ * <p>
+ * The thread that received the response streams the body to the subscriber, and it only reads from the
+ * socket when the subscriber asked for more: a slow subscriber slows the download down instead of having
+ * the body buffered in memory. At most one chunk per requested item is in memory at a time.
+ * <p>
+ * Only one subscriber is accepted, it has to subscribe before the read timeout of the connection
+ * ends or the connection is closed. All signals are sent from the thread that reads the body.
+ */
+public final class BodyPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     * maximum size of a published chunk
+     */
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    private final InputStream body;
+    private final long subscribeTimeoutMillis;
+    private final Object lock = new Object();
+
+    private Flow.Subscriber<? super ByteBuffer> subscriber;
+    private long demand = 0;
+    private boolean cancelled = false;
+    private Throwable error;
+
+    /**
+     * @param body:                   the body of the response.
+     * @param subscribeTimeoutMillis: time to wait for a subscriber before giving up.
+     */
+    BodyPublisher(@NonNull InputStream body, long subscribeTimeoutMillis) {
+        this.body = body;
+        this.subscribeTimeoutMillis = subscribeTimeoutMillis;
+    }
+
+    @Override
+    public void subscribe(@NonNull Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (lock) {
+            if (this.subscriber == null && !cancelled) {
+                this.subscriber = subscriber;
+                lock.notifyAll();
+                return;
+            }
+        }
+        /**
+         * the body can be read once
+         */
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException("The body of a response can only be subscribed once"));
+    }
+
+    /**
+     * Publishes the body in the calling thread, as fast as the subscriber asks for it.
+     *
+     * @return true if the whole body was read, false if the subscriber cancelled, never came or the read failed.
+     */
+    boolean stream() {
+        Flow.Subscriber<? super ByteBuffer> subscriber;
+        try {
+            synchronized (lock) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(subscribeTimeoutMillis);
+                while (this.subscriber == null && !cancelled) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        cancelled = true;
+                        return false;
+                    }
+                    lock.wait(remaining);
+                }
+                if (this.subscriber == null) return false;
+                subscriber = this.subscriber;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            subscriber.onSubscribe(new Subscription());
+            while (true) {
+                Throwable failure;
+                synchronized (lock) {
+                    /**
+                     * no demand, no read: the socket buffers fill up and the server slows down
+                     */
+                    while (demand == 0 && !cancelled && error == null) lock.wait();
+                    if (cancelled) return false;
+                    failure = error;
+                    if (failure == null) demand--;
+                }
+                if (failure != null) {
+                    subscriber.onError(failure);
+                    return false;
+                }
+
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int count = body.read(chunk);
+                if (count == -1) {
+                    subscriber.onComplete();
+                    return true;
+                }
+                subscriber.onNext(ByteBuffer.wrap(chunk, 0, count));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            subscriber.onError(new InterruptedIOException("Body streaming interrupted"));
+            return false;
+        } catch (IOException e) {
+            subscriber.onError(e);
+            return false;
+        } catch (RuntimeException e) {
+            /**
+             * a subscriber throwing from its methods is considered as cancelled
+             */
+            cancel();
+            return false;
+        }
+    }
+
+    /**
+     * Stops the streaming, the subscriber isn't signaled anymore.
+     */
+    void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            lock.notifyAll();
+        }
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            synchronized (lock) {
+                if (n <= 0) {
+                    if (error == null)
+                        error = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            BodyPublisher.this.cancel();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles direct {@link ByteBuffer}s of the same size, so reading responses doesn't allocate
+ * a new buffer for every chunk of data.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * @param bufferSize:       size of every buffer in bytes.
+     * @param maxPooledBuffers: buffers released while the pool is full are left to the garbage collector.
+     */
+    BufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * @return an empty buffer ready to be written to.
+     */
+    @NonNull
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+        pooledCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back, it must not be used after that.
+     */
+    void release(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) return;
+        if (pooledCount.incrementAndGet() > maxPooledBuffers) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,466 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Runs a large number of requests, thousands of urls to warm a catalogue for example,
+ * with a bounded number of them running at the same time.
+ * <p>
+ * The requests are pulled from their iterable or stream only when there is room for them, so they don't
+ * have to be in memory all at once. Every request runs with its own {@link HttpConnection} through
+ * {@link HttpConnection#executeAsync(Request)}, on the dispatcher of that connection: a dispatcher with
+ * a higher limit per host lets a bulk against one host use all of its concurrency.
+ * <p>
+ * The results are handed to a {@link ResultListener} one at a time, in the order the requests complete or
+ * in the order they were given. In the second order a request doesn't start before the result of the request
+ * {@code 4 * concurrency} places earlier was handed, so the results waiting for their turn stay bounded.
+ * <p>
+ * example: new BulkExecutor().setConcurrency(32).submit(requests, listener).getCompletion().join()
+ */
+public final class BulkExecutor {
+
+    /**
+     * Receives the results of a bulk, never from two threads at the same time.
+     */
+    public interface ResultListener {
+        /**
+         * @param index:    position of the request in the bulk.
+         * @param request:  the request.
+         * @param response: its final response, the flag tells whether the result is ready or an error occurred.
+         */
+        void onResult(int index, @NonNull Request request, @NonNull Response response);
+    }
+
+    /**
+     * Creates the connection of a request, to give it timeouts, a dispatcher or a retry policy.
+     */
+    public interface ConnectionFactory {
+        @NonNull
+        HttpConnection newConnection(@NonNull Request request);
+    }
+
+    /**
+     * Default limits
+     */
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    /**
+     * results waiting for their turn, per running request, when the results are handed in input order
+     */
+    private static final int REORDER_WINDOW_PER_REQUEST = 4;
+
+    private static final ConnectionFactory DEFAULT_CONNECTION_FACTORY = new ConnectionFactory() {
+        @NonNull
+        @Override
+        public HttpConnection newConnection(@NonNull Request request) {
+            return new HttpConnection();
+        }
+    };
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private boolean inputOrder = false;
+    private boolean failFast = false;
+    private ConnectionFactory connectionFactory = DEFAULT_CONNECTION_FACTORY;
+
+    /**
+     * @param concurrency: maximum number of requests running at the same time.
+     */
+    public BulkExecutor setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /**
+     * @param inputOrder: true to hand the results in the order of the requests,
+     *                    false to hand them as soon as they complete.
+     */
+    public BulkExecutor setInputOrder(boolean inputOrder) {
+        this.inputOrder = inputOrder;
+        return this;
+    }
+
+    /**
+     * @param failFast: true to stop the bulk at the first failed request, the running ones are cancelled,
+     *                  false to run every request and collect the failures.
+     */
+    public BulkExecutor setFailFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    public BulkExecutor setConnectionFactory(@NonNull ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isInputOrder() {
+        return inputOrder;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Starts running requests.
+     *
+     * @param requests: the requests, iterated from the threads of the completed requests.
+     * @param listener: receives the results, can be null.
+     * @return the running bulk.
+     */
+    @NonNull
+    public Job submit(@NonNull Iterable<Request> requests, @Nullable ResultListener listener) {
+        int total = requests instanceof Collection ? ((Collection<?>) requests).size() : -1;
+        Job job = new Job(requests.iterator(), total, listener);
+        job.launch();
+        return job;
+    }
+
+    /**
+     * Same as {@link #submit(Iterable, ResultListener)}, the stream is consumed lazily.
+     */
+    @NonNull
+    public Job submit(@NonNull Stream<Request> requests, @Nullable ResultListener listener) {
+        Job job = new Job(requests.iterator(), -1, listener);
+        job.launch();
+        return job;
+    }
+
+    /**
+     * A failed request of a bulk.
+     */
+    public static final class Failure {
+        private final int index;
+        private final Request request;
+        private final Response response;
+
+        Failure(int index, @NonNull Request request, @NonNull Response response) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @NonNull
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return the final response of the request, its flag is one of the error flags.
+         */
+        @NonNull
+        public Response getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * A result waiting to be handed to the listener, a cancelled request has no response.
+     */
+    private static final class Result {
+        final int index;
+        final Request request;
+        final Response response;
+
+        Result(int index, Request request, Response response) {
+            this.index = index;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /**
+     * A running bulk, its counters can be read at any time.
+     */
+    public final class Job {
+        private final Iterator<Request> requests;
+        private final int total;
+        private final ResultListener listener;
+        private final boolean ordered = inputOrder;
+        private final boolean stopOnFailure = failFast;
+        private final int maxRunning = concurrency;
+        private final ConnectionFactory factory = connectionFactory;
+        private final long startNanos = System.nanoTime();
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+
+        /**
+         * guarded by this
+         */
+        private int nextIndex = 0;
+        private int nextIndexToHand = 0;
+        private boolean exhausted = false;
+        private boolean stopped = false;
+        private boolean aborted = false;
+        private boolean cancelled = false;
+        private boolean launching = false;
+        private boolean launchRequested = false;
+        private boolean handing = false;
+        private boolean finished = false;
+        private long endNanos = -1;
+        private final Map<Integer, HttpConnection> running = new HashMap<>();
+        private final TreeMap<Integer, Result> waitingResults = new TreeMap<>();
+        private final ArrayDeque<Result> readyResults = new ArrayDeque<>();
+        private final List<Failure> failures = new ArrayList<>();
+        private long succeededCount = 0;
+        private long failedCount = 0;
+        private long cancelledCount = 0;
+
+        Job(@NonNull Iterator<Request> requests, int total, @Nullable ResultListener listener) {
+            this.requests = requests;
+            this.total = total;
+            this.listener = listener;
+        }
+
+        /**
+         * Starts requests until the concurrency is reached, one thread at a time:
+         * a request that completes in the launching thread doesn't launch recursively.
+         */
+        private void launch() {
+            synchronized (this) {
+                if (launching) {
+                    launchRequested = true;
+                    return;
+                }
+                launching = true;
+            }
+            while (true) {
+                final Request request;
+                final int index;
+                final HttpConnection connection;
+                synchronized (this) {
+                    boolean full = running.size() >= maxRunning
+                            || (ordered && nextIndex - nextIndexToHand >= maxRunning * REORDER_WINDOW_PER_REQUEST);
+                    if (!full && !stopped && !exhausted && !requests.hasNext()) exhausted = true;
+                    if (full || stopped || exhausted) {
+                        if (launchRequested) {
+                            launchRequested = false;
+                            continue;
+                        }
+                        launching = false;
+                        break;
+                    }
+                    request = requests.next();
+                    index = nextIndex++;
+                    connection = factory.newConnection(request);
+                    running.put(index, connection);
+                }
+                connection.executeAsync(request).whenComplete(new BiConsumer<Response, Throwable>() {
+                    @Override
+                    public void accept(Response response, Throwable throwable) {
+                        complete(index, request, throwable == null ? response : null);
+                    }
+                });
+            }
+            handResults();
+        }
+
+        private void complete(int index, @NonNull Request request, @Nullable Response response) {
+            List<HttpConnection> cancelledConnections = null;
+            synchronized (this) {
+                running.remove(index);
+                if (response == null) {
+                    cancelledCount++;
+                } else if (response.getFlag() == HttpConnection.FLAG_RESPONSE_IS_READY) {
+                    succeededCount++;
+                } else {
+                    failedCount++;
+                    failures.add(new Failure(index, request, response));
+                    if (stopOnFailure && !stopped) {
+                        stopped = true;
+                        aborted = true;
+                        cancelledConnections = new ArrayList<>(running.values());
+                    }
+                }
+                Result result = new Result(index, request, response);
+                if (ordered) waitingResults.put(index, result);
+                else readyResults.add(result);
+            }
+            if (cancelledConnections != null)
+                for (HttpConnection connection : cancelledConnections) connection.cancel();
+            launch();
+        }
+
+        /**
+         * Hands the results that are ready to the listener, one thread at a time,
+         * then ends the bulk once nothing is left.
+         */
+        private void handResults() {
+            synchronized (this) {
+                if (handing) return;
+                handing = true;
+            }
+            while (true) {
+                Result result;
+                synchronized (this) {
+                    result = nextResult();
+                    if (result == null) {
+                        handing = false;
+                        if (!finished && running.isEmpty() && (exhausted || stopped)
+                                && readyResults.isEmpty() && waitingResults.isEmpty()) {
+                            finished = true;
+                            endNanos = System.nanoTime();
+                        } else {
+                            return;
+                        }
+                    }
+                }
+                if (result == null) {
+                    completion.complete(this);
+                    return;
+                }
+                /**
+                 * a cancelled request has no result to hand
+                 */
+                if (result.response != null && listener != null) {
+                    try {
+                        listener.onResult(result.index, result.request, result.response);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        Log.e("Arrowbow_library", "" + e.getMessage());
+                    }
+                }
+                /**
+                 * the result freed a slot of the reorder window
+                 */
+                if (ordered) launch();
+            }
+        }
+
+        /**
+         * @return the next result to hand, null if none is ready, guarded by this.
+         */
+        @Nullable
+        private Result nextResult() {
+            if (!ordered) return readyResults.poll();
+            if (waitingResults.isEmpty() || waitingResults.firstKey() != nextIndexToHand) return null;
+            nextIndexToHand++;
+            return waitingResults.pollFirstEntry().getValue();
+        }
+
+        /**
+         * Stops the bulk: no request is started anymore and the running ones are cancelled.
+         */
+        public void cancel() {
+            List<HttpConnection> cancelledConnections;
+            synchronized (this) {
+                if (stopped) return;
+                stopped = true;
+                cancelled = true;
+                cancelledConnections = new ArrayList<>(running.values());
+            }
+            for (HttpConnection connection : cancelledConnections) connection.cancel();
+            handResults();
+        }
+
+        /**
+         * @return a future completed with this job once every started request ended and its result was handed.
+         */
+        @NonNull
+        public CompletableFuture<Job> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * @return number of requests of the bulk, -1 if it isn't known before they are all iterated.
+         */
+        public synchronized int getTotalCount() {
+            return exhausted ? nextIndex : total;
+        }
+
+        public synchronized int getStartedCount() {
+            return nextIndex;
+        }
+
+        public synchronized int getRunningCount() {
+            return running.size();
+        }
+
+        public synchronized long getCompletedCount() {
+            return succeededCount + failedCount + cancelledCount;
+        }
+
+        public synchronized long getSucceededCount() {
+            return succeededCount;
+        }
+
+        public synchronized long getFailedCount() {
+            return failedCount;
+        }
+
+        public synchronized long getCancelledCount() {
+            return cancelledCount;
+        }
+
+        /**
+         * @return share of the bulk that completed out of 100, -1 if the number of requests isn't known yet.
+         */
+        public synchronized short getPercentage() {
+            int count = exhausted ? nextIndex : total;
+            if (count < 0) return -1;
+            if (count == 0) return 100;
+            return (short) (100 * (succeededCount + failedCount + cancelledCount) / count);
+        }
+
+        public synchronized long getElapsedMillis() {
+            long end = endNanos == -1 ? System.nanoTime() : endNanos;
+            return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+        }
+
+        /**
+         * @return completed requests per second since the bulk started.
+         */
+        public synchronized double getRequestsPerSecond() {
+            long end = endNanos == -1 ? System.nanoTime() : endNanos;
+            double seconds = (end - startNanos) / 1e9;
+            return seconds <= 0 ? 0 : (succeededCount + failedCount + cancelledCount) / seconds;
+        }
+
+        /**
+         * @return the failed requests so far, in the order they failed.
+         */
+        @NonNull
+        public synchronized List<Failure> getFailures() {
+            return Collections.unmodifiableList(new ArrayList<>(failures));
+        }
+
+        /**
+         * @return true if the bulk was stopped by a failure in fail-fast mode.
+         */
+        public synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops sending requests to a host that is down, so the calls fail right away instead of every one of them
+ * holding a thread until its connect timeout.
+ * <p>
+ * Every host has a circuit that keeps the outcome of its last calls. A call fails when it couldn't connect,
+ * it broke, or the server answered with a 5xx, it's slow when it took longer than
+ * {@link #setSlowCallThreshold(long)}. Once enough calls were kept, the circuit opens if too many of them
+ * failed or were slow: the next calls to the host end right away with {@link HttpConnection#FLAG_CIRCUIT_OPEN}.
+ * <p>
+ * After {@link #setOpenDuration(long)} the circuit is half-open: a few probe calls go through, the others still
+ * fail fast. It closes once all the probes succeeded, and opens again as soon as one of them failed.
+ * <p>
+ * The changes of state are given to a {@link Listener} and counted.
+ * A connection uses a breaker with {@link HttpConnection#setCircuitBreaker(CircuitBreaker)},
+ * the connections to the same hosts should share it.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * States of a circuit
+     */
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * Informed when the circuit of a host changes its state, in the thread of the call that changed it.
+     * A circuit is half-open when the first call after its open duration arrives.
+     */
+    public interface Listener {
+        /**
+         * @param host:      the host of the circuit.
+         * @param fromState: one of the states of this class.
+         * @param toState:   one of the states of this class.
+         */
+        void onStateChange(@NonNull String host, int fromState, int toState);
+    }
+
+    /**
+     * Default limits
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MIN_CALLS = 20;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8;
+    public static final long DEFAULT_SLOW_CALL_THRESHOLD_MILLIS = 5000;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 10_000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    /**
+     * outcomes kept in the window of a circuit
+     */
+    private static final byte OUTCOME_FAILED = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int minCalls = DEFAULT_MIN_CALLS;
+    private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private long slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_CALL_THRESHOLD_MILLIS);
+    private long openDurationNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OPEN_DURATION_MILLIS);
+    private int halfOpenProbes = DEFAULT_HALF_OPEN_PROBES;
+    private volatile Listener listener;
+
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong slowCallCount = new AtomicLong();
+    private final AtomicLong notPermittedCount = new AtomicLong();
+    private final AtomicLong[] transitionCounts = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    /**
+     * The limits are read when the circuit of a host is created, set them before the first call.
+     *
+     * @param windowSize: number of the last calls of a host whose outcome is kept.
+     * @param minCalls:   number of calls kept before the rates are compared to their thresholds.
+     */
+    public CircuitBreaker setWindow(int windowSize, int minCalls) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, Math.min(this.windowSize, minCalls));
+        return this;
+    }
+
+    /**
+     * @param failureRateThreshold: share of failed calls that opens the circuit, between 0 and 1.
+     */
+    public CircuitBreaker setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = Math.max(0.01, Math.min(1, failureRateThreshold));
+        return this;
+    }
+
+    /**
+     * @param slowCallRateThreshold: share of slow calls that opens the circuit, between 0 and 1.
+     */
+    public CircuitBreaker setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = Math.max(0.01, Math.min(1, slowCallRateThreshold));
+        return this;
+    }
+
+    /**
+     * @param slowCallThresholdMillis: a call that took longer than this from its connection is slow.
+     */
+    public CircuitBreaker setSlowCallThreshold(long slowCallThresholdMillis) {
+        this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, slowCallThresholdMillis));
+        return this;
+    }
+
+    /**
+     * @param openDurationMillis: how long an open circuit fails the calls before it lets probes go.
+     */
+    public CircuitBreaker setOpenDuration(long openDurationMillis) {
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openDurationMillis));
+        return this;
+    }
+
+    /**
+     * @param halfOpenProbes: number of calls a half-open circuit lets go, they all have to succeed to close it.
+     */
+    public CircuitBreaker setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        return this;
+    }
+
+    public CircuitBreaker setListener(@Nullable Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public long getSlowCallThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowCallThresholdNanos);
+    }
+
+    public long getOpenDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(openDurationNanos);
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * @param url: a url or a host.
+     * @return the state of the circuit of its host, closed if it wasn't called yet.
+     */
+    public int getState(@NonNull String url) {
+        Circuit circuit = circuits.get(RateLimiter.hostOf(url));
+        return circuit == null ? STATE_CLOSED : circuit.state();
+    }
+
+    /**
+     * @param url: a url or a host.
+     * @return the share of the calls kept for its host that failed, -1 if there are too few of them.
+     */
+    public double getFailureRate(@NonNull String url) {
+        Circuit circuit = circuits.get(RateLimiter.hostOf(url));
+        return circuit == null ? -1 : circuit.rate(OUTCOME_FAILED);
+    }
+
+    /**
+     * @param url: a url or a host.
+     * @return the share of the calls kept for its host that were slow, -1 if there are too few of them.
+     */
+    public double getSlowCallRate(@NonNull String url) {
+        Circuit circuit = circuits.get(RateLimiter.hostOf(url));
+        return circuit == null ? -1 : circuit.rate(OUTCOME_SLOW);
+    }
+
+    /**
+     * Forgets every circuit, the hosts are all closed again.
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+    /**
+     * Asks the circuit of the host of a url to let a call go.
+     *
+     * @return the permit the call gives its outcome to, or null if the call has to fail fast.
+     */
+    @Nullable
+    Permit acquire(@NonNull String url) {
+        String host = RateLimiter.hostOf(url);
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            Circuit created = new Circuit(host);
+            Circuit previous = circuits.putIfAbsent(host, created);
+            circuit = previous == null ? created : previous;
+        }
+        Permit permit = circuit.tryAcquire(System.nanoTime());
+        if (permit == null) notPermittedCount.incrementAndGet();
+        return permit;
+    }
+
+    private void notifyTransition(@NonNull String host, int fromState, int toState) {
+        transitionCounts[toState].incrementAndGet();
+        Listener current = listener;
+        if (current == null) return;
+        try {
+            current.onStateChange(host, fromState, toState);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            Log.e("Arrowbow_library", "Circuit breaker listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stats
+     */
+
+    /**
+     * @return number of calls that succeeded, slow ones included.
+     */
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * @return number of calls that failed.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return number of calls that were slow, whether they succeeded or not.
+     */
+    public long getSlowCallCount() {
+        return slowCallCount.get();
+    }
+
+    /**
+     * @return number of calls that failed fast because their circuit was open.
+     */
+    public long getNotPermittedCount() {
+        return notPermittedCount.get();
+    }
+
+    /**
+     * @param state: one of the states of this class.
+     * @return number of times a circuit went to this state.
+     */
+    public long getTransitionCount(int state) {
+        return transitionCounts[state].get();
+    }
+
+    /**
+     * The circuit of a host.
+     */
+    private final class Circuit {
+        private final String host;
+
+        /**
+         * guarded by this: the state, its generation, which ignores the outcomes of the calls started in
+         * an earlier state, and the ring of the last outcomes
+         */
+        private int state = STATE_CLOSED;
+        private int generation = 0;
+        private long openedNanos;
+        private final byte[] outcomes = new byte[windowSize];
+        private int count = 0;
+        private int next = 0;
+        private int failures = 0;
+        private int slowCalls = 0;
+        private int startedProbes = 0;
+        private int succeededProbes = 0;
+
+        Circuit(@NonNull String host) {
+            this.host = host;
+        }
+
+        synchronized int state() {
+            return state;
+        }
+
+        synchronized double rate(byte outcome) {
+            if (state != STATE_CLOSED || count < minCalls) return -1;
+            return (double) (outcome == OUTCOME_FAILED ? failures : slowCalls) / count;
+        }
+
+        @Nullable
+        Permit tryAcquire(long now) {
+            boolean halfOpened = false;
+            Permit permit;
+            synchronized (this) {
+                if (state == STATE_OPEN) {
+                    if (now - openedNanos < openDurationNanos) return null;
+                    moveTo(STATE_HALF_OPEN);
+                    halfOpened = true;
+                }
+                if (state == STATE_HALF_OPEN) {
+                    if (startedProbes >= halfOpenProbes) return null;
+                    startedProbes++;
+                }
+                permit = new Permit(this, generation);
+            }
+            if (halfOpened) notifyTransition(host, STATE_OPEN, STATE_HALF_OPEN);
+            return permit;
+        }
+
+        void onOutcome(int permitGeneration, boolean failed, long nanos) {
+            boolean slow = nanos > slowCallThresholdNanos;
+            if (failed) failureCount.incrementAndGet();
+            else successCount.incrementAndGet();
+            if (slow) slowCallCount.incrementAndGet();
+
+            int from;
+            int to;
+            synchronized (this) {
+                if (permitGeneration != generation) return;
+                from = state;
+                if (state == STATE_HALF_OPEN) {
+                    if (failed || slow) moveTo(STATE_OPEN);
+                    else if (++succeededProbes >= halfOpenProbes) moveTo(STATE_CLOSED);
+                } else if (state == STATE_CLOSED) {
+                    add((byte) ((failed ? OUTCOME_FAILED : 0) | (slow ? OUTCOME_SLOW : 0)));
+                    if (count >= minCalls && ((double) failures / count >= failureRateThreshold
+                            || (double) slowCalls / count >= slowCallRateThreshold))
+                        moveTo(STATE_OPEN);
+                }
+                to = state;
+            }
+            if (from != to) notifyTransition(host, from, to);
+        }
+
+        /**
+         * Gives back the slot of a call that ended without an outcome.
+         */
+        synchronized void release(int permitGeneration) {
+            if (permitGeneration == generation && state == STATE_HALF_OPEN) startedProbes--;
+        }
+
+        /**
+         * guarded by this
+         */
+        private void add(byte outcome) {
+            if (count == outcomes.length) {
+                byte oldest = outcomes[next];
+                if ((oldest & OUTCOME_FAILED) != 0) failures--;
+                if ((oldest & OUTCOME_SLOW) != 0) slowCalls--;
+            } else {
+                count++;
+            }
+            outcomes[next] = outcome;
+            next = (next + 1) % outcomes.length;
+            if ((outcome & OUTCOME_FAILED) != 0) failures++;
+            if ((outcome & OUTCOME_SLOW) != 0) slowCalls++;
+        }
+
+        /**
+         * guarded by this, every state starts with an empty window
+         */
+        private void moveTo(int newState) {
+            state = newState;
+            generation++;
+            if (newState == STATE_OPEN) openedNanos = System.nanoTime();
+            count = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+            startedProbes = 0;
+            succeededProbes = 0;
+        }
+    }
+
+    /**
+     * The right of a call to go through a circuit, it's given the outcome of the call once.
+     */
+    static final class Permit {
+        private final Circuit circuit;
+        private final int generation;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile long startNanos = 0;
+
+        private Permit(@NonNull Circuit circuit, int generation) {
+            this.circuit = circuit;
+            this.generation = generation;
+        }
+
+        /**
+         * Starts timing the call when it connects, the time it waited before isn't counted.
+         */
+        void start() {
+            if (startNanos == 0) startNanos = System.nanoTime();
+        }
+
+        void onSuccess() {
+            end(false);
+        }
+
+        void onFailure() {
+            end(true);
+        }
+
+        /**
+         * The call ended without telling anything about its host: it was cancelled or never sent.
+         */
+        void release() {
+            if (ended.compareAndSet(false, true)) circuit.release(generation);
+        }
+
+        private void end(boolean failed) {
+            if (!ended.compareAndSet(false, true)) return;
+            long start = startNanos;
+            circuit.onOutcome(generation, failed, start == 0 ? 0 : System.nanoTime() - start);
+        }
+    }
+}
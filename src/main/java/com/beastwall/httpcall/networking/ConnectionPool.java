@@ -0,0 +1,216 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the keep-alive cache of the platform, and stats of the connections released to it.
+ * <p>
+ * This class holds no socket and closes none. {@link HttpURLConnection} owns the cache of sockets, it
+ * enforces the number of idle sockets per host and evicts the idle ones itself. It only reuses a socket
+ * when the body of the previous response was fully read and the connection wasn't disconnected, so
+ * HttpConnection drains short bodies and hands their connection back here instead of disconnecting it.
+ * <p>
+ * The stats are estimates: this class counts the connections released with their body drained, and the
+ * connections later opened to a host that had one released recently enough. Whether a socket was really
+ * reused is only known to the platform.
+ * <p>
+ * {@link #install()} applies the size and the idle timeout to the platform, which reads them when
+ * the first connection is opened, so install the pool before sending any request.
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static ConnectionPool defaultPool;
+
+    private final int maxIdlePerHost;
+    private final long keepAliveMillis;
+
+    /**
+     * release times of the connections of every host not reacquired yet, the most recent one last,
+     * a book kept for the stats, not the sockets themselves.
+     */
+    private final Map<String, ArrayDeque<Long>> releasedConnections = new HashMap<>();
+
+    private long acquireCount = 0;
+    private long reacquireCount = 0;
+    private long releaseCount = 0;
+    private long discardCount = 0;
+
+    /**
+     * Creates a pool with the default settings.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxIdlePerHost:    maximum number of idle connections the platform keeps for one host.
+     * @param keepAliveDuration: time an idle connection is kept, only android reads it: the jdk uses the
+     *                           timeout the server sends in its Keep-Alive header.
+     * @param timeUnit:          unit of keepAliveDuration.
+     */
+    public ConnectionPool(int maxIdlePerHost, long keepAliveDuration, @NonNull TimeUnit timeUnit) {
+        if (maxIdlePerHost < 0 || keepAliveDuration <= 0)
+            throw new IllegalArgumentException("ConnectionPool settings must be positive");
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.keepAliveMillis = timeUnit.toMillis(keepAliveDuration);
+    }
+
+    /**
+     * @return the pool used by all connections, the platform keeps its own settings until one is installed.
+     */
+    public static synchronized ConnectionPool getDefault() {
+        if (defaultPool == null) defaultPool = new ConnectionPool();
+        return defaultPool;
+    }
+
+    /**
+     * Replaces the pool used by all connections, see {@link #install()} to apply its settings.
+     */
+    public static synchronized void setDefault(@NonNull ConnectionPool pool) {
+        defaultPool = pool;
+    }
+
+    /**
+     * Makes this pool the default one and applies its settings to the keep-alive cache of the platform.
+     * They are system properties, so they apply to every {@link HttpURLConnection} of the process.
+     */
+    public final void install() {
+        setDefault(this);
+        System.setProperty("http.keepAlive", String.valueOf(maxIdlePerHost > 0));
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(1, maxIdlePerHost)));
+        System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveMillis));
+    }
+
+    /**
+     * @return the key connections are pooled by: scheme, host and port.
+     */
+    @NonNull
+    static String keyOf(@NonNull URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * Called when a connection is opened, takes a connection released to the host if there is one.
+     *
+     * @return true if a connection of the host was released recently enough for the platform to reuse it,
+     * a guess: the platform may open a new socket anyway.
+     */
+    synchronized boolean acquire(@NonNull URL url) {
+        long now = System.currentTimeMillis();
+        discardExpiredReleases(now);
+        acquireCount++;
+        ArrayDeque<Long> released = releasedConnections.get(keyOf(url));
+        if (released != null && released.pollLast() != null) {
+            reacquireCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when the body of a response was fully read and its connection was left to the platform.
+     */
+    synchronized void release(@NonNull HttpURLConnection connection) {
+        /**
+         * the server asked to close the connection, it won't be reused
+         */
+        if ("close".equalsIgnoreCase(connection.getHeaderField("Connection"))) return;
+
+        releaseCount++;
+        String key = keyOf(connection.getURL());
+        ArrayDeque<Long> released = releasedConnections.get(key);
+        if (released == null) {
+            released = new ArrayDeque<>();
+            releasedConnections.put(key, released);
+        }
+        if (released.size() >= maxIdlePerHost) {
+            discardCount++;
+            return;
+        }
+        released.addLast(System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets the releases older than the keep-alive duration in the stats,
+     * the platform closes the idle sockets on its own.
+     */
+    public synchronized void discardExpiredReleases() {
+        discardExpiredReleases(System.currentTimeMillis());
+    }
+
+    private void discardExpiredReleases(long now) {
+        Iterator<ArrayDeque<Long>> hosts = releasedConnections.values().iterator();
+        while (hosts.hasNext()) {
+            ArrayDeque<Long> released = hosts.next();
+            while (!released.isEmpty() && now - released.peekFirst() > keepAliveMillis) {
+                released.pollFirst();
+                discardCount++;
+            }
+            if (released.isEmpty()) hosts.remove();
+        }
+    }
+
+    /**
+     * Stats, they count what was handed to the platform, not the sockets it really reused.
+     */
+
+    /**
+     * @return number of connections opened.
+     */
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * @return number of connections opened to a host that had a connection released within the keep-alive
+     * duration, the ones the platform could serve with an idle socket. It's an upper bound of the reuses,
+     * not a count of them.
+     */
+    public synchronized long getReacquireCount() {
+        return reacquireCount;
+    }
+
+    /**
+     * @return number of connections released with their body drained.
+     */
+    public synchronized long getReleaseCount() {
+        return releaseCount;
+    }
+
+    /**
+     * @return number of releases forgotten in the stats because they expired or the host had more than
+     * the platform keeps.
+     */
+    public synchronized long getDiscardCount() {
+        return discardCount;
+    }
+
+    /**
+     * @return number of released connections of all hosts not reacquired yet.
+     */
+    public synchronized int getReleasedConnectionCount() {
+        int count = 0;
+        for (ArrayDeque<Long> released : releasedConnections.values()) count += released.size();
+        return count;
+    }
+
+    public int getMaxIdlePerHost() {
+        return maxIdlePerHost;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+}
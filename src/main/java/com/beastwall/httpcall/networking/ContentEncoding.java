@@ -0,0 +1,152 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates compressed responses and decodes their bodies while they are read,
+ * request bodies are compressed with {@link #GZIP}.
+ */
+final class ContentEncoding {
+
+    /**
+     * value of the Accept-Encoding header sent with every request
+     */
+    static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    /**
+     * encoding of compressed request bodies
+     */
+    static final String GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private ContentEncoding() {
+    }
+
+    /**
+     * Asks for a compressed response, unless the user chose the encodings himself.
+     */
+    static void acceptCompression(@NonNull HttpURLConnection connection) {
+        if (connection.getRequestProperty(RequestHeader.Field.ACCEPT_ENCODING) == null)
+            connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+    }
+
+    /**
+     * @return true if the body has to be decoded before it's used.
+     */
+    static boolean isCompressed(@Nullable String contentEncoding) {
+        if (contentEncoding == null) return false;
+        String encoding = contentEncoding.trim();
+        return encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")
+                || encoding.equalsIgnoreCase("deflate");
+    }
+
+    /**
+     * @return false if the response has no body whatever its headers say: a HEAD request,
+     * a 1xx, 204 or 304 response, or an empty Content-Length.
+     */
+    static boolean hasBody(@NonNull HttpURLConnection connection) throws IOException {
+        if ("HEAD".equalsIgnoreCase(connection.getRequestMethod())) return false;
+        int responseCode = connection.getResponseCode();
+        if ((responseCode >= 100 && responseCode < 200)
+                || responseCode == HttpURLConnection.HTTP_NO_CONTENT
+                || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) return false;
+        return connection.getContentLengthLong() != 0;
+    }
+
+    /**
+     * Wraps a body so it's decoded while it's read.
+     *
+     * @param body:            body as it's received.
+     * @param contentEncoding: value of the Content-Encoding header of the response.
+     * @return the decoded body, or the same body if it isn't compressed, its encoding is unknown or it's empty.
+     */
+    @NonNull
+    static InputStream decode(@NonNull InputStream body, @Nullable String contentEncoding) throws IOException {
+        if (!isCompressed(contentEncoding)) return body;
+        BufferedInputStream buffered = new BufferedInputStream(body, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+
+        /**
+         * an empty body is sent as is even if it's labeled compressed (an empty chunked response),
+         * the decoders would fail on the missing header
+         */
+        if (first == -1) return buffered;
+        String encoding = contentEncoding.trim();
+        if (!encoding.equalsIgnoreCase("deflate")) return new GZIPInputStream(buffered, BUFFER_SIZE);
+
+        /**
+         * deflate should be zlib wrapped, some servers send the raw stream, the first byte tells which one it is:
+         * a zlib header starts with 0x78 (deflate with a 32K window) and is a multiple of 31.
+         */
+        boolean zlib = second != -1
+                && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(buffered, new Inflater(!zlib), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Counts the bytes read from a body, before they are decoded.
+     */
+    static final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * @return number of bytes read so far.
+         */
+        long getCount() {
+            return count;
+        }
+    }
+}
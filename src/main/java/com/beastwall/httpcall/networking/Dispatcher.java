@@ -0,0 +1,354 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the calls of {@link HttpConnection} on a shared, bounded pool of worker threads
+ * instead of starting a new thread for every request.
+ * <p>
+ * Calls wait in a queue of limited depth until both the global limit and the limit of their host
+ * allow them to run, a call that doesn't fit in the queue is rejected.
+ * <p>
+ * One default dispatcher is shared by all connections, you can give a connection its own
+ * dispatcher with {@link HttpConnection#setDispatcher(Dispatcher)}.
+ */
+public class Dispatcher {
+
+    /**
+     * Default limits
+     */
+    public static final int DEFAULT_MAX_WORKERS = 16;
+    public static final int DEFAULT_MAX_QUEUED_CALLS = 1024;
+    public static final int DEFAULT_MAX_REQUESTS = DEFAULT_MAX_WORKERS;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+
+    /**
+     * Worker threads that are idle longer than this are released.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static Dispatcher defaultDispatcher;
+
+    /**
+     * Workers that run the calls
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * the pool of the dispatcher when it created it, grown with maxRequests
+     */
+    @Nullable
+    private final ThreadPoolExecutor workerPool;
+
+    /**
+     * Calls waiting for a free slot, in the order they were submitted.
+     */
+    private final ArrayDeque<AsyncCall> readyCalls = new ArrayDeque<>();
+
+    /**
+     * number of running calls per host
+     */
+    private final Map<String, AtomicInteger> runningCallsPerHost = new HashMap<>();
+
+    private int runningCalls = 0;
+    private int maxQueuedCalls;
+    private int maxRequests;
+    private int maxRequestsPerHost;
+
+    /**
+     * Creates a dispatcher with the default limits.
+     */
+    public Dispatcher() {
+        this(DEFAULT_MAX_WORKERS, DEFAULT_MAX_QUEUED_CALLS, DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param maxWorkers:         maximum number of worker threads.
+     * @param maxQueuedCalls:     maximum number of calls waiting for a slot, more calls are rejected.
+     * @param maxRequests:        maximum number of calls running at the same time, at most maxWorkers:
+     *                            a call is only counted as running once a worker runs it.
+     * @param maxRequestsPerHost: maximum number of calls running at the same time against one host.
+     */
+    public Dispatcher(int maxWorkers, int maxQueuedCalls, int maxRequests, int maxRequestsPerHost) {
+        this(newWorkerPool(maxWorkers, maxRequests), maxQueuedCalls, maxRequests, maxRequestsPerHost);
+    }
+
+    /**
+     * @param executorService:    executor running the calls, the dispatcher never submits more than
+     *                            maxRequests calls to it at the same time. It should run them all at once,
+     *                            the calls it queues are counted as running.
+     * @param maxQueuedCalls:     maximum number of calls waiting for a slot, more calls are rejected.
+     * @param maxRequests:        maximum number of calls running at the same time.
+     * @param maxRequestsPerHost: maximum number of calls running at the same time against one host.
+     */
+    public Dispatcher(@NonNull ExecutorService executorService,
+                      int maxQueuedCalls,
+                      int maxRequests,
+                      int maxRequestsPerHost) {
+        if (maxQueuedCalls < 0 || maxRequests < 1 || maxRequestsPerHost < 1)
+            throw new IllegalArgumentException("Dispatcher limits must be positive");
+        this.executorService = executorService;
+        this.workerPool = executorService instanceof ThreadPoolExecutor
+                && ((ThreadPoolExecutor) executorService).getThreadFactory() instanceof WorkerFactory
+                ? (ThreadPoolExecutor) executorService : null;
+        this.maxQueuedCalls = maxQueuedCalls;
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @return the dispatcher shared by all connections that weren't given one.
+     */
+    public static synchronized Dispatcher getDefault() {
+        if (defaultDispatcher == null) defaultDispatcher = new Dispatcher();
+        return defaultDispatcher;
+    }
+
+    /**
+     * Replaces the shared dispatcher, the old one keeps running the calls it already accepted.
+     */
+    public static synchronized void setDefault(@NonNull Dispatcher dispatcher) {
+        defaultDispatcher = dispatcher;
+    }
+
+    /**
+     * Creates a dispatcher that runs every call on its own virtual thread, so thousands of blocking
+     * calls can wait on the network at the same time without a pool of platform threads.
+     * <p>
+     * Virtual threads need Java 21, check {@link #isVirtualThreadModeSupported()} first.
+     *
+     * @param maxQueuedCalls:     maximum number of calls waiting for a slot, more calls are rejected.
+     * @param maxRequests:        maximum number of calls running at the same time.
+     * @param maxRequestsPerHost: maximum number of calls running at the same time against one host.
+     * @throws UnsupportedOperationException if the runtime has no virtual threads.
+     */
+    public static Dispatcher newVirtualThreadDispatcher(int maxQueuedCalls, int maxRequests, int maxRequestsPerHost) {
+        return new Dispatcher(VirtualThreads.newExecutor(), maxQueuedCalls, maxRequests, maxRequestsPerHost);
+    }
+
+    /**
+     * @return true if this runtime can run calls on virtual threads.
+     */
+    public static boolean isVirtualThreadModeSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Pool of daemon workers, threads are created only when needed and released when idle.
+     * <p>
+     * The dispatcher never submits more calls than there are workers, its queue only holds the call
+     * a worker submits as it finishes the previous one, until that worker is free again.
+     */
+    private static ExecutorService newWorkerPool(int maxWorkers, int maxRequests) {
+        if (maxWorkers < 1) throw new IllegalArgumentException("maxWorkers must be positive");
+        if (maxRequests > maxWorkers) throw new IllegalArgumentException("maxRequests > maxWorkers");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new WorkerFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Submits a call, it runs as soon as the global and the host limits allow it.
+     *
+     * @param host: host the call connects to, can be null if it's unknown.
+     * @param call: code to run.
+     * @return false if the queue is full and the call was rejected.
+     */
+    public final boolean enqueue(@Nullable String host, @NonNull Runnable call) {
+        synchronized (this) {
+            if (readyCalls.size() >= maxQueuedCalls && !canRunNow(host)) return false;
+            readyCalls.add(new AsyncCall(host == null ? "" : host, call));
+        }
+        promoteAndExecute();
+        return true;
+    }
+
+    /**
+     * Whether a new call against this host would run right away.
+     */
+    private boolean canRunNow(@Nullable String host) {
+        if (runningCalls >= maxRequests) return false;
+        AtomicInteger perHost = runningCallsPerHost.get(host == null ? "" : host);
+        return perHost == null || perHost.get() < maxRequestsPerHost;
+    }
+
+    /**
+     * Moves the calls that are allowed to run from the ready queue to the executor.
+     */
+    private void promoteAndExecute() {
+        ArrayDeque<AsyncCall> executableCalls = new ArrayDeque<>();
+        synchronized (this) {
+            Iterator<AsyncCall> iterator = readyCalls.iterator();
+            while (iterator.hasNext() && runningCalls < maxRequests) {
+                AsyncCall call = iterator.next();
+                AtomicInteger perHost = runningCallsPerHost.get(call.host);
+                if (perHost == null) {
+                    perHost = new AtomicInteger();
+                    runningCallsPerHost.put(call.host, perHost);
+                }
+                /**
+                 * the host is busy, the call keeps its place in the queue
+                 */
+                if (perHost.get() >= maxRequestsPerHost) continue;
+
+                iterator.remove();
+                perHost.incrementAndGet();
+                runningCalls++;
+                executableCalls.add(call);
+            }
+        }
+
+        for (AsyncCall call : executableCalls) {
+            try {
+                executorService.execute(call);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", "Dispatcher couldn't run a call: " + e.getMessage());
+                finished(call);
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of a call and starts the calls that were waiting for it.
+     */
+    private void finished(AsyncCall call) {
+        synchronized (this) {
+            runningCalls--;
+            AtomicInteger perHost = runningCallsPerHost.get(call.host);
+            if (perHost != null && perHost.decrementAndGet() == 0) runningCallsPerHost.remove(call.host);
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * Gauges
+     */
+
+    /**
+     * @return number of calls waiting for a slot.
+     */
+    public synchronized int getQueuedCallsCount() {
+        return readyCalls.size();
+    }
+
+    /**
+     * @return number of calls running right now.
+     */
+    public synchronized int getRunningCallsCount() {
+        return runningCalls;
+    }
+
+    /**
+     * @return number of calls running right now against this host.
+     */
+    public synchronized int getRunningCallsCount(@NonNull String host) {
+        AtomicInteger perHost = runningCallsPerHost.get(host);
+        return perHost == null ? 0 : perHost.get();
+    }
+
+    /**
+     * Limits, changing them applies to the calls that are still waiting.
+     */
+    public synchronized int getMaxQueuedCalls() {
+        return maxQueuedCalls;
+    }
+
+    public void setMaxQueuedCalls(int maxQueuedCalls) {
+        if (maxQueuedCalls < 0) throw new IllegalArgumentException("maxQueuedCalls < 0");
+        synchronized (this) {
+            this.maxQueuedCalls = maxQueuedCalls;
+        }
+    }
+
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * The pool of workers of the dispatcher grows with it, the calls counted as running always have a worker.
+     */
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1");
+        synchronized (this) {
+            if (workerPool != null && maxRequests > workerPool.getMaximumPoolSize()) {
+                workerPool.setMaximumPoolSize(maxRequests);
+                workerPool.setCorePoolSize(maxRequests);
+            }
+            this.maxRequests = maxRequests;
+        }
+        promoteAndExecute();
+    }
+
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) throw new IllegalArgumentException("maxRequestsPerHost < 1");
+        synchronized (this) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * Stops accepting work, calls already running are not interrupted.
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Names the workers of the pools the dispatchers create
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Arrowbow-dispatcher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * A submitted call and the host it is counted against
+     */
+    private final class AsyncCall implements Runnable {
+        private final String host;
+        private final Runnable call;
+
+        AsyncCall(String host, Runnable call) {
+            this.host = host;
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            try {
+                call.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Writes downloaded bodies to files through a {@link FileChannel}.
+ * <p>
+ * The body is moved with {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, the copy happens
+ * in the platform buffers instead of a loop in the app, and the file is allocated at its final size
+ * before the first byte is written when the size of the body is known.
+ */
+final class FileDownloader {
+
+    /**
+     * Notified every time a part of the body is written.
+     */
+    interface ProgressListener {
+        void onProgress(long numberOfWrittenBytes);
+    }
+
+    /**
+     * bytes moved by one transfer, the progress is reported between two transfers
+     */
+    static final long TRANSFER_SIZE = 256 * 1024;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private FileDownloader() {
+    }
+
+    /**
+     * Saves a body in a new file.
+     *
+     * @param storageDirectory: where to store the file, it's created if it doesn't exist.
+     * @param fileName:         name of the file.
+     * @param body:             the body to read to its end, it isn't closed.
+     * @param contentLength:    length of the body, or -1 if it's unknown.
+     * @param listener:         notified with the number of bytes written so far, can be null.
+     * @return the path of the file.
+     */
+    @NonNull
+    static String save(@Nullable String storageDirectory,
+                       @NonNull String fileName,
+                       @NonNull InputStream body,
+                       long contentLength,
+                       @Nullable ProgressListener listener) throws IOException {
+        File file = new File(storageDirectory, fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+            throw new IOException("Couldn't create the directory " + parent);
+        try {
+            write(file, 0, body, contentLength, listener);
+        } catch (IOException e) {
+            /**
+             * a broken or cancelled download doesn't leave a partial file behind
+             */
+            file.delete();
+            throw e;
+        }
+        return file.getPath();
+    }
+
+    /**
+     * Writes a body in a file from a position, what the file held after the body is cut.
+     *
+     * @param file:          the file to write to, it's created if it doesn't exist.
+     * @param position:      where the body starts in the file.
+     * @param body:          the body to read to its end, it isn't closed.
+     * @param contentLength: length of the body, or -1 if it's unknown.
+     * @param listener:      notified with the number of bytes of the body written so far, can be null.
+     * @return the number of bytes written.
+     */
+    static long write(@NonNull File file,
+                      long position,
+                      @NonNull InputStream body,
+                      long contentLength,
+                      @Nullable ProgressListener listener) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        long written = 0;
+        boolean completed = false;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            /**
+             * allocating the whole file at once rather than growing it with every write
+             */
+            if (contentLength > 0) randomAccessFile.setLength(position + contentLength);
+
+            ReadableByteChannel source = Channels.newChannel(body);
+            while (true) {
+                /**
+                 * a file channel only transfers up to its size, the body may be longer than announced
+                 */
+                if (contentLength > 0 && written >= contentLength)
+                    randomAccessFile.setLength(position + written + TRANSFER_SIZE);
+                long count = channel.transferFrom(source, position + written, TRANSFER_SIZE);
+                if (count <= 0) break;
+                written += count;
+                if (listener != null) listener.onProgress(written);
+            }
+            /**
+             * cutting what was allocated for a body shorter than announced
+             */
+            channel.truncate(position + written);
+            completed = true;
+            return written;
+        } finally {
+            if (!completed) {
+                /**
+                 * a broken body doesn't leave allocated or older bytes after the ones it wrote,
+                 * the length of the file stays the position to resume from
+                 */
+                try {
+                    randomAccessFile.setLength(position + written);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    Log.e("Arrowbow_library", "Couldn't cut " + file + ": " + e.getMessage());
+                }
+            }
+            randomAccessFile.close();
+        }
+    }
+}
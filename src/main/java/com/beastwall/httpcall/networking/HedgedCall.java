@@ -0,0 +1,229 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Runs the request of a connection as a first attempt and, if it's slow, a hedge.
+ * <p>
+ * The first attempt whose response arrives wins: the other one is cancelled and only the winner informs
+ * the connection with its flags, its progress and its result. An attempt that fails while the other one
+ * still runs is ignored, the connection is informed with the failure once no attempt is left.
+ */
+final class HedgedCall {
+
+    /**
+     * Creates and starts an attempt.
+     */
+    interface Launcher {
+        /**
+         * @param attempt: the attempt to inform with the flags and the progress of the call.
+         * @return the started call.
+         */
+        @NonNull
+        HttpConnection launch(@NonNull Attempt attempt);
+    }
+
+    private final HttpConnection user;
+    private final HedgingPolicy policy;
+    private final String url;
+    private final Launcher launcher;
+
+    /**
+     * guarded by this
+     */
+    private final List<Attempt> attempts = new ArrayList<>(2);
+    private Attempt winner;
+    private boolean finished = false;
+    private ScheduledFuture<?> pendingHedge;
+
+    /**
+     * @param user:     the connection informed with the flags of the winner.
+     * @param policy:   decides when the hedge is sent and learns from the latency of the first attempt.
+     * @param url:      url of the request.
+     * @param launcher: starts the attempts.
+     */
+    HedgedCall(@NonNull HttpConnection user, @NonNull HedgingPolicy policy, @NonNull String url,
+               @NonNull Launcher launcher) {
+        this.user = user;
+        this.policy = policy;
+        this.url = url;
+        this.launcher = launcher;
+    }
+
+    /**
+     * Starts the first attempt and times its hedge.
+     */
+    void start() {
+        launch(false);
+        long delay = policy.getHedgeDelayMillis(url);
+        ScheduledFuture<?> hedge = Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HedgedCall.this) {
+                    pendingHedge = null;
+                    if (finished || winner != null) return;
+                }
+                if (policy.tryStartHedge()) launch(true);
+            }
+        }, delay);
+        synchronized (this) {
+            if (finished || winner != null) hedge.cancel(false);
+            else pendingHedge = hedge;
+        }
+    }
+
+    /**
+     * Cancels every attempt, the connection isn't informed anymore.
+     */
+    void cancel() {
+        List<Attempt> cancelled;
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            cancelled = new ArrayList<>(attempts);
+            cancelPendingHedge();
+        }
+        for (Attempt attempt : cancelled) attempt.stop(false);
+    }
+
+    private void launch(boolean hedge) {
+        Attempt attempt = new Attempt(hedge);
+        synchronized (this) {
+            if (finished || winner != null) {
+                if (hedge) policy.endHedge(false);
+                return;
+            }
+            attempts.add(attempt);
+        }
+        attempt.setCall(launcher.launch(attempt));
+    }
+
+    /**
+     * guarded by this
+     */
+    private void cancelPendingHedge() {
+        if (pendingHedge != null) {
+            pendingHedge.cancel(false);
+            pendingHedge = null;
+        }
+    }
+
+    private void onFlag(@NonNull Attempt attempt, int flag, @Nullable Response response) {
+        List<Attempt> losers = null;
+        synchronized (this) {
+            if (finished || attempt.ended) return;
+            if (winner == null) {
+                boolean failed = HttpConnection.isFinalFlag(flag) && flag != HttpConnection.FLAG_RESPONSE_IS_READY;
+                if (failed) {
+                    attempt.ended = true;
+                    attempts.remove(attempt);
+                    attempt.releaseHedge(false);
+                    /**
+                     * the other attempt may still succeed
+                     */
+                    if (!attempts.isEmpty()) return;
+                    cancelPendingHedge();
+                    finished = true;
+                } else {
+                    winner = attempt;
+                    cancelPendingHedge();
+                    losers = new ArrayList<>(attempts);
+                    losers.remove(attempt);
+                    /**
+                     * the policy learns the latency of calls without hedge: the first attempt is recorded
+                     * whether it won or not, a first attempt beaten by its hedge with the time it waited.
+                     * learning from the winners only would keep the fast responses and lower the delay.
+                     */
+                    for (Attempt running : attempts)
+                        if (!running.hedge) policy.recordLatency(url, System.nanoTime() - running.startNanos);
+                }
+            } else if (winner != attempt) {
+                return;
+            }
+            if (HttpConnection.isFinalFlag(flag)) {
+                finished = true;
+                attempt.ended = true;
+            }
+        }
+        if (losers != null) for (Attempt loser : losers) loser.stop(false);
+        if (attempt == winner && HttpConnection.isFinalFlag(flag)) attempt.releaseHedge(true);
+        user.deliverDelegatedFlag(flag, response);
+    }
+
+    private void onProgress(@NonNull Attempt attempt, short percentage, long downloadSize, long numberOfReadBytes,
+                            long numberOfDecodedBytes, long bytesPerSecond, long etaMillis) {
+        synchronized (this) {
+            if (finished || winner != attempt) return;
+        }
+        user.deliverDelegatedProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                bytesPerSecond, etaMillis);
+    }
+
+    /**
+     * One request of the call.
+     */
+    final class Attempt {
+        private final boolean hedge;
+        private final long startNanos = System.nanoTime();
+        private HttpConnection call;
+        private boolean stopped = false;
+        private boolean hedgeReleased = false;
+
+        /**
+         * guarded by the hedged call
+         */
+        private boolean ended = false;
+
+        Attempt(boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        private void setCall(@NonNull HttpConnection call) {
+            boolean stop;
+            synchronized (this) {
+                this.call = call;
+                stop = stopped;
+            }
+            if (stop) call.cancel();
+        }
+
+        /**
+         * Cancels the call of this attempt, it may not be started yet.
+         */
+        private void stop(boolean won) {
+            HttpConnection running;
+            synchronized (this) {
+                stopped = true;
+                running = call;
+            }
+            releaseHedge(won);
+            if (running != null) running.cancel();
+        }
+
+        /**
+         * Gives back the slot of a hedge once, it's a no-op for the first attempt.
+         */
+        private void releaseHedge(boolean won) {
+            synchronized (this) {
+                if (!hedge || hedgeReleased) return;
+                hedgeReleased = true;
+            }
+            policy.endHedge(won);
+        }
+
+        void onFlag(int flag, @Nullable Response response) {
+            HedgedCall.this.onFlag(this, flag, response);
+        }
+
+        void onProgress(short percentage, long downloadSize, long numberOfReadBytes, long numberOfDecodedBytes,
+                        long bytesPerSecond, long etaMillis) {
+            HedgedCall.this.onProgress(this, percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                    bytesPerSecond, etaMillis);
+        }
+    }
+}
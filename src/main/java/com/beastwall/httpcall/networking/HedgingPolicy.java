@@ -0,0 +1,244 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a GET that didn't get its response yet is sent a second time, the first response wins.
+ * <p>
+ * The latency of the recent calls of every endpoint, a url without its query, is kept. A call sends its hedge
+ * once it waited longer than a percentile of that latency, 95% by default: only the calls that are already
+ * slower than most of their endpoint are sent twice, about 5% more requests for a much shorter tail.
+ * Until an endpoint has enough samples its calls wait {@link #setInitialDelay(long)}.
+ * <p>
+ * The number of hedges running at the same time is capped, a call whose hedge would exceed the cap
+ * just keeps waiting for its first request.
+ * <p>
+ * A connection uses a policy with {@link HttpConnection#setHedgingPolicy(HedgingPolicy)}, the same policy
+ * should be shared by the connections calling the same endpoints so they learn from each other.
+ */
+public final class HedgingPolicy {
+
+    /**
+     * Default limits
+     */
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+    public static final int DEFAULT_MAX_OUTSTANDING_HEDGES = 8;
+
+    /**
+     * latencies kept per endpoint, and the number of them needed before the percentile is used
+     */
+    static final int SAMPLES_PER_ENDPOINT = 128;
+    static final int MIN_SAMPLES = 16;
+
+    /**
+     * endpoints tracked at the same time, the least recently called ones are forgotten
+     */
+    private static final int MAX_ENDPOINTS = 256;
+
+    private double percentile = DEFAULT_PERCENTILE;
+    private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+    private long minDelayMillis = DEFAULT_MIN_DELAY_MILLIS;
+    private int maxOutstandingHedges = DEFAULT_MAX_OUTSTANDING_HEDGES;
+
+    /**
+     * latency windows of the endpoints, in the order they were used, guarded by itself
+     */
+    private final LinkedHashMap<String, LatencyWindow> endpoints =
+            new LinkedHashMap<String, LatencyWindow>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LatencyWindow> eldest) {
+                    return size() > MAX_ENDPOINTS;
+                }
+            };
+
+    private final AtomicInteger outstandingHedges = new AtomicInteger();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong skippedHedgeCount = new AtomicLong();
+
+    /**
+     * @param percentile: share of the calls of an endpoint that get their response before their hedge is sent,
+     *                    between 0.5 and 0.999.
+     */
+    public HedgingPolicy setPercentile(double percentile) {
+        this.percentile = Math.max(0.5, Math.min(0.999, percentile));
+        return this;
+    }
+
+    /**
+     * @param initialDelayMillis: delay of the hedges of an endpoint without enough samples.
+     */
+    public HedgingPolicy setInitialDelay(long initialDelayMillis) {
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        return this;
+    }
+
+    /**
+     * @param minDelayMillis: shortest delay of a hedge, even for an endpoint that is always fast.
+     */
+    public HedgingPolicy setMinDelay(long minDelayMillis) {
+        this.minDelayMillis = Math.max(0, minDelayMillis);
+        return this;
+    }
+
+    /**
+     * @param maxOutstandingHedges: maximum number of hedges running at the same time.
+     */
+    public HedgingPolicy setMaxOutstandingHedges(int maxOutstandingHedges) {
+        this.maxOutstandingHedges = Math.max(0, maxOutstandingHedges);
+        return this;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    public int getMaxOutstandingHedges() {
+        return maxOutstandingHedges;
+    }
+
+    /**
+     * @return how long a call to this url waits for its response before its hedge is sent.
+     */
+    public long getHedgeDelayMillis(@NonNull String url) {
+        LatencyWindow window;
+        synchronized (endpoints) {
+            window = endpoints.get(endpointOf(url));
+        }
+        long nanos = window == null ? -1 : window.percentile(percentile);
+        if (nanos < 0) return Math.max(minDelayMillis, initialDelayMillis);
+        return Math.max(minDelayMillis, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Stats
+     */
+
+    /**
+     * @return number of hedges sent.
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return number of hedges whose response arrived first.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * @return number of hedges that weren't sent because too many were running.
+     */
+    public long getSkippedHedgeCount() {
+        return skippedHedgeCount.get();
+    }
+
+    public int getOutstandingHedges() {
+        return outstandingHedges.get();
+    }
+
+    /**
+     * Keeps the time a call to a url waited for its response.
+     */
+    void recordLatency(@NonNull String url, long nanos) {
+        String endpoint = endpointOf(url);
+        LatencyWindow window;
+        synchronized (endpoints) {
+            window = endpoints.get(endpoint);
+            if (window == null) {
+                window = new LatencyWindow();
+                endpoints.put(endpoint, window);
+            }
+        }
+        window.add(nanos);
+    }
+
+    /**
+     * Takes a slot for a hedge.
+     *
+     * @return false if too many hedges are running, this one isn't sent.
+     */
+    boolean tryStartHedge() {
+        while (true) {
+            int outstanding = outstandingHedges.get();
+            if (outstanding >= maxOutstandingHedges) {
+                skippedHedgeCount.incrementAndGet();
+                return false;
+            }
+            if (outstandingHedges.compareAndSet(outstanding, outstanding + 1)) {
+                hedgeCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the slot of a hedge that ended.
+     */
+    void endHedge(boolean won) {
+        outstandingHedges.decrementAndGet();
+        if (won) hedgeWinCount.incrementAndGet();
+    }
+
+    /**
+     * @return the url without its query and fragment, "https://host:port/path".
+     */
+    @NonNull
+    static String endpointOf(@Nullable String url) {
+        if (url == null) return "";
+        try {
+            URL parsed = new URL(url);
+            return parsed.getProtocol() + "://" + parsed.getHost() + ":" + parsed.getPort() + parsed.getPath();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * The last latencies of an endpoint.
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[SAMPLES_PER_ENDPOINT];
+        private int count = 0;
+        private int next = 0;
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) count++;
+        }
+
+        /**
+         * @return the latency below which this share of the samples are, -1 if there are too few samples.
+         */
+        synchronized long percentile(double share) {
+            if (count < MIN_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(share * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
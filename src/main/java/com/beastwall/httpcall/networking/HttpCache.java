@@ -0,0 +1,685 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beastwall.httpcall.items.Field;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the responses of GET requests on disk, following the caching rules of HTTP.
+ * <p>
+ * A fresh response is read from the disk without touching the network. A stale one is revalidated with
+ * If-None-Match or If-Modified-Since, a 304 answer refreshes it and it's read from the disk.
+ * Responses are stored decoded. One variant is kept per url: the request headers named in its Vary header must
+ * have the values they had when it was stored, another variant is fetched and replaces it.
+ * <p>
+ * When the cache is larger than its maximum size, the least recently used responses are removed.
+ * One cache can be shared by all connections with {@link HttpConnection#setCache(HttpCache)}, a directory
+ * has to be used by only one cache.
+ */
+public final class HttpCache {
+
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * a response without expiration time stays fresh for a tenth of the time since it was last modified,
+     * a day at most
+     */
+    private static final long MAX_HEURISTIC_FRESHNESS_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_RESPONSE_CODE = "responseCode";
+    private static final String KEY_RESPONSE_TIME = "responseTime";
+    private static final String KEY_HEADER = "header.";
+    private static final String KEY_VARY = "vary.";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * size of the entries, in the order they were used, guarded by this
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private boolean initialized = false;
+    private long temporaryFileCount = 0;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int revalidationCount = 0;
+
+    /**
+     * @param directory: where the responses are stored, it's created if it doesn't exist.
+     * @param maxSize:   maximum number of bytes the cache takes on the disk.
+     */
+    public HttpCache(@NonNull File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        final String key;
+        final String url;
+        final int responseCode;
+        final long responseTime;
+        final Map<String, List<String>> headers;
+        final Map<String, String> varyValues;
+        final File body;
+
+        Entry(@NonNull String key, @NonNull String url, int responseCode, long responseTime,
+              @NonNull Map<String, List<String>> headers, @NonNull Map<String, String> varyValues, @NonNull File body) {
+            this.key = key;
+            this.url = url;
+            this.responseCode = responseCode;
+            this.responseTime = responseTime;
+            this.headers = headers;
+            this.varyValues = varyValues;
+            this.body = body;
+        }
+
+        @Nullable
+        String header(@NonNull String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        long contentLength() {
+            return body.length();
+        }
+
+        /**
+         * @return true if the response can be used without asking the server.
+         */
+        boolean isFresh(@Nullable RequestHeader requestHeader) {
+            String requestCacheControl = requestValue(requestHeader, RequestHeader.Field.CACHE_CONTROL);
+            if (hasDirective(requestCacheControl, "no-cache") || directiveSeconds(requestCacheControl, "max-age") == 0)
+                return false;
+            String cacheControl = header(RequestHeader.Field.CACHE_CONTROL);
+            if (hasDirective(cacheControl, "no-cache")) return false;
+            return age(System.currentTimeMillis()) < freshnessLifetime();
+        }
+
+        /**
+         * @return how long the response stays fresh after it was generated by the server.
+         */
+        long freshnessLifetime() {
+            long maxAge = directiveSeconds(header(RequestHeader.Field.CACHE_CONTROL), "max-age");
+            if (maxAge >= 0) return TimeUnit.SECONDS.toMillis(maxAge);
+            long date = parseDate(header(RequestHeader.Field.DATE));
+            long served = date >= 0 ? date : responseTime;
+            long expires = parseDate(header(RequestHeader.Field.EXPIRES));
+            if (expires >= 0) return Math.max(0, expires - served);
+            long lastModified = parseDate(header(RequestHeader.Field.LAST_MODIFIED));
+            if (lastModified >= 0 && lastModified < served)
+                return Math.min(MAX_HEURISTIC_FRESHNESS_MILLIS, (served - lastModified) / 10);
+            return 0;
+        }
+
+        /**
+         * @return the age of the response, counted from when the server generated it.
+         */
+        long age(long now) {
+            long date = parseDate(header(RequestHeader.Field.DATE));
+            long apparentAge = date >= 0 ? Math.max(0, responseTime - date) : 0;
+            long ageSeconds = parseLong(header("Age"));
+            long receivedAge = Math.max(apparentAge, ageSeconds > 0 ? TimeUnit.SECONDS.toMillis(ageSeconds) : 0);
+            return receivedAge + Math.max(0, now - responseTime);
+        }
+
+        /**
+         * Asks the server to answer with a 304 if the response didn't change,
+         * unless the user set the conditions himself.
+         */
+        void addValidators(@NonNull HttpURLConnection connection) {
+            String etag = header(RequestHeader.Field.ETAG);
+            String lastModified = header(RequestHeader.Field.LAST_MODIFIED);
+            if (etag != null && connection.getRequestProperty(RequestHeader.Field.IF_NONE_MATCH) == null)
+                connection.setRequestProperty(RequestHeader.Field.IF_NONE_MATCH, etag);
+            if (lastModified != null && connection.getRequestProperty(RequestHeader.Field.IF_MODIFIED_SINCE) == null)
+                connection.setRequestProperty(RequestHeader.Field.IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Counters
+     */
+
+    /**
+     * @return number of responses read from the cache without touching the network.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of responses read from the network, the cache had none or an outdated one.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of stale responses the server confirmed with a 304, they are read from the cache.
+     */
+    public synchronized int getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    /**
+     * @return number of bytes the cache takes on the disk.
+     */
+    public synchronized long getSize() {
+        initialize();
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Removes every response from the cache.
+     */
+    public synchronized void evictAll() {
+        initialize();
+        for (String key : new ArrayList<>(entries.keySet())) removeEntry(key);
+    }
+
+    /**
+     * Finds the response to a GET request.
+     *
+     * @return the cached response, or null if there is none for these request headers.
+     */
+    @Nullable
+    synchronized Entry get(@NonNull URL url, @Nullable RequestHeader requestHeader) {
+        initialize();
+        if (hasDirective(requestValue(requestHeader, RequestHeader.Field.CACHE_CONTROL), "no-store")) return null;
+        String key = keyOf(url);
+        if (!entries.containsKey(key)) return null;
+
+        Entry entry = readEntry(key);
+        if (entry == null || !url.toString().equals(entry.url)) {
+            removeEntry(key);
+            return null;
+        }
+        for (Map.Entry<String, String> vary : entry.varyValues.entrySet()) {
+            String value = requestValue(requestHeader, vary.getKey());
+            if (!vary.getValue().equals(value == null ? "" : value)) return null;
+        }
+        /**
+         * keeping the order of use across restarts
+         */
+        new File(directory, key + METADATA_SUFFIX).setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    synchronized void recordHit() {
+        hitCount++;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    /**
+     * Refreshes a response the server answered a conditional request for with a 304.
+     *
+     * @param connection: the connection that received the 304, its headers replace the stored ones.
+     * @return the refreshed response.
+     */
+    @NonNull
+    synchronized Entry revalidated(@NonNull Entry entry, @NonNull HttpURLConnection connection) {
+        revalidationCount++;
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(entry.headers);
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            String name = header.getKey();
+            /**
+             * a 304 has no body, it doesn't describe the stored one
+             */
+            if (name == null || name.equalsIgnoreCase(RequestHeader.Field.CONTENT_LENGTH)
+                    || name.equalsIgnoreCase(RequestHeader.Field.CONTENT_ENCODING)
+                    || name.equalsIgnoreCase("Transfer-Encoding")) continue;
+            headers.put(name, header.getValue());
+        }
+        Entry refreshed = new Entry(entry.key, entry.url, entry.responseCode, System.currentTimeMillis(), headers,
+                entry.varyValues, entry.body);
+        try {
+            writeMetadata(refreshed, new File(directory, entry.key + METADATA_SUFFIX));
+        } catch (IOException e) {
+            Log.e("Arrowbow_library", "The refreshed response couldn't be cached: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return refreshed;
+    }
+
+    /**
+     * Removes the response of a url, after a request that may have changed it.
+     */
+    synchronized void remove(@NonNull URL url) {
+        initialize();
+        removeEntry(keyOf(url));
+    }
+
+    /**
+     * Stores a response while its body is read: the returned stream copies the body to the cache and the
+     * response is stored once the body is read to its end.
+     *
+     * @param body: the decoded body of the response.
+     * @return the stream to read the body from, the body itself if the response can't be cached.
+     */
+    @NonNull
+    InputStream store(@NonNull URL url, @Nullable RequestHeader requestHeader,
+                      @NonNull HttpURLConnection connection, @NonNull InputStream body) throws IOException {
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) return body;
+        String cacheControl = connection.getHeaderField(RequestHeader.Field.CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-store")
+                || hasDirective(requestValue(requestHeader, RequestHeader.Field.CACHE_CONTROL), "no-store"))
+            return body;
+
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            String name = header.getKey();
+            /**
+             * the body is stored decoded
+             */
+            if (name == null || name.equalsIgnoreCase(RequestHeader.Field.CONTENT_LENGTH)
+                    || name.equalsIgnoreCase(RequestHeader.Field.CONTENT_ENCODING)
+                    || name.equalsIgnoreCase("Transfer-Encoding")) continue;
+            headers.put(name, header.getValue());
+        }
+
+        Map<String, String> varyValues = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> vary = headers.get(RequestHeader.Field.VARY);
+        if (vary != null)
+            for (String names : vary)
+                for (String name : names.split(",")) {
+                    name = name.trim();
+                    if (name.isEmpty()) continue;
+                    if (name.equals("*")) return body;
+                    String value = requestValue(requestHeader, name);
+                    varyValues.put(name, value == null ? "" : value);
+                }
+
+        String key = keyOf(url);
+        Entry entry = new Entry(key, url.toString(), HttpURLConnection.HTTP_OK, System.currentTimeMillis(), headers, varyValues,
+                new File(directory, key + BODY_SUFFIX));
+        /**
+         * a response that is never fresh and can't be revalidated is of no use
+         */
+        if (entry.freshnessLifetime() == 0 && entry.header(RequestHeader.Field.ETAG) == null
+                && entry.header(RequestHeader.Field.LAST_MODIFIED) == null) return body;
+
+        File temporaryBody;
+        synchronized (this) {
+            if (!directory.exists() && !directory.mkdirs() && !directory.exists()) return body;
+            temporaryBody = new File(directory, key + "." + (temporaryFileCount++) + TEMPORARY_SUFFIX);
+        }
+        return new StoringInputStream(body, temporaryBody, entry);
+    }
+
+    /**
+     * Copies a body to a temporary file, and stores the response once the body is read to its end.
+     */
+    final class StoringInputStream extends FilterInputStream {
+        private final File temporaryBody;
+        private final Entry entry;
+        private final byte[] oneByte = new byte[1];
+        private OutputStream out;
+        private boolean done = false;
+
+        StoringInputStream(@NonNull InputStream in, @NonNull File temporaryBody, @NonNull Entry entry)
+                throws IOException {
+            super(in);
+            this.temporaryBody = temporaryBody;
+            this.entry = entry;
+            this.out = new FileOutputStream(temporaryBody);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) commit();
+            else {
+                oneByte[0] = (byte) b;
+                write(oneByte, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count == -1) commit();
+            else if (count > 0) write(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            /**
+             * skipped bytes aren't in the copy
+             */
+            abort();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abort();
+            super.close();
+        }
+
+        /**
+         * Drops the copy if the body wasn't read to its end.
+         */
+        void abort() {
+            if (done) return;
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "" + e.getMessage());
+                e.printStackTrace();
+            }
+            temporaryBody.delete();
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (done) return;
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                /**
+                 * a full disk doesn't fail the call, the response just isn't cached
+                 */
+                abort();
+            }
+        }
+
+        private void commit() {
+            if (done) return;
+            done = true;
+            try {
+                out.close();
+                commitEntry(entry, temporaryBody);
+            } catch (IOException e) {
+                Log.e("Arrowbow_library", "The response couldn't be cached: " + e.getMessage());
+                e.printStackTrace();
+                temporaryBody.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves a stored body to its place and writes its metadata.
+     */
+    private synchronized void commitEntry(@NonNull Entry entry, @NonNull File temporaryBody) throws IOException {
+        initialize();
+        removeEntry(entry.key);
+        File metadata = new File(directory, entry.key + METADATA_SUFFIX);
+        if (!temporaryBody.renameTo(entry.body)) throw new IOException("Couldn't store the response of " + entry.url);
+        writeMetadata(entry, metadata);
+        long entrySize = entry.body.length() + metadata.length();
+        entries.put(entry.key, entrySize);
+        size += entrySize;
+        trimToSize();
+    }
+
+    /**
+     * Removes the least recently used responses until the cache fits its maximum size, guarded by this.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            String key = eldest.getKey();
+            size -= eldest.getValue();
+            iterator.remove();
+            new File(directory, key + BODY_SUFFIX).delete();
+            new File(directory, key + METADATA_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Guarded by this.
+     */
+    private void removeEntry(@NonNull String key) {
+        Long entrySize = entries.remove(key);
+        if (entrySize != null) size -= entrySize;
+        new File(directory, key + BODY_SUFFIX).delete();
+        new File(directory, key + METADATA_SUFFIX).delete();
+    }
+
+    /**
+     * Finds the responses stored by a previous run, from the least to the most recently used,
+     * guarded by this.
+     */
+    private void initialize() {
+        if (initialized) return;
+        initialized = true;
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                /**
+                 * a body that was being stored when the app stopped
+                 */
+                file.delete();
+            } else if (name.endsWith(METADATA_SUFFIX)) {
+                String key = name.substring(0, name.length() - METADATA_SUFFIX.length());
+                File body = new File(directory, key + BODY_SUFFIX);
+                if (!body.exists()) {
+                    file.delete();
+                    continue;
+                }
+                long entrySize = body.length() + file.length();
+                entries.put(key, entrySize);
+                size += entrySize;
+            }
+        }
+        trimToSize();
+    }
+
+    @Nullable
+    private Entry readEntry(@NonNull String key) {
+        Properties metadata = readMetadata(key);
+        File body = new File(directory, key + BODY_SUFFIX);
+        if (metadata == null || !body.exists()) return null;
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        Map<String, String> varyValues = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : metadata.stringPropertyNames()) {
+            if (name.startsWith(KEY_HEADER)) {
+                String line = metadata.getProperty(name);
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                String headerName = line.substring(0, colon);
+                List<String> values = headers.get(headerName);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    headers.put(headerName, values);
+                }
+                values.add(line.substring(colon + 1).trim());
+            } else if (name.startsWith(KEY_VARY)) {
+                varyValues.put(name.substring(KEY_VARY.length()), metadata.getProperty(name));
+            }
+        }
+        try {
+            return new Entry(key, metadata.getProperty(KEY_URL), Integer.parseInt(metadata.getProperty(KEY_RESPONSE_CODE)),
+                    Long.parseLong(metadata.getProperty(KEY_RESPONSE_TIME)), headers, varyValues, body);
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private Properties readMetadata(@NonNull String key) {
+        Properties metadata = new Properties();
+        try {
+            InputStream in = new FileInputStream(new File(directory, key + METADATA_SUFFIX));
+            try {
+                metadata.load(in);
+            } finally {
+                in.close();
+            }
+            return metadata;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeMetadata(@NonNull Entry entry, @NonNull File file) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty(KEY_URL, entry.url);
+        metadata.setProperty(KEY_RESPONSE_CODE, String.valueOf(entry.responseCode));
+        metadata.setProperty(KEY_RESPONSE_TIME, String.valueOf(entry.responseTime));
+        int index = 0;
+        for (Map.Entry<String, List<String>> header : entry.headers.entrySet())
+            for (String value : header.getValue())
+                metadata.setProperty(KEY_HEADER + (index++), header.getKey() + ": " + value);
+        for (Map.Entry<String, String> vary : entry.varyValues.entrySet())
+            metadata.setProperty(KEY_VARY + vary.getKey(), vary.getValue());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            metadata.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the value of a request header, as it's sent by {@link HttpConnection}.
+     */
+    @Nullable
+    static String requestValue(@Nullable RequestHeader requestHeader, @NonNull String name) {
+        if (requestHeader != null && requestHeader.getProperties() != null) {
+            StringBuilder value = null;
+            for (Field field : requestHeader.getProperties()) {
+                if (!name.equalsIgnoreCase(field.getName())) continue;
+                if (value == null) value = new StringBuilder(field.getValue());
+                else value.append(", ").append(field.getValue());
+            }
+            if (value != null) return value.toString();
+        }
+        if (name.equalsIgnoreCase(RequestHeader.Field.ACCEPT_ENCODING)) return ContentEncoding.ACCEPTED_ENCODINGS;
+        return null;
+    }
+
+    /**
+     * @return the key of the GET responses of a url.
+     */
+    @NonNull
+    static String keyOf(@NonNull URL url) {
+        String key = "GET " + url;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    static boolean hasDirective(@Nullable String cacheControl, @NonNull String directive) {
+        if (cacheControl == null) return false;
+        for (String part : cacheControl.split(",")) {
+            String name = part.trim();
+            int equals = name.indexOf('=');
+            if (equals != -1) name = name.substring(0, equals).trim();
+            if (name.equalsIgnoreCase(directive)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the value of a directive like max-age, -1 if it isn't there.
+     */
+    static long directiveSeconds(@Nullable String cacheControl, @NonNull String directive) {
+        if (cacheControl == null) return -1;
+        for (String part : cacheControl.split(",")) {
+            int equals = part.indexOf('=');
+            if (equals == -1 || !part.substring(0, equals).trim().equalsIgnoreCase(directive)) continue;
+            String value = part.substring(equals + 1).trim();
+            if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1)
+                value = value.substring(1, value.length() - 1);
+            long seconds = parseLong(value);
+            return seconds < 0 ? 0 : seconds;
+        }
+        return -1;
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the time of an http date in millis, -1 if it can't be parsed.
+     */
+    static long parseDate(@Nullable String date) {
+        if (date == null) return -1;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.beastwall.httpcall.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HttpURLConnection} whose request is sent by an {@link HttpClient}.
+ * <p>
+ * The request body is buffered until the response is asked for, then the whole exchange
+ * is handed to the client, which may carry it over a shared HTTP/2 connection: {@link #connect()} returns
+ * with the response headers, when the connection was opened and the request written aren't known.
+ * The read timeout applies to the wait for the headers and to every read of the body.
+ */
+final class HttpClientConnection extends HttpURLConnection {
+
+    /**
+     * Headers the client sets by itself and refuses from the user.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient client;
+    private ByteArrayOutputStream requestBody;
+    private CompletableFuture<HttpResponse<InputStream>> pendingResponse;
+    private HttpResponse<InputStream> response;
+    private List<String> headerKeys;
+    private List<String> headerValues;
+
+    HttpClientConnection(URL url, HttpClient client) {
+        super(url);
+        this.client = client;
+    }
+
+    /**
+     * HttpURLConnection only accepts a fixed list of methods, the client accepts any token (PATCH...).
+     */
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+        if (connected) throw new ProtocolException("Can't reset method: already connected");
+        this.method = method;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (connected) throw new ProtocolException("Cannot write output after reading input.");
+        if (!doOutput) throw new ProtocolException("cannot write to a URLConnection if doOutput=false");
+        if (requestBody == null) requestBody = new ByteArrayOutputStream();
+        return requestBody;
+    }
+
+    /**
+     * Sends the request and waits for the response headers.
+     */
+    @Override
+    public void connect() throws IOException {
+        if (connected) return;
+        HttpRequest request = buildRequest();
+        final int readTimeout = getReadTimeout();
+        synchronized (this) {
+            pendingResponse = client.sendAsync(request, new HttpResponse.BodyHandler<InputStream>() {
+                @Override
+                public HttpResponse.BodySubscriber<InputStream> apply(HttpResponse.ResponseInfo responseInfo) {
+                    return new TimedBody(readTimeout);
+                }
+            });
+        }
+        try {
+            response = pendingResponse.get();
+            responseCode = response.statusCode();
+            connected = true;
+        } catch (InterruptedException e) {
+            pendingResponse.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (java.util.concurrent.CancellationException e) {
+            throw new IOException("Request cancelled");
+        }
+    }
+
+    private HttpRequest buildRequest() throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid url " + url, e);
+        }
+
+        /**
+         * the client has one timeout from sending the request to receiving the response headers
+         */
+        long timeout = (long) getConnectTimeout() + getReadTimeout();
+        if (getConnectTimeout() > 0 && getReadTimeout() > 0) builder.timeout(Duration.ofMillis(timeout));
+
+        for (Map.Entry<String, List<String>> property : getRequestProperties().entrySet()) {
+            if (property.getKey() == null
+                    || RESTRICTED_HEADERS.contains(property.getKey().toLowerCase())) continue;
+            for (String value : property.getValue()) builder.header(property.getKey(), value);
+        }
+
+        HttpRequest.BodyPublisher body = requestBody == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(requestBody.toByteArray());
+        return builder.method(method, body).build();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        connect();
+        return responseCode;
+    }
+
+    /**
+     * The client doesn't expose the reason phrase the server sent, HTTP/2 has none,
+     * so it's the standard phrase of the status code, null for a code without one.
+     */
+    @Override
+    public String getResponseMessage() throws IOException {
+        connect();
+        return reasonPhraseOf(responseCode);
+    }
+
+    static String reasonPhraseOf(int code) {
+        switch (code) {
+            case 100: return "Continue";
+            case 101: return "Switching Protocols";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 203: return "Non-Authoritative Information";
+            case 204: return "No Content";
+            case 205: return "Reset Content";
+            case 206: return "Partial Content";
+            case 300: return "Multiple Choices";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 402: return "Payment Required";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 406: return "Not Acceptable";
+            case 407: return "Proxy Authentication Required";
+            case 408: return "Request Timeout";
+            case 409: return "Conflict";
+            case 410: return "Gone";
+            case 411: return "Length Required";
+            case 412: return "Precondition Failed";
+            case 413: return "Content Too Large";
+            case 414: return "URI Too Long";
+            case 415: return "Unsupported Media Type";
+            case 416: return "Range Not Satisfiable";
+            case 417: return "Expectation Failed";
+            case 421: return "Misdirected Request";
+            case 422: return "Unprocessable Content";
+            case 426: return "Upgrade Required";
+            case 428: return "Precondition Required";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            case 505: return "HTTP Version Not Supported";
+            default: return null;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE)
+                throw new FileNotFoundException(url.toString());
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        return response.body();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (!connected || responseCode < HTTP_BAD_REQUEST) return null;
+        return response.body();
+    }
+
+    /**
+     * Response headers
+     */
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!connectQuietly() || name == null) return null;
+        return response.headers().firstValue(name).orElse(null);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!connectQuietly()) return new TreeMap<>();
+        return response.headers().map();
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!connectQuietly()) return null;
+        indexHeaders();
+        return n < headerKeys.size() ? headerKeys.get(n) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!connectQuietly()) return null;
+        indexHeaders();
+        return n < headerValues.size() ? headerValues.get(n) : null;
+    }
+
+    /**
+     * Lists the headers one value at a time, the status line first like {@link HttpURLConnection} does.
+     */
+    private void indexHeaders() {
+        if (headerKeys != null) return;
+        headerKeys = new ArrayList<>();
+        headerValues = new ArrayList<>();
+        headerKeys.add(null);
+        headerValues.add((response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2 " : "HTTP/1.1 ") + responseCode);
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                headerKeys.add(header.getKey());
+                headerValues.add(value);
+            }
+        }
+    }
+
+    /**
+     * @return false if the request couldn't be sent, header getters return null in that case.
+     */
+    private boolean connectQuietly() {
+        try {
+            connect();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Aborts the exchange, the underlying connection is released or reset by the client.
+     */
+    @Override
+    public void disconnect() {
+        synchronized (this) {
+            if (pendingResponse != null && !pendingResponse.isDone()) pendingResponse.cancel(true);
+        }
+        if (response != null) {
+            try {
+                response.body().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return client.proxy().isPresent();
+    }
+
+    /**
+     * Body of a response whose reads fail with a {@link SocketTimeoutException} after the read timeout,
+     * the stream of the client waits for the next bytes forever. The buffers of the client are taken one
+     * list at a time, the next one is asked for once the previous one is taken.
+     */
+    static final class TimedBody extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+
+        /**
+         * put after the last buffers, or after a failure
+         */
+        private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<ByteBuffer>());
+
+        private final BlockingQueue<List<ByteBuffer>> lists = new LinkedBlockingQueue<>();
+        private final int readTimeout;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable failure;
+        private volatile boolean closed = false;
+        private Iterator<ByteBuffer> list;
+        private ByteBuffer buffer;
+        private boolean ended = false;
+
+        /**
+         * @param readTimeout: time to wait for the next bytes, 0 waits forever.
+         */
+        TimedBody(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        @Override
+        public CompletionStage<InputStream> getBody() {
+            return CompletableFuture.<InputStream>completedFuture(this);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (closed) subscription.cancel();
+            else subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            lists.offer(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+            lists.offer(END);
+        }
+
+        @Override
+        public void onComplete() {
+            lists.offer(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer current = current();
+            return current == null ? -1 : current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            ByteBuffer current = current();
+            if (current == null) return -1;
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            Flow.Subscription current = subscription;
+            if (current != null && !ended) current.cancel();
+            /**
+             * wakes up a read waiting in another thread
+             */
+            lists.offer(END);
+        }
+
+        /**
+         * @return the buffer holding the next bytes, null at the end of the body.
+         */
+        private ByteBuffer current() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (closed) throw new IOException("Stream closed");
+                if (list != null && list.hasNext()) {
+                    buffer = list.next();
+                    continue;
+                }
+                if (ended) return null;
+                List<ByteBuffer> next;
+                try {
+                    next = readTimeout > 0 ? lists.poll(readTimeout, TimeUnit.MILLISECONDS) : lists.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Read interrupted");
+                }
+                if (next == null) {
+                    close();
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                if (next == END) {
+                    if (closed) throw new IOException("Stream closed");
+                    ended = true;
+                    Throwable cause = failure;
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause != null) throw new IOException(cause);
+                    return null;
+                }
+                list = next.iterator();
+                subscription.request(1);
+            }
+            return buffer;
+        }
+    }
+}
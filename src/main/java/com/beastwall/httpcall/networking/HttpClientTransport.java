@@ -0,0 +1,61 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * {@link Transport} built on {@link HttpClient}, it speaks HTTP/2 when the server does,
+ * so concurrent requests to the same host are multiplexed over one connection.
+ * <p>
+ * Create one and share it between the connections that should use the same HTTP/2 connections:
+ * new HttpConnection().setTransport(transport).getText(...)
+ */
+public class HttpClientTransport implements Transport {
+
+    /**
+     * time to establish a connection when the request doesn't give one.
+     */
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient client;
+
+    /**
+     * Creates a transport preferring HTTP/2 and following redirects like {@link HttpURLConnection} does.
+     */
+    public HttpClientTransport() {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+                .build());
+    }
+
+    /**
+     * @param client: a client configured by the user (proxy, ssl context, executor...).
+     */
+    public HttpClientTransport(@NonNull HttpClient client) {
+        this.client = client;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection open(@NonNull URL url) throws IOException {
+        return new HttpClientConnection(url, client);
+    }
+
+    /**
+     * The client pools and multiplexes its connections by itself.
+     */
+    @Override
+    public void release(@NonNull HttpURLConnection connection) {
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+}
@@ -1,13 +1,23 @@
 package com.beastwall.httpcall.networking;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beastwall.httpcall.items.Field;
+import com.blacksoft.arrowbow.storage_manager.StorageUtils;
+
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -15,10 +25,17 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author AbdelWadoud Rasmi
@@ -41,6 +58,8 @@ public class HttpConnection {
      * the possible states of a network operation
      */
 
+    public final static int FLAG_CIRCUIT_OPEN = -5;
+    public final static int FLAG_RATE_LIMITED = -4;
     public final static int FLAG_WRONG_URL = -3;
     public final static int FLAG_ERROR_MESSAGE = -2;
     public final static int FLAG_REQUEST_UNACCEPTED = -1;
@@ -60,6 +79,7 @@ public class HttpConnection {
     public static final int DATATYPE_MULTI_PART_DATA_FORM = 7;
     public static final int DATATYPE_INPUT_STREAM = 10;
     public static final int DATATYPE_MODEL = 12;
+    public static final int DATATYPE_BODY_PUBLISHER = 14;
 
     /**
      * Rest Connection Methods
@@ -73,6 +93,14 @@ public class HttpConnection {
      * used to post multipart data form, it separates fields
      */
     private static String boundary;
+    /**
+     * size of the buffer used to read what is left of a body before reusing its connection
+     */
+    private static final int DRAIN_BUFFER_SIZE = 8192;
+    /**
+     * most bytes read from what is left of a body, reading more costs more than opening a new connection
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
     /**
      * Url we want to be connected to
      */
@@ -98,6 +126,139 @@ public class HttpConnection {
      */
     private int readTimeout = 3000;
 
+    /**
+     * Priority of the threads running the calls
+     */
+    private int threadPriority = Process.THREAD_PRIORITY_DEFAULT;
+
+    /**
+     * Runs the calls of this connection, the shared one is used by default.
+     */
+    private Dispatcher dispatcher = Dispatcher.getDefault();
+
+    /**
+     * Opens the connections of this client, the platform {@link HttpURLConnection} by default.
+     */
+    private Transport transport = UrlConnectionTransport.getDefault();
+
+    /**
+     * Non-blocking engine used for plain http reads, null to always use the transport.
+     */
+    private NioEngine nioEngine;
+
+    /**
+     * Last flag and response the user was informed with, returned by {@link #execute(Request)}.
+     */
+    private volatile int lastFlag;
+    private volatile Response lastResponse;
+
+    /**
+     * Future of the current asynchronous call, completed with its final response.
+     */
+    private volatile CompletableFuture<Response> pendingFuture;
+
+    /**
+     * Connection the current call is reading from or writing to, disconnected when the call is cancelled.
+     */
+    private volatile HttpURLConnection activeConnection;
+    private volatile BodyPublisher activePublisher;
+    private volatile SegmentedDownload activeSegmentedDownload;
+    private volatile boolean cancelled;
+
+    /**
+     * Size from which text bodies are sent gzipped, -1 to never compress them.
+     */
+    private int requestCompressionThreshold = -1;
+
+    /**
+     * Whether getFile keeps a partial file to resume from after a broken transfer.
+     */
+    private boolean resumable = false;
+
+    /**
+     * Maximum number of connections getFile downloads a file with, 1 for a single stream.
+     */
+    private int maxDownloadSegments = 1;
+
+    /**
+     * Cache of the text and file responses of GET requests, null if they aren't cached.
+     */
+    private HttpCache cache;
+
+    /**
+     * Results of getText kept in memory, null if they aren't, and the key of the running call.
+     */
+    private ResponseMemoryCache memoryCache;
+    private volatile String memoryCacheKey;
+
+    /**
+     * Whether identical GET requests running at the same time share one call, and the shared call
+     * the current request joined.
+     */
+    private boolean coalescing = false;
+    private volatile SingleFlight.Flight flight;
+
+    /**
+     * Decides whether the failed calls are attempted again, null to never retry them.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * Decides when a slow getText or getFile is sent a second time, null to never hedge them,
+     * and the attempts of the current call.
+     */
+    private HedgingPolicy hedgingPolicy;
+    private volatile HedgedCall hedgedCall;
+
+    /**
+     * Spaces the requests sent to every host, null to send them as they come.
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * Fails fast the calls to the hosts that are down, null to always try them,
+     * and the permit of the current attempt.
+     */
+    private CircuitBreaker circuitBreaker;
+    private volatile CircuitBreaker.Permit circuitPermit;
+
+    /**
+     * Receives the timings of the phases of the requests, null if they aren't timed,
+     * the marks of the current request and its method.
+     */
+    private MetricsRecorder metricsRecorder;
+    private volatile RequestTimings timings;
+    private volatile String callMethod;
+
+    /**
+     * State of the retries of the current call: its method, null if it isn't retried, the number of times
+     * it was retried, the wait before its next attempt, -1 if there is none, and the exception
+     * that broke its last attempt.
+     */
+    private volatile String retryMethod;
+    private volatile int retryCount;
+    private volatile long retryDelayMillis = -1;
+    private volatile IOException attemptFailure;
+
+    /**
+     * Minimum time and percentage between two progress events.
+     */
+    private long progressIntervalMillis = ProgressReporter.DEFAULT_MIN_INTERVAL_MILLIS;
+    private int progressPercentageDelta = ProgressReporter.DEFAULT_MIN_PERCENTAGE_DELTA;
+
+    /**
+     * Delivers the progress of the calls to {@link #showDownloadProgress(short, long, long, long, long, long)}.
+     */
+    private final ProgressReporter.Listener progressListener = new ProgressReporter.Listener() {
+        @Override
+        public void onProgress(short percentage, long downloadSize, long numberOfReadBytes, long numberOfDecodedBytes,
+                               long bytesPerSecond, long etaMillis) {
+            if (!cancelled)
+                showDownloadProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                        bytesPerSecond, etaMillis);
+        }
+    };
+
     /**
      * Only one constructor
      */
@@ -120,26 +281,47 @@ public class HttpConnection {
     }
 
     /**
-     * Notify Main-thread of the new progress of the download.
+     * Shows progress of the download with its speed,
+     * by default it calls {@link #showDownloadProgress(short, long, long)}.
+     * this method will be executed in app main thread
      *
-     * @param percentage:        Progress of the download operation out of 100.
-     * @param downloadSize:      Size of the file you want to download in bytes.
-     * @param numberOfReadBytes: number of bytes read till now.
+     * @param percentage:           Progress of the download operation out of 100.
+     * @param downloadSize:         Size of the file you want to download in bytes, -1 if it's unknown,
+     *                              it's the compressed size when the server compressed the response.
+     * @param numberOfReadBytes:    number of bytes received till now.
+     * @param numberOfDecodedBytes: number of bytes once decoded, the same as numberOfReadBytes if the
+     *                              response isn't compressed.
+     * @param bytesPerSecond:       average download speed, -1 until it's measured.
+     * @param etaMillis:            estimated time left in millis, -1 if it can't be estimated yet.
      */
-    private final void informUserWithProgress(short percentage, long downloadSize, long numberOfReadBytes) {
-        /**
-         * posting the code to be executed in the ui thread.
-         */
-        new Handler(Looper.getMainLooper())
-                .post(new Runnable() {
-                    @Override
-                    public void run() {
-                        showDownloadProgress(percentage, downloadSize, numberOfReadBytes);
-                    }
-                });
+    public void showDownloadProgress(short percentage, long downloadSize, long numberOfReadBytes,
+                                     long numberOfDecodedBytes, long bytesPerSecond, long etaMillis) {
+        showDownloadProgress(percentage, downloadSize, numberOfReadBytes);
+    }
+
+    /**
+     * Creates the reporter notifying the Main-thread of the progress of a call,
+     * it's throttled by the settings of {@link #setProgressThrottle(long, int)}.
+     */
+    private final ProgressReporter newProgressReporter() {
+        return new ProgressReporter(mainThreadHandler(), progressListener,
+                progressIntervalMillis, progressPercentageDelta);
+    }
 
+    /**
+     * Handler of the app main thread, created when it's first asked for.
+     * The class loader creates it once, callbacks read it without taking a lock.
+     */
+    private static final class MainThreadHandlerHolder {
+        static final Handler HANDLER = new Handler(Looper.getMainLooper());
     }
 
+    /**
+     * @return the handler of the app main thread, shared by all connections.
+     */
+    static Handler mainThreadHandler() {
+        return MainThreadHandlerHolder.HANDLER;
+    }
 
     /**
      * Informs user with the new occurring event and giving him its result,
@@ -172,23 +354,308 @@ public class HttpConnection {
      * @param response: the result of the current stage of the operation.
      */
     private final void informUserWithNewFlag(final int flag, final Response response) {
+        /**
+         * a cancelled call doesn't inform the user anymore
+         */
+        if (cancelled) return;
+        if (isFinalFlag(flag)) endCircuitPermit(flag, response);
+        final int timedStatusClass = isFinalFlag(flag) ? finishTimings(response) : -1;
+        if (flag == FLAG_ERROR_MESSAGE || flag == FLAG_REQUEST_UNACCEPTED) {
+            learnFromRejection(response);
+            /**
+             * a failure that will be retried isn't a result yet
+             */
+            if (retryLater(response)) return;
+        }
+        lastFlag = flag;
+        if (response != null) lastResponse = response.setFlag(flag);
         /**
          * do exhaustive work in the background.
          */
         doInBackgroundThread(flag, response);
         /**
-         * posting the code to be executed in the ui thread.
+         * completing the future of the call in this thread, it doesn't wait for the ui thread.
+         */
+        CompletableFuture<Response> future = pendingFuture;
+        if (future != null && isFinalFlag(flag)) {
+            pendingFuture = null;
+            future.complete(response != null ? response : new Response(null, "").setFlag(flag));
+        }
+        /**
+         * posting the code to be executed in the ui thread, the wait for it is timed.
          */
-        new Handler(Looper.getMainLooper())
+        final RequestTimings timed = timedStatusClass < 0 ? null : timings;
+        final String timedHost = timed == null ? null : timed.host();
+        final String timedMethod = timed == null ? null : timed.method();
+        final long postedNanos = timed == null ? 0 : System.nanoTime();
+        mainThreadHandler()
                 .post(new Runnable() {
                     @Override
                     public void run() {
+                        MetricsRecorder recorder = metricsRecorder;
+                        if (timedHost != null && recorder != null)
+                            recorder.record(timedHost, timedMethod, timedStatusClass,
+                                    MetricsRecorder.PHASE_CALLBACK_DISPATCH, System.nanoTime() - postedNanos);
                         doInUiThread(flag, response);
                     }
                 });
 
     }
 
+    /**
+     * Asks the retry policy whether the attempt that just failed is retried,
+     * the other failures of an attempt that will be retried are ignored.
+     *
+     * @param response: the response of the failed attempt, null if it didn't get one.
+     * @return true if the call will be attempted again.
+     */
+    private final boolean retryLater(@Nullable Response response) {
+        String method = retryMethod;
+        RetryPolicy policy = retryPolicy;
+        if (method == null || policy == null) return false;
+        if (retryDelayMillis >= 0) return true;
+        long delay = policy.delayBeforeRetry(method, retryCount, response == null ? 0 : response.getResponseCode(),
+                response == null ? null : response.getHeaders(), attemptFailure);
+        if (delay < 0) return false;
+        retryDelayMillis = delay;
+        return true;
+    }
+
+    /**
+     * Slows down the rate limiter of the host of a response that rejected the request for its rate.
+     */
+    private final void learnFromRejection(@Nullable Response response) {
+        RateLimiter limiter = rateLimiter;
+        if (limiter == null || response == null) return;
+        int code = response.getResponseCode();
+        long retryAfter = RetryPolicy.retryAfterMillis(response.getHeaders(), System.currentTimeMillis());
+        if (code == RateLimiter.HTTP_TOO_MANY_REQUESTS
+                || (code == HttpURLConnection.HTTP_UNAVAILABLE && retryAfter >= 0))
+            limiter.onThrottled(urlStr, retryAfter);
+    }
+
+    /**
+     * Takes the permit of an attempt from the circuit breaker of its host.
+     *
+     * @return false if the circuit is open, the user is informed with {@link #FLAG_CIRCUIT_OPEN}.
+     */
+    private final boolean passCircuitBreaker() {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null || urlStr == null) return true;
+        CircuitBreaker.Permit permit = breaker.acquire(urlStr);
+        if (permit == null) {
+            informUserWithNewFlag(FLAG_CIRCUIT_OPEN,
+                    new Response(null, "The circuit to " + hostOf(urlStr) + " is open, the request wasn't sent !"));
+            return false;
+        }
+        circuitPermit = permit;
+        return true;
+    }
+
+    /**
+     * Gives the outcome of the attempt that just ended to the circuit breaker: a response below 500 proves
+     * the host is up, a 5xx or an exception that broke the attempt counts as a failure,
+     * an attempt that was never sent tells nothing.
+     */
+    private final void endCircuitPermit(int flag, @Nullable Response response) {
+        CircuitBreaker.Permit permit = circuitPermit;
+        if (permit == null) return;
+        circuitPermit = null;
+        int code = response == null ? 0 : response.getResponseCode();
+        if (flag == FLAG_RESPONSE_IS_READY || (code > 0 && code < HttpURLConnection.HTTP_INTERNAL_ERROR))
+            permit.onSuccess();
+        else if (code > 0 || attemptFailure != null) permit.onFailure();
+        else permit.release();
+    }
+
+    /**
+     * Starts timing the attempt for the circuit breaker, once it connects.
+     */
+    private final void startCircuitPermit() {
+        CircuitBreaker.Permit permit = circuitPermit;
+        if (permit != null) permit.start();
+    }
+
+    /**
+     * Starts timing an attempt of the current call, if this connection has a metrics recorder.
+     */
+    private final void startTimings() {
+        if (metricsRecorder == null || urlStr == null) return;
+        RequestTimings current = timings;
+        if (current == null) timings = current = new RequestTimings();
+        String method = callMethod;
+        current.start(urlStr, method == null ? CONNECTION_METHOD_GET : method);
+    }
+
+    /**
+     * Marks an instant of the timed attempt, the first time it's reached.
+     */
+    private final void markTiming(int mark) {
+        RequestTimings current = timings;
+        if (current != null) current.mark(mark);
+    }
+
+    /**
+     * Records the phases of the attempt that just ended.
+     *
+     * @return the status class of the attempt, -1 if it wasn't timed.
+     */
+    private final int finishTimings(@Nullable Response response) {
+        RequestTimings current = timings;
+        MetricsRecorder recorder = metricsRecorder;
+        if (current == null || recorder == null) return -1;
+        return current.finish(recorder, response == null ? 0 : response.getResponseCode());
+    }
+
+    /**
+     * Marks an instant of the exchange of a connection. The connection of an {@link HttpClientTransport}
+     * sends its whole request when the response is asked for, it doesn't tell when it's connected
+     * or when its request is written.
+     */
+    private final void markTiming(@NonNull HttpURLConnection connection, int mark) {
+        if (connection instanceof HttpClientConnection
+                && (mark == RequestTimings.MARK_CONNECTED || mark == RequestTimings.MARK_WRITTEN)) return;
+        markTiming(mark);
+    }
+
+    /**
+     * Opens a timed connection before its request is sent, to time its connect apart from the wait for its
+     * response, reading the response opens it otherwise.
+     */
+    private final void connectTimed(@NonNull HttpURLConnection connection) throws IOException {
+        RequestTimings current = timings;
+        if (current == null || !current.isRunning()) return;
+        connection.connect();
+        /**
+         * the connection of the client connects once it has the response headers
+         */
+        current.mark(connection instanceof HttpClientConnection
+                ? RequestTimings.MARK_FIRST_BYTE : RequestTimings.MARK_CONNECTED);
+    }
+
+    /**
+     * Starts a call once the circuit breaker and the rate limiter let it go, without holding a thread while it waits.
+     * The user is informed with {@link #FLAG_CIRCUIT_OPEN} if its host is down,
+     * and with {@link #FLAG_RATE_LIMITED} if it would have to wait too long.
+     *
+     * @param start: starts the call, it dispatches it or hands it to the engine.
+     */
+    private final void admit(@NonNull final Runnable start) {
+        if (!passCircuitBreaker()) return;
+        startTimings();
+        RateLimiter limiter = rateLimiter;
+        long wait = limiter == null ? 0 : limiter.acquire(urlStr);
+        if (wait < 0) {
+            informUserWithNewFlag(FLAG_RATE_LIMITED, rateLimitedResponse());
+        } else if (wait == 0) {
+            start.run();
+        } else {
+            Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) start.run();
+                }
+            }, wait);
+        }
+    }
+
+    /**
+     * Dispatches a call once the rate limiter lets it go.
+     */
+    private final void admitAndDispatch(@NonNull final Runnable call) {
+        admit(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(call);
+            }
+        });
+    }
+
+    @NonNull
+    private final Response rateLimitedResponse() {
+        return new Response(null, "Too many requests to " + hostOf(urlStr) + ", this one was rejected by the rate limiter !");
+    }
+
+    /**
+     * Waits in the calling thread before an attempt of a synchronous call.
+     *
+     * @return false if the thread was interrupted, the user is informed.
+     */
+    private final boolean sleepBeforeAttempt(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, new Response(null, "Interrupted while waiting to send the request !"));
+            return false;
+        }
+    }
+
+    /**
+     * Starts counting the retries of a new call.
+     *
+     * @param method: method of the call, it decides whether it can be retried.
+     */
+    private final void startRetries(@NonNull String method) {
+        RetryPolicy policy = retryPolicy;
+        callMethod = method;
+        retryCount = 0;
+        retryDelayMillis = -1;
+        attemptFailure = null;
+        if (policy == null) {
+            retryMethod = null;
+            return;
+        }
+        policy.getRetryBudget().onRequest();
+        retryMethod = method;
+    }
+
+    /**
+     * Runs one attempt of the current call in the calling thread.
+     *
+     * @return the wait before the next attempt in millis, -1 if the call ended.
+     */
+    private final long runAttempt(@NonNull Runnable attempt) {
+        retryDelayMillis = -1;
+        attemptFailure = null;
+        attempt.run();
+        long delay = retryDelayMillis;
+        retryDelayMillis = -1;
+        attemptFailure = null;
+        if (delay < 0 || cancelled) return -1;
+        retryCount++;
+        return delay;
+    }
+
+    /**
+     * Wraps the work of a call, an attempt that failed is dispatched again once its wait is over.
+     */
+    private final Runnable retrying(@NonNull final Runnable attempt) {
+        if (retryMethod == null) return attempt;
+        return new Runnable() {
+            @Override
+            public void run() {
+                long delay = runAttempt(attempt);
+                if (delay < 0) return;
+                final Runnable nextAttempt = this;
+                Scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled) admitAndDispatch(nextAttempt);
+                    }
+                }, delay);
+            }
+        };
+    }
+
+    /**
+     * @return true if no other flag follows this one in the same call.
+     */
+    static boolean isFinalFlag(int flag) {
+        return flag == FLAG_RESPONSE_IS_READY || flag < FLAG_REQUEST_ACCEPTED;
+    }
+
     /**
      * creates a url Object from a string path.
      */
@@ -210,7 +677,8 @@ public class HttpConnection {
     }
 
     /**
-     * Prepares an {@link HttpURLConnection} to be used to communicate with the server.
+     * Prepares an {@link HttpURLConnection} to be used to communicate with the server,
+     * it's opened by the {@link Transport} of this connection.
      *
      * @param url:              Url object
      * @param connectionMethod: one of the possible connections methods you find in this class.
@@ -221,16 +689,42 @@ public class HttpConnection {
     private final HttpURLConnection connectToServer(@NonNull URL url,
                                                     @NonNull String connectionMethod,
                                                     @Nullable RequestHeader header) {
+        return connectToServer(url, connectionMethod, header, null);
+    }
+
+    /**
+     * Prepares an {@link HttpURLConnection} whose request body is encoded.
+     *
+     * @param contentEncoding: encoding of the request body, null if it's sent as it is.
+     */
+    private final HttpURLConnection connectToServer(@NonNull URL url,
+                                                    @NonNull String connectionMethod,
+                                                    @Nullable RequestHeader header,
+                                                    @Nullable String contentEncoding) {
         HttpURLConnection connection;
 
         try {
 
-            connection = (HttpURLConnection) url.openConnection();
+            startCircuitPermit();
+            markTiming(RequestTimings.MARK_CONNECTING);
+            connection = transport.open(url);
+            activeConnection = connection;
+            /**
+             * the call was cancelled while the connection was being opened
+             */
+            if (cancelled) {
+                connection.disconnect();
+                throw new IOException("Call cancelled");
+            }
             connection.setRequestMethod(connectionMethod);
             /**
              * the connection will always be able to read from the server.
              */
             connection.setDoInput(true);
+            /**
+             * a server silent for longer fails the read
+             */
+            connection.setReadTimeout(readTimeout);
 
             /**
              * Different text responses your app can read from server.
@@ -263,6 +757,9 @@ public class HttpConnection {
                 for (Field field : header.getProperties()) {
                     connection.addRequestProperty(field.getName(), field.getValue());
                 }
+            ContentEncoding.acceptCompression(connection);
+            if (contentEncoding != null)
+                connection.setRequestProperty(RequestHeader.Field.CONTENT_ENCODING, contentEncoding);
 
             if (dataType == DATATYPE_TEXT) {
                 /**
@@ -295,26 +792,51 @@ public class HttpConnection {
                                 RequestHeader.Field.BOUNDARY + "= --" + boundary);
             }
 
-            /**
-             * in case of a delete request
-             */
-            if (connectionMethod.equals(CONNECTION_METHOD_DELETE)) {
-
-                connection.connect();
-            }
-
-
         } catch (IOException e) {
-            if (e != null) {
+            if (e != null && !cancelled) {
                 e.printStackTrace();
                 Log.e("Arrowbow_library", e.getMessage());
             }
+            attemptFailure = e;
             connection = null;
         }
 
         return connection;
     }
 
+    /**
+     * Prepares the connection of one segment of a {@link SegmentedDownload}.
+     * <p>
+     * Segments are opened by the workers of the download while the call is running, unlike
+     * {@link #connectToServer(URL, String, RequestHeader)} this doesn't change the state of the call
+     * (active connection, failure, circuit permit, timings), the download cancels its own connections.
+     *
+     * @param first:     first byte of the segment.
+     * @param last:      last byte of the segment.
+     * @param validator: value of If-Range, null if the file can't be validated.
+     */
+    private final HttpURLConnection openSegment(@NonNull URL url,
+                                                @Nullable RequestHeader header,
+                                                long first,
+                                                long last,
+                                                @Nullable String validator) throws IOException {
+        HttpURLConnection connection = transport.open(url);
+        connection.setRequestMethod(CONNECTION_METHOD_GET);
+        connection.setDoInput(true);
+        connection.setReadTimeout(readTimeout);
+        if (header != null && header.getProperties() != null)
+            for (Field field : header.getProperties()) {
+                connection.addRequestProperty(field.getName(), field.getValue());
+            }
+        /**
+         * ranges are bytes of the file itself, they can't be compressed
+         */
+        connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, "identity");
+        connection.setRequestProperty(RequestHeader.Field.RANGE, "bytes=" + first + "-" + last);
+        if (validator != null) connection.setRequestProperty(RequestHeader.Field.IF_RANGE, validator);
+        return connection;
+    }
+
     /**
      * Download methods
      */
@@ -378,176 +900,1192 @@ public class HttpConnection {
     }
 
     /**
-     * Reads data from server
+     * Streams the body of the response to a subscriber, as fast as it asks for it.
+     * <p>
+     * Result in callback methods will be a {@link BodyPublisher}, subscribe to it in doInBackgroundThread,
+     * doInUiThread or the future of the call: the body is read by the thread of the call once
+     * the callbacks returned, and the connection is closed if nobody subscribed within the read timeout.
      *
-     * @param requestHeader:    the header fields you want to pu into your http request, every {@link RequestHeader} has
-     *                          its own request property
-     *                          {@link Field}.
-     * @param storageDirectory: Where to store your file.
+     * @param url:           url you want to get your data from.
+     * @param requestHeader: the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                       its own request property
+     *                       {@link Field}.
      */
-    private final void readFromServer(@Nullable final RequestHeader requestHeader,
-                                      @Nullable String storageDirectory) {
+    public final HttpConnection getBodyPublisher(@Nullable String url,
+                                                 @Nullable RequestHeader requestHeader) {
+        this.dataType = DATATYPE_BODY_PUBLISHER;
+        this.urlStr = url;
+        readFromServer(requestHeader, null);
+        return this;
+    }
 
-        Thread readingThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                Response response = new Response(null, "");
-                Process.setThreadPriority(threadPriority);
-                /**
-                 * creates an {@link HttpURLConnection} and fill it with parameters
-                 */
-                URL url = createUrl();
-                if (url == null) {
-                    /**
-                     * Notify User with new occurring event
-                     */
+    /**
+     * Executes a request in the calling thread and waits for its result,
+     * callback methods are still called as usual.
+     * <p>
+     * The calling thread blocks until the operation ends, so use it from a background thread,
+     * for example one of {@link Dispatcher#newVirtualThreadDispatcher(int, int, int)}.
+     * <p>
+     * The transport, the retry policy, the circuit breaker, the rate limiter, the metrics recorder, both caches,
+     * resumable and segmented downloads and request compression apply as they do to the other calls.
+     * The request isn't coalesced, hedged, sent by the NIO engine nor limited by the dispatcher:
+     * those need the call to run on a thread of the library.
+     *
+     * @param request: the request to execute.
+     * @return the last response, its flag tells whether the result is ready or an error occurred.
+     */
+    @NonNull
+    public final Response execute(@NonNull Request request) {
+        this.cancelled = false;
+        return performExecute(request);
+    }
 
-                    informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
-                    return;
-                }
+    /**
+     * Executes a request in the calling thread, unless the call was cancelled.
+     */
+    @NonNull
+    private final Response performExecute(@NonNull Request request) {
+        this.urlStr = request.getUrl();
+        this.lastResponse = null;
+        startRetries(request.getMethod());
+
+        Runnable attempt = attemptOf(request);
+        long delay = 0;
+        while (true) {
+            /**
+             * the calling thread waits for the next attempt and for its turn,
+             * it's already blocked until the call ends
+             */
+            if (delay > 0 && !sleepBeforeAttempt(delay)) break;
+            if (cancelled || !passCircuitBreaker()) break;
+            startTimings();
+            long turn = rateLimiter == null ? 0 : rateLimiter.acquire(urlStr);
+            if (turn < 0) {
+                informUserWithNewFlag(FLAG_RATE_LIMITED, rateLimitedResponse());
+                break;
+            }
+            if (turn > 0 && !sleepBeforeAttempt(turn)) break;
+            delay = runAttempt(attempt);
+            if (delay < 0) break;
+        }
+
+        Response response = lastResponse;
+        if (response == null) response = new Response(null, "");
+        return response.setFlag(lastFlag);
+    }
+
+    /**
+     * @return one attempt of a request, executed in the calling thread.
+     */
+    @NonNull
+    private final Runnable attemptOf(@NonNull final Request request) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                dataType = request.getDataType();
+                if (request.getMethod().equals(CONNECTION_METHOD_GET)) {
+                    memoryCacheKey = memoryCache != null && dataType == DATATYPE_TEXT && urlStr != null
+                            ? ResponseMemoryCache.keyOf(urlStr, request.getHeader()) : null;
+                    Object remembered = memoryCacheKey == null ? null : memoryCache.get(memoryCacheKey);
+                    if (remembered != null) {
+                        /**
+                         * a result in memory skips the network
+                         */
+                        Response response = new Response(null, "");
+                        informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Read from memory"));
+                        informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(remembered));
+                    } else if (resumable && dataType == DATATYPE_FILE) {
+                        performResumableRead(request.getHeader(), request.getStorageDirectory());
+                    } else if (maxDownloadSegments > 1 && dataType == DATATYPE_FILE) {
+                        performSegmentedRead(request.getHeader(), request.getStorageDirectory());
+                    } else {
+                        performRead(request.getHeader(), request.getStorageDirectory());
+                    }
+                } else {
+                    memoryCacheKey = null;
+                    Object content = request.getBody();
+                    if (dataType == DATATYPE_MULTI_PART_DATA_FORM) content = request.getFields();
+                    else dataType = DATATYPE_TEXT;
+                    performWrite(content, request.getMethod(), request.getHeader(),
+                            request.getResponseDataType(), request.getStorageDirectory());
+                }
+            }
+        };
+    }
+
+    /**
+     * Asynchronous calls
+     * <p>
+     * The futures below complete in the background thread that ran the call, with the final response
+     * of the call: its flag is {@link #FLAG_RESPONSE_IS_READY} or one of the error flags.
+     * Callback methods are still called as usual, one call at a time per instance.
+     * <p>
+     * Cancelling a future disconnects the connection of the call and stops informing the user.
+     */
+
+    /**
+     * Same as {@link #getText(String, RequestHeader)}, without overriding callbacks.
+     */
+    @NonNull
+    public final CompletableFuture<Response> getTextAsync(@Nullable String url,
+                                                          @Nullable RequestHeader requestHeader) {
+        CompletableFuture<Response> future = newPendingFuture();
+        getText(url, requestHeader);
+        return future;
+    }
+
+    /**
+     * Same as {@link #getFile(String, RequestHeader, String)}, the result of the response is the file path.
+     */
+    @NonNull
+    public final CompletableFuture<Response> getFileAsync(@Nullable String url,
+                                                          @Nullable RequestHeader requestHeader,
+                                                          @NonNull String storageDirectory) {
+        CompletableFuture<Response> future = newPendingFuture();
+        getFile(url, requestHeader, storageDirectory);
+        return future;
+    }
+
+    /**
+     * Same as {@link #getBodyPublisher(String, RequestHeader)}, the result of the response is a {@link BodyPublisher}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> getBodyPublisherAsync(@Nullable String url,
+                                                                   @Nullable RequestHeader requestHeader) {
+        CompletableFuture<Response> future = newPendingFuture();
+        getBodyPublisher(url, requestHeader);
+        return future;
+    }
+
+    /**
+     * Same as {@link #postText(String, RequestHeader, String, int, String)}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> postTextAsync(@Nullable String url,
+                                                           @Nullable RequestHeader requestHeader,
+                                                           @Nullable String text,
+                                                           int responseDataType,
+                                                           @Nullable String storageDirectoryIfResponseIsFile) {
+        CompletableFuture<Response> future = newPendingFuture();
+        postText(url, requestHeader, text, responseDataType, storageDirectoryIfResponseIsFile);
+        return future;
+    }
+
+    /**
+     * Same as {@link #putText(String, RequestHeader, String, int, String)}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> putTextAsync(@Nullable String url,
+                                                          @Nullable RequestHeader requestHeader,
+                                                          @Nullable String text,
+                                                          int responseDataType,
+                                                          @Nullable String storageDirectoryIfResponseIsFile) {
+        CompletableFuture<Response> future = newPendingFuture();
+        putText(url, requestHeader, text, responseDataType, storageDirectoryIfResponseIsFile);
+        return future;
+    }
+
+    /**
+     * Same as {@link #patchText(String, RequestHeader, String, int, String)}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> patchTextAsync(@Nullable String url,
+                                                            @Nullable RequestHeader requestHeader,
+                                                            @Nullable String text,
+                                                            int responseDataType,
+                                                            @Nullable String storageDirectoryIfResponseIsFile) {
+        CompletableFuture<Response> future = newPendingFuture();
+        patchText(url, requestHeader, text, responseDataType, storageDirectoryIfResponseIsFile);
+        return future;
+    }
+
+    /**
+     * Same as {@link #deleteText(String, RequestHeader, String, int, String)}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> deleteTextAsync(@Nullable String url,
+                                                             @Nullable RequestHeader requestHeader,
+                                                             @Nullable String text,
+                                                             int responseDataType,
+                                                             @Nullable String storageDirectoryIfResponseIsFile) {
+        CompletableFuture<Response> future = newPendingFuture();
+        deleteText(url, requestHeader, text, responseDataType, storageDirectoryIfResponseIsFile);
+        return future;
+    }
+
+    /**
+     * Same as {@link #postMultiPartDataForm(String, RequestHeader, int, String, Field...)}.
+     */
+    @NonNull
+    public final CompletableFuture<Response> postMultiPartDataFormAsync(@Nullable String url,
+                                                                        @Nullable RequestHeader requestHeader,
+                                                                        int responseDataType,
+                                                                        @Nullable String storageDirectoryIfResponseIsFile,
+                                                                        @Nullable Field... fields) {
+        CompletableFuture<Response> future = newPendingFuture();
+        postMultiPartDataForm(url, requestHeader, responseDataType, storageDirectoryIfResponseIsFile, fields);
+        return future;
+    }
+
+    /**
+     * Same as {@link #execute(Request)} but the request runs on the dispatcher.
+     */
+    @NonNull
+    public final CompletableFuture<Response> executeAsync(@NonNull final Request request) {
+        CompletableFuture<Response> future = newPendingFuture();
+        this.urlStr = request.getUrl();
+        this.lastResponse = null;
+        /**
+         * the attempts are dispatched one by one, no worker waits for the next one
+         */
+        startRetries(request.getMethod());
+        final Runnable attempt = attemptOf(request);
+        admitAndDispatch(retrying(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(threadPriority);
+                attempt.run();
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Creates the future of the next call, cancelling it cancels the call.
+     */
+    private final CompletableFuture<Response> newPendingFuture() {
+        cancelled = false;
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        future.whenComplete(new BiConsumer<Response, Throwable>() {
+            @Override
+            public void accept(Response response, Throwable throwable) {
+                if (throwable instanceof CancellationException && !cancelled) cancel();
+            }
+        });
+        pendingFuture = future;
+        return future;
+    }
+
+    /**
+     * Cancels the current call: its connection is disconnected, a call still waiting
+     * in the dispatcher won't run, and the user isn't informed anymore.
+     * The failure of the read or write the disconnection breaks isn't logged.
+     */
+    public final void cancel() {
+        cancelled = true;
+        CompletableFuture<Response> future = pendingFuture;
+        if (future != null) {
+            pendingFuture = null;
+            future.cancel(true);
+        }
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) connection.disconnect();
+        BodyPublisher publisher = activePublisher;
+        if (publisher != null) publisher.cancel();
+        SegmentedDownload segmentedDownload = activeSegmentedDownload;
+        if (segmentedDownload != null) segmentedDownload.cancel();
+        /**
+         * the shared call goes on for the other requests waiting for it
+         */
+        SingleFlight.Flight joined = flight;
+        if (joined != null) {
+            flight = null;
+            joined.leave(this);
+        }
+        HedgedCall hedged = hedgedCall;
+        if (hedged != null) {
+            hedgedCall = null;
+            hedged.cancel();
+        }
+        CircuitBreaker.Permit permit = circuitPermit;
+        if (permit != null) {
+            circuitPermit = null;
+            permit.release();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Reads data from server
+     *
+     * @param requestHeader:    the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                          its own request property
+     *                          {@link Field}.
+     * @param storageDirectory: Where to store your file.
+     */
+    private final void readFromServer(@Nullable final RequestHeader requestHeader,
+                                      @Nullable String storageDirectory) {
+        /**
+         * a call without a future starts over after a cancelled one
+         */
+        if (pendingFuture == null) cancelled = false;
+
+        /**
+         * a result in memory skips the network, it's still delivered from a dispatcher thread
+         */
+        memoryCacheKey = memoryCache != null && dataType == DATATYPE_TEXT && urlStr != null
+                ? ResponseMemoryCache.keyOf(urlStr, requestHeader) : null;
+        if (memoryCacheKey != null) {
+            final Object result = memoryCache.get(memoryCacheKey);
+            if (result != null) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (cancelled) return;
+                        Response response = new Response(null, "");
+                        informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Read from memory"));
+                        informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
+                    }
+                });
+                return;
+            }
+        }
+
+        /**
+         * an identical request is running, its result is shared
+         */
+        if (coalescing && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE) && urlStr != null) {
+            final String url = urlStr;
+            final int type = dataType;
+            flight = SingleFlight.join(SingleFlight.keyOf(type, url, requestHeader, storageDirectory), this,
+                    new SingleFlight.Launcher() {
+                        @NonNull
+                        @Override
+                        public HttpConnection launch(@NonNull final SingleFlight.Flight flight) {
+                            HttpConnection call = new HttpConnection() {
+                                @Override
+                                protected void doInBackgroundThread(int flag, Response response) {
+                                    flight.onFlag(flag, response);
+                                }
+
+                                @Override
+                                public void showDownloadProgress(short percentage, long downloadSize, long numberOfReadBytes,
+                                                                 long numberOfDecodedBytes, long bytesPerSecond, long etaMillis) {
+                                    flight.onProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                                            bytesPerSecond, etaMillis);
+                                }
+                            };
+                            copySettingsTo(call);
+                            call.urlStr = url;
+                            call.dataType = type;
+                            call.readFromServer(requestHeader, storageDirectory);
+                            return call;
+                        }
+                    });
+            return;
+        }
+
+        /**
+         * a slow call is sent a second time, the first response wins
+         */
+        if (hedgingPolicy != null && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE) && urlStr != null) {
+            final String url = urlStr;
+            final int type = dataType;
+            HedgedCall hedged = new HedgedCall(this, hedgingPolicy, url, new HedgedCall.Launcher() {
+                @NonNull
+                @Override
+                public HttpConnection launch(@NonNull final HedgedCall.Attempt attempt) {
+                    HttpConnection call = new HttpConnection() {
+                        @Override
+                        protected void doInBackgroundThread(int flag, Response response) {
+                            attempt.onFlag(flag, response);
+                        }
+
+                        @Override
+                        public void showDownloadProgress(short percentage, long downloadSize, long numberOfReadBytes,
+                                                         long numberOfDecodedBytes, long bytesPerSecond, long etaMillis) {
+                            attempt.onProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                                    bytesPerSecond, etaMillis);
+                        }
+                    };
+                    copySettingsTo(call);
+                    call.hedgingPolicy = null;
+                    call.urlStr = url;
+                    call.dataType = type;
+                    call.readFromServer(requestHeader, storageDirectory);
+                    return call;
+                }
+            });
+            hedgedCall = hedged;
+            hedged.start();
+            return;
+        }
+
+        /**
+         * the engine holds whole bodies in memory, streamed ones are read from a connection,
+         * and so are the calls that may be retried
+         */
+        final boolean resumableFile = resumable && dataType == DATATYPE_FILE;
+        final boolean segmentedFile = !resumable && maxDownloadSegments > 1 && dataType == DATATYPE_FILE;
+        final boolean cached = cache != null && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE);
+        if (nioEngine != null && dataType != DATATYPE_BODY_PUBLISHER && !resumableFile && !segmentedFile && !cached
+                && retryPolicy == null) {
+            final URL url = createUrl();
+            if (NioEngine.isSupported(url, CONNECTION_METHOD_GET)) {
+                callMethod = CONNECTION_METHOD_GET;
+                admit(new Runnable() {
+                    @Override
+                    public void run() {
+                        readWithEngine(url, requestHeader, storageDirectory);
+                    }
+                });
+                return;
+            }
+        }
+
+        startRetries(CONNECTION_METHOD_GET);
+        admitAndDispatch(retrying(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(threadPriority);
+                if (resumableFile) performResumableRead(requestHeader, storageDirectory);
+                else if (segmentedFile) performSegmentedRead(requestHeader, storageDirectory);
+                else performRead(requestHeader, storageDirectory);
+            }
+        }));
+    }
+
+    /**
+     * Reads data from server in the calling thread.
+     *
+     * @param requestHeader:    the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                          its own request property
+     *                          {@link Field}.
+     * @param storageDirectory: Where to store your file.
+     */
+    private final void performRead(@Nullable final RequestHeader requestHeader,
+                                   @Nullable String storageDirectory) {
+        /**
+         * the call was cancelled while it was waiting in the dispatcher
+         */
+        if (cancelled) return;
+        Response response = new Response(null, "");
+        final ProgressReporter progress = newProgressReporter();
+        /**
+         * creates an {@link HttpURLConnection} and fill it with parameters
+         */
+        URL url = createUrl();
+        if (url == null) {
+            /**
+             * Notify User with new occurring event
+             */
+
+            informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
+            return;
+        }
+        /**
+         * a fresh cached response is read without touching the network
+         */
+        HttpCache.Entry cached = null;
+        if (cache != null && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE)) {
+            cached = cache.get(url, requestHeader);
+            if (cached != null && cached.isFresh(requestHeader)) {
+                cache.recordHit();
+                deliverCachedResponse(cached, url, storageDirectory, progress);
+                return;
+            }
+        }
+        HttpURLConnection connection = connectToServer(url, CONNECTION_METHOD_GET, requestHeader);
+        InputStream inputStream = null;
+        /**
+         * the body copied to the cache while it's read
+         */
+        InputStream cacheBody = null;
+        /**
+         * whether the connection can go back to the pool once the body is read
+         */
+        boolean reusable = false;
+        if (connection == null) {
+            /**
+             * Notify User with new occurring event
+             */
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
+            return;
+        } else {
+
+            try {
+                if (cached != null) cached.addValidators(connection);
+                connectTimed(connection);
+                // preparing response
+                response.setHttpURLConnection(connection);
+                markTiming(RequestTimings.MARK_FIRST_BYTE);
+
+                /**
+                 * the cached response didn't change
+                 */
+                if (cached != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    reusable = true;
+                    deliverCachedResponse(cache.revalidated(cached, connection), url, storageDirectory, progress);
+                    return;
+                }
+
+                /**
+                 * Case request rejected
+                 */
+                if (connection.getResponseCode() != successfulResponseCode) {
+                    /**
+                     * Reading Error message and returning it to the user
+                     */
+                    inputStream = connection.getErrorStream();
+                    long downloadSize = connection.getContentLength();
+                    String errorMessage = readText(decode(inputStream, connection, progress), downloadSize, connection.getContentType(), progress) + " Response Code: " + connection.getResponseCode();
+                    reusable = true;
+                    /**
+                     * Notify User with new occurring event
+                     */
+                    informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, response.setResult(errorMessage));
+
+                    return;
+                } else {
+
+                    /**
+                     * Notify User with new occurring event
+                     * and returning the content length of the file
+                     */
+
+                    /**
+                     * reading stream from the server & converting it to the specified data type
+                     */
+                    inputStream = connection.getInputStream();
+                    InputStream decodedStream = decode(inputStream, connection, progress);
+                    if (cache != null && (dataType == DATATYPE_TEXT || dataType == DATATYPE_FILE)) {
+                        cache.recordMiss();
+                        decodedStream = cache.store(url, requestHeader, connection, decodedStream);
+                        cacheBody = decodedStream;
+                    }
+                    long downloadSize = connection.getContentLength();
+                    informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
+
+                    switch (dataType) {
+                        case DATATYPE_TEXT:
+                            String result = null;
+                            try {
+                                result = readText(decodedStream, downloadSize, connection.getContentType(), progress);
+
+                            } catch (IOException e) {
+                                attemptFailure = e;
+                                if (e != null && !cancelled) {
+                                    e.printStackTrace();
+                                    Log.e("Arrowbow_library", e.getMessage());
+                                }
+                            } finally {
+                                /**
+                                 * Notify User with new occurring event
+                                 */
+                                if (result != null) {
+                                    rememberText(result);
+                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
+                                } else {
+                                    informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("No Response from Server except it accepted your request !"));
+                                }
+                            }
+                            break;
+
+                        case DATATYPE_FILE:
+                            String contentType = connection.getContentType();
+                            String fileName = StorageUtils
+                                    .randomNameWithExtension("arrowbow_download", contentType);
+
+
+                            String path = FileDownloader.save(storageDirectory, fileName, decodedStream, progress.isDecoding() ? -1 : downloadSize,
+                                    fileProgress(progress, downloadSize));
+
+
+                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+                            break;
+
+                        case DATATYPE_INPUT_STREAM:
+                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(decodedStream));
+                            break;
+
+                        case DATATYPE_BODY_PUBLISHER:
+                            BodyPublisher publisher = new BodyPublisher(decodedStream, readTimeout);
+                            activePublisher = publisher;
+                            if (cancelled) publisher.cancel();
+                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(publisher));
+                            /**
+                             * a body that wasn't read to its end can't be drained, the connection is closed
+                             */
+                            if (!publisher.stream()) return;
+                            break;
+                    }
+                    reusable = true;
+
+                }
+
+            } catch (IOException e) {
+                attemptFailure = e;
+                if (e != null && !cancelled) {
+                    e.printStackTrace();
+                    Log.e("Arrowbow_library", e.getMessage());
+                }
+                informUserWithNewFlag(FLAG_ERROR_MESSAGE, null);
+                return;
+
+            } finally {
+                activeConnection = null;
+                activePublisher = null;
+                /**
+                 * a body that wasn't read to its end isn't cached
+                 */
+                if (cacheBody instanceof HttpCache.StoringInputStream)
+                    ((HttpCache.StoringInputStream) cacheBody).abort();
+                if (reusable) {
+                    /**
+                     * keeping the connection alive for the next request to this host
+                     */
+                    releaseConnection(connection, inputStream);
+                } else {
+                    connection.disconnect();
+
+                    if (inputStream != null) {
+                        try {
+                            inputStream.close();
+                        } catch (IOException e) {
+                            if (e != null && !cancelled) {
+                                e.printStackTrace();
+//                                Log.e("Arrowbow_library", e.getMessage());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Informs this request with a flag of a call running for it: the shared call it joined
+     * or the winner of its hedged attempts.
+     */
+    final void deliverDelegatedFlag(int flag, @Nullable Response response) {
+        if (isFinalFlag(flag)) {
+            flight = null;
+            hedgedCall = null;
+        }
+        informUserWithNewFlag(flag, response);
+    }
+
+    /**
+     * Informs this request with the progress of a call running for it, in the ui thread.
+     */
+    final void deliverDelegatedProgress(short percentage, long downloadSize, long numberOfReadBytes,
+                                     long numberOfDecodedBytes, long bytesPerSecond, long etaMillis) {
+        progressListener.onProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                bytesPerSecond, etaMillis);
+    }
+
+    /**
+     * Gives a shared call the settings of this connection.
+     */
+    private final void copySettingsTo(@NonNull HttpConnection call) {
+        call.dispatcher = dispatcher;
+        call.transport = transport;
+        call.nioEngine = nioEngine;
+        call.connectionTimeout = connectionTimeout;
+        call.readTimeout = readTimeout;
+        call.successfulResponseCode = successfulResponseCode;
+        call.threadPriority = threadPriority;
+        call.requestCompressionThreshold = requestCompressionThreshold;
+        call.resumable = resumable;
+        call.maxDownloadSegments = maxDownloadSegments;
+        call.cache = cache;
+        call.memoryCache = memoryCache;
+        call.retryPolicy = retryPolicy;
+        call.hedgingPolicy = hedgingPolicy;
+        call.rateLimiter = rateLimiter;
+        call.circuitBreaker = circuitBreaker;
+        call.metricsRecorder = metricsRecorder;
+        call.progressIntervalMillis = progressIntervalMillis;
+        call.progressPercentageDelta = progressPercentageDelta;
+    }
+
+    /**
+     * Keeps the text of a successful getText in the memory cache.
+     */
+    private final void rememberText(@Nullable String text) {
+        String key = memoryCacheKey;
+        if (key != null && text != null) memoryCache.put(key, text);
+    }
+
+    /**
+     * Delivers a response from the cache as if it came from the network.
+     *
+     * @param entry:            the cached response.
+     * @param url:              url of the request.
+     * @param storageDirectory: Where to store your file.
+     * @param progress:         reports the progress of the call.
+     */
+    private final void deliverCachedResponse(@NonNull HttpCache.Entry entry,
+                                             @NonNull URL url,
+                                             @Nullable String storageDirectory,
+                                             @NonNull ProgressReporter progress) {
+        Response response = new Response(null, "")
+                .setReceived(url, CONNECTION_METHOD_GET, entry.responseCode, entry.headers);
+        long downloadSize = entry.contentLength();
+        informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
+        InputStream body = null;
+        try {
+            body = new FileInputStream(entry.body);
+            if (dataType == DATATYPE_TEXT) {
+                String result = readText(body, downloadSize, response.getContentType(), progress);
+                rememberText(result);
+                informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
+            } else {
+                /**
+                 * the cached body stays in the cache, the user gets a copy of it
+                 */
+                String fileName = StorageUtils
+                        .randomNameWithExtension("arrowbow_download", response.getContentType());
+                String path = FileDownloader.save(storageDirectory, fileName, body, downloadSize,
+                        fileProgress(progress, downloadSize));
+                informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+            }
+        } catch (IOException e) {
+            if (e != null && !cancelled) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", e.getMessage());
+            }
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("Couldn't read the cached response !"));
+        } finally {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    if (!cancelled) e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads a file in the calling thread, resuming it from its partial file if there is one.
+     *
+     * @param requestHeader:    the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                          its own request property
+     *                          {@link Field}.
+     * @param storageDirectory: Where to store your file.
+     */
+    private final void performResumableRead(@Nullable final RequestHeader requestHeader,
+                                            @Nullable String storageDirectory) {
+        /**
+         * the call was cancelled while it was waiting in the dispatcher
+         */
+        if (cancelled) return;
+        Response response = new Response(null, "");
+        final ProgressReporter progress = newProgressReporter();
+        URL url = createUrl();
+        if (url == null) {
+            informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
+            return;
+        }
+        ResumableDownload download = new ResumableDownload(storageDirectory, url.toString());
+        try {
+            download.lock();
+        } catch (IOException e) {
+            if (e != null) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", e.getMessage());
+            }
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("This file is already being downloaded !"));
+            return;
+        }
+
+        /**
+         * the end of the download is told once the partial file is released, the same url can be asked again at once
+         */
+        int flag = FLAG_ERROR_MESSAGE;
+        Response result = null;
+        boolean ended = false;
+        try {
+            /**
+             * a partial file the server can't resume from is dropped, the file is then asked once more from its start
+             */
+            for (int attempt = 0; attempt < 2; attempt++) {
                 HttpURLConnection connection = connectToServer(url, CONNECTION_METHOD_GET, requestHeader);
-                InputStream inputStream = null;
                 if (connection == null) {
+                    result = response.setResult("We couldn't even connect to this Url !");
+                    ended = true;
+                    break;
+                }
+                InputStream inputStream = null;
+                boolean reusable = false;
+                try {
+                    long position = download.prepare(connection);
+                    connectTimed(connection);
+                    response.setHttpURLConnection(connection);
+                    int responseCode = connection.getResponseCode();
+                    markTiming(RequestTimings.MARK_FIRST_BYTE);
+                    boolean accepted = responseCode == successfulResponseCode
+                            || (position > 0 && (responseCode == HttpURLConnection.HTTP_PARTIAL
+                            || responseCode == ResumableDownload.HTTP_RANGE_NOT_SATISFIABLE));
+                    if (!accepted) {
+                        inputStream = connection.getErrorStream();
+                        String errorMessage = readText(inputStream, connection.getContentLength(), connection.getContentType(), progress) + " Response Code: " + responseCode;
+                        reusable = true;
+                        flag = FLAG_REQUEST_UNACCEPTED;
+                        result = response.setResult(errorMessage);
+                        ended = true;
+                        break;
+                    }
+
+                    long start = download.start(connection, position);
+                    inputStream = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? connection.getErrorStream() : connection.getInputStream();
+                    if (start < 0) {
+                        reusable = true;
+                        continue;
+                    }
+                    final long downloadSize = download.size();
+                    informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult(start > 0
+                            ? "Resumed download of " + downloadSize + " bytes from " + start
+                            : "Started download of " + downloadSize + " bytes"));
+
                     /**
-                     * Notify User with new occurring event
+                     * a partial file already complete has nothing left to read
                      */
-                    informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
-                    return;
-                } else {
+                    if (responseCode != ResumableDownload.HTTP_RANGE_NOT_SATISFIABLE && inputStream != null)
+                        download.write(inputStream, start, fileProgress(progress, downloadSize));
+                    String fileName = StorageUtils
+                            .randomNameWithExtension("arrowbow_download", download.contentType());
+                    String path = download.complete(fileName);
+                    reusable = true;
+                    flag = FLAG_RESPONSE_IS_READY;
+                    result = response.setResult(path);
+                    ended = true;
+                    break;
 
-                    try {
-                        // preparing response
-                        response.setHttpURLConnection(connection);
+                } catch (IOException e) {
+                    attemptFailure = e;
+                    if (e != null && !cancelled) {
+                        e.printStackTrace();
+                        Log.e("Arrowbow_library", e.getMessage());
+                    }
+                    /**
+                     * the partial file and its sidecar are kept for the next attempt
+                     */
+                    ended = true;
+                    break;
 
-                        /**
-                         * Case request rejected
-                         */
-                        if (connection.getResponseCode() != successfulResponseCode) {
-                            /**
-                             * Reading Error message and returning it to the user
-                             */
-                            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), Charset.forName("UTF-8")));
-                            long downloadSize = connection.getContentLength();
-                            String errorMessage = buildTextFromBuffer(reader, downloadSize) + " Response Code: " + connection.getResponseCode();
-                            /**
-                             * Notify User with new occurring event
-                             */
-                            informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, response.setResult(errorMessage));
+                } finally {
+                    activeConnection = null;
+                    if (reusable) {
+                        releaseConnection(connection, inputStream);
+                    } else {
+                        connection.disconnect();
+                        if (inputStream != null) {
+                            try {
+                                inputStream.close();
+                            } catch (IOException e) {
+                                if (e != null && !cancelled) {
+                                    e.printStackTrace();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            if (!ended) result = response.setResult("The download couldn't be resumed !");
+        } finally {
+            download.unlock();
+        }
+        informUserWithNewFlag(flag, result);
+    }
 
-                            if (reader != null) reader.close();
-                            if (inputStream != null) inputStream.close();
-                            if (connection != null) connection.disconnect();
+    /**
+     * Downloads a file in the calling thread with several connections, each one fetching a range of the file.
+     * <p>
+     * The first range is asked with the first request: a server that doesn't send ranges answers with the whole
+     * file, which is then read as one stream.
+     *
+     * @param requestHeader:    the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                          its own request property
+     *                          {@link Field}.
+     * @param storageDirectory: Where to store your file.
+     */
+    private final void performSegmentedRead(@Nullable final RequestHeader requestHeader,
+                                            @Nullable String storageDirectory) {
+        /**
+         * the call was cancelled while it was waiting in the dispatcher
+         */
+        if (cancelled) return;
+        Response response = new Response(null, "");
+        final ProgressReporter progress = newProgressReporter();
+        final URL url = createUrl();
+        if (url == null) {
+            informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
+            return;
+        }
+        HttpURLConnection connection = connectToServer(url, CONNECTION_METHOD_GET, requestHeader);
+        if (connection == null) {
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
+            return;
+        }
+        InputStream inputStream = null;
+        File file = null;
+        boolean reusable = false;
+        boolean singleConnection = false;
+        try {
+            /**
+             * ranges are bytes of the file itself, they can't be compressed
+             */
+            connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, "identity");
+            connection.setRequestProperty(RequestHeader.Field.RANGE, "bytes=0-" + (SegmentedDownload.MIN_SEGMENT_SIZE - 1));
+            connectTimed(connection);
+            response.setHttpURLConnection(connection);
+            int responseCode = connection.getResponseCode();
+            markTiming(RequestTimings.MARK_FIRST_BYTE);
+            if (responseCode != successfulResponseCode && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                inputStream = connection.getErrorStream();
+                String errorMessage = readText(inputStream, connection.getContentLength(), connection.getContentType(), progress) + " Response Code: " + responseCode;
+                reusable = true;
+                informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, response.setResult(errorMessage));
+                return;
+            }
 
-                            return;
-                        } else {
+            inputStream = connection.getInputStream();
+            String contentRange = connection.getHeaderField(RequestHeader.Field.CONTENT_RANGE);
+            boolean ranged = responseCode == HttpURLConnection.HTTP_PARTIAL
+                    && contentRange != null && contentRange.startsWith("bytes 0-");
+            final long downloadSize = ranged ? ResumableDownload.totalOf(contentRange) : connection.getContentLengthLong();
+            long firstSegmentSize = ResumableDownload.lastOf(contentRange) + 1;
+            if (ranged && (downloadSize <= 0 || firstSegmentSize <= 0)) {
+                /**
+                 * the server sends ranges without the size of the file, it can't be cut in segments
+                 * and is asked again in one piece
+                 */
+                reusable = true;
+                singleConnection = true;
+            } else {
+                String fileName = StorageUtils
+                        .randomNameWithExtension("arrowbow_download", connection.getContentType());
+                informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
 
-                            /**
-                             * Notify User with new occurring event
-                             * and returning the content length of the file
-                             */
+                String path;
+                if (!ranged) {
+                    /**
+                     * the server doesn't send ranges, the file comes in one piece
+                     */
+                    path = FileDownloader.save(storageDirectory, fileName, inputStream, downloadSize,
+                            fileProgress(progress, downloadSize));
+                } else {
+                    file = new File(storageDirectory, fileName);
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+                        throw new IOException("Couldn't create the directory " + parent);
 
-                            /**
-                             * reading stream from the server & converting it to the specified data type
-                             */
-                            inputStream = connection.getInputStream();
-                            long downloadSize = connection.getContentLength();
-                            informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
-
-                            switch (dataType) {
-                                case DATATYPE_TEXT:
-                                    String result = null;
-                                    try {
-                                        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
-                                        result = buildTextFromBuffer(reader, downloadSize);
-                                        reader.close();
-
-                                    } catch (IOException e) {
-                                        if (e != null) {
-                                            e.printStackTrace();
-                                            Log.e("Arrowbow_library", e.getMessage());
-                                        }
-                                    } finally {
-                                        /**
-                                         * Notify User with new occurring event
-                                         */
-                                        if (result != null) {
-                                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
-                                        } else {
-                                            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("No Response from Server except it accepted your request !"));
-                                        }
-                                    }
-                                    break;
-
-                                case DATATYPE_FILE:
-                                    String contentType = connection.getContentType();
-                                    String fileName = StorageUtils
-                                            .randomNameWithExtension("arrowbow_download", contentType);
-
-
-                                    String path = new FileSaver() {
-                                        /**
-                                         *This var is declared to minimize the number of main thread calls when,
-                                         * the download size is so big we might have the same progress many times.
-                                         */
-                                        short lastProgress = 0;
-
-                                        @Override
-                                        public void showProgress(long numberOfReadBytes) {
-                                            short percentage = 0;
-
-                                            if (downloadSize >= numberOfReadBytes)
-                                                percentage = Short.valueOf(
-                                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-
-                                            else percentage = 100;
-
-                                            if (percentage > lastProgress) {
-                                                lastProgress = percentage;
-                                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                                            }
-
-
-                                        }
-                                    }.save(storageDirectory, fileName, inputStream);
-
-
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
-                                    break;
-
-                                case DATATYPE_INPUT_STREAM:
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(inputStream));
-                                    break;
+                    /**
+                     * every range has to come from the same version of the file
+                     */
+                    final String validator = ResumableDownload.validatorOf(
+                            connection.getHeaderField(RequestHeader.Field.ETAG),
+                            connection.getHeaderField(RequestHeader.Field.LAST_MODIFIED));
+                    SegmentedDownload.Source source = new SegmentedDownload.Source() {
+                        @NonNull
+                        @Override
+                        public HttpURLConnection open(long first, long last) throws IOException {
+                            return openSegment(url, requestHeader, first, last, validator);
+                        }
+                    };
+                    Executor executor = new Executor() {
+                        @Override
+                        public void execute(@NonNull final Runnable worker) {
+                            boolean accepted = dispatcher.enqueue(url.getHost(), new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(threadPriority);
+                                    worker.run();
+                                }
+                            });
+                            if (!accepted) throw new RejectedExecutionException("Too many requests are waiting");
+                        }
+                    };
+                    /**
+                     * the workers report their progress from different threads
+                     */
+                    FileDownloader.ProgressListener listener = new FileDownloader.ProgressListener() {
+                        @Override
+                        public void onProgress(long numberOfWrittenBytes) {
+                            synchronized (progress) {
+                                progress.update(numberOfWrittenBytes, downloadSize);
                             }
-
                         }
+                    };
+
+                    SegmentedDownload download = new SegmentedDownload(source, executor, maxDownloadSegments, downloadSize, listener);
+                    activeSegmentedDownload = download;
+                    if (cancelled) download.cancel();
+                    download.download(file, inputStream, firstSegmentSize);
+                    path = file.getPath();
+                }
+                reusable = true;
+                informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+            }
 
+        } catch (IOException e) {
+            attemptFailure = e;
+            if (e != null && !cancelled) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", e.getMessage());
+            }
+            if (file != null) file.delete();
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, null);
+
+        } finally {
+            activeConnection = null;
+            activeSegmentedDownload = null;
+            if (reusable) {
+                releaseConnection(connection, inputStream);
+            } else {
+                connection.disconnect();
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
                     } catch (IOException e) {
-                        if (e != null) {
+                        if (e != null && !cancelled) {
                             e.printStackTrace();
-                            Log.e("Arrowbow_library", e.getMessage());
                         }
-                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, null);
-                        return;
+                    }
+                }
+            }
+        }
+        if (singleConnection) performRead(requestHeader, storageDirectory);
+    }
 
-                    } finally {
-                        if (connection != null) connection.disconnect();
+    /**
+     * Reads data from server with the {@link NioEngine}, no thread waits for the response,
+     * a dispatcher thread is only used once it fully arrived.
+     *
+     * @param url:              url you want to read from.
+     * @param requestHeader:    the header fields you want to pu into your http request.
+     * @param storageDirectory: Where to store your file.
+     */
+    private final void readWithEngine(@NonNull final URL url,
+                                      @Nullable RequestHeader requestHeader,
+                                      @Nullable final String storageDirectory) {
+        final Response response = new Response(null, "");
+        final ProgressReporter progress = newProgressReporter();
+        startCircuitPermit();
+        markTiming(RequestTimings.MARK_CONNECTING);
+        nioEngine.send(url, CONNECTION_METHOD_GET, requestHeader, new NioEngine.Callback() {
+            @Override
+            public void onProgress(long numberOfReadBytes, long downloadSize) {
+                progress.update(numberOfReadBytes, downloadSize);
+            }
 
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                if (e != null) {
-                                    e.printStackTrace();
-//                                    Log.e("Arrowbow_library", e.getMessage());
-                                }
-                            }
+            @Override
+            public void onResponse(final int responseCode,
+                                   @NonNull final Map<String, List<String>> headers,
+                                   @NonNull final NioEngine.PooledBody body) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            deliverEngineResponse(response.setReceived(url, CONNECTION_METHOD_GET, responseCode, headers),
+                                    body, storageDirectory);
+                        } finally {
+                            body.release();
                         }
                     }
-                }
+                });
+            }
 
+            @Override
+            public void onFailure(@NonNull final IOException e) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.e("Arrowbow_library", "" + e.getMessage());
+                        attemptFailure = e;
+                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
+                    }
+                });
             }
         });
-        readingThread.start();
+    }
+
+    /**
+     * Converts a response received by the {@link NioEngine} to the specified data type
+     * and informs the user with it.
+     */
+    private final void deliverEngineResponse(@NonNull Response response,
+                                             @NonNull NioEngine.PooledBody body,
+                                             @Nullable String storageDirectory) {
+        /**
+         * the engine receives compressed bodies as they are
+         */
+        boolean compressed = ContentEncoding.isCompressed(response.getContentEncoding()) && body.length() > 0;
+        try {
+            /**
+             * Case request rejected
+             */
+            if (response.getResponseCode() != successfulResponseCode) {
+                String errorMessage = engineText(response, body, compressed)
+                        + " Response Code: " + response.getResponseCode();
+                informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, response.setResult(errorMessage));
+                return;
+            }
+
+            long downloadSize = body.length();
+            informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Started download of " + downloadSize + " bytes"));
+
+            switch (dataType) {
+                case DATATYPE_TEXT:
+                    String text = engineText(response, body, compressed);
+                    rememberText(text);
+                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(text));
+                    break;
+
+                case DATATYPE_FILE:
+                    String fileName = StorageUtils
+                            .randomNameWithExtension("arrowbow_download", response.getContentType());
+                    File file = new File(storageDirectory, fileName);
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+                        throw new IOException("Couldn't create the directory " + parent);
+                    FileOutputStream outputStream = new FileOutputStream(file);
+                    try {
+                        if (compressed) {
+                            InputStream decoded = ContentEncoding.decode(
+                                    new ByteArrayInputStream(body.toByteArray()), response.getContentEncoding());
+                            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                            int count;
+                            while ((count = decoded.read(buffer)) != -1) outputStream.write(buffer, 0, count);
+                        } else {
+                            body.writeTo(outputStream.getChannel());
+                        }
+                    } finally {
+                        outputStream.close();
+                    }
+                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(file.getPath()));
+                    break;
+
+                case DATATYPE_INPUT_STREAM:
+                    InputStream stream = new ByteArrayInputStream(body.toByteArray());
+                    if (compressed) stream = ContentEncoding.decode(stream, response.getContentEncoding());
+                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(stream));
+                    break;
+            }
+        } catch (IOException e) {
+            if (e != null && !cancelled) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", e.getMessage());
+            }
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("Couldn't read the response !"));
+        }
+    }
+
+    /**
+     * @return the body received by the {@link NioEngine} as text, decoded if it's compressed.
+     */
+    private static String engineText(@NonNull Response response, @NonNull NioEngine.PooledBody body,
+                                     boolean compressed) throws IOException {
+        if (!compressed) return new String(body.toByteArray(), TextBody.charsetOf(response.getContentType()));
+        InputStream decoded = ContentEncoding.decode(
+                new ByteArrayInputStream(body.toByteArray()), response.getContentEncoding());
+        return TextBody.read(decoded, -1, TextBody.charsetOf(response.getContentType()), null);
     }
 
     /**
@@ -683,218 +2221,330 @@ public class HttpConnection {
                                      @Nullable final RequestHeader requestHeader,
                                      int responseDataType,
                                      @Nullable String storageDirectoryIfResponseIsFile) {
-        Thread writingTask = new Thread(new Runnable() {
+        /**
+         * a call without a future starts over after a cancelled one
+         */
+        if (pendingFuture == null) cancelled = false;
+
+        startRetries(connectionMethod);
+        admitAndDispatch(retrying(new Runnable() {
             @Override
             public void run() {
-                Response response = new Response(null, "");
                 Process.setThreadPriority(threadPriority);
-                /** http url connection object to connect to the server and read stream from it*/
-                URL url = createUrl();
+                performWrite(content, connectionMethod, requestHeader, responseDataType, storageDirectoryIfResponseIsFile);
+            }
+        }));
+    }
 
-                if (url == null) {
-                    /**
-                     * Notify User with new occurring event
-                     */
-                    informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
-                    return;
-                }
+    /**
+     * Writes data to the specified URL in the calling thread.
+     *
+     * @param requestHeader:                    the header fields you want to pu into your http request, every {@link RequestHeader} has
+     *                                          its own request property
+     *                                          {@link Field}.
+     * @param responseDataType:                 integer to specify whether it's a text or a File
+     * @param storageDirectoryIfResponseIsFile: where to put the file in case the response is a file
+     */
+    private final void performWrite(@Nullable final Object content,
+                                    @NonNull final String connectionMethod,
+                                    @Nullable final RequestHeader requestHeader,
+                                    int responseDataType,
+                                    @Nullable String storageDirectoryIfResponseIsFile) {
+        /**
+         * the call was cancelled while it was waiting in the dispatcher
+         */
+        if (cancelled) return;
+        Response response = new Response(null, "");
+        final ProgressReporter progress = newProgressReporter();
+        /** http url connection object to connect to the server and read stream from it*/
+        URL url = createUrl();
+
+        if (url == null) {
+            /**
+             * Notify User with new occurring event
+             */
+            informUserWithNewFlag(FLAG_WRONG_URL, response.setResult("There something wrong about this Url !"));
+            return;
+        }
 
+        /**
+         * a request that isn't a GET may change what the url returns
+         */
+        if (cache != null) cache.remove(url);
+        if (memoryCache != null && urlStr != null) memoryCache.invalidateUrl(urlStr);
 
-                HttpURLConnection connection = null;
-                if (dataType != DATATYPE_MULTI_PART_DATA_FORM) {
-                    connection = connectToServer(url, connectionMethod, requestHeader);
 
-                    if (connection == null) {
-                        /**
-                         * Notify User with new occurring event
-                         */
-                        informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
-                        return;
-                    }
-                    response.setHttpURLConnection(connection);
-                }
+        /**
+         * text is sent in UTF-8, compressed if it's large enough
+         */
+        byte[] contentBytes = null;
+        boolean compressBody = false;
+        if (dataType == DATATYPE_TEXT) {
+            contentBytes = content == null ? new byte[0] : ((String) content).trim().getBytes(StandardCharsets.UTF_8);
+            compressBody = requestCompressionThreshold >= 0 && contentBytes.length >= requestCompressionThreshold;
+        }
 
-                OutputStream outputStream = null;
+        HttpURLConnection connection = null;
+        if (dataType != DATATYPE_MULTI_PART_DATA_FORM) {
+            connection = connectToServer(url, connectionMethod, requestHeader,
+                    compressBody ? ContentEncoding.GZIP : null);
 
-                try {
+            if (connection == null) {
+                /**
+                 * Notify User with new occurring event
+                 */
+                informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult("We couldn't even connect to this Url !"));
+                return;
+            }
+        }
 
-                    BufferedReader reader = null;
+        OutputStream outputStream = null;
+        /**
+         * body of the response and whether the connection can go back to the pool once it's read
+         */
+        InputStream body = null;
+        boolean reusable = false;
 
-                    switch (dataType) {
-                        case DATATYPE_TEXT:
-                            String contentStr = (String) content;
-                            outputStream = connection.getOutputStream();
-                            BufferedOutputStream writer = new BufferedOutputStream(outputStream);
-                            try {
+        try {
 
-                                /**
-                                 * sending json to the server
-                                 */
-                                if (contentStr == null) contentStr = "";
-                                writer.write(contentStr.trim().getBytes());
-                                writer.flush();
+            switch (dataType) {
+                case DATATYPE_TEXT:
+                    outputStream = connection.getOutputStream();
+                    markTiming(connection, RequestTimings.MARK_CONNECTED);
+                    OutputStream writer = compressBody
+                            ? new GZIPOutputStream(outputStream, DRAIN_BUFFER_SIZE)
+                            : new BufferedOutputStream(outputStream);
+                    try {
+
+                        /**
+                         * sending json to the server
+                         */
+                        writer.write(contentBytes);
+                        if (compressBody) ((GZIPOutputStream) writer).finish();
+                        writer.flush();
+                        markTiming(connection, RequestTimings.MARK_WRITTEN);
+                        /**
+                         * the response details are read once the body was written,
+                         * reading them sends the request
+                         */
+                        response.setHttpURLConnection(connection);
+                        markTiming(RequestTimings.MARK_FIRST_BYTE);
 
 
-                                /**
-                                 * reading response from server
-                                 */
-                                if (connection.getResponseCode() != 200) {
-                                    /**
-                                     * case of error
-                                     */
-                                    reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), Charset.forName("UTF-8")));
-                                    long downloadSize = connection.getContentLength();
-                                    String errorMessage = buildTextFromBuffer(reader, downloadSize) + " Response Code: " + connection.getResponseCode();
-
-                                    /**
-                                     * Notify User with new occurring event
-                                     */
-                                    informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(errorMessage));
-                                    throw new IOException();
-                                }
+                        /**
+                         * reading response from server
+                         */
+                        if (connection.getResponseCode() != 200) {
+                            /**
+                             * case of error
+                             */
+                            body = connection.getErrorStream();
+                            long downloadSize = connection.getContentLength();
+                            String errorMessage = readText(decode(body, connection, progress), downloadSize, connection.getContentType(), progress) + " Response Code: " + connection.getResponseCode();
+                            reusable = true;
+
+                            /**
+                             * Notify User with new occurring event
+                             */
+                            informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(errorMessage));
+                            return;
+                        }
 
 
-                                /**
-                                 * case request accepted
-                                 */
-                                informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Request accepted !"));
+                        /**
+                         * case request accepted
+                         */
+                        informUserWithNewFlag(FLAG_REQUEST_ACCEPTED, response.setResult("Request accepted !"));
 
-                                /**
-                                 * Notify User with new occurring event
-                                 */
-                                informUserWithNewFlag(FLAG_DATA_SENT, response.setResult("Data sent !"));
+                        /**
+                         * Notify User with new occurring event
+                         */
+                        informUserWithNewFlag(FLAG_DATA_SENT, response.setResult("Data sent !"));
 
-                                /**
-                                 * getting response from server
-                                 */
+                        /**
+                         * getting response from server
+                         */
 
-                                if (responseDataType == DATATYPE_TEXT) {
-                                    reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8")));
-                                    long downloadSize = connection.getContentLength();
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(buildTextFromBuffer(reader, downloadSize)));
+                        body = connection.getInputStream();
+                        InputStream decodedBody = decode(body, connection, progress);
+                        if (responseDataType == DATATYPE_TEXT) {
+                            long downloadSize = connection.getContentLength();
+                            String result = readText(decodedBody, downloadSize, connection.getContentType(), progress);
+                            reusable = true;
+                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(result));
 
-                                } else {
-                                    String contentType = connection.getContentType();
-                                    String fileName = StorageUtils.randomNameWithExtension("arrowbow_download", contentType);
+                        } else {
+                            String contentType = connection.getContentType();
+                            String fileName = StorageUtils.randomNameWithExtension("arrowbow_download", contentType);
 
-                                    InputStream inputStream = connection.getInputStream();
-                                    long downloadSize = connection.getContentLength();
+                            long downloadSize = connection.getContentLength();
 
-                                    String path = new FileSaver() {
-                                        /**
-                                         *This var is declared to minimize the number of main thread calls when,
-                                         * the download size is so big we might have the same progress many times.
-                                         */
-                                        short lastProgress = 0;
+                            String path = FileDownloader.save(storageDirectoryIfResponseIsFile, fileName, decodedBody, progress.isDecoding() ? -1 : downloadSize,
+                                    fileProgress(progress, downloadSize));
+                            reusable = true;
 
-                                        @Override
-                                        public void showProgress(long numberOfReadBytes) {
-                                            short percentage = 0;
+                            informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
+                        }
 
-                                            if (downloadSize >= numberOfReadBytes)
-                                                percentage = Short.valueOf(
-                                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-                                            else percentage = 100;
 
-                                            if (percentage > lastProgress) {
-                                                lastProgress = percentage;
-                                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                                            }
+                    } catch (IOException e) {
+                        attemptFailure = e;
+                        if (e != null && !cancelled) {
+                            e.printStackTrace();
+                            Log.e("Arrowbow_library", e.getMessage());
+                        }
+                        /**
+                         * Notify User with new occurring event
+                         */
+                        informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
 
-                                        }
-                                    }.save(storageDirectoryIfResponseIsFile, fileName, inputStream);
+                    } finally {
 
-                                    informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response.setResult(path));
-                                }
+                        if (outputStream != null) outputStream.close();
+                        if (writer != null) writer.close();
+                    }
+                    break;
 
+                case DATATYPE_MULTI_PART_DATA_FORM:
 
-                            } catch (IOException e) {
-                                if (e != null) {
-                                    e.printStackTrace();
-                                    Log.e("Arrowbow_library", e.getMessage());
-                                }
-                                /**
-                                 * Notify User with new occurring event
-                                 */
-                                informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
+                    PrintWriter printWriter = null;
+                    try {
+                        Field[] values = ((Field[]) content);
+                        HttpPostMultiPart post = new HttpPostMultiPart(urlStr, "UTF-8",
+                                requestHeader == null ? null : requestHeader.getPropertiesMap(), responseDataType, storageDirectoryIfResponseIsFile);
 
-                            } finally {
+                        /**
+                         * distinguish btw files and strings
+                         * */
+                        for (int i = 0; i < values.length; i++) {
 
-                                if (reader != null) reader.close();
-                                if (outputStream != null) outputStream.close();
-                                if (writer != null) writer.close();
-                            }
-                            break;
+                            if (values[i] != null) {
 
-                        case DATATYPE_MULTI_PART_DATA_FORM:
+                                File file = new File(values[i].getValue());
 
-                            PrintWriter printWriter = null;
-                            try {
-                                Field[] values = ((Field[]) content);
-                                HttpPostMultiPart post = new HttpPostMultiPart(urlStr, "UTF-8", requestHeader.getPropertiesMap(), responseDataType, storageDirectoryIfResponseIsFile);
 
-                                /**
-                                 * distinguish btw files and strings
-                                 * */
-                                for (int i = 0; i < values.length; i++) {
+                                if (file.exists()) {
+                                    post.addFilePart(values[i].getName(), file);
+                                } else {
+                                    post.addFormField(values[i].getName(), values[i].getValue());
+                                }
+                            }
 
-                                    if (values[i] != null) {
+                        }
+                        post.finish();
 
-                                        File file = new File(values[i].getValue());
 
+                    } catch (IOException e) {
+                        attemptFailure = e;
+                        if (e != null && !cancelled) {
+                            e.printStackTrace();
+                            Log.e("Arrowbow_library", e.getMessage());
+                        }
+                        informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
 
-                                        if (file.exists()) {
-                                            post.addFilePart(values[i].getName(), file);
-                                        } else {
-                                            post.addFormField(values[i].getName(), values[i].getValue());
-                                        }
-                                    }
+                    }
+                    break;
 
-                                }
-                                post.finish();
+            }
 
 
-                            } catch (IOException e) {
-                                if (e != null) {
-                                    e.printStackTrace();
-                                    Log.e("Arrowbow_library", e.getMessage());
-                                }
-                                informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
+        } catch (IOException e) {
+            attemptFailure = e;
+            if (e != null && !cancelled) {
+                e.printStackTrace();
+                Log.e("Arrowbow_library", e.getMessage());
+            }
+            informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
 
-                            }
-                            break;
 
-                    }
+        } finally {
+            activeConnection = null;
 
+            if (connection != null) {
+                /**
+                 * keeping the connection alive for the next request to this host
+                 */
+                if (reusable) releaseConnection(connection, body);
+                else connection.disconnect();
+            }
 
-                } catch (IOException e) {
-                    if (e != null) {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (Exception e) {
+                    if (e != null && !cancelled) {
                         e.printStackTrace();
                         Log.e("Arrowbow_library", e.getMessage());
                     }
-                    informUserWithNewFlag(FLAG_REQUEST_UNACCEPTED, null);
-
+                }
+            }
+        }
+    }
 
-                } finally {
+    /**
+     * Submits a call to the dispatcher of this connection,
+     * the user is informed with an error flag in case the dispatcher rejects it.
+     *
+     * @param call: the reading or writing work.
+     */
+    private final void dispatch(@NonNull Runnable call) {
+        if (!dispatcher.enqueue(hostOf(urlStr), call)) {
+            /**
+             * Notify User with new occurring event
+             */
+            informUserWithNewFlag(FLAG_ERROR_MESSAGE, new Response(null, "Too many requests are waiting, this one was rejected !"));
+        }
+    }
 
-                    if (connection != null) connection.disconnect();
+    /**
+     * @return the host of a url, or null if the url can't be parsed.
+     */
+    @Nullable
+    static String hostOf(@Nullable String url) {
+        if (url == null) return null;
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
 
-                    if (outputStream != null) {
-                        try {
-                            outputStream.close();
-                        } catch (Exception e) {
-                            if (e != null) {
-                                e.printStackTrace();
-                                Log.e("Arrowbow_library", e.getMessage());
-                            }
-                        }
-                    }
+    /**
+     * Reads what is left of a response body and closes it, so the connection goes back to the
+     * transport instead of being torn down. A body with more than {@link #MAX_DRAIN_BYTES} left
+     * isn't read, its connection is disconnected.
+     *
+     * @param connection: connection the body was read from.
+     * @param body:       the input or error stream of the connection, can be null if there is no body.
+     */
+    private final void releaseConnection(@NonNull HttpURLConnection connection, @Nullable InputStream body) {
+        try {
+            if (body != null) {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                long drained = 0;
+                int count = 0;
+                try {
+                    while (drained <= MAX_DRAIN_BYTES && (count = body.read(buffer)) != -1) drained += count;
+                } catch (IOException e) {
+                    /**
+                     * the stream was already read to the end and closed
+                     */
+                    count = -1;
                 }
-
+                if (count != -1) {
+                    /**
+                     * disconnecting first, closing the body would read it to its end
+                     */
+                    connection.disconnect();
+                    body.close();
+                    return;
+                }
+                body.close();
             }
-
-        });
-        writingTask.start();
+            transport.release(connection);
+        } catch (IOException e) {
+            connection.disconnect();
+        }
     }
 
 
@@ -940,6 +2590,249 @@ public class HttpConnection {
         return threadPriority;
     }
 
+    /**
+     * Sets the dispatcher that runs the calls of this connection, by default it's {@link Dispatcher#getDefault()}.
+     *
+     * @param dispatcher: a dispatcher with its own limits.
+     */
+    public final HttpConnection setDispatcher(@NonNull Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        return this;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Sets the backend that carries the requests of this connection,
+     * for example an {@link HttpClientTransport} to multiplex requests over HTTP/2.
+     *
+     * @param transport: by default it's {@link UrlConnectionTransport#getDefault()}.
+     */
+    public final HttpConnection setTransport(@NonNull Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Lets a non-blocking engine carry the plain http reads of this connection (getText, getFile...),
+     * so thousands of them can be in flight without a thread each.
+     *
+     * @param nioEngine: an engine, or null to read with the transport.
+     */
+    public final HttpConnection setNioEngine(@Nullable NioEngine nioEngine) {
+        this.nioEngine = nioEngine;
+        return this;
+    }
+
+    public NioEngine getNioEngine() {
+        return nioEngine;
+    }
+
+    /**
+     * Sends the text of postText, putText, patchText and deleteText gzipped,
+     * with a Content-Encoding header. The server has to accept compressed requests.
+     * <p>
+     * Compressing a small body costs more time than it saves, a threshold of a few KB is a good start.
+     *
+     * @param enabled:        whether text bodies are compressed, they aren't by default.
+     * @param thresholdBytes: bodies smaller than this are sent as they are.
+     */
+    public final HttpConnection setRequestCompression(boolean enabled, int thresholdBytes) {
+        this.requestCompressionThreshold = enabled ? Math.max(0, thresholdBytes) : -1;
+        return this;
+    }
+
+    public boolean isRequestCompressionEnabled() {
+        return requestCompressionThreshold >= 0;
+    }
+
+    /**
+     * Lets getFile resume a broken download instead of starting it over.
+     * <p>
+     * The body is written to a partial file named after the url in the storage directory, with a sidecar
+     * file holding its ETag or Last-Modified. The next getFile of the same url into the same directory only
+     * asks for the missing bytes, and downloads the whole file again if it changed on the server.
+     * The file is renamed once complete, and the response isn't compressed so it can be resumed.
+     *
+     * @param resumable: whether downloads are resumable, they aren't by default.
+     */
+    public final HttpConnection setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Lets getFile download a large file with several connections at the same time, each one fetching
+     * a range of the file and writing it at its place in the file.
+     * <p>
+     * The download starts with two connections and opens more while each connection keeps its throughput,
+     * the per host limit of the {@link Dispatcher} applies to them. A server that doesn't send ranges
+     * sends the file in one piece. It's ignored by resumable downloads.
+     *
+     * @param maxSegments: maximum number of connections for one file, 1 to download files as one stream.
+     */
+    public final HttpConnection setSegmentedDownload(int maxSegments) {
+        this.maxDownloadSegments = Math.max(1, maxSegments);
+        return this;
+    }
+
+    public int getMaxDownloadSegments() {
+        return maxDownloadSegments;
+    }
+
+    /**
+     * Caches the responses of getText and getFile on the disk, a fresh response is read from the cache and
+     * a stale one is revalidated with the server. Other requests to a url remove its response from the cache.
+     *
+     * @param cache: the cache, one can be shared by all connections, null to stop caching.
+     */
+    public final HttpConnection setCache(@Nullable HttpCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Keeps the results of getText in memory: the next getText of the same url with the same request headers
+     * receives the same result without touching the network, until it expires or it's evicted.
+     * It's checked before the disk cache.
+     *
+     * @param memoryCache: the cache, one can be shared by all connections, null to stop caching.
+     */
+    public final HttpConnection setMemoryCache(@Nullable ResponseMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+        return this;
+    }
+
+    public ResponseMemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Lets identical getText and getFile requests running at the same time share one call: same url, same
+     * request headers and same storage directory. Every request still gets its own callbacks and future,
+     * a request made while the call runs receives its result, and cancelling a request doesn't cancel the
+     * call for the others. All the requests of a getFile receive the path of the same file.
+     *
+     * @param coalescing: whether the requests of this connection can share calls, they can't by default.
+     */
+    public final HttpConnection setRequestCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    public boolean isRequestCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Retries the calls that failed for a reason that may not last: a timeout, a broken connection,
+     * or a response code like 503. The user is only informed with the result of the last attempt.
+     * <p>
+     * Calls that may be retried are read from a connection, not from the {@link NioEngine}. A resumable getFile
+     * resumes its retries from the bytes it already received.
+     *
+     * @param retryPolicy: decides which calls are retried and when, null to never retry them.
+     */
+    public final HttpConnection setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sends getText and getFile a second time when their response is late compared to the recent calls
+     * of the same endpoint, the first response wins and the other request is cancelled.
+     * <p>
+     * Both requests may reach the server, only use it with endpoints that can be read twice.
+     *
+     * @param hedgingPolicy: decides when the second request is sent, null to never send one.
+     */
+    public final HttpConnection setHedgingPolicy(@Nullable HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Spaces the requests of this connection with the ones of the other connections sharing the limiter,
+     * retries and hedges included. A request that would wait too long for its turn is rejected with
+     * {@link #FLAG_RATE_LIMITED}.
+     *
+     * @param rateLimiter: the limiter of the hosts this connection calls, null to send the requests as they come.
+     */
+    public final HttpConnection setRateLimiter(@Nullable RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Fails fast the requests of this connection to a host whose recent calls mostly failed or were slow,
+     * they end with {@link #FLAG_CIRCUIT_OPEN} without being sent. Retries and hedges go through the breaker too.
+     *
+     * @param circuitBreaker: the breaker of the hosts this connection calls, null to always send the requests.
+     */
+    public final HttpConnection setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Times the phases of every request of this connection, its retries and hedges included,
+     * see {@link MetricsRecorder} for the phases.
+     *
+     * @param metricsRecorder: receives the timings, {@link MetricsRegistry#getDefault()} keeps them in histograms,
+     *                         null to not time the requests.
+     */
+    public final HttpConnection setMetricsRecorder(@Nullable MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+        return this;
+    }
+
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    /**
+     * Limits the progress events sent to the ui thread, an event is sent when both limits are passed
+     * and the last event of the download is always sent. The defaults are 100 millis and 1%.
+     *
+     * @param minIntervalMillis:  minimum time between two events.
+     * @param minPercentageDelta: minimum progress between two events, when the download size is known.
+     */
+    public final HttpConnection setProgressThrottle(long minIntervalMillis, int minPercentageDelta) {
+        this.progressIntervalMillis = minIntervalMillis;
+        this.progressPercentageDelta = minPercentageDelta;
+        return this;
+    }
+
     /**
      * Whether the http.OK (200) will be returned by the server or an other one
      */
@@ -963,7 +2856,10 @@ public class HttpConnection {
     }
 
     /**
-     * the time before connecting to the server and waiting the first bytes of data to reach u,
+     * The time a read waits for the next bytes of the response before it fails, the default time is 3 seconds.
+     * 0 waits forever.
+     *
+     * @param readTimeout: read timeout in millis
      */
     public HttpConnection setReadTimeout(int readTimeout) {
         this.readTimeout = readTimeout;
@@ -979,44 +2875,63 @@ public class HttpConnection {
     }
 
     /**
-     * Creates a string from a buffered reader and returns progress.
+     * @return a listener reporting the bytes written to a file as the progress of the call.
+     */
+    private static FileDownloader.ProgressListener fileProgress(@NonNull final ProgressReporter progress,
+                                                                final long downloadSize) {
+        return new FileDownloader.ProgressListener() {
+            @Override
+            public void onProgress(long numberOfWrittenBytes) {
+                progress.update(numberOfWrittenBytes, downloadSize);
+            }
+        };
+    }
+
+    /**
+     * Decodes a compressed body while it's read, its received bytes are counted for the progress.
+     *
+     * @param body:       the input or error stream of the connection, can be null if there is no body.
+     * @param connection: the connection the body is read from.
+     * @param progress:   reports the progress of the call.
+     * @return the decoded body, or the body itself if it isn't compressed.
+     */
+    @Nullable
+    private final InputStream decode(@Nullable InputStream body,
+                                     @NonNull HttpURLConnection connection,
+                                     @NonNull ProgressReporter progress) throws IOException {
+        String contentEncoding = connection.getContentEncoding();
+        if (body == null || !ContentEncoding.isCompressed(contentEncoding)
+                || !ContentEncoding.hasBody(connection)) return body;
+        ContentEncoding.CountingInputStream receivedBytes = new ContentEncoding.CountingInputStream(body);
+        progress.countReceivedBytes(receivedBytes);
+        return ContentEncoding.decode(receivedBytes, contentEncoding);
+    }
+
+    /**
+     * Reads a text body and returns progress, it's decoded with the charset of its content type.
      *
-     * @param reader: {@link BufferedReader}
-     * @return String read from reader.
+     * @param body:         the input or error stream of the connection, can be null if there is no body.
+     * @param downloadSize: content length of the body, or -1 if it's unknown.
+     * @param contentType:  content type of the body.
+     * @param progress:     reports the progress of the call.
+     * @return String read from the body.
      * @throws IOException .
      */
-    private final String buildTextFromBuffer(BufferedReader reader, long downloadSize) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        String line;
+    private final String readText(@Nullable InputStream body, final long downloadSize,
+                                  @Nullable String contentType,
+                                  @NonNull final ProgressReporter progress) throws IOException {
+        if (body == null) return "";
 
-        long numberOfReadBytes = 0;
-        short percentage = 100;
         /**
-         *This var is declared to minimize the number of main thread calls when,
-         * the download size is so big we might have the same progress many times.
+         * the decoded size of a compressed body is unknown
          */
-        short lastProgress = 0;
-
-        while ((line = reader.readLine()) != null) {
-            stringBuilder.append(line);
-            numberOfReadBytes += line.getBytes().length;
-
-            /**
-             * checking if we have the right download size, to prevent the Short
-             * out of range exception
-             */
-            if (downloadSize >= numberOfReadBytes)
-                percentage = Short.valueOf(
-                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-
-            else percentage = 100;
-
-            if (percentage > lastProgress) {
-                lastProgress = percentage;
-                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
+        long textSize = progress.isDecoding() ? -1 : downloadSize;
+        return TextBody.read(body, textSize, TextBody.charsetOf(contentType), new TextBody.ProgressListener() {
+            @Override
+            public void onProgress(long numberOfReadBytes) {
+                progress.update(numberOfReadBytes, downloadSize);
             }
-        }
-        return stringBuilder.toString();
+        });
     }
 
     /**
@@ -1046,9 +2961,16 @@ public class HttpConnection {
             this.charset = charset;
             boundary = UUID.randomUUID().toString();
             URL url = new URL(requestURL);
-            httpConn = (HttpURLConnection) url.openConnection();
-            response = new Response(httpConn, "");
+            markTiming(RequestTimings.MARK_CONNECTING);
+            httpConn = transport.open(url);
+            activeConnection = httpConn;
+            if (cancelled) {
+                httpConn.disconnect();
+                throw new IOException("Call cancelled");
+            }
+            response = new Response(null, "");
             httpConn.setUseCaches(false);
+            httpConn.setReadTimeout(readTimeout);
             httpConn.setDoOutput(true);    // indicates POST method
             httpConn.setDoInput(true);
             httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
@@ -1060,7 +2982,9 @@ public class HttpConnection {
                     httpConn.setRequestProperty(key, value);
                 }
             }
+            ContentEncoding.acceptCompression(httpConn);
             outputStream = httpConn.getOutputStream();
+            markTiming(httpConn, RequestTimings.MARK_CONNECTED);
             writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
             this.responseDataType = responseDataType;
             this.storageDirectoryIfResponseIsFile = storageDirectoryIfResponseIsFile;
@@ -1118,13 +3042,17 @@ public class HttpConnection {
          * @throws IOException
          */
         public final void finish() throws IOException {
+            final ProgressReporter progress = newProgressReporter();
 
             writer.flush();
             writer.append("--" + boundary + "--").append(LINE);
             writer.close();
+            markTiming(httpConn, RequestTimings.MARK_WRITTEN);
 
             // checks server's status code first
             int status = httpConn.getResponseCode();
+            markTiming(RequestTimings.MARK_FIRST_BYTE);
+            response.setHttpURLConnection(httpConn);
             if (status == successfulResponseCode) {
                 /**
                  * Notify User with new occurring event
@@ -1136,11 +3064,10 @@ public class HttpConnection {
                  */
                 informUserWithNewFlag(FLAG_DATA_SENT, response.setResult("Data sent !"));
 
+                InputStream body = httpConn.getInputStream();
+                InputStream decodedBody = decode(body, httpConn, progress);
                 if (responseDataType == DATATYPE_TEXT) {
-                    ByteArrayOutputStream result = new ByteArrayOutputStream();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getErrorStream(), Charset.forName("UTF-8")));
-
-                    response.setResult(buildTextFromBuffer(reader, response.getContentLength()));
+                    response.setResult(readText(decodedBody, httpConn.getContentLengthLong(), httpConn.getContentType(), progress));
 
                 } else if (responseDataType == DATATYPE_FILE) {
                     long downloadSize = response.getContentLength();
@@ -1150,33 +3077,15 @@ public class HttpConnection {
                             .randomNameWithExtension("arrowbow_download", contentType);
 
 
-                    String path = new FileSaver() {
-                        /**
-                         *This var is declared to minimize the number of main thread calls when,
-                         * the download size is so big we might have the same progress many times.
-                         */
-                        short lastProgress = 0;
-
-                        @Override
-                        public void showProgress(long numberOfReadBytes) {
-                            short percentage = 0;
-
-                            if (downloadSize >= numberOfReadBytes)
-                                percentage = Short.valueOf(
-                                        String.valueOf(((numberOfReadBytes * 100) / downloadSize)));
-                            else percentage = 100;
-
-                            if (percentage > lastProgress) {
-                                lastProgress = percentage;
-                                informUserWithProgress(percentage, downloadSize, numberOfReadBytes);
-                            }
-
-                        }
-                    }.save(storageDirectoryIfResponseIsFile, fileName, httpConn.getInputStream());
+                    String path = FileDownloader.save(storageDirectoryIfResponseIsFile, fileName, decodedBody, progress.isDecoding() ? -1 : downloadSize,
+                            fileProgress(progress, downloadSize));
 
                     response.setResult(path);
                 }
-                httpConn.disconnect();
+                /**
+                 * keeping the connection alive for the next request to this host
+                 */
+                releaseConnection(httpConn, body);
                 /**
                  * Notify User with new occurring event
                  */
@@ -1184,12 +3093,13 @@ public class HttpConnection {
                 informUserWithNewFlag(FLAG_RESPONSE_IS_READY, response);
             } else {
                 //case of error
-                BufferedReader reader = new BufferedReader(new InputStreamReader(httpConn.getErrorStream(), Charset.forName("UTF-8")));
+                InputStream body = httpConn.getErrorStream();
+                String errorMessage = readText(decode(body, httpConn, progress), httpConn.getContentLengthLong(), httpConn.getContentType(), progress) + " Response Code: " + status;
+                releaseConnection(httpConn, body);
                 /**
                  * Notify User with new occurring event
                  */
-                informUserWithNewFlag(FLAG_ERROR_MESSAGE,
-                        response.setResult(buildTextFromBuffer(reader, response.getContentLength()) + " Response Code: " + response.getResponseCode()));
+                informUserWithNewFlag(FLAG_ERROR_MESSAGE, response.setResult(errorMessage));
             }
         }
     }
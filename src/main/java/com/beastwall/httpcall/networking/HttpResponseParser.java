@@ -0,0 +1,261 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental HTTP/1.1 response parser, it's fed with whatever bytes arrived from the socket
+ * and reports the parts of the response to a {@link Listener} as soon as they are complete.
+ * <p>
+ * Responses follow each other on the same connection, so the parser starts over after every
+ * response and keeps parsing the rest of the buffer (pipelining).
+ */
+final class HttpResponseParser {
+
+    /**
+     * Parts of the response
+     */
+    interface Listener {
+        void onStatus(int responseCode, boolean http11);
+
+        void onHeader(@NonNull String name, @NonNull String value);
+
+        /**
+         * @return true if the response can't have a body whatever its headers say, HEAD requests for example.
+         */
+        boolean onHeadersComplete();
+
+        /**
+         * @param data: part of the body, it's only valid during the call so it has to be copied.
+         */
+        void onBody(@NonNull ByteBuffer data);
+
+        void onComplete();
+    }
+
+    /**
+     * Parser states
+     */
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_FIXED_BODY = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_BODY_UNTIL_CLOSE = 7;
+
+    /**
+     * a status or header line longer than this is refused
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Listener listener;
+    private int state = STATE_STATUS_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private int responseCode;
+    private boolean chunked;
+    private long contentLength;
+    private long remaining;
+
+    HttpResponseParser(@NonNull Listener listener) {
+        this.listener = listener;
+        reset();
+    }
+
+    private void reset() {
+        state = STATE_STATUS_LINE;
+        lineLength = 0;
+        responseCode = 0;
+        chunked = false;
+        contentLength = -1;
+        remaining = 0;
+    }
+
+    /**
+     * @return true if a response is being parsed.
+     */
+    boolean isInResponse() {
+        return state != STATE_STATUS_LINE || lineLength > 0;
+    }
+
+    /**
+     * Consumes all the readable bytes of the buffer.
+     *
+     * @throws ProtocolException if the bytes aren't an http response.
+     */
+    void parse(@NonNull ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            switch (state) {
+                case STATE_FIXED_BODY:
+                case STATE_CHUNK_DATA: {
+                    int count = (int) Math.min(remaining, in.remaining());
+                    deliver(in, count);
+                    remaining -= count;
+                    if (remaining == 0) {
+                        if (state == STATE_FIXED_BODY) complete();
+                        else state = STATE_CHUNK_END;
+                    }
+                    break;
+                }
+                case STATE_BODY_UNTIL_CLOSE:
+                    deliver(in, in.remaining());
+                    break;
+                default:
+                    if (!readLine(in)) return;
+                    String text = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+                    lineLength = 0;
+                    onLine(text);
+            }
+        }
+    }
+
+    /**
+     * Called when the server closed the connection.
+     *
+     * @return true if the response in progress ended with the connection.
+     * @throws EOFException if the connection was closed in the middle of a response.
+     */
+    boolean endOfStream() throws IOException {
+        if (state == STATE_BODY_UNTIL_CLOSE) {
+            complete();
+            return true;
+        }
+        if (isInResponse()) throw new EOFException("Connection closed in the middle of a response");
+        return false;
+    }
+
+    private void deliver(ByteBuffer in, int count) {
+        int limit = in.limit();
+        int end = in.position() + count;
+        in.limit(end);
+        listener.onBody(in);
+        in.limit(limit);
+        in.position(end);
+    }
+
+    /**
+     * Appends bytes to the current line.
+     *
+     * @return true if the line is complete, without its line break.
+     */
+    private boolean readLine(ByteBuffer in) throws ProtocolException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_LENGTH) throw new ProtocolException("Response line too long");
+                byte[] bigger = new byte[line.length * 2];
+                System.arraycopy(line, 0, bigger, 0, lineLength);
+                line = bigger;
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private void onLine(String text) throws ProtocolException {
+        switch (state) {
+            case STATE_STATUS_LINE:
+                /**
+                 * tolerating empty lines between responses
+                 */
+                if (text.isEmpty()) return;
+                parseStatusLine(text);
+                state = STATE_HEADERS;
+                break;
+
+            case STATE_HEADERS:
+                if (text.isEmpty()) onHeadersEnd();
+                else parseHeader(text);
+                break;
+
+            case STATE_CHUNK_SIZE: {
+                int end = text.indexOf(';');
+                String size = (end == -1 ? text : text.substring(0, end)).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size: " + size);
+                }
+                state = remaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                break;
+            }
+
+            case STATE_CHUNK_END:
+                if (!text.isEmpty()) throw new ProtocolException("Missing line break after a chunk");
+                state = STATE_CHUNK_SIZE;
+                break;
+
+            case STATE_TRAILERS:
+                if (text.isEmpty()) complete();
+                break;
+        }
+    }
+
+    private void parseStatusLine(String text) throws ProtocolException {
+        if (!text.startsWith("HTTP/") || text.length() < 12)
+            throw new ProtocolException("Unexpected status line: " + text);
+        try {
+            responseCode = Integer.parseInt(text.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + text);
+        }
+        /**
+         * 1xx responses are followed by the real one
+         */
+        if (responseCode >= 200) listener.onStatus(responseCode, text.startsWith("HTTP/1.1"));
+    }
+
+    private void parseHeader(String text) throws ProtocolException {
+        int colon = text.indexOf(':');
+        if (colon <= 0) throw new ProtocolException("Unexpected header: " + text);
+        String name = text.substring(0, colon).trim();
+        String value = text.substring(colon + 1).trim();
+
+        if (name.equalsIgnoreCase(RequestHeader.Field.CONTENT_LENGTH)) {
+            try {
+                contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid content length: " + value);
+            }
+        } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.toLowerCase().contains("chunked")) {
+            chunked = true;
+        }
+        if (responseCode >= 200) listener.onHeader(name, value);
+    }
+
+    private void onHeadersEnd() {
+        if (responseCode < 200) {
+            reset();
+            return;
+        }
+        boolean noBody = listener.onHeadersComplete()
+                || responseCode == 204 || responseCode == 304;
+        if (noBody) {
+            complete();
+        } else if (chunked) {
+            state = STATE_CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            if (remaining == 0) complete();
+            else state = STATE_FIXED_BODY;
+        } else {
+            state = STATE_BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void complete() {
+        reset();
+        listener.onComplete();
+    }
+}
@@ -0,0 +1,167 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanos in buckets whose width grows with the value, so a percentile is read with about
+ * 6% of error at any scale, from a few nanos to hours, with a fixed amount of memory.
+ * <p>
+ * Every power of two is split in {@link #SUB_BUCKETS} buckets of the same width. A recording is one
+ * atomic increment and a few compare-and-sets for the minimum and the maximum: it takes no lock and
+ * allocates nothing, many threads can record into the same histogram.
+ * <p>
+ * A histogram read while it's being recorded into may be off by the recordings in progress,
+ * {@link #copy()} takes a snapshot of it to read several values from the same state.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * buckets per power of two: 2^4 buckets keep every one narrower than 1/16 of its values
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - 1 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos: a duration, a negative one is counted as 0.
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Records the same duration several times.
+     */
+    public void record(long nanos, long count) {
+        if (count <= 0) return;
+        long value = Math.max(0, nanos);
+        counts.addAndGet(indexOf(value), count);
+        totalCount.addAndGet(count);
+        sum.addAndGet(value * count);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) ;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) ;
+    }
+
+    /**
+     * Adds the recordings of another histogram to this one.
+     */
+    public void add(@NonNull LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) counts.addAndGet(i, count);
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        long current;
+        long otherMin = other.min.get();
+        long otherMax = other.max.get();
+        while (otherMin < (current = min.get()) && !min.compareAndSet(current, otherMin)) ;
+        while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) ;
+    }
+
+    /**
+     * @return a new histogram with the recordings of this one.
+     */
+    @NonNull
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Forgets every recording, the ones made meanwhile may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the shortest duration recorded in nanos, 0 if there is none.
+     */
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * @return the longest duration recorded in nanos.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the average duration in nanos, 0 if there is none.
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @param percentile: between 0 and 100, 99.9 for the 99.9th percentile.
+     * @return the duration in nanos below which this share of the recordings are,
+     * the upper bound of its bucket, 0 if there is none.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) return 0;
+        double share = Math.max(0, Math.min(100, percentile)) / 100;
+        long rank = Math.max(1, (long) Math.ceil(share * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the percentile in millis, for the reports.
+     */
+    public double getMillisAtPercentile(double percentile) {
+        return getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the bucket of a value: the values below {@link #SUB_BUCKETS} have their own bucket,
+     * then every power of two has {@link #SUB_BUCKETS} of them.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value counted in a bucket.
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        long next = (subBucket + 1) << shift;
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
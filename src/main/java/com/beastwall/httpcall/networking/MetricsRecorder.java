@@ -0,0 +1,65 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives the timings of the phases of every request of the connections it's given to with
+ * {@link HttpConnection#setMetricsRecorder(MetricsRecorder)}.
+ * <p>
+ * {@link MetricsRegistry} keeps them in histograms, another implementation can hand them to the metrics
+ * system of the app. It's called in the threads of the calls, once per phase of every request,
+ * so it has to be fast, thread-safe and shouldn't allocate.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Phases of a request
+     */
+
+    /**
+     * from the start of the call, or of its retry, to the opening of its connection:
+     * the wait in the dispatcher queue and for the rate limiter
+     */
+    int PHASE_QUEUE_WAIT = 0;
+    /**
+     * opening the connection, handshake included, a pooled connection takes almost nothing
+     */
+    int PHASE_CONNECT = 1;
+    /**
+     * writing the body of the request
+     */
+    int PHASE_REQUEST_WRITE = 2;
+    /**
+     * from the request sent to the status line and headers of the response
+     */
+    int PHASE_TIME_TO_FIRST_BYTE = 3;
+    /**
+     * reading and converting the body of the response
+     */
+    int PHASE_BODY_READ = 4;
+    /**
+     * from the result of the call to its delivery on the app main thread
+     */
+    int PHASE_CALLBACK_DISPATCH = 5;
+    /**
+     * from the start of the call to its result
+     */
+    int PHASE_TOTAL = 6;
+
+    int PHASE_COUNT = 7;
+
+    /**
+     * status class of a request without a response
+     */
+    int STATUS_CLASS_NONE = 0;
+
+    /**
+     * @param host:        host of the request, in lower case.
+     * @param method:      method of the request.
+     * @param statusClass: the first digit of the response code, 2 for a 2xx, {@link #STATUS_CLASS_NONE} without
+     *                     a response.
+     * @param phase:       one of the phases of this interface.
+     * @param nanos:       duration of the phase.
+     */
+    void record(@NonNull String host, @NonNull String method, int statusClass, int phase, long nanos);
+}
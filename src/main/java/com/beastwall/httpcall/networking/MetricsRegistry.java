@@ -0,0 +1,195 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the timings of the requests in a {@link LatencyHistogram} per host, method, status class and phase.
+ * <p>
+ * A histogram is created the first time its combination is recorded, then recording into it is a map lookup
+ * by host, an array read and the lock-free recording of the histogram: the registry allocates nothing per request.
+ * The connections allocate their {@link RequestTimings}, one per connection (the call shared by coalesced
+ * requests has its own), and the host of every url they didn't time last.
+ * The hosts beyond {@link #MAX_HOSTS} share the histograms of {@link #OTHER_HOSTS}.
+ * <p>
+ * {@link #snapshot()} copies every histogram, to read or export them while the requests go on.
+ */
+public final class MetricsRegistry implements MetricsRecorder {
+
+    /**
+     * Methods with their own histograms, the others are recorded as {@link #OTHER_METHODS}.
+     */
+    static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"};
+    public static final String OTHER_METHODS = "OTHER";
+
+    /**
+     * Host of the requests recorded once {@link #MAX_HOSTS} hosts were seen.
+     */
+    public static final String OTHER_HOSTS = "*";
+    public static final int MAX_HOSTS = 1024;
+
+    private static final int STATUS_CLASSES = 6;
+    private static final int HISTOGRAMS_PER_HOST = (METHODS.length + 1) * STATUS_CLASSES * PHASE_COUNT;
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry shared by the connections that don't need their own.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public void record(@NonNull String host, @NonNull String method, int statusClass, int phase, long nanos) {
+        if (phase < 0 || phase >= PHASE_COUNT) return;
+        AtomicReferenceArray<LatencyHistogram> histograms = histogramsOf(host);
+        int index = indexOf(methodIndex(method), statusClass, phase);
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @return the live histogram of a combination, null if it was never recorded.
+     */
+    @Nullable
+    public LatencyHistogram getHistogram(@NonNull String host, @NonNull String method, int statusClass, int phase) {
+        AtomicReferenceArray<LatencyHistogram> histograms = hosts.get(host);
+        if (histograms == null || phase < 0 || phase >= PHASE_COUNT) return null;
+        return histograms.get(indexOf(methodIndex(method), statusClass, phase));
+    }
+
+    /**
+     * @return a copy of the histograms of a phase, every host, method and status class merged.
+     */
+    @NonNull
+    public LatencyHistogram getAggregate(int phase) {
+        LatencyHistogram aggregate = new LatencyHistogram();
+        if (phase < 0 || phase >= PHASE_COUNT) return aggregate;
+        for (AtomicReferenceArray<LatencyHistogram> histograms : hosts.values()) {
+            for (int method = 0; method <= METHODS.length; method++) {
+                for (int statusClass = 0; statusClass < STATUS_CLASSES; statusClass++) {
+                    LatencyHistogram histogram = histograms.get(indexOf(method, statusClass, phase));
+                    if (histogram != null) aggregate.add(histogram);
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    /**
+     * @return a copy of every histogram recorded into, with its tags.
+     */
+    @NonNull
+    public List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> host : hosts.entrySet()) {
+            AtomicReferenceArray<LatencyHistogram> histograms = host.getValue();
+            for (int method = 0; method <= METHODS.length; method++) {
+                for (int statusClass = 0; statusClass < STATUS_CLASSES; statusClass++) {
+                    for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                        LatencyHistogram histogram = histograms.get(indexOf(method, statusClass, phase));
+                        if (histogram == null || histogram.getCount() == 0) continue;
+                        snapshots.add(new Snapshot(host.getKey(),
+                                method < METHODS.length ? METHODS[method] : OTHER_METHODS,
+                                statusClass, phase, histogram.copy()));
+                    }
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forgets every host and its histograms.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    @NonNull
+    private AtomicReferenceArray<LatencyHistogram> histogramsOf(@NonNull String host) {
+        AtomicReferenceArray<LatencyHistogram> histograms = hosts.get(host);
+        if (histograms != null) return histograms;
+        /**
+         * the size is only a bound, a few more hosts may get in when they come at the same time
+         */
+        String key = hosts.size() < MAX_HOSTS ? host : OTHER_HOSTS;
+        histograms = hosts.get(key);
+        if (histograms != null) return histograms;
+        AtomicReferenceArray<LatencyHistogram> created = new AtomicReferenceArray<>(HISTOGRAMS_PER_HOST);
+        AtomicReferenceArray<LatencyHistogram> previous = hosts.putIfAbsent(key, created);
+        return previous == null ? created : previous;
+    }
+
+    /**
+     * the methods of the connections are constants, they are compared by reference first
+     */
+    private static int methodIndex(@NonNull String method) {
+        for (int i = 0; i < METHODS.length; i++)
+            if (METHODS[i] == method) return i;
+        for (int i = 0; i < METHODS.length; i++)
+            if (METHODS[i].equalsIgnoreCase(method)) return i;
+        return METHODS.length;
+    }
+
+    private static int indexOf(int method, int statusClass, int phase) {
+        if (statusClass < 0 || statusClass >= STATUS_CLASSES) statusClass = STATUS_CLASS_NONE;
+        return (method * STATUS_CLASSES + statusClass) * PHASE_COUNT + phase;
+    }
+
+    /**
+     * The copy of a histogram with its tags.
+     */
+    public static final class Snapshot {
+        private final String host;
+        private final String method;
+        private final int statusClass;
+        private final int phase;
+        private final LatencyHistogram histogram;
+
+        Snapshot(@NonNull String host, @NonNull String method, int statusClass, int phase,
+                 @NonNull LatencyHistogram histogram) {
+            this.host = host;
+            this.method = method;
+            this.statusClass = statusClass;
+            this.phase = phase;
+            this.histogram = histogram;
+        }
+
+        @NonNull
+        public String getHost() {
+            return host;
+        }
+
+        @NonNull
+        public String getMethod() {
+            return method;
+        }
+
+        public int getStatusClass() {
+            return statusClass;
+        }
+
+        public int getPhase() {
+            return phase;
+        }
+
+        @NonNull
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+}
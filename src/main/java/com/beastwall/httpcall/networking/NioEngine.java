@@ -0,0 +1,837 @@
+package com.beastwall.httpcall.networking;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beastwall.httpcall.items.Field;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Non-blocking HTTP/1.1 engine, one selector thread drives thousands of requests at the same time
+ * instead of blocking one thread per request.
+ * <p>
+ * Responses are parsed as their bytes arrive into pooled direct buffers. Connections are kept alive
+ * and, when {@link #setMaxPipelinedRequests(int)} allows it, several requests are written on the same
+ * connection before their responses come back (pipelining).
+ * <p>
+ * The engine only reads (GET and HEAD requests) over plain http, {@link HttpConnection} keeps using its
+ * {@link Transport} for everything else. Give a connection an engine with
+ * {@link HttpConnection#setNioEngine(NioEngine)}.
+ */
+public class NioEngine {
+
+    /**
+     * Receives the result of a request, the methods are called in the engine thread so they must be short.
+     */
+    public interface Callback {
+
+        /**
+         * A part of the body arrived.
+         *
+         * @param numberOfReadBytes: number of body bytes read till now.
+         * @param contentLength:     size of the body, -1 if the server didn't send it.
+         */
+        void onProgress(long numberOfReadBytes, long contentLength);
+
+        /**
+         * The whole response arrived.
+         *
+         * @param body: the body, call {@link PooledBody#release()} once it's not needed anymore.
+         */
+        void onResponse(int responseCode, @NonNull Map<String, List<String>> headers, @NonNull PooledBody body);
+
+        /**
+         * The request failed, there will be no response.
+         */
+        void onFailure(@NonNull IOException e);
+    }
+
+    /**
+     * Default settings
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 32;
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    public static final long DEFAULT_DNS_CACHE_MILLIS = 60000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 250;
+
+    /**
+     * a request that lost its connection before it was answered is sent again this number of times at most
+     */
+    private static final int MAX_ATTEMPTS = 2;
+
+    private static NioEngine defaultEngine;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    /**
+     * requests sent from other threads, picked up by the engine thread
+     */
+    private final ConcurrentLinkedQueue<Exchange> submittedExchanges = new ConcurrentLinkedQueue<>();
+
+    /**
+     * connections and waiting requests of every host, only touched by the engine thread
+     */
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+
+    /**
+     * resolves the hosts off the engine thread, a slow name server would stall every connection otherwise,
+     * and the results handed back to the engine thread
+     */
+    private final ExecutorService resolver = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Arrowbow-nio-resolver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final ConcurrentLinkedQueue<Resolution> resolutions = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private volatile int maxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile long keepAliveMillis = ConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS;
+    private volatile long dnsCacheMillis = DEFAULT_DNS_CACHE_MILLIS;
+
+    /**
+     * Creates and starts an engine.
+     *
+     * @throws IOException if the selector can't be opened.
+     */
+    public NioEngine() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Arrowbow-nio-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return an engine shared by the connections that use one.
+     * @throws IOException if the selector can't be opened.
+     */
+    public static synchronized NioEngine getDefault() throws IOException {
+        if (defaultEngine == null) defaultEngine = new NioEngine();
+        return defaultEngine;
+    }
+
+    /**
+     * @return true if this engine can carry a request to this url.
+     */
+    public static boolean isSupported(@Nullable URL url, @NonNull String method) {
+        return url != null && "http".equalsIgnoreCase(url.getProtocol())
+                && (method.equals("GET") || method.equals("HEAD"));
+    }
+
+    /**
+     * Sends a request, this method doesn't block.
+     *
+     * @param url:      http url you want to read from.
+     * @param method:   GET or HEAD.
+     * @param header:   the header fields you want to pu into your http request.
+     * @param callback: receives the result in the engine thread.
+     */
+    public final void send(@NonNull URL url,
+                           @NonNull String method,
+                           @Nullable RequestHeader header,
+                           @NonNull Callback callback) {
+        if (!isSupported(url, method))
+            throw new IllegalArgumentException("The engine only sends GET and HEAD requests over http");
+        if (!running) {
+            callback.onFailure(new IOException("The engine was shut down"));
+            return;
+        }
+        submittedExchanges.add(new Exchange(url, method, header, callback));
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the engine thread, pending requests fail.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Engine thread
+     */
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+            } catch (IOException | ClosedSelectorException e) {
+                Log.e("Arrowbow_library", "Nio engine stopped: " + e.getMessage());
+                break;
+            }
+
+            Resolution resolution;
+            while ((resolution = resolutions.poll()) != null) resolved(resolution);
+
+            Exchange exchange;
+            while ((exchange = submittedExchanges.poll()) != null) {
+                HostQueue hostQueue = hostQueueOf(exchange.url);
+                hostQueue.waiting.add(exchange);
+                dispatchWaiting(hostQueue);
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) connection.finishConnect();
+                    if (key.isValid() && key.isWritable()) connection.write();
+                    if (key.isValid() && key.isReadable()) connection.read();
+                } catch (IOException e) {
+                    connection.fail(e);
+                } catch (java.nio.channels.CancelledKeyException e) {
+                    connection.fail(new IOException("Connection closed"));
+                }
+                dispatchWaiting(connection.hostQueue);
+            }
+
+            checkTimeouts(System.currentTimeMillis());
+        }
+
+        /**
+         * shutting down
+         */
+        IOException shutDown = new IOException("The engine was shut down");
+        for (HostQueue hostQueue : hosts.values()) {
+            for (Connection connection : new ArrayList<>(hostQueue.connections)) connection.fail(shutDown);
+            for (Exchange waiting : hostQueue.waiting) waiting.fail(shutDown);
+            hostQueue.waiting.clear();
+        }
+        Exchange exchange;
+        while ((exchange = submittedExchanges.poll()) != null) exchange.fail(shutDown);
+        resolver.shutdownNow();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private HostQueue hostQueueOf(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String key = url.getHost() + ":" + port;
+        HostQueue hostQueue = hosts.get(key);
+        if (hostQueue == null) {
+            hostQueue = new HostQueue(url.getHost(), port);
+            hosts.put(key, hostQueue);
+        }
+        return hostQueue;
+    }
+
+    /**
+     * Gives the waiting requests of a host to its connections, new connections are opened
+     * until the limit, then requests are pipelined on the least busy ones.
+     */
+    private void dispatchWaiting(HostQueue hostQueue) {
+        while (!hostQueue.waiting.isEmpty()) {
+            Connection best = null;
+            for (Connection connection : hostQueue.connections) {
+                if (connection.closing || connection.inFlight.size() >= maxPipelinedRequests) continue;
+                if (best == null || connection.inFlight.size() < best.inFlight.size()) best = connection;
+            }
+
+            if ((best == null || !best.inFlight.isEmpty())
+                    && hostQueue.connections.size() < maxConnectionsPerHost) {
+                /**
+                 * the host is resolved again once its address is older than the dns cache duration, the
+                 * connections opened before keep theirs, the requests wait for the resolution like they
+                 * wait for a connection
+                 */
+                if (hostQueue.address == null
+                        || System.currentTimeMillis() - hostQueue.resolvedAt > dnsCacheMillis) {
+                    resolve(hostQueue);
+                } else {
+                    try {
+                        best = openConnection(hostQueue);
+                    } catch (IOException e) {
+                        hostQueue.waiting.poll().fail(e);
+                        continue;
+                    }
+                }
+            }
+            if (best == null) return;
+            best.enqueue(hostQueue.waiting.poll());
+        }
+    }
+
+    /**
+     * Resolves a host in the resolver threads, unless it's already being resolved.
+     */
+    private void resolve(final HostQueue hostQueue) {
+        if (hostQueue.resolving) return;
+        hostQueue.resolving = true;
+        try {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Resolution resolution = new Resolution(hostQueue);
+                    try {
+                        resolution.address = new InetSocketAddress(InetAddress.getByName(hostQueue.host), hostQueue.port);
+                    } catch (UnknownHostException e) {
+                        resolution.failure = e;
+                    }
+                    resolutions.add(resolution);
+                    selector.wakeup();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /**
+             * the engine is shutting down, its requests fail with it
+             */
+            hostQueue.resolving = false;
+        }
+    }
+
+    /**
+     * Engine thread: opens the connections the requests of a resolved host wait for,
+     * or fails them if it couldn't be resolved.
+     */
+    private void resolved(Resolution resolution) {
+        HostQueue hostQueue = resolution.hostQueue;
+        hostQueue.resolving = false;
+        if (resolution.address != null) {
+            hostQueue.address = resolution.address;
+            hostQueue.resolvedAt = System.currentTimeMillis();
+            dispatchWaiting(hostQueue);
+            return;
+        }
+        for (Exchange waiting : hostQueue.waiting) waiting.fail(resolution.failure);
+        hostQueue.waiting.clear();
+    }
+
+    private Connection openConnection(HostQueue hostQueue) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(hostQueue, channel);
+            boolean connected = channel.connect(hostQueue.address);
+            connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            connection.connected = connected;
+            hostQueue.connections.add(connection);
+            return connection;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void checkTimeouts(long now) {
+        for (HostQueue hostQueue : hosts.values()) {
+            for (Connection connection : new ArrayList<>(hostQueue.connections)) {
+                if (!connection.connected) {
+                    if (now - connection.lastActivity > connectTimeout)
+                        connection.fail(new SocketTimeoutException("connect timed out"));
+                } else if (!connection.inFlight.isEmpty()) {
+                    if (now - connection.lastActivity > readTimeout)
+                        connection.fail(new SocketTimeoutException("Read timed out"));
+                } else if (now - connection.lastActivity > keepAliveMillis) {
+                    connection.close();
+                }
+            }
+            dispatchWaiting(hostQueue);
+        }
+    }
+
+    private static void logCallbackError(RuntimeException e) {
+        e.printStackTrace();
+        Log.e("Arrowbow_library", "Nio engine callback failed: " + e.getMessage());
+    }
+
+    /**
+     * Settings
+     */
+
+    /**
+     * @param maxConnectionsPerHost: maximum number of connections opened to one host.
+     */
+    public NioEngine setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) throw new IllegalArgumentException("maxConnectionsPerHost < 1");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * @param maxPipelinedRequests: number of requests sent on a connection before their responses arrive,
+     *                              1 disables pipelining, the server must support it to use more.
+     */
+    public NioEngine setMaxPipelinedRequests(int maxPipelinedRequests) {
+        if (maxPipelinedRequests < 1) throw new IllegalArgumentException("maxPipelinedRequests < 1");
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        return this;
+    }
+
+    /**
+     * @param connectTimeout: connectTimeOut in millis
+     */
+    public NioEngine setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param readTimeout: time in millis a busy connection can stay without receiving anything.
+     */
+    public NioEngine setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * @param keepAliveMillis: time an idle connection is kept open.
+     */
+    public NioEngine setKeepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+        return this;
+    }
+
+    /**
+     * @param dnsCacheMillis: time the address of a host is used for new connections before it's resolved again.
+     */
+    public NioEngine setDnsCacheMillis(long dnsCacheMillis) {
+        this.dnsCacheMillis = dnsCacheMillis;
+        return this;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /**
+     * Body of a response held in pooled buffers
+     */
+    public static final class PooledBody {
+        private final BufferPool pool;
+        private final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+        private long length = 0;
+
+        PooledBody(BufferPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Copies the readable bytes of data at the end of the body.
+         */
+        void append(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                ByteBuffer last = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+                if (last == null || !last.hasRemaining()) {
+                    last = pool.acquire();
+                    buffers.add(last);
+                }
+                int count = Math.min(last.remaining(), data.remaining());
+                ByteBuffer part = data.duplicate();
+                part.limit(part.position() + count);
+                last.put(part);
+                data.position(data.position() + count);
+                length += count;
+            }
+        }
+
+        /**
+         * @return size of the body in bytes.
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return a copy of the body.
+         */
+        @NonNull
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[(int) length];
+            int position = 0;
+            for (ByteBuffer buffer : buffers) {
+                ByteBuffer readable = buffer.duplicate().flip();
+                int count = readable.remaining();
+                readable.get(bytes, position, count);
+                position += count;
+            }
+            return bytes;
+        }
+
+        /**
+         * Writes the body to a channel, a file for example.
+         */
+        public void writeTo(@NonNull WritableByteChannel channel) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+                ByteBuffer readable = buffer.duplicate().flip();
+                while (readable.hasRemaining()) channel.write(readable);
+            }
+        }
+
+        /**
+         * Gives the buffers back to the pool, the body is empty after that.
+         */
+        public void release() {
+            for (ByteBuffer buffer : buffers) pool.release(buffer);
+            buffers.clear();
+            length = 0;
+        }
+    }
+
+    /**
+     * Connections and waiting requests of a host
+     */
+    private static final class HostQueue {
+        final String host;
+        final int port;
+        InetSocketAddress address;
+        long resolvedAt;
+        boolean resolving;
+        final ArrayList<Connection> connections = new ArrayList<>();
+        final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+
+        HostQueue(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    /**
+     * The address of a host, or why it couldn't be resolved
+     */
+    private static final class Resolution {
+        final HostQueue hostQueue;
+        InetSocketAddress address;
+        UnknownHostException failure;
+
+        Resolution(HostQueue hostQueue) {
+            this.hostQueue = hostQueue;
+        }
+    }
+
+    /**
+     * One request and its response
+     */
+    private final class Exchange {
+        final URL url;
+        final String method;
+        final ByteBuffer request;
+        final Callback callback;
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        PooledBody body;
+        int responseCode;
+        long contentLength = -1;
+        boolean keepAlive;
+        int attempts = 0;
+
+        Exchange(URL url, String method, RequestHeader header, Callback callback) {
+            this.url = url;
+            this.method = method;
+            this.callback = callback;
+            this.request = encodeRequest(url, method, header);
+        }
+
+        /**
+         * Forgets what arrived of the response, the request is sent again.
+         */
+        void reset() {
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+            headers.clear();
+            responseCode = 0;
+            contentLength = -1;
+            keepAlive = false;
+        }
+
+        void fail(IOException e) {
+            if (body != null) body.release();
+            try {
+                callback.onFailure(e);
+            } catch (RuntimeException callbackError) {
+                logCallbackError(callbackError);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of an http request without body.
+     */
+    private static ByteBuffer encodeRequest(URL url, String method, RequestHeader header) {
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        StringBuilder request = new StringBuilder(256)
+                .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) request.append(':').append(url.getPort());
+        request.append("\r\n");
+
+        boolean acceptEncoding = false;
+        if (header != null && header.getProperties() != null)
+            for (Field field : header.getProperties()) {
+                if (field.getName().equalsIgnoreCase(RequestHeader.Field.HOST)) continue;
+                if (field.getName().equalsIgnoreCase(RequestHeader.Field.ACCEPT_ENCODING)) acceptEncoding = true;
+                request.append(field.getName()).append(": ").append(field.getValue()).append("\r\n");
+            }
+        /**
+         * asking for a compressed response, unless the user chose the encodings himself
+         */
+        if (!acceptEncoding)
+            request.append(RequestHeader.Field.ACCEPT_ENCODING).append(": ")
+                    .append(ContentEncoding.ACCEPTED_ENCODINGS).append("\r\n");
+        request.append("\r\n");
+        return ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * A socket to a host, the requests written on it wait for their responses in order
+     */
+    private final class Connection implements HttpResponseParser.Listener {
+        final HostQueue hostQueue;
+        final SocketChannel channel;
+        final ArrayDeque<Exchange> inFlight = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        final HttpResponseParser parser = new HttpResponseParser(this);
+        SelectionKey key;
+        ByteBuffer readBuffer;
+        boolean connected;
+
+        /**
+         * no more requests are written, the connection closes after its last response
+         */
+        boolean closing;
+        long lastActivity = System.currentTimeMillis();
+
+        Connection(HostQueue hostQueue, SocketChannel channel) {
+            this.hostQueue = hostQueue;
+            this.channel = channel;
+        }
+
+        void enqueue(Exchange exchange) {
+            exchange.attempts++;
+            inFlight.add(exchange);
+            pendingWrites.add(exchange.request.duplicate());
+            if (inFlight.size() == 1) lastActivity = System.currentTimeMillis();
+            if (connected) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        void finishConnect() throws IOException {
+            if (!channel.finishConnect()) return;
+            connected = true;
+            lastActivity = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+
+        void write() throws IOException {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer request = pendingWrites.peek();
+                channel.write(request);
+                if (request.hasRemaining()) return;
+                pendingWrites.poll();
+            }
+            lastActivity = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void read() throws IOException {
+            if (readBuffer == null) readBuffer = bufferPool.acquire();
+            int count = channel.read(readBuffer);
+            if (count == -1) {
+                boolean completed = parser.endOfStream();
+                if (!completed && !inFlight.isEmpty() && !closing) {
+                    /**
+                     * the server closed an idle connection that had just been given requests
+                     */
+                    retryInFlight(new IOException("Connection closed by the server"));
+                }
+                close();
+                return;
+            }
+            if (count == 0) return;
+
+            lastActivity = System.currentTimeMillis();
+            readBuffer.flip();
+            parser.parse(readBuffer);
+            readBuffer.clear();
+            if (closing && inFlight.isEmpty()) {
+                close();
+            } else if (inFlight.isEmpty() && !parser.isInResponse()) {
+                /**
+                 * idle connections don't hold a buffer
+                 */
+                bufferPool.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+
+        /**
+         * Parser events, they belong to the oldest request in flight
+         */
+
+        @Override
+        public void onStatus(int responseCode, boolean http11) {
+            Exchange exchange = inFlight.peek();
+            if (exchange == null) return;
+            exchange.responseCode = responseCode;
+            exchange.keepAlive = http11;
+            exchange.body = new PooledBody(bufferPool);
+        }
+
+        @Override
+        public void onHeader(@NonNull String name, @NonNull String value) {
+            Exchange exchange = inFlight.peek();
+            if (exchange == null) return;
+            List<String> values = exchange.headers.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                exchange.headers.put(name, values);
+            }
+            values.add(value);
+
+            if (name.equalsIgnoreCase("Connection")) {
+                if (value.equalsIgnoreCase("close")) exchange.keepAlive = false;
+                else if (value.equalsIgnoreCase("keep-alive")) exchange.keepAlive = true;
+            } else if (name.equalsIgnoreCase(RequestHeader.Field.CONTENT_LENGTH)) {
+                try {
+                    exchange.contentLength = Long.parseLong(value);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public boolean onHeadersComplete() {
+            Exchange exchange = inFlight.peek();
+            return exchange != null && exchange.method.equals("HEAD");
+        }
+
+        @Override
+        public void onBody(@NonNull ByteBuffer data) {
+            Exchange exchange = inFlight.peek();
+            if (exchange == null) {
+                data.position(data.limit());
+                return;
+            }
+            exchange.body.append(data);
+            try {
+                exchange.callback.onProgress(exchange.body.length(), exchange.contentLength);
+            } catch (RuntimeException e) {
+                logCallbackError(e);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            Exchange exchange = inFlight.poll();
+            if (exchange == null) {
+                /**
+                 * a response nobody asked for, the connection can't be trusted anymore
+                 */
+                closing = true;
+                return;
+            }
+            if (!exchange.keepAlive && !closing) {
+                closing = true;
+                retryInFlight(new IOException("Connection closed by the server"));
+            }
+            try {
+                exchange.callback.onResponse(exchange.responseCode, exchange.headers, exchange.body);
+            } catch (RuntimeException e) {
+                logCallbackError(e);
+            }
+        }
+
+        /**
+         * Sends the requests that are still waiting for a response again, on another connection.
+         */
+        private void retryInFlight(IOException cause) {
+            ArrayList<Exchange> unanswered = new ArrayList<>(inFlight);
+            inFlight.clear();
+            pendingWrites.clear();
+            for (int i = unanswered.size() - 1; i >= 0; i--) {
+                Exchange exchange = unanswered.get(i);
+                exchange.reset();
+                if (exchange.attempts < MAX_ATTEMPTS) hostQueue.waiting.addFirst(exchange);
+                else exchange.fail(cause);
+            }
+        }
+
+        /**
+         * The connection is broken, the request being answered fails and the others are sent again.
+         */
+        void fail(IOException e) {
+            if (!connected) {
+                for (Exchange exchange : inFlight) exchange.fail(e);
+                inFlight.clear();
+                /**
+                 * the host may have moved, the next connection resolves it again
+                 */
+                hostQueue.address = null;
+            } else {
+                Exchange current = inFlight.poll();
+                if (current != null) current.fail(e);
+                retryInFlight(e);
+            }
+            close();
+        }
+
+        void close() {
+            closing = true;
+            hostQueue.connections.remove(this);
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            if (readBuffer != null) {
+                bufferPool.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.beastwall.httpcall.networking;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the progress of one call to the ui thread without flooding it.
+ * <p>
+ * Updates closer than the minimum interval or the minimum percentage are dropped, and while a delivery
+ * is waiting in the ui thread the newer updates only replace its values: the ui thread always shows
+ * the latest progress and receives at most one pending event per call.
+ * <p>
+ * The throughput is an exponentially weighted moving average of the rate measured every
+ * {@link #SAMPLE_INTERVAL_MILLIS}, the remaining time is estimated from it.
+ * Nothing is allocated per update.
+ */
+final class ProgressReporter implements Runnable {
+
+    /**
+     * Receives the progress in the ui thread.
+     */
+    interface Listener {
+        /**
+         * @param numberOfReadBytes:    bytes received, compressed if the body is.
+         * @param numberOfDecodedBytes: bytes of the body once decoded.
+         * @param bytesPerSecond:       average throughput, -1 until it's measured.
+         * @param etaMillis:            estimated remaining time, -1 if the download size or the throughput is unknown.
+         */
+        void onProgress(short percentage, long downloadSize, long numberOfReadBytes, long numberOfDecodedBytes,
+                        long bytesPerSecond, long etaMillis);
+    }
+
+    static final long DEFAULT_MIN_INTERVAL_MILLIS = 100;
+    static final int DEFAULT_MIN_PERCENTAGE_DELTA = 1;
+
+    /**
+     * time between two throughput measures, and the weight of the newest one in the average
+     */
+    static final long SAMPLE_INTERVAL_MILLIS = 50;
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final Handler handler;
+    private final Listener listener;
+    private final long minIntervalNanos;
+    private final int minPercentageDelta;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    /**
+     * counts the received bytes of a compressed body, null if the body isn't decoded
+     */
+    private ContentEncoding.CountingInputStream receivedBytes;
+
+    /**
+     * state of the reading thread
+     */
+    private long sampleTime = 0;
+    private long sampleBytes = 0;
+    private double bytesPerNano = -1;
+    private long lastReportTime = 0;
+    private short lastReportedPercentage = -1;
+
+    /**
+     * values of the pending delivery, guarded by this
+     */
+    private short percentage;
+    private long downloadSize;
+    private long numberOfReadBytes;
+    private long numberOfDecodedBytes;
+    private long bytesPerSecond;
+    private long etaMillis;
+
+    ProgressReporter(@NonNull Handler handler, @NonNull Listener listener,
+                     long minIntervalMillis, int minPercentageDelta) {
+        this.handler = handler;
+        this.listener = listener;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        this.minPercentageDelta = minPercentageDelta;
+    }
+
+    /**
+     * @return percentage of the download, 100 if its size is unknown like before.
+     */
+    static short percentageOf(long numberOfReadBytes, long downloadSize) {
+        if (downloadSize <= 0 || numberOfReadBytes >= downloadSize) return 100;
+        return (short) ((numberOfReadBytes * 100) / downloadSize);
+    }
+
+    /**
+     * Lets the progress of a compressed body follow the bytes received rather than the decoded ones,
+     * the download size being the compressed size.
+     *
+     * @param receivedBytes: the stream the compressed body is read from.
+     */
+    void countReceivedBytes(@NonNull ContentEncoding.CountingInputStream receivedBytes) {
+        this.receivedBytes = receivedBytes;
+    }
+
+    /**
+     * @return true if the body is decoded, its size is then unknown until it's read.
+     */
+    boolean isDecoding() {
+        return receivedBytes != null;
+    }
+
+    /**
+     * Called by the reading thread every time bytes are read.
+     *
+     * @param numberOfDecodedBytes: number of bytes of the body read till now.
+     * @param downloadSize:         size of the download, or -1 if it's unknown.
+     */
+    void update(long numberOfDecodedBytes, long downloadSize) {
+        long numberOfReadBytes = receivedBytes == null ? numberOfDecodedBytes : receivedBytes.getCount();
+        long now = System.nanoTime();
+        if (sampleTime == 0) {
+            sampleTime = now;
+            sampleBytes = numberOfReadBytes;
+        } else if (now - sampleTime >= TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MILLIS)) {
+            double rate = (double) (numberOfReadBytes - sampleBytes) / (now - sampleTime);
+            bytesPerNano = bytesPerNano < 0 ? rate : bytesPerNano + EWMA_WEIGHT * (rate - bytesPerNano);
+            sampleTime = now;
+            sampleBytes = numberOfReadBytes;
+        }
+
+        short percentage = percentageOf(numberOfReadBytes, downloadSize);
+        boolean finished = downloadSize > 0 && numberOfReadBytes >= downloadSize;
+        if (!finished) {
+            /**
+             * a known size has to move by the minimum percentage, an unknown one is only limited by time
+             */
+            if (now - lastReportTime < minIntervalNanos && lastReportTime != 0) return;
+            if (downloadSize > 0 && percentage < lastReportedPercentage + minPercentageDelta) return;
+        } else if (lastReportedPercentage == 100 && receivedBytes == null) {
+            /**
+             * a compressed body is received before it's fully decoded, its last updates still count
+             */
+            return;
+        }
+        lastReportTime = now;
+        lastReportedPercentage = percentage;
+
+        long bytesPerSecond = bytesPerNano < 0 ? -1 : (long) (bytesPerNano * TimeUnit.SECONDS.toNanos(1));
+        long etaMillis = -1;
+        if (finished) etaMillis = 0;
+        else if (downloadSize > 0 && bytesPerNano > 0)
+            etaMillis = (long) ((downloadSize - numberOfReadBytes) / bytesPerNano / TimeUnit.MILLISECONDS.toNanos(1));
+
+        synchronized (this) {
+            this.percentage = percentage;
+            this.downloadSize = downloadSize;
+            this.numberOfReadBytes = numberOfReadBytes;
+            this.numberOfDecodedBytes = numberOfDecodedBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaMillis = etaMillis;
+        }
+        /**
+         * a delivery already waiting in the ui thread will show these values
+         */
+        if (pending.compareAndSet(false, true)) handler.post(this);
+    }
+
+    /**
+     * Delivers the latest values in the ui thread.
+     */
+    @Override
+    public void run() {
+        pending.set(false);
+        short percentage;
+        long downloadSize, numberOfReadBytes, numberOfDecodedBytes, bytesPerSecond, etaMillis;
+        synchronized (this) {
+            percentage = this.percentage;
+            downloadSize = this.downloadSize;
+            numberOfReadBytes = this.numberOfReadBytes;
+            numberOfDecodedBytes = this.numberOfDecodedBytes;
+            bytesPerSecond = this.bytesPerSecond;
+            etaMillis = this.etaMillis;
+        }
+        listener.onProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes, bytesPerSecond, etaMillis);
+    }
+}
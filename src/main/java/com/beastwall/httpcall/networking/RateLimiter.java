@@ -0,0 +1,304 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of the requests sent to every host, or to every group of endpoints,
+ * so the bursts of many connections don't get throttled by the server.
+ * <p>
+ * Every key has a token bucket: {@code burst} requests can go right away, then one more every
+ * {@code 1 / permitsPerSecond}. The bucket is kept as the time its next request conforms (GCRA), one
+ * compare-and-set per request and no lock, so the limiter isn't a contention point at high rates.
+ * <p>
+ * A request that finds no token waits for its turn, up to {@link #setMaxWait(long)}, the others are rejected
+ * with {@link HttpConnection#FLAG_RATE_LIMITED}. A waiting request doesn't hold a dispatcher thread.
+ * <p>
+ * The limiter also learns from the server: a 429, or a 503 with Retry-After, pauses its key for the time asked
+ * and halves its rate, the rate doubles back every {@link #RECOVERY_MILLIS} without a new rejection.
+ * <p>
+ * A connection uses a limiter with {@link HttpConnection#setRateLimiter(RateLimiter)}, the connections to the
+ * same hosts should share it.
+ */
+public final class RateLimiter {
+
+    /**
+     * Computes the key of a url, the requests of one key share a bucket.
+     */
+    public interface KeyFunction {
+        @NonNull
+        String keyOf(@NonNull String url);
+    }
+
+    /**
+     * One bucket per host.
+     */
+    public static final KeyFunction BY_HOST = new KeyFunction() {
+        @NonNull
+        @Override
+        public String keyOf(@NonNull String url) {
+            return hostOf(url);
+        }
+    };
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Default limits
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10_000;
+    public static final long DEFAULT_THROTTLE_PAUSE_MILLIS = 1000;
+
+    /**
+     * time without rejection after which a slowed down rate doubles
+     */
+    public static final long RECOVERY_MILLIS = 10_000;
+
+    /**
+     * a rejected key isn't slowed down below this share of its rate
+     */
+    private static final double MIN_RATE_SCALE = 1.0 / 16;
+
+    private final double defaultPermitsPerSecond;
+    private final int defaultBurst;
+    private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private KeyFunction keyFunction = BY_HOST;
+    private volatile long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT_MILLIS);
+
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    /**
+     * @param permitsPerSecond: requests per second of every key without its own limit.
+     * @param burst:            requests of a key that can go at once after it was idle.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.defaultPermitsPerSecond = permitsPerSecond;
+        this.defaultBurst = Math.max(1, burst);
+    }
+
+    /**
+     * Gives a key its own limit, set it before the first request of the key.
+     */
+    public RateLimiter setLimit(@NonNull String key, double permitsPerSecond, int burst) {
+        limits.put(key, new Limit(permitsPerSecond, Math.max(1, burst)));
+        buckets.remove(key);
+        return this;
+    }
+
+    /**
+     * @param keyFunction: groups the urls in keys, {@link #BY_HOST} by default.
+     */
+    public RateLimiter setKeyFunction(@NonNull KeyFunction keyFunction) {
+        this.keyFunction = keyFunction;
+        return this;
+    }
+
+    /**
+     * @param maxWaitMillis: longest wait of a request for its token, 0 to reject the requests that find none.
+     */
+    public RateLimiter setMaxWait(long maxWaitMillis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        return this;
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * @return true if a request to this url can go right away, its token is taken.
+     */
+    public boolean tryAcquire(@NonNull String url) {
+        return reserve(url, 0) == 0;
+    }
+
+    /**
+     * Takes the token of a request, the request has to wait for its turn.
+     *
+     * @return the wait in millis, 0 if the request can go right away, or -1 if it's rejected.
+     */
+    long acquire(@Nullable String url) {
+        if (url == null) return 0;
+        return reserve(url, maxWaitNanos);
+    }
+
+    private long reserve(@NonNull String url, long maxWait) {
+        long waitNanos = bucketOf(url).reserve(System.nanoTime(), maxWait);
+        if (waitNanos < 0) {
+            rejectedCount.incrementAndGet();
+            return -1;
+        }
+        acquiredCount.incrementAndGet();
+        if (waitNanos == 0) return 0;
+        delayedCount.incrementAndGet();
+        /**
+         * rounded up, a request never goes before its turn
+         */
+        return Math.max(1, (waitNanos + 999_999) / 1_000_000);
+    }
+
+    /**
+     * Slows down the key of a url after the server rejected a request for its rate.
+     *
+     * @param retryAfterMillis: the wait asked by the server, -1 if it didn't ask one.
+     */
+    void onThrottled(@Nullable String url, long retryAfterMillis) {
+        if (url == null) return;
+        throttledCount.incrementAndGet();
+        long pause = retryAfterMillis >= 0 ? retryAfterMillis : DEFAULT_THROTTLE_PAUSE_MILLIS;
+        bucketOf(url).throttle(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(pause));
+    }
+
+    /**
+     * @return the host of a url, read without parsing the whole url: it's called for every request.
+     */
+    @NonNull
+    static String hostOf(@NonNull String url) {
+        int start = url.indexOf("://");
+        start = start == -1 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') break;
+            end++;
+        }
+        int userInfo = url.lastIndexOf('@', end - 1);
+        if (userInfo >= start) start = userInfo + 1;
+        /**
+         * the colons of an IPv6 address are inside brackets
+         */
+        int port;
+        if (url.startsWith("[", start)) {
+            int bracket = url.indexOf(']', start);
+            port = bracket == -1 || bracket >= end ? -1 : url.indexOf(':', bracket);
+        } else {
+            port = url.indexOf(':', start);
+        }
+        if (port != -1 && port < end) end = port;
+        return url.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    @NonNull
+    private Bucket bucketOf(@NonNull String url) {
+        String key = keyFunction.keyOf(url);
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) return bucket;
+        Limit limit = limits.get(key);
+        Bucket created = limit == null ? new Bucket(defaultPermitsPerSecond, defaultBurst)
+                : new Bucket(limit.permitsPerSecond, limit.burst);
+        Bucket previous = buckets.putIfAbsent(key, created);
+        return previous == null ? created : previous;
+    }
+
+    /**
+     * Stats
+     */
+
+    /**
+     * @return number of requests that got a token, right away or after a wait.
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * @return number of requests that waited for their token.
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /**
+     * @return number of requests rejected because their wait would have been too long.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return number of requests the server rejected for their rate.
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    private static final class Limit {
+        final double permitsPerSecond;
+        final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * The token bucket of a key, kept as the theoretical arrival time of its next request.
+     */
+    static final class Bucket {
+        private final long intervalNanos;
+        private final int burst;
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+        /**
+         * share of the rate left after the rejections of the server, and when it last changed
+         */
+        private volatile double rateScale = 1;
+        private volatile long rateChangedNanos = System.nanoTime();
+
+        Bucket(double permitsPerSecond, int burst) {
+            this.intervalNanos = permitsPerSecond <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.burst = burst;
+        }
+
+        /**
+         * @return the wait of the request in nanos, or -1 if it's longer than the maximum wait.
+         */
+        long reserve(long now, long maxWaitNanos) {
+            if (intervalNanos == 0) return 0;
+            double scale = rateScale;
+            if (scale < 1 && now - rateChangedNanos > TimeUnit.MILLISECONDS.toNanos(RECOVERY_MILLIS)) {
+                /**
+                 * concurrent requests may both double it, the next rejection halves it again
+                 */
+                scale = Math.min(1, scale * 2);
+                rateScale = scale;
+                rateChangedNanos = now;
+            }
+            long interval = (long) (intervalNanos / scale);
+            long tolerance = interval * (burst - 1);
+            while (true) {
+                long arrival = theoreticalArrival.get();
+                long start = Math.max(now, arrival - tolerance);
+                long wait = start - now;
+                if (wait > maxWaitNanos) return -1;
+                if (theoreticalArrival.compareAndSet(arrival, Math.max(arrival, now) + interval)) return wait;
+            }
+        }
+
+        /**
+         * Keeps the requests of this key from going before the pause ends, and halves its rate.
+         */
+        void throttle(long now, long pauseNanos) {
+            double scale = Math.max(MIN_RATE_SCALE, rateScale / 2);
+            rateScale = scale;
+            rateChangedNanos = now;
+            if (intervalNanos == 0) return;
+            long tolerance = (long) (intervalNanos / scale) * (burst - 1);
+            long resume = now + pauseNanos + tolerance;
+            while (true) {
+                long arrival = theoreticalArrival.get();
+                if (arrival >= resume || theoreticalArrival.compareAndSet(arrival, resume)) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beastwall.httpcall.items.Field;
+
+/**
+ * Describes one http request, so it can be executed later with {@link HttpConnection#execute(Request)}
+ * instead of calling one of the getX / postX methods.
+ * <p>
+ * example: new Request(Request.METHOD_POST, url).setBody(json).setHeader(header)
+ */
+public class Request {
+
+    /**
+     * Rest Connection Methods
+     */
+    public static final String METHOD_GET = "GET";
+    public static final String METHOD_POST = "POST";
+    public static final String METHOD_DELETE = "DELETE";
+    public static final String METHOD_PUT = "PUT";
+    public static final String METHOD_PATCH = "PATCH";
+
+    private final String method;
+    private final String url;
+    private RequestHeader header;
+    private String body;
+    private Field[] fields;
+    private int dataType = HttpConnection.DATATYPE_TEXT;
+    private int responseDataType = HttpConnection.DATATYPE_TEXT;
+    private String storageDirectory;
+
+    /**
+     * @param method: one of the METHOD_X constants of this class.
+     * @param url:    url you want to connect to.
+     */
+    public Request(@NonNull String method, @Nullable String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    /**
+     * A GET request reading text.
+     */
+    public static Request get(@Nullable String url) {
+        return new Request(METHOD_GET, url);
+    }
+
+    /**
+     * A POST request sending a text.
+     */
+    public static Request post(@Nullable String url, @Nullable String body) {
+        return new Request(METHOD_POST, url).setBody(body);
+    }
+
+    /**
+     * @param header: the header fields you want to pu into your http request.
+     */
+    public Request setHeader(@Nullable RequestHeader header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * @param body: text you want to send, it's ignored by GET requests.
+     */
+    public Request setBody(@Nullable String body) {
+        this.body = body;
+        return this;
+    }
+
+    /**
+     * Turns the request into a multi-part form.
+     *
+     * @param fields: form fields (String(s) / File(s)) you want to send.
+     */
+    public Request setFields(@Nullable Field... fields) {
+        this.fields = fields;
+        this.dataType = HttpConnection.DATATYPE_MULTI_PART_DATA_FORM;
+        return this;
+    }
+
+    /**
+     * @param dataType: data type you want to download for GET requests
+     *                  ({@link HttpConnection#DATATYPE_TEXT}, {@link HttpConnection#DATATYPE_FILE}...).
+     */
+    public Request setDataType(int dataType) {
+        this.dataType = dataType;
+        return this;
+    }
+
+    /**
+     * @param responseDataType: integer to specify whether the response of a sending request is a text or a File
+     */
+    public Request setResponseDataType(int responseDataType) {
+        this.responseDataType = responseDataType;
+        return this;
+    }
+
+    /**
+     * @param storageDirectory: where to put the file in case the response is a file
+     */
+    public Request setStorageDirectory(@Nullable String storageDirectory) {
+        this.storageDirectory = storageDirectory;
+        return this;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public RequestHeader getHeader() {
+        return header;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Field[] getFields() {
+        return fields;
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public int getResponseDataType() {
+        return responseDataType;
+    }
+
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+}
@@ -65,6 +65,7 @@ public class RequestHeader {
         String ACCEPT_CHARSET = "Accept-Charset";
         String ACCEPT_ENCODING = "Accept-Encoding";
         String ACCEPT_LANGUAGE = "Accept-Language";
+        String ACCEPT_RANGES = "Accept-Ranges";
         String AUTHORIZATION = "Authorization";
         String BOUNDARY = "boundary";
         String CACHE_CONTROL = "Cache-Control";
@@ -72,6 +73,7 @@ public class RequestHeader {
         String CONTENT_LANGUAGE = "Content-Language";
         String CONTENT_LENGTH = "Content-Length";
         String CONTENT_LOCATION = "Content-Location";
+        String CONTENT_RANGE = "Content-Range";
         String CONTENT_TYPE = "Content-Type";
         String COOKIE = "Cookie";
         String DATE = "Date";
@@ -81,9 +83,12 @@ public class RequestHeader {
         String IF_MATCH = "If-Match";
         String IF_MODIFIED_SINCE = "If-Modified-Since";
         String IF_NONE_MATCH = "If-None-Match";
+        String IF_RANGE = "If-Range";
         String IF_UNMODIFIED_SINCE = "If-Unmodified-Since";
         String LAST_MODIFIED = "Last-Modified";
         String LOCATION = "Location";
+        String RANGE = "Range";
+        String RETRY_AFTER = "Retry-After";
         String SET_COOKIE = "Set-Cookie";
         String USER_AGENT = "User-Agent";
         String VARY = "Vary";
@@ -0,0 +1,99 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The instants the current request of a connection reached, turned into the durations of its phases
+ * once it ends. A connection keeps one and reuses it for all its requests, it's allocated once per connection
+ * (the call shared by coalesced requests is a connection of its own) and then only allocates the host of a new url.
+ * <p>
+ * A mark is kept the first time it's reached, the connections opened again by a request don't move it.
+ * A phase whose marks weren't both reached isn't recorded: the engine doesn't tell when it's connected,
+ * the connections of an {@link HttpClientTransport} only tell when they have the response headers.
+ */
+final class RequestTimings {
+
+    /**
+     * Marks
+     */
+    static final int MARK_STARTED = 0;
+    static final int MARK_CONNECTING = 1;
+    static final int MARK_CONNECTED = 2;
+    static final int MARK_WRITTEN = 3;
+    static final int MARK_FIRST_BYTE = 4;
+    private static final int MARK_COUNT = 5;
+
+    private final long[] marks = new long[MARK_COUNT];
+    private volatile boolean running = false;
+    private String method;
+
+    /**
+     * the host of the last url, a connection calls the same url again without computing it
+     */
+    private String url;
+    private String host;
+
+    /**
+     * Starts timing a request, or one of its attempts.
+     */
+    void start(@NonNull String url, @NonNull String method) {
+        for (int i = 1; i < MARK_COUNT; i++) marks[i] = 0;
+        marks[MARK_STARTED] = System.nanoTime();
+        this.method = method;
+        if (!url.equals(this.url)) {
+            this.url = url;
+            this.host = RateLimiter.hostOf(url);
+        }
+        running = true;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void mark(int mark) {
+        if (running && marks[mark] == 0) marks[mark] = System.nanoTime();
+    }
+
+    /**
+     * Ends the request and records its phases.
+     *
+     * @param responseCode: response code of the request, 0 if it didn't get one.
+     * @return the status class of the request, -1 if no request was being timed.
+     */
+    int finish(@NonNull MetricsRecorder recorder, int responseCode) {
+        if (!running) return -1;
+        running = false;
+        long end = System.nanoTime();
+        int statusClass = statusClassOf(responseCode);
+        record(recorder, statusClass, MetricsRecorder.PHASE_QUEUE_WAIT, MARK_STARTED, marks[MARK_CONNECTING]);
+        record(recorder, statusClass, MetricsRecorder.PHASE_CONNECT, MARK_CONNECTING, marks[MARK_CONNECTED]);
+        record(recorder, statusClass, MetricsRecorder.PHASE_REQUEST_WRITE, MARK_CONNECTED, marks[MARK_WRITTEN]);
+        record(recorder, statusClass, MetricsRecorder.PHASE_TIME_TO_FIRST_BYTE,
+                marks[MARK_WRITTEN] != 0 ? MARK_WRITTEN : MARK_CONNECTED, marks[MARK_FIRST_BYTE]);
+        record(recorder, statusClass, MetricsRecorder.PHASE_BODY_READ, MARK_FIRST_BYTE, end);
+        record(recorder, statusClass, MetricsRecorder.PHASE_TOTAL, MARK_STARTED, end);
+        return statusClass;
+    }
+
+    @Nullable
+    String host() {
+        return host;
+    }
+
+    @Nullable
+    String method() {
+        return method;
+    }
+
+    private void record(@NonNull MetricsRecorder recorder, int statusClass, int phase, int from, long to) {
+        long start = marks[from];
+        if (start == 0 || to == 0) return;
+        recorder.record(host, method, statusClass, phase, to - start);
+    }
+
+    static int statusClassOf(int responseCode) {
+        return responseCode >= 100 && responseCode < 600 ? responseCode / 100 : MetricsRecorder.STATUS_CLASS_NONE;
+    }
+}
@@ -1,5 +1,8 @@
 package com.beastwall.httpcall.networking;
 
+import android.os.Build;
+import android.util.Log;
+
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
@@ -19,6 +22,7 @@ public class Response {
     private int responseCode, connectTimeout, readTimeout;
     private long contentLength = 0;
     private Object result;
+    private int flag;
 
 
     public Response(HttpURLConnection httpURLConnection, String result) {
@@ -98,11 +102,48 @@ public class Response {
         return url;
     }
 
+    /**
+     * Returns the last flag of the operation this response belongs to, one of the FLAG_X
+     * constants of {@link HttpConnection}.
+     */
+    public int getFlag() {
+        return flag;
+    }
+
+    Response setFlag(int flag) {
+        this.flag = flag;
+        return this;
+    }
+
     public Response setResult(Object result) {
         this.result = result;
         return this;
     }
 
+    /**
+     * Sets the details of a response that didn't come from an {@link HttpURLConnection}.
+     */
+    Response setReceived(URL url, String requestMethod, int responseCode, Map<String, List<String>> headers) {
+        this.url = url;
+        this.requestMethod = requestMethod;
+        this.responseCode = responseCode;
+        this.headers = headers;
+        contentType = firstValue(headers, RequestHeader.Field.CONTENT_TYPE);
+        contentEncoding = firstValue(headers, RequestHeader.Field.CONTENT_ENCODING);
+        String length = firstValue(headers, RequestHeader.Field.CONTENT_LENGTH);
+        try {
+            contentLength = length == null ? -1 : Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            contentLength = -1;
+        }
+        return this;
+    }
+
+    private static String firstValue(Map<String, List<String>> headers, String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
     /**
      * Sets the http url connection
      */
@@ -116,6 +157,11 @@ public class Response {
                 connectTimeout = httpURLConnection.getConnectTimeout();
                 url = httpURLConnection.getURL();
                 responseCode = httpURLConnection.getResponseCode();
+                /**
+                 * the status line is listed under a null name
+                 */
+                for (Map.Entry<String, List<String>> header : httpURLConnection.getHeaderFields().entrySet())
+                    if (header.getKey() != null) headers.put(header.getKey(), header.getValue());
                 connectTimeout = httpURLConnection.getConnectTimeout();
                 readTimeout = httpURLConnection.getReadTimeout();
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
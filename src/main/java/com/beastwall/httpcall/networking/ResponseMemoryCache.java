@@ -0,0 +1,299 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beastwall.httpcall.items.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of calls in memory, a String, a byte[] or a model parsed from them,
+ * so a call to a hot url skips the network and the decoding.
+ * <p>
+ * The cache is split in stripes, each one with its own lock and its own share of the maximum weight,
+ * so calls to different urls rarely wait for each other. Every stripe evicts its least recently used
+ * results once it's heavier than its share, and a result is dropped once its time to live passed.
+ * <p>
+ * The results of getText are stored under {@link #keyOf(String, RequestHeader)}, a connection uses one
+ * with {@link HttpConnection#setMemoryCache(ResponseMemoryCache)}. Storing a parsed model under the same key
+ * replaces the text: the next calls receive the model.
+ * <p>
+ * The results of a url share a stripe whatever their request headers, {@link #invalidateUrl(String)} drops
+ * all of them at once, a connection does it when it sends anything but a GET to the url.
+ */
+public final class ResponseMemoryCache {
+
+    /**
+     * Computes the weight of a result, usually its size in bytes.
+     */
+    public interface Weigher {
+        int weigh(@NonNull String key, @NonNull Object value);
+    }
+
+    /**
+     * weight of a result that isn't a String or a byte[], when the default weigher is used
+     */
+    public static final int DEFAULT_OBJECT_WEIGHT = 1024;
+
+    /**
+     * Weighs Strings and byte[] by their size in memory.
+     */
+    public static final Weigher DEFAULT_WEIGHER = new Weigher() {
+        @Override
+        public int weigh(@NonNull String key, @NonNull Object value) {
+            int overhead = 64 + 2 * key.length();
+            if (value instanceof String) return overhead + 2 * ((String) value).length();
+            if (value instanceof byte[]) return overhead + ((byte[]) value).length;
+            return overhead + DEFAULT_OBJECT_WEIGHT;
+        }
+    };
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    /**
+     * expiration of the results that don't expire, nano times are only compared by their difference
+     */
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Stripe[] stripes;
+    private final Weigher weigher;
+    private final long maxWeight;
+    private final long timeToLiveNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxWeight:        maximum weight of all results, in bytes with the default weigher.
+     * @param timeToLiveMillis: how long a result is used after it was stored, 0 to keep it until it's evicted.
+     */
+    public ResponseMemoryCache(long maxWeight, long timeToLiveMillis) {
+        this(maxWeight, timeToLiveMillis, DEFAULT_WEIGHER, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param maxWeight:        maximum weight of all results.
+     * @param timeToLiveMillis: how long a result is used after it was stored, 0 to keep it until it's evicted.
+     * @param weigher:          computes the weight of the results.
+     * @param stripes:          number of independently locked parts, rounded up to a power of two.
+     */
+    public ResponseMemoryCache(long maxWeight, long timeToLiveMillis, @NonNull Weigher weigher, int stripes) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        if (stripes <= 1) count = 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) this.stripes[i] = new Stripe(Math.max(1, maxWeight / count));
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeToLiveMillis));
+    }
+
+    /**
+     * @return the key of the result of a GET request to a url, the request headers are part of it.
+     */
+    @NonNull
+    public static String keyOf(@NonNull String url, @Nullable RequestHeader requestHeader) {
+        if (requestHeader == null || requestHeader.getProperties() == null || requestHeader.getProperties().isEmpty())
+            return url;
+        List<String> fields = new ArrayList<>();
+        for (Field field : requestHeader.getProperties())
+            fields.add(field.getName().toLowerCase(Locale.ROOT) + ":" + field.getValue());
+        Collections.sort(fields);
+        StringBuilder key = new StringBuilder(url);
+        for (String field : fields) key.append('\n').append(field);
+        return key.toString();
+    }
+
+    /**
+     * @return the result stored under this key, or null if there is none or it expired.
+     */
+    @Nullable
+    public Object get(@NonNull String key) {
+        Object value = stripeOf(key).get(key, System.nanoTime());
+        if (value == null) missCount.incrementAndGet();
+        else hitCount.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Stores a result, it replaces the one stored under the same key.
+     * A result heavier than a stripe isn't stored.
+     */
+    public void put(@NonNull String key, @NonNull Object value) {
+        int weight = weigher.weigh(key, value);
+        long expiresAt = timeToLiveNanos == 0 ? NEVER : System.nanoTime() + timeToLiveNanos;
+        stripeOf(key).put(key, value, weight, expiresAt);
+    }
+
+    public void invalidate(@NonNull String key) {
+        stripeOf(key).remove(key);
+    }
+
+    /**
+     * Drops the results of every request to a url, whatever their request headers.
+     */
+    public void invalidateUrl(@NonNull String url) {
+        stripeOf(url).removeUrl(url);
+    }
+
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) stripe.clear();
+    }
+
+    /**
+     * Stats
+     */
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of results removed to make room for new ones or because they expired.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return share of the lookups that found a result, 1 if there was no lookup.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the weight of the stored results.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) weight += stripe.weight();
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) size += stripe.size();
+        return size;
+    }
+
+    @NonNull
+    private Stripe stripeOf(@NonNull String key) {
+        /**
+         * the hash of the url the key starts with, the request headers follow it after a line break
+         */
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '\n') break;
+            hash = 31 * hash + c;
+        }
+        /**
+         * spreading the high bits, the number of stripes is a power of two
+         */
+        hash ^= (hash >>> 16);
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private static final class Node {
+        final Object value;
+        final int weight;
+        final long expiresAt;
+
+        Node(Object value, int weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One part of the cache, the results in the order they were used.
+     */
+    private final class Stripe {
+        private final long maxWeight;
+        private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight = 0;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Object get(String key, long now) {
+            Node node = nodes.get(key);
+            if (node == null) return null;
+            if (node.expiresAt != NEVER && now - node.expiresAt >= 0) {
+                nodes.remove(key);
+                weight -= node.weight;
+                evictionCount.incrementAndGet();
+                return null;
+            }
+            return node.value;
+        }
+
+        synchronized void put(String key, Object value, int nodeWeight, long expiresAt) {
+            Node previous = nodes.remove(key);
+            if (previous != null) weight -= previous.weight;
+            if (nodeWeight > maxWeight) return;
+            nodes.put(key, new Node(value, nodeWeight, expiresAt));
+            weight += nodeWeight;
+
+            Iterator<Map.Entry<String, Node>> iterator = nodes.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                Node eldest = iterator.next().getValue();
+                iterator.remove();
+                weight -= eldest.weight;
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        synchronized void remove(String key) {
+            Node node = nodes.remove(key);
+            if (node != null) weight -= node.weight;
+        }
+
+        synchronized void removeUrl(String url) {
+            Iterator<Map.Entry<String, Node>> iterator = nodes.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Node> entry = iterator.next();
+                String key = entry.getKey();
+                if (key.startsWith(url) && (key.length() == url.length() || key.charAt(url.length()) == '\n')) {
+                    iterator.remove();
+                    weight -= entry.getValue().weight;
+                }
+            }
+        }
+
+        synchronized void clear() {
+            nodes.clear();
+            weight = 0;
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+
+        synchronized int size() {
+            return nodes.size();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * A file download that survives a broken transfer.
+ * <p>
+ * The body is written to a partial file named after the url, next to a sidecar file holding the validators
+ * of the response (ETag, Last-Modified) and its full size. The next download of the same url asks only for
+ * the missing bytes with Range, guarded by If-Range: a server whose file changed answers with the whole
+ * body and the download starts over.
+ * <p>
+ * The body is asked without compression, the partial file has to hold the bytes of the resource itself.
+ * Once complete, the partial file is renamed and the sidecar deleted.
+ * <p>
+ * Two downloads of the same url would write the same partial file, the first one holds a lock on it
+ * (see {@link #lock()}) and the second one fails instead of corrupting it.
+ */
+final class ResumableDownload {
+
+    static final String PARTIAL_FILE_SUFFIX = ".part";
+    static final String SIDECAR_FILE_SUFFIX = ".part.meta";
+    static final String LOCK_FILE_SUFFIX = ".part.lock";
+
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_CONTENT_TYPE = "contentType";
+
+    private final File partialFile;
+    private final File sidecarFile;
+    private final File lockFile;
+
+    /**
+     * held while the download uses the partial file, null otherwise
+     */
+    private RandomAccessFile lockHandle;
+    private FileLock lock;
+
+    /**
+     * size of the whole resource, -1 if it's unknown
+     */
+    private long size = -1;
+
+    /**
+     * content type of the resource, kept for the name of the downloaded file
+     */
+    private String contentType;
+
+    /**
+     * @param storageDirectory: where the partial file and the downloaded file are stored.
+     * @param url:              url of the resource, the partial file is found again from it.
+     */
+    ResumableDownload(@Nullable String storageDirectory, @NonNull String url) {
+        String name = "arrowbow_" + hash(url);
+        this.partialFile = new File(storageDirectory, name + PARTIAL_FILE_SUFFIX);
+        this.sidecarFile = new File(storageDirectory, name + SIDECAR_FILE_SUFFIX);
+        this.lockFile = new File(storageDirectory, name + LOCK_FILE_SUFFIX);
+    }
+
+    /**
+     * Takes the partial file of the url for this download, in this process and across processes.
+     *
+     * @throws IOException if another download of the same url holds it.
+     */
+    void lock() throws IOException {
+        File parent = lockFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+            throw new IOException("Couldn't create the directory " + parent);
+        RandomAccessFile handle = new RandomAccessFile(lockFile, "rw");
+        FileLock fileLock = null;
+        try {
+            fileLock = handle.getChannel().tryLock();
+            /**
+             * the lock file is deleted by the download releasing it: a lock taken on the deleted file
+             * guards nothing, the file at its path is a new one
+             */
+            if (fileLock != null && !lockFile.exists()) fileLock = null;
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        } finally {
+            if (fileLock == null) handle.close();
+        }
+        if (fileLock == null) throw new IOException("The file " + partialFile + " is already being downloaded");
+        lockHandle = handle;
+        lock = fileLock;
+    }
+
+    /**
+     * Releases the lock taken by {@link #lock()}, nothing happens if it wasn't taken.
+     */
+    void unlock() {
+        if (lock == null) return;
+        lockFile.delete();
+        try {
+            lock.release();
+            lockHandle.close();
+        } catch (IOException e) {
+            if (e != null) {
+                e.printStackTrace();
+            }
+        }
+        lock = null;
+        lockHandle = null;
+    }
+
+    /**
+     * Fills the request of a connection that isn't connected yet,
+     * a Range is only asked for if the partial file can be validated.
+     *
+     * @return the position the download resumes from, 0 if it starts from the beginning.
+     */
+    long prepare(@NonNull HttpURLConnection connection) {
+        connection.setRequestProperty(RequestHeader.Field.ACCEPT_ENCODING, "identity");
+
+        long position = partialFile.length();
+        if (position == 0 || !sidecarFile.exists()) return 0;
+        Properties record = readSidecar();
+        String validator = record == null ? null : validatorOf(record.getProperty(KEY_ETAG),
+                record.getProperty(KEY_LAST_MODIFIED));
+        if (validator == null) return 0;
+
+        contentType = record.getProperty(KEY_CONTENT_TYPE);
+
+        try {
+            size = Long.parseLong(record.getProperty(KEY_SIZE, "-1"));
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        connection.setRequestProperty(RequestHeader.Field.RANGE, "bytes=" + position + "-");
+        connection.setRequestProperty(RequestHeader.Field.IF_RANGE, validator);
+        return position;
+    }
+
+    /**
+     * Checks the answer of the server to the request filled by {@link #prepare(HttpURLConnection)}.
+     *
+     * @param position: the position the download asked to resume from.
+     * @return where to write the body in the partial file, or -1 if the partial file was dropped
+     * and the download has to be asked again from the beginning.
+     */
+    long start(@NonNull HttpURLConnection connection, long position) throws IOException {
+        int responseCode = connection.getResponseCode();
+        String contentRange = connection.getHeaderField(RequestHeader.Field.CONTENT_RANGE);
+
+        if (position > 0 && responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+            /**
+             * the transfer broke after the last byte was written, before the file was renamed
+             */
+            long total = totalOf(contentRange);
+            if (total == position) {
+                size = total;
+                return position;
+            }
+            discard();
+            return -1;
+        }
+
+        if (position > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            if (contentRange != null && contentRange.startsWith("bytes " + position + "-")) {
+                long total = totalOf(contentRange);
+                if (total >= 0) size = total;
+                if (connection.getContentType() != null) contentType = connection.getContentType();
+                return position;
+            }
+            /**
+             * a range the download didn't ask for
+             */
+            discard();
+            return -1;
+        }
+
+        /**
+         * the whole body: the resource changed or the server ignores ranges, the bytes of the partial file
+         * are dropped first, an old tail left after a shorter body broken early would be resumed from
+         */
+        if (partialFile.length() > 0) discard();
+        long contentLength = connection.getContentLengthLong();
+        size = contentLength;
+        contentType = connection.getContentType();
+        writeSidecar(connection.getHeaderField(RequestHeader.Field.ETAG),
+                connection.getHeaderField(RequestHeader.Field.LAST_MODIFIED));
+        return 0;
+    }
+
+    /**
+     * @return size of the whole resource, -1 if it's unknown.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return content type of the resource, null if it's unknown.
+     */
+    @Nullable
+    String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Writes a body in the partial file.
+     * <p>
+     * The partial file isn't allocated in advance, its length stays the position to resume from.
+     *
+     * @param position: where the body starts, as returned by {@link #start(HttpURLConnection, long)}.
+     * @param listener: notified with the number of bytes of the resource written so far, can be null.
+     * @throws IOException if the body ended before the resource, the partial file is kept.
+     */
+    void write(@NonNull InputStream body, final long position,
+               @Nullable final FileDownloader.ProgressListener listener) throws IOException {
+        File parent = partialFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+            throw new IOException("Couldn't create the directory " + parent);
+        long written = FileDownloader.write(partialFile, position, body, -1, listener == null ? null
+                : new FileDownloader.ProgressListener() {
+            @Override
+            public void onProgress(long numberOfWrittenBytes) {
+                listener.onProgress(position + numberOfWrittenBytes);
+            }
+        });
+        /**
+         * a connection closed early can look like the end of the body
+         */
+        if (size >= 0 && position + written < size)
+            throw new IOException("The body ended after " + (position + written) + " of " + size + " bytes");
+    }
+
+    /**
+     * Gives the partial file its final name.
+     *
+     * @return the path of the downloaded file.
+     */
+    @NonNull
+    String complete(@NonNull String fileName) throws IOException {
+        File file = new File(partialFile.getParentFile(), fileName);
+        if (!partialFile.renameTo(file)) throw new IOException("Couldn't rename " + partialFile + " to " + file);
+        sidecarFile.delete();
+        return file.getPath();
+    }
+
+    /**
+     * Deletes the partial file and its sidecar.
+     */
+    void discard() {
+        partialFile.delete();
+        sidecarFile.delete();
+    }
+
+    /**
+     * @return the value of If-Range, null if the partial file can't be validated:
+     * a weak ETag isn't accepted by If-Range.
+     */
+    @Nullable
+    static String validatorOf(@Nullable String etag, @Nullable String lastModified) {
+        if (etag != null && !etag.isEmpty() && !etag.startsWith("W/")) return etag;
+        if (lastModified != null && !lastModified.isEmpty()) return lastModified;
+        return null;
+    }
+
+    /**
+     * @param contentRange: value of Content-Range, for example "bytes 100-199/1000" or "bytes *&#47;1000".
+     * @return the size of the whole resource, -1 if it's unknown.
+     */
+    static long totalOf(@Nullable String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash == -1) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange: value of Content-Range, for example "bytes 100-199/1000".
+     * @return the last byte of the range, -1 if it's unknown.
+     */
+    static long lastOf(@Nullable String contentRange) {
+        if (contentRange == null) return -1;
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (dash == -1 || (slash != -1 && slash < dash)) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(dash + 1, slash == -1 ? contentRange.length() : slash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private Properties readSidecar() {
+        Properties record = new Properties();
+        try {
+            InputStream in = new FileInputStream(sidecarFile);
+            try {
+                record.load(in);
+            } finally {
+                in.close();
+            }
+            return record;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void writeSidecar(@Nullable String etag, @Nullable String lastModified) throws IOException {
+        if (validatorOf(etag, lastModified) == null) {
+            /**
+             * nothing to resume safely from
+             */
+            sidecarFile.delete();
+            return;
+        }
+        File parent = sidecarFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+            throw new IOException("Couldn't create the directory " + parent);
+        Properties record = new Properties();
+        if (etag != null) record.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) record.setProperty(KEY_LAST_MODIFIED, lastModified);
+        record.setProperty(KEY_SIZE, String.valueOf(size));
+        if (contentType != null) record.setProperty(KEY_CONTENT_TYPE, contentType);
+        OutputStream out = new FileOutputStream(sidecarFile);
+        try {
+            record.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    @NonNull
+    private static String hash(@NonNull String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the retries of all the calls sharing it to a share of their requests, so a failing server
+ * receives a few more requests instead of several times its load.
+ * <p>
+ * Every call deposits {@code retryRatio} of a retry when it starts, every retry withdraws one. The deposits
+ * of the last {@link #WINDOW_SECONDS} seconds count, plus {@code minRetriesPerSecond} so that an app making
+ * few calls can still retry them.
+ * <p>
+ * One default budget is shared by all the retry policies, a policy can use its own with
+ * {@link RetryPolicy#setRetryBudget(RetryBudget)}.
+ */
+public final class RetryBudget {
+
+    /**
+     * Default limits
+     */
+    public static final double DEFAULT_RETRY_RATIO = 0.2;
+    public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 2;
+
+    /**
+     * how long a request or a retry counts against the budget
+     */
+    public static final int WINDOW_SECONDS = 10;
+
+    private static RetryBudget defaultBudget;
+
+    private final double retryRatio;
+    private final int minRetriesPerSecond;
+
+    /**
+     * requests and retries per second of the window, the slot of a second is reused once it left the window,
+     * guarded by this
+     */
+    private final long[] requests = new long[WINDOW_SECONDS];
+    private final long[] retries = new long[WINDOW_SECONDS];
+    private final long[] slotSeconds = new long[WINDOW_SECONDS];
+
+    private long requestCount = 0;
+    private long retryCount = 0;
+    private long rejectedRetryCount = 0;
+
+    /**
+     * Creates a budget with the default limits.
+     */
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND);
+    }
+
+    /**
+     * @param retryRatio:          retries allowed per request, 0.2 lets one request out of five be retried.
+     * @param minRetriesPerSecond: retries allowed whatever the number of requests.
+     */
+    public RetryBudget(double retryRatio, int minRetriesPerSecond) {
+        this.retryRatio = Math.max(0, retryRatio);
+        this.minRetriesPerSecond = Math.max(0, minRetriesPerSecond);
+        for (int i = 0; i < WINDOW_SECONDS; i++) slotSeconds[i] = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the budget shared by all the retry policies that don't have their own.
+     */
+    @NonNull
+    public static synchronized RetryBudget getDefault() {
+        if (defaultBudget == null) defaultBudget = new RetryBudget();
+        return defaultBudget;
+    }
+
+    /**
+     * Counts a call, before its first attempt.
+     */
+    void onRequest() {
+        onRequest(currentSecond());
+    }
+
+    /**
+     * @param second: the current second of the monotonic clock.
+     */
+    synchronized void onRequest(long second) {
+        requests[slotOf(second)]++;
+        requestCount++;
+    }
+
+    /**
+     * Withdraws a retry from the budget.
+     *
+     * @return false if the budget is spent, the call must not be retried.
+     */
+    boolean tryRetry() {
+        return tryRetry(currentSecond());
+    }
+
+    /**
+     * @param second: the current second of the monotonic clock.
+     */
+    synchronized boolean tryRetry(long second) {
+        slotOf(second);
+        long windowRequests = 0;
+        long windowRetries = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (second - slotSeconds[i] >= WINDOW_SECONDS) continue;
+            windowRequests += requests[i];
+            windowRetries += retries[i];
+        }
+        double allowed = (double) minRetriesPerSecond * WINDOW_SECONDS + retryRatio * windowRequests;
+        if (windowRetries + 1 > allowed) {
+            rejectedRetryCount++;
+            return false;
+        }
+        retries[slotOf(second)]++;
+        retryCount++;
+        return true;
+    }
+
+    /**
+     * @return the slot of a second, emptied if it still holds an older second, guarded by this.
+     */
+    private int slotOf(long second) {
+        /**
+         * nano times can be negative
+         */
+        int slot = (int) (((second % WINDOW_SECONDS) + WINDOW_SECONDS) % WINDOW_SECONDS);
+        if (slotSeconds[slot] != second) {
+            slotSeconds[slot] = second;
+            requests[slot] = 0;
+            retries[slot] = 0;
+        }
+        return slot;
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+
+    /**
+     * Stats
+     */
+
+    public double getRetryRatio() {
+        return retryRatio;
+    }
+
+    public int getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return number of retries refused because the budget was spent.
+     */
+    public synchronized long getRejectedRetryCount() {
+        return rejectedRetryCount;
+    }
+}
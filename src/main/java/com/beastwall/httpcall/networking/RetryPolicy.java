@@ -0,0 +1,244 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed call is attempted again and how long it waits before.
+ * <p>
+ * A call is retried when its response code or the exception that broke it is a retryable one, and only if
+ * its method is idempotent: a POST that may have reached the server isn't sent twice, unless the connection
+ * couldn't even be opened. The waits grow exponentially and are drawn at random below that bound ("full jitter"),
+ * so the clients that failed together don't come back together. A Retry-After sent by the server replaces the
+ * wait when it's longer, a call told to wait longer than {@link #setMaxRetryAfter(long)} isn't retried.
+ * <p>
+ * Every retry is withdrawn from a {@link RetryBudget}, once it's spent the calls fail as they would without
+ * retries, so retries can't turn an outage into several times the load.
+ * <p>
+ * A connection uses a policy with {@link HttpConnection#setRetryPolicy(RetryPolicy)}, the same policy can be
+ * shared by many connections.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Default limits
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10_000;
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60_000;
+
+    /**
+     * Request timeout, Too many requests, and the errors of a server or a gateway that may be temporary.
+     */
+    public static final int[] DEFAULT_RETRYABLE_STATUS_CODES = {408, 429, 500, 502, 503, 504};
+
+    /**
+     * Methods whose repetition has the same effect as one request.
+     */
+    public static final String[] DEFAULT_RETRYABLE_METHODS = {"GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE"};
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+    private Set<Integer> retryableStatusCodes = new HashSet<>();
+    private Set<String> retryableMethods = new HashSet<>();
+    private List<Class<? extends IOException>> retryableExceptions = new ArrayList<>();
+    private RetryBudget budget = RetryBudget.getDefault();
+
+    /**
+     * Creates a policy with the default limits, it retries timeouts, broken connections and unknown hosts.
+     */
+    public RetryPolicy() {
+        setRetryableStatusCodes(DEFAULT_RETRYABLE_STATUS_CODES);
+        setRetryableMethods(DEFAULT_RETRYABLE_METHODS);
+        retryableExceptions.add(SocketTimeoutException.class);
+        retryableExceptions.add(SocketException.class);
+        retryableExceptions.add(UnknownHostException.class);
+        retryableExceptions.add(EOFException.class);
+    }
+
+    /**
+     * @param maxAttempts: number of attempts of a call including the first one, 1 to never retry.
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    /**
+     * @param baseDelayMillis: bound of the wait before the first retry, it doubles with every retry.
+     * @param maxDelayMillis:  the bound of the wait doesn't grow beyond this.
+     */
+    public RetryPolicy setBackoff(long baseDelayMillis, long maxDelayMillis) {
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        return this;
+    }
+
+    /**
+     * @param maxRetryAfterMillis: longest Retry-After the call waits for, a longer one ends the call.
+     */
+    public RetryPolicy setMaxRetryAfter(long maxRetryAfterMillis) {
+        this.maxRetryAfterMillis = Math.max(0, maxRetryAfterMillis);
+        return this;
+    }
+
+    public RetryPolicy setRetryableStatusCodes(@NonNull int... statusCodes) {
+        Set<Integer> codes = new HashSet<>();
+        for (int code : statusCodes) codes.add(code);
+        this.retryableStatusCodes = codes;
+        return this;
+    }
+
+    /**
+     * @param methods: methods of the calls that are retried, connections that couldn't be opened are retried
+     *                 whatever their method.
+     */
+    public RetryPolicy setRetryableMethods(@NonNull String... methods) {
+        Set<String> upperCaseMethods = new HashSet<>();
+        for (String method : methods) upperCaseMethods.add(method.toUpperCase(Locale.ROOT));
+        this.retryableMethods = upperCaseMethods;
+        return this;
+    }
+
+    /**
+     * @param exceptions: exceptions that break a call and are worth another attempt, their subclasses too.
+     */
+    @SafeVarargs
+    public final RetryPolicy setRetryableExceptions(@NonNull Class<? extends IOException>... exceptions) {
+        List<Class<? extends IOException>> classes = new ArrayList<>(exceptions.length);
+        for (Class<? extends IOException> exception : exceptions) classes.add(exception);
+        this.retryableExceptions = classes;
+        return this;
+    }
+
+    public RetryPolicy setRetryBudget(@NonNull RetryBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long getMaxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    @NonNull
+    public RetryBudget getRetryBudget() {
+        return budget;
+    }
+
+    /**
+     * Decides whether a failed attempt is retried.
+     *
+     * @param method:       method of the call.
+     * @param retries:      number of times the call was already retried.
+     * @param responseCode: response code of the attempt, 0 if it didn't get one.
+     * @param headers:      headers of the response, null if it didn't get one.
+     * @param failure:      exception that broke the attempt, null if none did.
+     * @return the wait before the next attempt in millis, or -1 if the call isn't retried.
+     */
+    long delayBeforeRetry(@NonNull String method, int retries, int responseCode,
+                          @Nullable Map<String, List<String>> headers, @Nullable IOException failure) {
+        if (retries + 1 >= maxAttempts) return -1;
+
+        boolean idempotent = retryableMethods.contains(method.toUpperCase(Locale.ROOT));
+        boolean retryable;
+        if (responseCode > 0 && retryableStatusCodes.contains(responseCode)) {
+            retryable = idempotent;
+        } else {
+            retryable = failure != null && isRetryable(failure) && (idempotent || neverSent(failure));
+        }
+        if (!retryable) return -1;
+
+        long delay = jitteredDelay(retries);
+        long retryAfter = responseCode > 0 ? retryAfterMillis(headers, System.currentTimeMillis()) : -1;
+        if (retryAfter > maxRetryAfterMillis) return -1;
+        if (retryAfter > delay) delay = retryAfter;
+
+        /**
+         * the budget is checked last, a call that isn't retried anyway doesn't spend it
+         */
+        if (!budget.tryRetry()) return -1;
+        return delay;
+    }
+
+    /**
+     * @return a wait drawn uniformly between 0 and the exponential bound of this retry.
+     */
+    long jitteredDelay(int retries) {
+        long bound = baseDelayMillis;
+        for (int i = 0; i < retries && bound < maxDelayMillis; i++) bound <<= 1;
+        bound = Math.min(bound, maxDelayMillis);
+        if (bound <= 0) return 0;
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private boolean isRetryable(@NonNull IOException failure) {
+        for (Class<? extends IOException> type : retryableExceptions)
+            if (type.isInstance(failure)) return true;
+        return false;
+    }
+
+    /**
+     * @return true if the request couldn't have reached the server.
+     */
+    private static boolean neverSent(@NonNull IOException failure) {
+        return failure instanceof ConnectException || failure instanceof NoRouteToHostException
+                || failure instanceof UnknownHostException;
+    }
+
+    /**
+     * @param headers: headers of a response.
+     * @param now:     current time in millis.
+     * @return the wait asked by Retry-After in millis, a number of seconds or a date, -1 if there is none.
+     */
+    static long retryAfterMillis(@Nullable Map<String, List<String>> headers, long now) {
+        if (headers == null) return -1;
+        String value = null;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (RequestHeader.Field.RETRY_AFTER.equalsIgnoreCase(header.getKey())
+                    && header.getValue() != null && !header.getValue().isEmpty()) {
+                value = header.getValue().get(0);
+                break;
+            }
+        }
+        if (value == null) return -1;
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+        } catch (NumberFormatException e) {
+            long date = HttpCache.parseDate(value);
+            return date == -1 ? -1 : Math.max(0, date - now);
+        }
+    }
+}
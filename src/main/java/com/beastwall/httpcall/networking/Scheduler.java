@@ -0,0 +1,50 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the delayed work of the connections: retries waiting for their backoff and hedges waiting
+ * for their delay. The work itself is short, it hands the call to a dispatcher.
+ */
+final class Scheduler {
+
+    private static ScheduledExecutorService timer;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private Scheduler() {
+    }
+
+    /**
+     * Runs a task once its delay is over, in the timer thread.
+     *
+     * @return the future of the task, cancelling it removes the task from the timer.
+     */
+    @NonNull
+    static ScheduledFuture<?> schedule(@NonNull Runnable task, long delayMillis) {
+        return timer().schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Arrowbow timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            timer = executor;
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,350 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Downloads a file as byte ranges fetched by several connections at the same time.
+ * <p>
+ * The file is allocated at its final size and cut in segments, every worker takes the next segment that
+ * nobody fetched yet and writes it at its own offset with a positional {@link FileChannel#write(ByteBuffer, long)},
+ * so the workers never wait for each other.
+ * <p>
+ * The download starts with one worker, the calling thread, and adds one while the throughput of a segment
+ * stays close to what it was with fewer workers: the link isn't saturated yet. Once more workers only share
+ * the same bandwidth no worker is added.
+ */
+final class SegmentedDownload {
+
+    /**
+     * Opens the connection of a segment, it isn't connected yet.
+     */
+    interface Source {
+        /**
+         * @param first: first byte of the segment.
+         * @param last:  last byte of the segment, included.
+         */
+        @NonNull
+        HttpURLConnection open(long first, long last) throws IOException;
+    }
+
+    /**
+     * smallest segment, smaller ones spend more time in round trips than in transfers
+     */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * segments per allowed worker, more segments than workers let the fast workers take more of them
+     */
+    private static final int SEGMENTS_PER_WORKER = 4;
+
+    /**
+     * share of the throughput per segment a new worker has to keep for one more to be added
+     */
+    private static final double SCALING_EFFICIENCY = 0.75;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Source source;
+    private final Executor executor;
+    private final int maxWorkers;
+    private final long size;
+    private final long segmentSize;
+    private final FileDownloader.ProgressListener listener;
+
+    /**
+     * guarded by this
+     */
+    private long nextSegmentStart;
+    private int workers = 0;
+    private int runningSegments = 0;
+    private long downloadedBytes = 0;
+    private boolean growing = true;
+    private boolean cancelled = false;
+    private IOException failure;
+    private final List<HttpURLConnection> openConnections = new ArrayList<>();
+
+    /**
+     * throughput of one segment, in bytes per nano, before the last worker was added,
+     * and the segments finished since then
+     */
+    private double baselineRate = -1;
+    private double rateSum = 0;
+    private int rateSamples = 0;
+
+    /**
+     * @param source:     opens the connections of the segments.
+     * @param executor:   runs the workers added to the calling thread, it can reject them.
+     * @param maxWorkers: maximum number of connections at the same time.
+     * @param size:       size of the file.
+     * @param listener:   notified from all workers with the number of bytes written so far, can be null.
+     */
+    SegmentedDownload(@NonNull Source source, @NonNull Executor executor, int maxWorkers, long size,
+                      @Nullable FileDownloader.ProgressListener listener) {
+        this.source = source;
+        this.executor = executor;
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.size = size;
+        this.segmentSize = segmentSizeOf(size, this.maxWorkers);
+        this.listener = listener;
+    }
+
+    /**
+     * @return size of the segments of a file.
+     */
+    static long segmentSizeOf(long size, int maxWorkers) {
+        return Math.max(MIN_SEGMENT_SIZE, size / ((long) maxWorkers * SEGMENTS_PER_WORKER));
+    }
+
+    /**
+     * Downloads the file in the calling thread with the help of the workers it starts,
+     * it returns once every segment is written.
+     *
+     * @param file:              the file to write, it's allocated at the size of the download.
+     * @param firstSegment:      body of the range [0, firstSegmentSize), already received.
+     * @param firstSegmentSize:  size of the first segment, the other segments follow it.
+     * @throws IOException if a segment couldn't be downloaded twice, the other workers are stopped.
+     */
+    void download(@NonNull File file, @NonNull InputStream firstSegment, long firstSegmentSize) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            FileChannel channel = randomAccessFile.getChannel();
+            synchronized (this) {
+                nextSegmentStart = firstSegmentSize;
+                workers = 1;
+                runningSegments = 1;
+            }
+            /**
+             * a second worker starts right away, the first segment is measured by the calling thread
+             */
+            addWorker(channel);
+            IOException error = null;
+            try {
+                runSegment(channel, firstSegment, 0, firstSegmentSize);
+            } catch (IOException e) {
+                error = e;
+            }
+            if (error != null) {
+                try {
+                    fetchSegment(channel, 0, firstSegmentSize - 1);
+                    error = null;
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            synchronized (this) {
+                runningSegments--;
+                if (error != null && failure == null && !cancelled) failure = error;
+                notifyAll();
+            }
+            if (error != null) cancel();
+            else work(channel);
+
+            synchronized (this) {
+                while (runningSegments > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                        throw new IOException("Segmented download interrupted");
+                    }
+                }
+                if (failure != null) throw failure;
+                if (cancelled) throw new IOException("Call cancelled");
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Stops the download, the connections of the running segments are closed.
+     */
+    void cancel() {
+        List<HttpURLConnection> connections;
+        synchronized (this) {
+            cancelled = true;
+            connections = new ArrayList<>(openConnections);
+            notifyAll();
+        }
+        for (HttpURLConnection connection : connections) connection.disconnect();
+    }
+
+    /**
+     * Fetches segments until there is none left.
+     */
+    private void work(@NonNull FileChannel channel) {
+        while (true) {
+            long first;
+            synchronized (this) {
+                if (nextSegmentStart >= size || cancelled || failure != null) {
+                    workers--;
+                    return;
+                }
+                first = nextSegmentStart;
+                nextSegmentStart = Math.min(size, first + segmentSize);
+                runningSegments++;
+            }
+            long last = Math.min(size, first + segmentSize) - 1;
+            IOException error = null;
+            /**
+             * a broken segment is asked once more before the download fails
+             */
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    fetchSegment(channel, first, last);
+                    error = null;
+                    break;
+                } catch (IOException e) {
+                    error = e;
+                    synchronized (this) {
+                        if (cancelled) break;
+                    }
+                }
+            }
+            synchronized (this) {
+                runningSegments--;
+                if (error != null && failure == null && !cancelled) failure = error;
+                notifyAll();
+            }
+            if (error != null) cancel();
+        }
+    }
+
+    private void fetchSegment(@NonNull FileChannel channel, long first, long last) throws IOException {
+        HttpURLConnection connection = source.open(first, last);
+        synchronized (this) {
+            if (cancelled) {
+                connection.disconnect();
+                throw new IOException("Call cancelled");
+            }
+            openConnections.add(connection);
+        }
+        InputStream body = null;
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+                throw new IOException("The file changed or the server stopped sending ranges, response code: "
+                        + connection.getResponseCode());
+            String contentRange = connection.getHeaderField(RequestHeader.Field.CONTENT_RANGE);
+            if (contentRange == null || !contentRange.startsWith("bytes " + first + "-"))
+                throw new IOException("Unexpected range: " + contentRange);
+            body = connection.getInputStream();
+            runSegment(channel, body, first, last - first + 1);
+        } finally {
+            synchronized (this) {
+                openConnections.remove(connection);
+            }
+            if (body != null) body.close();
+        }
+    }
+
+    /**
+     * Writes a segment at its offset, then decides whether the download needs one more worker.
+     */
+    private void runSegment(@NonNull FileChannel channel, @NonNull InputStream body, long first, long length)
+            throws IOException {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long written = 0;
+        try {
+            while (written < length) {
+                int count = body.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                if (count == -1) break;
+                byteBuffer.clear().limit(count);
+                while (byteBuffer.hasRemaining())
+                    written += channel.write(byteBuffer, first + written);
+                long downloaded;
+                synchronized (this) {
+                    downloadedBytes += count;
+                    downloaded = downloadedBytes;
+                }
+                if (listener != null) listener.onProgress(downloaded);
+            }
+            /**
+             * a connection closed early can look like the end of the body
+             */
+            if (written < length)
+                throw new IOException("The segment at " + first + " ended after " + written + " of " + length + " bytes");
+        } catch (IOException e) {
+            /**
+             * the segment is fetched again from its start
+             */
+            synchronized (this) {
+                downloadedBytes -= written;
+            }
+            throw e;
+        }
+
+        boolean grow;
+        synchronized (this) {
+            grow = shouldGrow(length / (double) Math.max(1, System.nanoTime() - start));
+        }
+        if (grow) addWorker(channel);
+    }
+
+    /**
+     * Compares the throughput per segment with the one measured before the last worker was added,
+     * guarded by this.
+     *
+     * @param rate: throughput of the segment that just ended, in bytes per nano.
+     * @return true if a worker has to be added.
+     */
+    private boolean shouldGrow(double rate) {
+        if (!growing || cancelled || failure != null) return false;
+        rateSum += rate;
+        rateSamples++;
+        /**
+         * every worker has to finish a segment before the rate of this number of workers is known
+         */
+        if (rateSamples < workers) return false;
+        double averageRate = rateSum / rateSamples;
+        rateSum = 0;
+        rateSamples = 0;
+
+        if (baselineRate > 0 && averageRate < baselineRate * SCALING_EFFICIENCY) {
+            growing = false;
+            return false;
+        }
+        if (baselineRate < 0 || averageRate > baselineRate) baselineRate = averageRate;
+        long remainingSegments = (size - nextSegmentStart + segmentSize - 1) / segmentSize;
+        return workers < maxWorkers && remainingSegments > 0;
+    }
+
+    private void addWorker(@NonNull final FileChannel channel) {
+        synchronized (this) {
+            if (workers >= maxWorkers || nextSegmentStart >= size) return;
+            workers++;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work(channel);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /**
+             * the calling thread and the running workers take the remaining segments
+             */
+            synchronized (this) {
+                workers--;
+                growing = false;
+            }
+        }
+    }
+}
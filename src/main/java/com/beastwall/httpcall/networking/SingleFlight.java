@@ -0,0 +1,171 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one network call between the identical GET requests running at the same time.
+ * <p>
+ * The first request starts a call that belongs to none of the requests, the next identical ones join it
+ * until it ends. Every request joined to the call is informed with its flags, its progress and its result
+ * through its own callbacks and future. A cancelled request only leaves the call, the call is cancelled
+ * once no request is waiting for it.
+ */
+final class SingleFlight {
+
+    /**
+     * Creates and starts the shared call of a flight.
+     */
+    interface Launcher {
+        /**
+         * @param flight: the flight to inform with the flags and the progress of the call.
+         * @return the started call.
+         */
+        @NonNull
+        HttpConnection launch(@NonNull Flight flight);
+    }
+
+    private static final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private SingleFlight() {
+    }
+
+    /**
+     * @return the key of a request, two requests with the same key receive the same result.
+     */
+    @NonNull
+    static String keyOf(int dataType, @NonNull String url, @Nullable RequestHeader requestHeader,
+                        @Nullable String storageDirectory) {
+        return "GET " + dataType + " " + storageDirectory + " " + ResponseMemoryCache.keyOf(url, requestHeader);
+    }
+
+    /**
+     * Joins the running call of a request, or starts it.
+     *
+     * @param key:      key of the request.
+     * @param member:   the connection of the request.
+     * @param launcher: starts the call if none is running.
+     * @return the flight the connection joined.
+     */
+    @NonNull
+    static Flight join(@NonNull String key, @NonNull HttpConnection member, @NonNull Launcher launcher) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight != null && flight.add(member)) return flight;
+
+            Flight started = new Flight(key);
+            started.add(member);
+            if (flight == null ? flights.putIfAbsent(key, started) == null : flights.replace(key, flight, started)) {
+                HttpConnection call = launcher.launch(started);
+                started.setCall(call);
+                return started;
+            }
+        }
+    }
+
+    /**
+     * @return number of calls shared right now.
+     */
+    static int getRunningFlightsCount() {
+        return flights.size();
+    }
+
+    /**
+     * One shared call and the requests waiting for it.
+     */
+    static final class Flight {
+        private final String key;
+        private final List<HttpConnection> members = new ArrayList<>(2);
+        private HttpConnection call;
+        private boolean finished = false;
+
+        /**
+         * the last flag sent before the result, for the requests that join late
+         */
+        private int acceptedFlag = Integer.MIN_VALUE;
+        private Response acceptedResponse;
+
+        Flight(@NonNull String key) {
+            this.key = key;
+        }
+
+        private synchronized void setCall(@NonNull HttpConnection call) {
+            this.call = call;
+            /**
+             * every request left before the call was started
+             */
+            if (finished && members.isEmpty()) call.cancel();
+        }
+
+        /**
+         * @return false if the call already ended, a new one has to be started.
+         */
+        boolean add(@NonNull HttpConnection member) {
+            synchronized (this) {
+                if (finished) return false;
+                members.add(member);
+                /**
+                 * a request that joins a call which already started is told so, under the lock
+                 * so the final flag can't reach it first
+                 */
+                if (acceptedFlag != Integer.MIN_VALUE) member.deliverDelegatedFlag(acceptedFlag, acceptedResponse);
+                return true;
+            }
+        }
+
+        /**
+         * Removes a cancelled request, the call is cancelled if it was the last one.
+         */
+        void leave(@NonNull HttpConnection member) {
+            HttpConnection abandonedCall = null;
+            synchronized (this) {
+                if (!members.remove(member) || finished || !members.isEmpty()) return;
+                finished = true;
+                abandonedCall = call;
+            }
+            flights.remove(key, this);
+            if (abandonedCall != null) abandonedCall.cancel();
+        }
+
+        /**
+         * Informs every request with a flag of the call, the flight ends with the final flags.
+         */
+        void onFlag(int flag, @Nullable Response response) {
+            synchronized (this) {
+                if (HttpConnection.isFinalFlag(flag)) {
+                    finished = true;
+                    flights.remove(key, this);
+                } else {
+                    acceptedFlag = flag;
+                    acceptedResponse = response;
+                }
+                /**
+                 * delivered under the lock, the flags reach every request in the order of the call,
+                 * the ones joining meanwhile included
+                 */
+                for (HttpConnection member : new ArrayList<>(members)) member.deliverDelegatedFlag(flag, response);
+            }
+        }
+
+        /**
+         * Informs every request with the progress of the call, in the ui thread.
+         */
+        void onProgress(short percentage, long downloadSize, long numberOfReadBytes, long numberOfDecodedBytes,
+                        long bytesPerSecond, long etaMillis) {
+            List<HttpConnection> receivers;
+            synchronized (this) {
+                receivers = new ArrayList<>(members);
+            }
+            for (HttpConnection member : receivers)
+                member.deliverDelegatedProgress(percentage, downloadSize, numberOfReadBytes, numberOfDecodedBytes,
+                        bytesPerSecond, etaMillis);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads text bodies: the raw bytes are read into one buffer sized by the content length,
+ * then decoded once with the charset of the response.
+ * <p>
+ * The content length comes from the server, so the buffer starts at {@link #MAX_INITIAL_BUFFER_SIZE}
+ * at most and grows as the bytes arrive, never beyond the announced length.
+ */
+public final class TextBody {
+
+    /**
+     * Notified every time bytes are read.
+     */
+    public interface ProgressListener {
+        void onProgress(long numberOfReadBytes);
+    }
+
+    /**
+     * size of the buffer when the content length is unknown, and of every read
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * largest buffer allocated before any byte was read
+     */
+    static final int MAX_INITIAL_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * largest array the vm can allocate
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private TextBody() {
+    }
+
+    /**
+     * @param contentType: value of the Content-Type header, for example "application/json; charset=utf-8".
+     * @return the charset of the content type, UTF-8 if there is none or it isn't supported.
+     */
+    @NonNull
+    public static Charset charsetOf(@Nullable String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String name = parameter.substring(8).trim();
+                    if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\""))
+                        name = name.substring(1, name.length() - 1);
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Reads a whole body and decodes it.
+     *
+     * @param body:          the stream to read to its end, it isn't closed.
+     * @param contentLength: length of the body or -1 if it's unknown.
+     * @param charset:       charset of the body.
+     * @param listener:      notified with the number of bytes read so far, can be null.
+     */
+    @NonNull
+    public static String read(@NonNull InputStream body,
+                              long contentLength,
+                              @NonNull Charset charset,
+                              @Nullable ProgressListener listener) throws IOException {
+        byte[] buffer = new byte[contentLength > 0
+                ? (int) Math.min(contentLength, MAX_INITIAL_BUFFER_SIZE) : DEFAULT_BUFFER_SIZE];
+        int length = 0;
+
+        while (true) {
+            if (length == buffer.length) {
+                /**
+                 * the buffer is full, growing it only if there is more to read:
+                 * up to the announced length, then doubling if the body is longer or its length is unknown
+                 */
+                int next = body.read();
+                if (next == -1) break;
+                if (length == MAX_BUFFER_SIZE) throw new IOException("Text body too large");
+                long size = Math.max(2L * length, DEFAULT_BUFFER_SIZE);
+                if (contentLength > length) size = Math.min(size, contentLength);
+                buffer = Arrays.copyOf(buffer, (int) Math.min(MAX_BUFFER_SIZE, size));
+                buffer[length++] = (byte) next;
+            }
+            int count = body.read(buffer, length, Math.min(buffer.length - length, DEFAULT_BUFFER_SIZE));
+            if (count == -1) break;
+            length += count;
+            if (listener != null) listener.onProgress(length);
+        }
+        return new String(buffer, 0, length, charset);
+    }
+}
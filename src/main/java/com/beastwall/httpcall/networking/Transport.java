@@ -0,0 +1,34 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections {@link HttpConnection} sends its requests over.
+ * <p>
+ * Every backend hands out {@link HttpURLConnection} objects, so the flags and the callbacks of
+ * HttpConnection stay the same whatever backend carries the request.
+ * <p>
+ * Available backends: {@link UrlConnectionTransport} (default) and {@link HttpClientTransport} (HTTP/2).
+ */
+public interface Transport {
+
+    /**
+     * Creates a connection to this url, nothing is sent before it's connected.
+     *
+     * @param url: url you want to connect to.
+     * @throws IOException if the connection can't be created.
+     */
+    @NonNull
+    HttpURLConnection open(@NonNull URL url) throws IOException;
+
+    /**
+     * Called once the body of a response was fully read, so the connection can be reused.
+     *
+     * @param connection: a connection this transport opened.
+     */
+    void release(@NonNull HttpURLConnection connection);
+}
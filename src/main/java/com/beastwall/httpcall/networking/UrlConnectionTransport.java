@@ -0,0 +1,37 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default {@link Transport}, it uses the {@link HttpURLConnection} of the platform,
+ * one request at a time per connection, the platform keeps its sockets alive, see {@link ConnectionPool}.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    private static UrlConnectionTransport defaultTransport;
+
+    /**
+     * @return the transport shared by all connections that weren't given one.
+     */
+    public static synchronized UrlConnectionTransport getDefault() {
+        if (defaultTransport == null) defaultTransport = new UrlConnectionTransport();
+        return defaultTransport;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection open(@NonNull URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        ConnectionPool.getDefault().acquire(url);
+        return connection;
+    }
+
+    @Override
+    public void release(@NonNull HttpURLConnection connection) {
+        ConnectionPool.getDefault().release(connection);
+    }
+}
@@ -0,0 +1,26 @@
+package com.beastwall.httpcall.networking;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates executors running on virtual threads.
+ * <p>
+ * This is the version used before Java 21, the multi-release jar replaces it with
+ * src/main/java21 on runtimes that have virtual threads.
+ */
+final class VirtualThreads {
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ExecutorService newExecutor() {
+        throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+    }
+}
@@ -0,0 +1,26 @@
+package com.beastwall.httpcall.networking;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors running on virtual threads.
+ * <p>
+ * Java 21 version, every task gets its own virtual thread.
+ */
+final class VirtualThreads {
+
+    /**
+     * private constructor to prevent users from creating an instance from this class
+     */
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    static ExecutorService newExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Arrowbow-virtual-", 1).factory());
+    }
+}
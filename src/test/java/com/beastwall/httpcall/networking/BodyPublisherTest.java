@@ -0,0 +1,240 @@
+package com.beastwall.httpcall.networking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BodyPublisherTest {
+
+    /**
+     * Keeps what the publisher sent, asks for nothing by itself
+     */
+    private static final class Recorder implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final AtomicInteger chunks = new AtomicInteger();
+        final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        final CompletableFuture<Throwable> end = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.complete(subscription);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            synchronized (received) {
+                received.write(bytes, 0, bytes.length);
+            }
+            chunks.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            end.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            end.complete(null);
+        }
+
+        Flow.Subscription awaitSubscription() throws Exception {
+            return subscription.get(10, TimeUnit.SECONDS);
+        }
+
+        byte[] bytes() {
+            synchronized (received) {
+                return received.toByteArray();
+            }
+        }
+    }
+
+    /**
+     * A body counting the reads done on it
+     */
+    private static final class CountingBody extends ByteArrayInputStream {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingBody(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            reads.incrementAndGet();
+            /**
+             * a socket gives less than asked
+             */
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+
+    /**
+     * Streams the publisher in its own thread, like the thread of a call does
+     */
+    private static CompletableFuture<Boolean> streamInBackground(final BodyPublisher publisher) {
+        final CompletableFuture<Boolean> streamed = new CompletableFuture<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                streamed.complete(publisher.stream());
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return streamed;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) bytes[i] = (byte) i;
+        return bytes;
+    }
+
+    @Test
+    public void bodyIsOnlyReadAsFastAsItIsRequested() throws Exception {
+        CountingBody body = new CountingBody(bytes(5000));
+        BodyPublisher publisher = new BodyPublisher(body, 10_000);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        CompletableFuture<Boolean> streamed = streamInBackground(publisher);
+
+        Flow.Subscription subscription = recorder.awaitSubscription();
+        Thread.sleep(100);
+        assertEquals(0, body.reads.get());
+
+        subscription.request(2);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recorder.chunks.get() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        Thread.sleep(100);
+        assertEquals(2, body.reads.get());
+        assertEquals(2, recorder.chunks.get());
+
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(null, recorder.end.get(10, TimeUnit.SECONDS));
+        assertTrue(streamed.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(bytes(5000), recorder.bytes());
+    }
+
+    @Test
+    public void secondSubscriberIsRefused() throws Exception {
+        BodyPublisher publisher = new BodyPublisher(new ByteArrayInputStream(bytes(10)), 10_000);
+        publisher.subscribe(new Recorder());
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+        assertTrue(second.end.get(10, TimeUnit.SECONDS) instanceof IllegalStateException);
+    }
+
+    @Test
+    public void cancelledSubscriptionStopsTheStreaming() throws Exception {
+        CountingBody body = new CountingBody(bytes(5000));
+        BodyPublisher publisher = new BodyPublisher(body, 10_000);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        CompletableFuture<Boolean> streamed = streamInBackground(publisher);
+
+        recorder.awaitSubscription().cancel();
+        assertFalse(streamed.get(10, TimeUnit.SECONDS));
+        assertEquals(0, body.reads.get());
+        assertFalse(recorder.end.isDone());
+    }
+
+    @Test
+    public void publisherNobodySubscribedToGivesUp() throws Exception {
+        BodyPublisher publisher = new BodyPublisher(new ByteArrayInputStream(bytes(10)), 50);
+        assertFalse(publisher.stream());
+
+        /**
+         * too late, the body is gone
+         */
+        Recorder late = new Recorder();
+        publisher.subscribe(late);
+        assertTrue(late.end.get(10, TimeUnit.SECONDS) instanceof IllegalStateException);
+    }
+
+    @Test
+    public void nonPositiveRequestIsAnError() throws Exception {
+        BodyPublisher publisher = new BodyPublisher(new ByteArrayInputStream(bytes(10)), 10_000);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        CompletableFuture<Boolean> streamed = streamInBackground(publisher);
+
+        recorder.awaitSubscription().request(0);
+        assertTrue(recorder.end.get(10, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+        assertFalse(streamed.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void brokenReadIsSignaled() throws Exception {
+        BodyPublisher publisher = new BodyPublisher(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        }, 10_000);
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        CompletableFuture<Boolean> streamed = streamInBackground(publisher);
+
+        recorder.awaitSubscription().request(1);
+        assertTrue(recorder.end.get(10, TimeUnit.SECONDS) instanceof IOException);
+        assertFalse(streamed.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void responseBodyIsPublished() throws Exception {
+        final byte[] body = bytes(100_000);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/body", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            Response response = new HttpConnection()
+                    .getBodyPublisherAsync("http://127.0.0.1:" + server.getAddress().getPort() + "/body", null)
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+
+            Recorder recorder = new Recorder();
+            ((BodyPublisher) response.getResult()).subscribe(recorder);
+            recorder.awaitSubscription().request(Long.MAX_VALUE);
+            assertEquals(null, recorder.end.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(body, recorder.bytes());
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.beastwall.httpcall.networking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkExecutorTest {
+
+    static {
+        /**
+         * the small responses aren't delayed by Nagle's algorithm
+         */
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger answering = new AtomicInteger();
+    private final AtomicInteger maxAnswering = new AtomicInteger();
+
+    /**
+     * GET /wait?ms=N&status=S answers its query with this status after N millis
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/wait", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = answering.incrementAndGet();
+                maxAnswering.accumulateAndGet(now, Math::max);
+                try {
+                    String query = exchange.getRequestURI().getQuery();
+                    int millis = Integer.parseInt(query.replaceAll(".*ms=(\\d+).*", "$1"));
+                    int status = Integer.parseInt(query.replaceAll(".*status=(\\d+).*", "$1"));
+                    Thread.sleep(millis);
+                    byte[] body = query.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(status, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } catch (InterruptedException e) {
+                    exchange.close();
+                } finally {
+                    answering.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private Request waiting(int millis, int status) {
+        return Request.get("http://127.0.0.1:" + server.getAddress().getPort()
+                + "/wait?ms=" + millis + "&status=" + status);
+    }
+
+    private List<Request> requests(int count, IntFunction<Request> request) {
+        List<Request> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) requests.add(request.apply(i));
+        return requests;
+    }
+
+    /**
+     * Writes down the results and checks they are never handed from two threads at once
+     */
+    private static final class Results implements BulkExecutor.ResultListener {
+        final List<Integer> indexes = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicBoolean handing = new AtomicBoolean();
+        volatile boolean overlapped = false;
+
+        @Override
+        public void onResult(int index, Request request, Response response) {
+            if (!handing.compareAndSet(false, true)) overlapped = true;
+            indexes.add(index);
+            handing.set(false);
+        }
+    }
+
+    private static BulkExecutor.Job await(BulkExecutor.Job job) throws Exception {
+        return job.getCompletion().get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void resultsAreHandedInInputOrder() throws Exception {
+        final int count = 12;
+        Results results = new Results();
+        /**
+         * the later requests answer first
+         */
+        BulkExecutor.Job job = await(new BulkExecutor().setConcurrency(4).setInputOrder(true)
+                .submit(requests(count, new IntFunction<Request>() {
+                    @Override
+                    public Request apply(int i) {
+                        return waiting(10 * (count - i), 200);
+                    }
+                }), results));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) expected.add(i);
+        assertEquals(expected, results.indexes);
+        assertFalse(results.overlapped);
+        assertEquals(count, job.getSucceededCount());
+        assertEquals(100, job.getPercentage());
+        assertTrue(job.isDone());
+    }
+
+    @Test
+    public void resultsAreHandedAsTheyComplete() throws Exception {
+        Results results = new Results();
+        BulkExecutor.Job job = await(new BulkExecutor().setConcurrency(3)
+                .submit(requests(12, new IntFunction<Request>() {
+                    @Override
+                    public Request apply(int i) {
+                        return waiting(i % 3 * 15, 200);
+                    }
+                }), results));
+
+        List<Integer> handed = new ArrayList<>(results.indexes);
+        Collections.sort(handed);
+        assertEquals(12, handed.size());
+        for (int i = 0; i < handed.size(); i++) assertEquals(i, (int) handed.get(i));
+        assertFalse(results.overlapped);
+        assertEquals(12, job.getTotalCount());
+        assertTrue(maxAnswering.get() <= 3);
+    }
+
+    @Test
+    public void failuresAreCollected() throws Exception {
+        BulkExecutor.Job job = await(new BulkExecutor().setConcurrency(4)
+                .submit(requests(6, new IntFunction<Request>() {
+                    @Override
+                    public Request apply(int i) {
+                        return waiting(0, i % 2 == 0 ? 200 : 500);
+                    }
+                }), null));
+
+        assertEquals(3, job.getSucceededCount());
+        assertEquals(3, job.getFailedCount());
+        assertFalse(job.isAborted());
+        for (BulkExecutor.Failure failure : job.getFailures()) {
+            assertEquals(1, failure.getIndex() % 2);
+            assertTrue(HttpConnection.isFinalFlag(failure.getResponse().getFlag()));
+        }
+    }
+
+    @Test
+    public void firstFailureStopsTheBulk() throws Exception {
+        /**
+         * the requests are pulled lazily, the bulk stops long before the end of the stream
+         */
+        BulkExecutor.Job job = await(new BulkExecutor().setConcurrency(4).setFailFast(true)
+                .submit(IntStream.range(0, 1000).mapToObj(new IntFunction<Request>() {
+                    @Override
+                    public Request apply(int i) {
+                        return i == 0 ? waiting(0, 500) : waiting(10_000, 200);
+                    }
+                }), null));
+
+        assertTrue(job.isAborted());
+        assertFalse(job.isCancelled());
+        assertEquals(1, job.getFailures().size());
+        assertEquals(0, job.getFailures().get(0).getIndex());
+        assertEquals(0, job.getSucceededCount());
+        assertTrue(job.getStartedCount() <= 4);
+        assertEquals(job.getStartedCount() - 1, job.getCancelledCount());
+        assertEquals(-1, job.getTotalCount());
+    }
+
+    @Test
+    public void cancelledBulkEnds() throws Exception {
+        BulkExecutor.Job job = new BulkExecutor().setConcurrency(2)
+                .submit(requests(10, new IntFunction<Request>() {
+                    @Override
+                    public Request apply(int i) {
+                        return waiting(10_000, 200);
+                    }
+                }), null);
+        job.cancel();
+        await(job);
+
+        assertTrue(job.isCancelled());
+        assertEquals(2, job.getStartedCount());
+        assertEquals(2, job.getCancelledCount());
+        assertEquals(10, job.getTotalCount());
+    }
+
+    @Test
+    public void emptyBulkEndsAtOnce() throws Exception {
+        BulkExecutor.Job job = await(new BulkExecutor().submit(new ArrayList<Request>(), null));
+        assertEquals(0, job.getTotalCount());
+        assertEquals(100, job.getPercentage());
+    }
+}
@@ -0,0 +1,160 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CircuitBreakerTest {
+
+    private static final String URL = "http://example.com/path";
+
+    private static void succeed(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) breaker.acquire(URL).onSuccess();
+    }
+
+    private static void fail(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) breaker.acquire(URL).onFailure();
+    }
+
+    @Test
+    public void staysClosedBeforeMinCalls() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(10, 4);
+        fail(breaker, 3);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(URL));
+        assertEquals(-1, breaker.getFailureRate(URL), 0);
+    }
+
+    @Test
+    public void opensOnceTheFailureRateReachesItsThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(4, 4).setFailureRateThreshold(0.5);
+        succeed(breaker, 3);
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(URL));
+        assertEquals(0.25, breaker.getFailureRate(URL), 1e-9);
+
+        /**
+         * the oldest success leaves the window, 2 failures out of 4
+         */
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(URL));
+        assertNull(breaker.acquire(URL));
+        assertEquals(1, breaker.getNotPermittedCount());
+    }
+
+    @Test
+    public void windowForgetsTheOldestOutcomes() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(4, 4).setFailureRateThreshold(0.75);
+        fail(breaker, 2);
+        succeed(breaker, 2);
+        assertEquals(0.5, breaker.getFailureRate(URL), 1e-9);
+        succeed(breaker, 2);
+        assertEquals(0, breaker.getFailureRate(URL), 1e-9);
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(URL));
+    }
+
+    @Test
+    public void circuitsAreKeptPerHost() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(2, 2);
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState("http://example.com:80/other"));
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState("http://example.org/path"));
+        assertNotNull(breaker.acquire("http://example.org/path"));
+    }
+
+    @Test
+    public void halfOpenLetsOnlyItsProbesGoAndClosesWhenTheySucceed() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(2, 2).setOpenDuration(0).setHalfOpenProbes(2);
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(URL));
+
+        CircuitBreaker.Permit first = breaker.acquire(URL);
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState(URL));
+        CircuitBreaker.Permit second = breaker.acquire(URL);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(breaker.acquire(URL));
+
+        first.onSuccess();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState(URL));
+        second.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(URL));
+    }
+
+    @Test
+    public void aFailedProbeOpensTheCircuitAgain() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(2, 2).setOpenDuration(60_000).setHalfOpenProbes(1);
+        fail(breaker, 2);
+        breaker.setOpenDuration(0);
+        /**
+         * the open duration is read when a call arrives
+         */
+        CircuitBreaker.Permit probe = breaker.acquire(URL);
+        assertNotNull(probe);
+        probe.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState(URL));
+        assertEquals(2, breaker.getTransitionCount(CircuitBreaker.STATE_OPEN));
+        assertEquals(1, breaker.getTransitionCount(CircuitBreaker.STATE_HALF_OPEN));
+    }
+
+    @Test
+    public void releasedProbeGivesItsSlotBack() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(1, 1).setOpenDuration(0).setHalfOpenProbes(1);
+        fail(breaker, 1);
+        CircuitBreaker.Permit probe = breaker.acquire(URL);
+        assertNull(breaker.acquire(URL));
+        probe.release();
+        assertNotNull(breaker.acquire(URL));
+    }
+
+    @Test
+    public void outcomesOfAnEarlierStateAreIgnored() {
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(2, 2).setOpenDuration(0).setHalfOpenProbes(1);
+        CircuitBreaker.Permit stale = breaker.acquire(URL);
+        fail(breaker, 2);
+
+        CircuitBreaker.Permit probe = breaker.acquire(URL);
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState(URL));
+        /**
+         * the call started while the circuit was closed doesn't judge the half-open circuit
+         */
+        stale.onFailure();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState(URL));
+        probe.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState(URL));
+        assertEquals(3, breaker.getFailureCount());
+    }
+
+    @Test
+    public void aPermitCountsItsOutcomeOnce() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        CircuitBreaker.Permit permit = breaker.acquire(URL);
+        permit.onSuccess();
+        permit.onFailure();
+        permit.release();
+        assertEquals(1, breaker.getSuccessCount());
+        assertEquals(0, breaker.getFailureCount());
+    }
+
+    @Test
+    public void listenerIsToldEveryTransition() {
+        final List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker().setWindow(1, 1).setOpenDuration(0).setHalfOpenProbes(1)
+                .setListener(new CircuitBreaker.Listener() {
+                    @Override
+                    public void onStateChange(String host, int fromState, int toState) {
+                        transitions.add(host + " " + fromState + "->" + toState);
+                    }
+                });
+        fail(breaker, 1);
+        breaker.acquire(URL).onSuccess();
+        assertEquals(3, transitions.size());
+        assertEquals("example.com " + CircuitBreaker.STATE_CLOSED + "->" + CircuitBreaker.STATE_OPEN, transitions.get(0));
+        assertEquals("example.com " + CircuitBreaker.STATE_OPEN + "->" + CircuitBreaker.STATE_HALF_OPEN, transitions.get(1));
+        assertEquals("example.com " + CircuitBreaker.STATE_HALF_OPEN + "->" + CircuitBreaker.STATE_CLOSED, transitions.get(2));
+    }
+}
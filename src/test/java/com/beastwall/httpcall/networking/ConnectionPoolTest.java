@@ -0,0 +1,110 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+
+    /**
+     * A connection that never connects, answering with a Connection header
+     */
+    private static HttpURLConnection connection(String url, final String connectionHeader) throws MalformedURLException {
+        return new HttpURLConnection(new URL(url)) {
+            @Override
+            public String getHeaderField(String name) {
+                return "Connection".equalsIgnoreCase(name) ? connectionHeader : null;
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() throws IOException {
+            }
+        };
+    }
+
+    @Test
+    public void releasedConnectionIsReacquiredByItsHostOnly() throws MalformedURLException {
+        ConnectionPool pool = new ConnectionPool(5, 1, TimeUnit.MINUTES);
+        pool.release(connection("http://a.test/x", null));
+
+        assertFalse(pool.acquire(new URL("http://b.test/x")));
+        assertFalse(pool.acquire(new URL("https://a.test/x")));
+        assertTrue(pool.acquire(new URL("http://a.test/y")));
+        assertFalse(pool.acquire(new URL("http://a.test/y")));
+        assertEquals(4, pool.getAcquireCount());
+        assertEquals(1, pool.getReacquireCount());
+        assertEquals(0, pool.getReleasedConnectionCount());
+    }
+
+    @Test
+    public void hostKeepsTheIdleConnectionsOfThePlatformAtMost() throws MalformedURLException {
+        ConnectionPool pool = new ConnectionPool(2, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 3; i++) pool.release(connection("http://a.test/", "keep-alive"));
+        assertEquals(3, pool.getReleaseCount());
+        assertEquals(1, pool.getDiscardCount());
+        assertEquals(2, pool.getReleasedConnectionCount());
+    }
+
+    @Test
+    public void connectionClosedByTheServerIsNotCounted() throws MalformedURLException {
+        ConnectionPool pool = new ConnectionPool();
+        pool.release(connection("http://a.test/", "close"));
+        assertEquals(0, pool.getReleaseCount());
+        assertFalse(pool.acquire(new URL("http://a.test/")));
+    }
+
+    @Test
+    public void expiredReleasesAreForgotten() throws Exception {
+        ConnectionPool pool = new ConnectionPool(5, 20, TimeUnit.MILLISECONDS);
+        pool.release(connection("http://a.test/", null));
+        Thread.sleep(40);
+        assertFalse(pool.acquire(new URL("http://a.test/")));
+        assertEquals(1, pool.getDiscardCount());
+    }
+
+    @Test
+    public void keyHasTheDefaultPort() throws MalformedURLException {
+        assertEquals("http://a.test:80", ConnectionPool.keyOf(new URL("http://a.test/x")));
+        assertEquals("https://a.test:443", ConnectionPool.keyOf(new URL("https://a.test/x")));
+        assertEquals("http://a.test:8080", ConnectionPool.keyOf(new URL("http://a.test:8080/x")));
+    }
+
+    @Test
+    public void installAppliesTheSettingsToThePlatform() {
+        ConnectionPool previous = ConnectionPool.getDefault();
+        ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_MAX_IDLE_PER_HOST,
+                ConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            pool.install();
+            assertSame(pool, ConnectionPool.getDefault());
+            assertEquals("true", System.getProperty("http.keepAlive"));
+            assertEquals(String.valueOf(ConnectionPool.DEFAULT_MAX_IDLE_PER_HOST), System.getProperty("http.maxConnections"));
+            assertEquals(String.valueOf(ConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS), System.getProperty("http.keepAliveDuration"));
+        } finally {
+            ConnectionPool.setDefault(previous);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keepAliveMustBePositive() {
+        new ConnectionPool(5, 0, TimeUnit.SECONDS);
+    }
+}
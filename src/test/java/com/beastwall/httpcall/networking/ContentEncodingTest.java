@@ -0,0 +1,153 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContentEncodingTest {
+
+    private static final String TEXT = "Arrowbow decodes compressed bodies while they are read. "
+            + "Arrowbow decodes compressed bodies while they are read.";
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param zlib: false for the raw stream some servers send.
+     */
+    private static byte[] deflate(String text, boolean zlib) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib);
+        DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        deflater.end();
+        return bytes.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = in.read(buffer)) != -1) bytes.write(buffer, 0, count);
+        in.close();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] body, String contentEncoding) throws IOException {
+        return read(ContentEncoding.decode(new ByteArrayInputStream(body), contentEncoding));
+    }
+
+    /**
+     * A connection that only answers with a status and a length,
+     * the status isn't named responseCode: the field of HttpURLConnection would hide it
+     */
+    private static HttpURLConnection answered(String method, final int status, final long contentLength)
+            throws IOException {
+        HttpURLConnection connection = new HttpURLConnection(new URL("http://example.com/")) {
+            @Override
+            public int getResponseCode() {
+                return status;
+            }
+
+            @Override
+            public String getHeaderField(String name) {
+                return "content-length".equalsIgnoreCase(name) && contentLength >= 0
+                        ? String.valueOf(contentLength) : null;
+            }
+
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+        };
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    @Test
+    public void knownEncodings() {
+        assertTrue(ContentEncoding.isCompressed("gzip"));
+        assertTrue(ContentEncoding.isCompressed(" X-GZIP "));
+        assertTrue(ContentEncoding.isCompressed("Deflate"));
+        assertFalse(ContentEncoding.isCompressed("br"));
+        assertFalse(ContentEncoding.isCompressed("identity"));
+        assertFalse(ContentEncoding.isCompressed(null));
+    }
+
+    @Test
+    public void gzipBody() throws IOException {
+        assertEquals(TEXT, decode(gzip(TEXT), "gzip"));
+        assertEquals(TEXT, decode(gzip(TEXT), "x-gzip"));
+    }
+
+    @Test
+    public void zlibWrappedDeflateBody() throws IOException {
+        byte[] body = deflate(TEXT, true);
+        assertEquals(0x78, body[0] & 0xFF);
+        assertEquals(TEXT, decode(body, "deflate"));
+    }
+
+    @Test
+    public void rawDeflateBody() throws IOException {
+        assertEquals(TEXT, decode(deflate(TEXT, false), "deflate"));
+    }
+
+    @Test
+    public void tinyDeflateBodies() throws IOException {
+        assertEquals("a", decode(deflate("a", true), "deflate"));
+        assertEquals("a", decode(deflate("a", false), "deflate"));
+        assertEquals("", decode(deflate("", false), "deflate"));
+    }
+
+    @Test
+    public void emptyBodyLabeledCompressed() throws IOException {
+        assertEquals("", decode(new byte[0], "gzip"));
+        assertEquals("", decode(new byte[0], "deflate"));
+    }
+
+    @Test
+    public void unknownEncodingIsLeftAsIs() throws IOException {
+        InputStream body = new ByteArrayInputStream(new byte[]{1, 2, 3});
+        assertSame(body, ContentEncoding.decode(body, "br"));
+        assertSame(body, ContentEncoding.decode(body, null));
+    }
+
+    @Test
+    public void bodilessResponses() throws IOException {
+        assertTrue(ContentEncoding.hasBody(answered("GET", 200, -1)));
+        assertTrue(ContentEncoding.hasBody(answered("GET", 404, 20)));
+        assertFalse(ContentEncoding.hasBody(answered("GET", 200, 0)));
+        assertFalse(ContentEncoding.hasBody(answered("GET", 204, -1)));
+        assertFalse(ContentEncoding.hasBody(answered("GET", 304, 120)));
+        assertFalse(ContentEncoding.hasBody(answered("GET", 101, -1)));
+        assertFalse(ContentEncoding.hasBody(answered("HEAD", 200, 120)));
+    }
+}
@@ -0,0 +1,190 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+    private Dispatcher dispatcher;
+
+    @After
+    public void stop() {
+        release.countDown();
+        if (dispatcher != null) dispatcher.shutdown();
+    }
+
+    /**
+     * A call that blocks until the test releases it, and counts how many run at once
+     */
+    private Runnable blocking(final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.add(name);
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (started.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(count, started.size());
+    }
+
+    @Test
+    public void callsOverTheGlobalLimitWait() throws InterruptedException {
+        dispatcher = new Dispatcher(4, 100, 2, 5);
+        CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) assertTrue(dispatcher.enqueue("a" + i, blocking("a" + i, done)));
+        awaitStarted(2);
+        assertEquals(2, dispatcher.getRunningCallsCount());
+        assertEquals(4, dispatcher.getQueuedCallsCount());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        assertEquals(6, started.size());
+    }
+
+    @Test
+    public void waitingCallsRunInTheOrderTheyCame() throws InterruptedException {
+        dispatcher = new Dispatcher(1, 100, 1, 1);
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) dispatcher.enqueue(i % 2 == 0 ? "a" : "b", blocking("c" + i, done));
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("c0", "c1", "c2", "c3", "c4"), started);
+    }
+
+    @Test
+    public void busyHostDoesntHoldTheOtherHosts() throws InterruptedException {
+        dispatcher = new Dispatcher(4, 100, 4, 1);
+        CountDownLatch done = new CountDownLatch(3);
+        dispatcher.enqueue("a", blocking("a1", done));
+        dispatcher.enqueue("a", blocking("a2", done));
+        dispatcher.enqueue("b", blocking("b1", done));
+        awaitStarted(2);
+        assertTrue(started.contains("a1"));
+        assertTrue(started.contains("b1"));
+        assertEquals(1, dispatcher.getRunningCallsCount("a"));
+        assertEquals(1, dispatcher.getRunningCallsCount("b"));
+        assertEquals(1, dispatcher.getQueuedCallsCount());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callOverTheFullQueueIsRejected() throws InterruptedException {
+        dispatcher = new Dispatcher(1, 1, 1, 1);
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(dispatcher.enqueue("a", blocking("running", done)));
+        awaitStarted(1);
+        assertTrue(dispatcher.enqueue("a", blocking("queued", done)));
+        assertFalse(dispatcher.enqueue("a", blocking("rejected", done)));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(started.contains("rejected"));
+    }
+
+    @Test
+    public void raisedLimitRunsTheWaitingCalls() throws InterruptedException {
+        dispatcher = new Dispatcher(1, 100, 1, 5);
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) dispatcher.enqueue("a", blocking("a" + i, done));
+        awaitStarted(1);
+
+        /**
+         * the pool grows with the limit
+         */
+        dispatcher.setMaxRequests(3);
+        awaitStarted(3);
+        assertEquals(3, dispatcher.getRunningCallsCount());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callTheExecutorRejectsGivesItsSlotBack() {
+        dispatcher = new Dispatcher(new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return true;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return true;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return true;
+            }
+        }, 10, 1, 1);
+        assertTrue(dispatcher.enqueue("a", blocking("a", new CountDownLatch(1))));
+        assertEquals(0, dispatcher.getRunningCallsCount());
+        assertEquals(0, dispatcher.getQueuedCallsCount());
+    }
+
+    @Test
+    public void virtualThreadDispatcherRunsEveryCallAtOnce() throws InterruptedException {
+        Assume.assumeTrue(Dispatcher.isVirtualThreadModeSupported());
+        dispatcher = Dispatcher.newVirtualThreadDispatcher(1000, 500, 500);
+        CountDownLatch done = new CountDownLatch(500);
+        for (int i = 0; i < 500; i++) dispatcher.enqueue("a", blocking("a" + i, done));
+        awaitStarted(500);
+        assertEquals(500, maxRunning.get());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moreRequestsThanWorkersAreRefused() {
+        new Dispatcher(2, 10, 3, 1);
+    }
+}
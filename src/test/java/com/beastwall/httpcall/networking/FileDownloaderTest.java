@@ -0,0 +1,159 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileDownloaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A body breaking after a number of bytes
+     */
+    private static final class BrokenBody extends InputStream {
+        private final ByteArrayInputStream bytes;
+
+        BrokenBody(byte[] bytes) {
+            this.bytes = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = bytes.read();
+            if (b == -1) throw new IOException("Connection reset");
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = bytes.read(b, off, len);
+            if (count == -1) throw new IOException("Connection reset");
+            return count;
+        }
+    }
+
+    /**
+     * Writes down the progress
+     */
+    private static final class Progress implements FileDownloader.ProgressListener {
+        final List<Long> written = new ArrayList<>();
+
+        @Override
+        public void onProgress(long numberOfWrittenBytes) {
+            written.add(numberOfWrittenBytes);
+        }
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void bodyIsSavedInItsDirectory() throws IOException {
+        byte[] body = bytes((int) (2.5 * FileDownloader.TRANSFER_SIZE));
+        Progress progress = new Progress();
+        File directory = new File(folder.getRoot(), "a/b");
+        String path = FileDownloader.save(directory.getPath(), "file.bin",
+                new ByteArrayInputStream(body), body.length, progress);
+
+        assertEquals(new File(directory, "file.bin").getPath(), path);
+        assertArrayEquals(body, Files.readAllBytes(new File(path).toPath()));
+        assertEquals(3, progress.written.size());
+        assertEquals(Long.valueOf(body.length), progress.written.get(2));
+    }
+
+    @Test
+    public void bodyShorterThanAnnouncedLeavesNoAllocatedBytes() throws IOException {
+        byte[] body = bytes(1000);
+        String path = FileDownloader.save(folder.getRoot().getPath(), "short.bin",
+                new ByteArrayInputStream(body), 100_000, null);
+        assertArrayEquals(body, Files.readAllBytes(new File(path).toPath()));
+    }
+
+    @Test
+    public void bodyLongerThanAnnouncedIsWrittenWhole() throws IOException {
+        byte[] body = bytes((int) FileDownloader.TRANSFER_SIZE + 1000);
+        String path = FileDownloader.save(folder.getRoot().getPath(), "long.bin",
+                new ByteArrayInputStream(body), 10, null);
+        assertArrayEquals(body, Files.readAllBytes(new File(path).toPath()));
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsWrittenWhole() throws IOException {
+        byte[] body = bytes((int) FileDownloader.TRANSFER_SIZE * 2 + 7);
+        String path = FileDownloader.save(folder.getRoot().getPath(), "unknown.bin",
+                new ByteArrayInputStream(body), -1, null);
+        assertArrayEquals(body, Files.readAllBytes(new File(path).toPath()));
+    }
+
+    @Test
+    public void bodyWrittenFromAPositionCutsTheOlderBytes() throws IOException {
+        File file = folder.newFile("resumed.bin");
+        byte[] older = bytes(5000);
+        Files.write(file.toPath(), older);
+        byte[] body = bytes(1000);
+
+        assertEquals(1000, FileDownloader.write(file, 2000, new ByteArrayInputStream(body), body.length, null));
+        byte[] written = Files.readAllBytes(file.toPath());
+        assertEquals(3000, written.length);
+        assertArrayEquals(Arrays.copyOf(older, 2000), Arrays.copyOf(written, 2000));
+        assertArrayEquals(body, Arrays.copyOfRange(written, 2000, 3000));
+    }
+
+    @Test
+    public void brokenBodyLeavesTheFileAtWhatWasWritten() throws IOException {
+        File file = folder.newFile("broken.bin");
+        Files.write(file.toPath(), bytes(100));
+        try {
+            FileDownloader.write(file, 100, new BrokenBody(bytes(1000)), 100_000, null);
+            fail("A broken body was written");
+        } catch (IOException expected) {
+        }
+        /**
+         * the preallocated bytes are gone, the download can resume from the end of the file
+         */
+        assertEquals(1100, file.length());
+    }
+
+    @Test
+    public void brokenDownloadDeletesItsFile() throws IOException {
+        try {
+            FileDownloader.save(folder.getRoot().getPath(), "broken.bin", new BrokenBody(bytes(1000)), 100_000, null);
+            fail("A broken body was saved");
+        } catch (IOException expected) {
+        }
+        assertFalse(new File(folder.getRoot(), "broken.bin").exists());
+    }
+
+    @Test
+    public void emptyBodyIsAnEmptyFile() throws IOException {
+        String path = FileDownloader.save(folder.getRoot().getPath(), "empty.bin", new InputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+        }, 0, null);
+        assertTrue(new File(path).exists());
+        assertEquals(0, new File(path).length());
+    }
+}
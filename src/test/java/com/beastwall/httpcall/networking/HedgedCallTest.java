@@ -0,0 +1,152 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedCallTest {
+
+    private static final String URL = "http://example.com/slow";
+
+    /**
+     * A request that writes down the flags it's informed with
+     */
+    private static final class Member extends HttpConnection {
+        final List<Integer> flags = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        protected void doInBackgroundThread(int flag, Response response) {
+            flags.add(flag);
+        }
+    }
+
+    /**
+     * Starts attempts that never run, the tests answer them
+     */
+    private static final class Launcher implements HedgedCall.Launcher {
+        final List<HedgedCall.Attempt> attempts = Collections.synchronizedList(new ArrayList<HedgedCall.Attempt>());
+        final List<HttpConnection> calls = Collections.synchronizedList(new ArrayList<HttpConnection>());
+
+        @NonNull
+        @Override
+        public HttpConnection launch(@NonNull HedgedCall.Attempt attempt) {
+            HttpConnection call = new HttpConnection();
+            calls.add(call);
+            attempts.add(attempt);
+            return call;
+        }
+
+        void awaitAttempts(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (attempts.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals(count, attempts.size());
+        }
+    }
+
+    private static Response response() {
+        return new Response(null, "");
+    }
+
+    @Test
+    public void firstResponseWinsAndTheOtherAttemptIsCancelled() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(0).setMinDelay(0);
+        Member user = new Member();
+        Launcher launcher = new Launcher();
+        new HedgedCall(user, policy, URL, launcher).start();
+        launcher.awaitAttempts(2);
+
+        HedgedCall.Attempt hedge = launcher.attempts.get(1);
+        hedge.onFlag(HttpConnection.FLAG_REQUEST_ACCEPTED, response());
+        assertTrue(launcher.calls.get(0).isCancelled());
+        /**
+         * the loser is ignored
+         */
+        launcher.attempts.get(0).onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+        hedge.onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+
+        assertEquals(Arrays.asList(HttpConnection.FLAG_REQUEST_ACCEPTED,
+                HttpConnection.FLAG_RESPONSE_IS_READY), user.flags);
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(1, policy.getHedgeWinCount());
+        assertEquals(0, policy.getOutstandingHedges());
+    }
+
+    @Test
+    public void fastFirstAttemptSendsNoHedge() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(60_000);
+        Member user = new Member();
+        Launcher launcher = new Launcher();
+        new HedgedCall(user, policy, URL, launcher).start();
+        launcher.attempts.get(0).onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+
+        assertEquals(Collections.singletonList(HttpConnection.FLAG_RESPONSE_IS_READY), user.flags);
+        assertEquals(1, launcher.attempts.size());
+        assertEquals(0, policy.getHedgeCount());
+    }
+
+    @Test
+    public void failureWaitsForTheOtherAttempt() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(0).setMinDelay(0);
+        Member user = new Member();
+        Launcher launcher = new Launcher();
+        new HedgedCall(user, policy, URL, launcher).start();
+        launcher.awaitAttempts(2);
+
+        launcher.attempts.get(0).onFlag(HttpConnection.FLAG_ERROR_MESSAGE, response());
+        assertTrue(user.flags.isEmpty());
+        launcher.attempts.get(1).onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+        assertEquals(Collections.singletonList(HttpConnection.FLAG_RESPONSE_IS_READY), user.flags);
+        assertEquals(0, policy.getOutstandingHedges());
+    }
+
+    @Test
+    public void callFailsOnceNoAttemptIsLeft() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(0).setMinDelay(0);
+        Member user = new Member();
+        Launcher launcher = new Launcher();
+        new HedgedCall(user, policy, URL, launcher).start();
+        launcher.awaitAttempts(2);
+
+        launcher.attempts.get(1).onFlag(HttpConnection.FLAG_ERROR_MESSAGE, response());
+        launcher.attempts.get(0).onFlag(HttpConnection.FLAG_ERROR_MESSAGE, response());
+        assertEquals(Collections.singletonList(HttpConnection.FLAG_ERROR_MESSAGE), user.flags);
+        assertEquals(0, policy.getHedgeWinCount());
+        assertEquals(0, policy.getOutstandingHedges());
+    }
+
+    @Test
+    public void hedgeOverTheCapIsNotSent() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(0).setMinDelay(0).setMaxOutstandingHedges(0);
+        Launcher launcher = new Launcher();
+        new HedgedCall(new Member(), policy, URL, launcher).start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (policy.getSkippedHedgeCount() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(1, policy.getSkippedHedgeCount());
+        assertEquals(1, launcher.attempts.size());
+    }
+
+    @Test
+    public void firstAttemptBeatenByItsHedgeIsLearnt() throws InterruptedException {
+        HedgingPolicy policy = new HedgingPolicy().setInitialDelay(30).setMinDelay(0);
+        /**
+         * every hedge answers at once, the first attempts waited at least the initial delay
+         */
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            Launcher launcher = new Launcher();
+            new HedgedCall(new Member(), policy, URL, launcher).start();
+            launcher.awaitAttempts(2);
+            launcher.attempts.get(1).onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+            assertTrue(launcher.calls.get(0).isCancelled());
+        }
+        assertEquals(HedgingPolicy.MIN_SAMPLES, policy.getHedgeWinCount());
+        assertTrue(policy.getHedgeDelayMillis(URL) >= 30);
+    }
+}
@@ -0,0 +1,130 @@
+package com.beastwall.httpcall.networking;
+
+import com.beastwall.httpcall.items.Field;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * @param headers: names and values of the response headers, one after the other.
+     */
+    private static HttpCache.Entry entry(long responseTime, String... headers) {
+        Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) map.put(headers[i], Collections.singletonList(headers[i + 1]));
+        return new HttpCache.Entry("key", "http://example.com/", 200, responseTime, map,
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER), new File("unused.body"));
+    }
+
+    @Test
+    public void directivesAreFoundWithOrWithoutValue() {
+        String cacheControl = "public, No-Cache=\"Set-Cookie\", max-age=60";
+        assertTrue(HttpCache.hasDirective(cacheControl, "no-cache"));
+        assertTrue(HttpCache.hasDirective(cacheControl, "public"));
+        assertTrue(HttpCache.hasDirective(cacheControl, "MAX-AGE"));
+        assertFalse(HttpCache.hasDirective(cacheControl, "no-store"));
+        assertFalse(HttpCache.hasDirective("max-age-x=1", "max-age"));
+        assertFalse(HttpCache.hasDirective(null, "no-cache"));
+    }
+
+    @Test
+    public void directiveSecondsAreRead() {
+        assertEquals(60, HttpCache.directiveSeconds("public, max-age=60", "max-age"));
+        assertEquals(60, HttpCache.directiveSeconds("max-age = \"60\"", "max-age"));
+        assertEquals(10, HttpCache.directiveSeconds("max-age=60, s-maxage=10", "s-maxage"));
+        assertEquals(-1, HttpCache.directiveSeconds("no-cache", "max-age"));
+        assertEquals(-1, HttpCache.directiveSeconds(null, "max-age"));
+    }
+
+    @Test
+    public void unreadableDirectiveSecondsMeanStale() {
+        assertEquals(0, HttpCache.directiveSeconds("max-age=-5", "max-age"));
+        assertEquals(0, HttpCache.directiveSeconds("max-age=soon", "max-age"));
+    }
+
+    @Test
+    public void httpDatesAreParsedInGmt() {
+        assertEquals(784111777000L, HttpCache.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(784111777000L, HttpCache.parseDate(" Sun, 06 Nov 1994 08:49:37 GMT "));
+        assertEquals(-1, HttpCache.parseDate("Sunday, 06-Nov-94 08:49:37"));
+        assertEquals(-1, HttpCache.parseDate("0"));
+        assertEquals(-1, HttpCache.parseDate(null));
+    }
+
+    @Test
+    public void maxAgeComesFirst() {
+        long now = System.currentTimeMillis();
+        HttpCache.Entry entry = entry(now, "Cache-Control", "max-age=60", "Expires", httpDate(now + HOUR));
+        assertEquals(60_000, entry.freshnessLifetime());
+    }
+
+    @Test
+    public void expiresIsCountedFromTheDateOfTheServer() {
+        long date = 1_444_000_000_000L;
+        HttpCache.Entry entry = entry(date + 5000, "Date", httpDate(date), "Expires", httpDate(date + HOUR));
+        assertEquals(HOUR, entry.freshnessLifetime());
+        assertEquals(0, entry(date, "Expires", "0").freshnessLifetime());
+    }
+
+    @Test
+    public void heuristicFreshnessFromLastModified() {
+        long date = 1_444_000_000_000L;
+        assertEquals(HOUR, entry(date, "Date", httpDate(date),
+                "Last-Modified", httpDate(date - 10 * HOUR)).freshnessLifetime());
+        assertEquals(TimeUnit.DAYS.toMillis(1), entry(date, "Date", httpDate(date),
+                "Last-Modified", httpDate(date - TimeUnit.DAYS.toMillis(100))).freshnessLifetime());
+        assertEquals(0, entry(date).freshnessLifetime());
+    }
+
+    @Test
+    public void ageAddsTheTimeSpentInCaches() {
+        long date = 1_444_000_000_000L;
+        HttpCache.Entry entry = entry(date + 2000, "Date", httpDate(date), "Age", "30");
+        assertEquals(30_000 + 1000, entry.age(date + 3000));
+        assertEquals(2000 + 1000, entry(date + 2000, "Date", httpDate(date)).age(date + 3000));
+    }
+
+    @Test
+    public void freshnessAsksBothSides() {
+        long now = System.currentTimeMillis();
+        assertTrue(entry(now, "Cache-Control", "max-age=600").isFresh(null));
+        assertFalse(entry(now, "Cache-Control", "max-age=600, no-cache").isFresh(null));
+        assertFalse(entry(now - 700_000, "Cache-Control", "max-age=600").isFresh(null));
+        assertFalse(entry(now, "Cache-Control", "max-age=600")
+                .isFresh(new RequestHeader(new Field("Cache-Control", "max-age=0"))));
+        assertFalse(entry(now, "Cache-Control", "max-age=600")
+                .isFresh(new RequestHeader(new Field("cache-control", "no-cache"))));
+    }
+
+    @Test
+    public void requestValuesAreJoinedLikeTheyAreSent() {
+        RequestHeader header = new RequestHeader(new Field("Accept", "text/html"), new Field("accept", "*/*"));
+        assertEquals("text/html, */*", HttpCache.requestValue(header, "Accept"));
+        assertNull(HttpCache.requestValue(header, "Cookie"));
+        assertEquals(ContentEncoding.ACCEPTED_ENCODINGS, HttpCache.requestValue(null, "Accept-Encoding"));
+    }
+}
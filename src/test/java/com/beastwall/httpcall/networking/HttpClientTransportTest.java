@@ -0,0 +1,185 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpClientTransportTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private HttpClientTransport transport;
+
+    /**
+     * GET /echo answers the method and the body of the request, GET /stall sends 10 bytes of 100 and waits
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) request.write(buffer, 0, count);
+                }
+                byte[] body = (exchange.getRequestMethod() + " " + request.toString("UTF-8"))
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 100);
+                OutputStream out = exchange.getResponseBody();
+                out.write(new byte[10]);
+                out.flush();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        transport = new HttpClientTransport();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Writes down the phases recorded
+     */
+    private static final class Phases implements MetricsRecorder {
+        final Set<Integer> phases = Collections.synchronizedSet(new HashSet<Integer>());
+
+        @Override
+        public void record(@NonNull String host, @NonNull String method, int statusClass, int phase, long nanos) {
+            phases.add(phase);
+        }
+    }
+
+    @Test
+    public void requestBodyAndMethodAreSent() throws Exception {
+        Response response = new HttpConnection().setTransport(transport)
+                .patchTextAsync(url("/echo"), null, "{\"a\":1}", HttpConnection.DATATYPE_TEXT, null)
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        assertEquals("PATCH {\"a\":1}", response.getResult());
+    }
+
+    @Test
+    public void stalledBodyTimesOut() throws Exception {
+        HttpURLConnection connection = transport.open(new URL(url("/stall")));
+        connection.setReadTimeout(200);
+        long start = System.nanoTime();
+        InputStream body = connection.getInputStream();
+        byte[] buffer = new byte[100];
+        int read = 0;
+        try {
+            while (true) {
+                int count = body.read(buffer, read, buffer.length - read);
+                if (count == -1) break;
+                read += count;
+            }
+            fail("The stalled body ended");
+        } catch (SocketTimeoutException expected) {
+        } finally {
+            connection.disconnect();
+        }
+        assertEquals(10, read);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    }
+
+    @Test
+    public void stalledBodyFailsTheCallAtTheReadTimeout() throws Exception {
+        for (Transport transport : new Transport[]{this.transport, new UrlConnectionTransport()}) {
+            long start = System.nanoTime();
+            Response response = new HttpConnection().setTransport(transport).setReadTimeout(200)
+                    .getTextAsync(url("/stall"), null).get(30, TimeUnit.SECONDS);
+            assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, response.getFlag());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        }
+    }
+
+    @Test
+    public void closedBodyCantBeRead() throws Exception {
+        HttpURLConnection connection = transport.open(new URL(url("/echo")));
+        InputStream body = connection.getInputStream();
+        body.close();
+        try {
+            body.read();
+            fail("A closed body was read");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void phasesTheClientDoesntTellAreNotRecorded() throws Exception {
+        Phases get = new Phases();
+        assertEquals("GET ", new HttpConnection().setTransport(transport).setMetricsRecorder(get)
+                .getTextAsync(url("/echo"), null).get(30, TimeUnit.SECONDS).getResult());
+        Phases post = new Phases();
+        assertEquals("POST body", new HttpConnection().setTransport(transport).setMetricsRecorder(post)
+                .postTextAsync(url("/echo"), null, "body", HttpConnection.DATATYPE_TEXT, null)
+                .get(30, TimeUnit.SECONDS).getResult());
+
+        for (Phases phases : new Phases[]{get, post}) {
+            assertTrue(phases.phases.contains(MetricsRecorder.PHASE_BODY_READ));
+            assertTrue(phases.phases.contains(MetricsRecorder.PHASE_TOTAL));
+            assertFalse(phases.phases.contains(MetricsRecorder.PHASE_CONNECT));
+            assertFalse(phases.phases.contains(MetricsRecorder.PHASE_REQUEST_WRITE));
+            assertFalse(phases.phases.contains(MetricsRecorder.PHASE_TIME_TO_FIRST_BYTE));
+        }
+    }
+
+    @Test
+    public void reasonPhraseIsTheStandardOne() {
+        assertEquals("Not Found", HttpClientConnection.reasonPhraseOf(404));
+        assertEquals(null, HttpClientConnection.reasonPhraseOf(299));
+    }
+}
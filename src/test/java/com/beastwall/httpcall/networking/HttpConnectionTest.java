@@ -0,0 +1,228 @@
+package com.beastwall.httpcall.networking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpConnectionTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger served = new AtomicInteger();
+    private final CountDownLatch sent = new CountDownLatch(1);
+    private final CountDownLatch cut = new CountDownLatch(1);
+
+    /**
+     * GET /text/NAME answers NAME, POST /echo answers its body, GET /status?code=N answers with this code,
+     * POST /encoding answers the Content-Encoding of the request and its decoded body,
+     * GET /cut sends a chunk of its body and breaks the connection once the test lets it
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/text/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                served.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                answer(exchange, 200, path.substring("/text/".length()));
+            }
+        });
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                served.incrementAndGet();
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) request.write(buffer, 0, count);
+                }
+                answer(exchange, 200, exchange.getRequestMethod() + " " + request.toString("UTF-8"));
+            }
+        });
+        server.createContext("/encoding", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(encoding)) in = new GZIPInputStream(in);
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) request.write(buffer, 0, count);
+                in.close();
+                answer(exchange, 200, encoding + " " + request.toString("UTF-8"));
+            }
+        });
+        server.createContext("/cut", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(new byte[10]);
+                out.flush();
+                sent.countDown();
+                try {
+                    cut.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                throw new IOException("Connection cut");
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                served.incrementAndGet();
+                int code = Integer.parseInt(exchange.getRequestURI().getQuery().replaceAll("code=(\\d+)", "$1"));
+                answer(exchange, code, "status " + code);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void answer(HttpExchange exchange, int code, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void executeReturnsTheFinalResponse() {
+        Response response = new HttpConnection().execute(Request.get(url("/text/hello")));
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        assertEquals("hello", response.getResult());
+        assertEquals(200, response.getResponseCode());
+    }
+
+    @Test
+    public void executeSendsTheBodyOfAWrite() {
+        Response response = new HttpConnection().execute(
+                new Request(Request.METHOD_PUT, url("/echo")).setBody("{\"a\":1}"));
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        assertEquals("PUT {\"a\":1}", response.getResult());
+    }
+
+    @Test
+    public void executeEndsWithTheRejection() {
+        Response response = new HttpConnection().execute(Request.get(url("/status?code=503")));
+        assertEquals(HttpConnection.FLAG_REQUEST_UNACCEPTED, response.getFlag());
+        assertEquals(503, response.getResponseCode());
+        assertTrue(((String) response.getResult()).startsWith("status 503"));
+    }
+
+    @Test
+    public void executeEndsWithTheLastFailureOfItsRetries() {
+        Response response = new HttpConnection()
+                .setRetryPolicy(new RetryPolicy().setMaxAttempts(3).setBackoff(1, 1))
+                .execute(Request.get(url("/status?code=503")));
+        assertEquals(HttpConnection.FLAG_REQUEST_UNACCEPTED, response.getFlag());
+        assertEquals(3, served.get());
+    }
+
+    @Test
+    public void executeReadsTheResultsInMemory() throws Exception {
+        ResponseMemoryCache memory = new ResponseMemoryCache(1_000_000, 0);
+        HttpConnection connection = new HttpConnection().setMemoryCache(memory);
+        assertEquals("a", connection.getTextAsync(url("/text/a"), null).get(30, TimeUnit.SECONDS).getResult());
+
+        /**
+         * the result of the executed request is kept under its own url
+         */
+        assertEquals("b", connection.execute(Request.get(url("/text/b"))).getResult());
+        assertEquals("a", memory.get(ResponseMemoryCache.keyOf(url("/text/a"), null)));
+        assertEquals("b", memory.get(ResponseMemoryCache.keyOf(url("/text/b"), null)));
+
+        Response remembered = connection.execute(Request.get(url("/text/b")));
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, remembered.getFlag());
+        assertEquals("b", remembered.getResult());
+        assertEquals(2, served.get());
+    }
+
+    @Test
+    public void executeAsyncRunsOnTheDispatcher() throws Exception {
+        Response response = new HttpConnection()
+                .executeAsync(Request.post(url("/echo"), "body")).get(30, TimeUnit.SECONDS);
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        assertEquals("POST body", response.getResult());
+    }
+
+    @Test
+    public void textOverTheThresholdIsSentGzipped() throws Exception {
+        String large = new String(new char[2000]).replace('\0', 'a');
+        HttpConnection connection = new HttpConnection().setRequestCompression(true, 1000);
+        assertEquals("gzip " + large, connection.postTextAsync(url("/encoding"), null, large,
+                HttpConnection.DATATYPE_TEXT, null).get(30, TimeUnit.SECONDS).getResult());
+        assertEquals("null small", connection.postTextAsync(url("/encoding"), null, "small",
+                HttpConnection.DATATYPE_TEXT, null).get(30, TimeUnit.SECONDS).getResult());
+        assertEquals("null " + large, new HttpConnection().postTextAsync(url("/encoding"), null, large,
+                HttpConnection.DATATYPE_TEXT, null).get(30, TimeUnit.SECONDS).getResult());
+    }
+
+    @Test
+    public void cancelledCallDoesntLogItsBrokenRead() throws Exception {
+        ByteArrayOutputStream logged = new ByteArrayOutputStream();
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(logged, true));
+        try {
+            final HttpConnection connection = new HttpConnection();
+            connection.getTextAsync(url("/cut"), null);
+            assertTrue(sent.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            /**
+             * the disconnection of the jdk waits for the read, the read fails once the server breaks the connection
+             */
+            Thread canceller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    connection.cancel();
+                }
+            });
+            canceller.start();
+            while (!connection.isCancelled()) Thread.sleep(1);
+            cut.countDown();
+            canceller.join(10_000);
+            Thread.sleep(300);
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals("", logged.toString("UTF-8"));
+    }
+
+}
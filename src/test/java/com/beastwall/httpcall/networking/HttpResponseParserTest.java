@@ -0,0 +1,170 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResponseParserTest {
+
+    /**
+     * Writes the parts of the responses as text
+     */
+    private static final class Recorder implements HttpResponseParser.Listener {
+        final List<String> events = new ArrayList<>();
+        boolean head = false;
+        private StringBuilder body;
+
+        @Override
+        public void onStatus(int responseCode, boolean http11) {
+            events.add("status " + responseCode + (http11 ? "" : " http/1.0"));
+        }
+
+        @Override
+        public void onHeader(String name, String value) {
+            events.add(name + ": " + value);
+        }
+
+        @Override
+        public boolean onHeadersComplete() {
+            body = new StringBuilder();
+            return head;
+        }
+
+        @Override
+        public void onBody(ByteBuffer data) {
+            body.append(StandardCharsets.ISO_8859_1.decode(data));
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("body " + body);
+        }
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static List<String> parse(Recorder recorder, String response) throws IOException {
+        new HttpResponseParser(recorder).parse(bytes(response));
+        return recorder.events;
+    }
+
+    @Test
+    public void fixedLengthBody() throws IOException {
+        assertEquals(Arrays.asList("status 200", "Content-Length: 5", "body hello"),
+                parse(new Recorder(), "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello"));
+    }
+
+    @Test
+    public void bytesCanArriveOneByOne() throws IOException {
+        Recorder recorder = new Recorder();
+        HttpResponseParser parser = new HttpResponseParser(recorder);
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello";
+        for (int i = 0; i < response.length(); i++) {
+            assertTrue(recorder.events.size() < 3);
+            parser.parse(bytes(response.substring(i, i + 1)));
+        }
+        assertEquals(Arrays.asList("status 200", "Content-Length: 5", "body hello"), recorder.events);
+        assertFalse(parser.isInResponse());
+    }
+
+    @Test
+    public void chunkedBodyWithExtensionsAndTrailers() throws IOException {
+        assertEquals(Arrays.asList("status 200", "Transfer-Encoding: chunked", "body hello world"),
+                parse(new Recorder(), "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "6;name=value\r\nhello \r\n5\r\nworld\r\n0\r\nTrailer: x\r\n\r\n"));
+    }
+
+    @Test
+    public void pipelinedResponsesAreParsedInOrder() throws IOException {
+        assertEquals(Arrays.asList("status 200", "Content-Length: 1", "body a",
+                "status 404", "Content-Length: 1", "body b"),
+                parse(new Recorder(), "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\na"
+                        + "HTTP/1.1 404 Not Found\r\nContent-Length: 1\r\n\r\nb"));
+    }
+
+    @Test
+    public void informationalResponsesAreSkipped() throws IOException {
+        assertEquals(Arrays.asList("status 200", "Content-Length: 2", "body ok"),
+                parse(new Recorder(), "HTTP/1.1 100 Continue\r\nX-Ignored: 1\r\n\r\n"
+                        + "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"));
+    }
+
+    @Test
+    public void bodilessResponsesIgnoreTheirLength() throws IOException {
+        assertEquals(Arrays.asList("status 304", "Content-Length: 10", "body ",
+                "status 204", "body "),
+                parse(new Recorder(), "HTTP/1.1 304 Not Modified\r\nContent-Length: 10\r\n\r\n"
+                        + "HTTP/1.1 204 No Content\r\n\r\n"));
+
+        Recorder head = new Recorder();
+        head.head = true;
+        assertEquals(Arrays.asList("status 200", "Content-Length: 10", "body "),
+                parse(head, "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n"));
+    }
+
+    @Test
+    public void bodyWithoutLengthEndsWithTheConnection() throws IOException {
+        Recorder recorder = new Recorder();
+        HttpResponseParser parser = new HttpResponseParser(recorder);
+        parser.parse(bytes("HTTP/1.0 200 OK\n\npart one, "));
+        parser.parse(bytes("part two"));
+        assertEquals(Arrays.asList("status 200 http/1.0"), recorder.events);
+        assertTrue(parser.endOfStream());
+        assertEquals(Arrays.asList("status 200 http/1.0", "body part one, part two"), recorder.events);
+    }
+
+    @Test
+    public void connectionClosedBetweenResponses() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(new Recorder());
+        parser.parse(bytes("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n"));
+        assertFalse(parser.endOfStream());
+    }
+
+    @Test(expected = EOFException.class)
+    public void connectionClosedInTheMiddleOfABody() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(new Recorder());
+        parser.parse(bytes("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nhalf"));
+        parser.endOfStream();
+    }
+
+    @Test
+    public void malformedResponsesAreRefused() {
+        String[] responses = {
+                "SMTP 220 ready\r\n",
+                "HTTP/1.1 2x0 OK\r\n",
+                "HTTP/1.1 200 OK\r\nno colon\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: ten\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n1\r\nab\r\n"};
+        for (String response : responses) {
+            try {
+                new HttpResponseParser(new Recorder()).parse(bytes(response));
+                fail("Parsed " + response);
+            } catch (ProtocolException expected) {
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void overlongLinesAreRefused() throws IOException {
+        char[] value = new char[100 * 1024];
+        Arrays.fill(value, 'a');
+        new HttpResponseParser(new Recorder()).parse(bytes("HTTP/1.1 200 OK\r\nX-Long: " + new String(value)));
+    }
+}
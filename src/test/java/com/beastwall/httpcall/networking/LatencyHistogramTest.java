@@ -0,0 +1,123 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+        assertEquals(16, LatencyHistogram.indexOf(16));
+        assertEquals(16, LatencyHistogram.upperBoundOf(16));
+        assertEquals(31, LatencyHistogram.indexOf(31));
+        /**
+         * from 32 on the buckets are 2 wide, then 4...
+         */
+        assertEquals(32, LatencyHistogram.indexOf(32));
+        assertEquals(32, LatencyHistogram.indexOf(33));
+        assertEquals(33, LatencyHistogram.upperBoundOf(32));
+    }
+
+    @Test
+    public void everyValueIsInsideItsBucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(index) >= value);
+            if (index > 0) assertTrue(LatencyHistogram.upperBoundOf(index - 1) < value);
+            /**
+             * a bucket is narrower than 1/16 of its values
+             */
+            long lowerBound = index == 0 ? 0 : LatencyHistogram.upperBoundOf(index - 1) + 1;
+            assertTrue(LatencyHistogram.upperBoundOf(index) - lowerBound <= lowerBound / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void largestValueHasABucket() {
+        int index = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(index));
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void percentileIsTheValueOfItsRank() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 10; value++) histogram.record(value);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1, histogram.getValueAtPercentile(10));
+        assertEquals(2, histogram.getValueAtPercentile(10.1));
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(95));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(10, histogram.getValueAtPercentile(250));
+    }
+
+    @Test
+    public void percentileErrorIsBounded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long millis = 1_000_000;
+        for (int i = 1; i <= 1000; i++) histogram.record(i * millis);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 990 * millis);
+        assertTrue(p99 <= 990 * millis + 990 * millis / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990, histogram.getMillisAtPercentile(99), 990.0 / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void percentileNeverExceedsTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void countsMinMaxAndMean() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(100, 3);
+        histogram.record(200, 0);
+        assertEquals(4, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(75, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void addCopyAndReset() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(1000);
+        first.add(second);
+        LatencyHistogram copy = first.copy();
+        first.reset();
+
+        assertEquals(0, first.getCount());
+        assertEquals(2, copy.getCount());
+        assertEquals(10, copy.getMin());
+        assertEquals(1000, copy.getMax());
+        assertEquals(10, copy.getValueAtPercentile(50));
+        assertEquals(1000, copy.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,266 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioEngineTest {
+
+    /**
+     * What the server does with a request: answers it, then closes the connection or not
+     */
+    private static final class Answer {
+        final String text;
+        final boolean close;
+
+        Answer(String text, boolean close) {
+            this.text = text;
+            this.close = close;
+        }
+    }
+
+    private static final Answer HANG_UP = new Answer(null, true);
+
+    private ServerSocket serverSocket;
+    private NioEngine engine;
+    private final LinkedBlockingQueue<Answer> answers = new LinkedBlockingQueue<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * A server answering the requests of every connection with the queued answers, in order
+     */
+    @Before
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    final Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    connections.incrementAndGet();
+                    Thread connection = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        engine = new NioEngine();
+    }
+
+    @After
+    public void stop() throws IOException {
+        engine.shutdown();
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String head = readHead(in);
+                if (head == null) break;
+                requests.add(head);
+                Answer answer = answers.poll(5, TimeUnit.SECONDS);
+                if (answer == null || answer.text == null) break;
+                out.write(answer.text.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                if (answer.close) break;
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the request line and the header fields, null once the connection is closed.
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            String text = head.toString("ISO-8859-1");
+            if (text.endsWith("\r\n\r\n")) return text;
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the result of a request
+     */
+    private static final class Result implements NioEngine.Callback {
+        final CompletableFuture<String> body = new CompletableFuture<>();
+        final List<Long> contentLengths = Collections.synchronizedList(new ArrayList<Long>());
+        volatile int responseCode;
+        volatile Map<String, List<String>> headers;
+
+        @Override
+        public void onProgress(long numberOfReadBytes, long contentLength) {
+            contentLengths.add(contentLength);
+        }
+
+        @Override
+        public void onResponse(int responseCode, @NonNull Map<String, List<String>> headers,
+                               @NonNull NioEngine.PooledBody body) {
+            this.responseCode = responseCode;
+            this.headers = headers;
+            String text = new String(body.toByteArray(), StandardCharsets.UTF_8);
+            body.release();
+            this.body.complete(text);
+        }
+
+        @Override
+        public void onFailure(@NonNull IOException e) {
+            body.completeExceptionally(e);
+        }
+
+        String await() throws Exception {
+            return body.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + path);
+    }
+
+    private Result send(String method, String path) throws IOException {
+        Result result = new Result();
+        engine.send(url(path), method, null, result);
+        return result;
+    }
+
+    private static Answer ok(String body) {
+        return new Answer("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\nX-Id: 7\r\n\r\n" + body, false);
+    }
+
+    @Test
+    public void responseIsParsed() throws Exception {
+        answers.add(ok("hello"));
+        Result result = send("GET", "/a?b=c");
+        assertEquals("hello", result.await());
+        assertEquals(200, result.responseCode);
+        assertEquals("7", result.headers.get("x-id").get(0));
+        assertEquals(Long.valueOf(5), result.contentLengths.get(result.contentLengths.size() - 1));
+        assertTrue(requests.get(0).startsWith("GET /a?b=c HTTP/1.1\r\n"));
+        assertTrue(requests.get(0).contains("\r\nHost: 127.0.0.1:" + serverSocket.getLocalPort() + "\r\n"));
+    }
+
+    @Test
+    public void idleConnectionIsReused() throws Exception {
+        answers.add(ok("one"));
+        answers.add(ok("two"));
+        assertEquals("one", send("GET", "/1").await());
+        assertEquals("two", send("GET", "/2").await());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void requestOnAConnectionClosedByTheServerIsSentAgain() throws Exception {
+        answers.add(ok("one"));
+        /**
+         * the server closes the kept-alive connection instead of answering the next request
+         */
+        answers.add(HANG_UP);
+        answers.add(ok("two"));
+        assertEquals("one", send("GET", "/1").await());
+        Result second = send("GET", "/2");
+        assertEquals("two", second.await());
+        assertEquals(2, connections.get());
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void responseClosingItsConnectionIsReadToTheEnd() throws Exception {
+        answers.add(new Answer("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nuntil the end", true));
+        Result result = send("GET", "/");
+        assertEquals("until the end", result.await());
+        assertEquals(Long.valueOf(-1), result.contentLengths.get(0));
+    }
+
+    @Test
+    public void headResponseHasNoBody() throws Exception {
+        answers.add(new Answer("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n", false));
+        Result result = send("HEAD", "/");
+        assertEquals("", result.await());
+        assertEquals(200, result.responseCode);
+    }
+
+    @Test
+    public void brokenResponseFails() throws Exception {
+        answers.add(new Answer("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\nonly this", true));
+        try {
+            send("GET", "/").await();
+            fail("A response cut in the middle was delivered");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void onlyPlainGetAndHeadAreSupported() throws IOException {
+        assertTrue(NioEngine.isSupported(url("/"), "GET"));
+        assertTrue(NioEngine.isSupported(url("/"), "HEAD"));
+        assertFalse(NioEngine.isSupported(url("/"), "POST"));
+        assertFalse(NioEngine.isSupported(new URL("https://example.com/"), "GET"));
+        try {
+            send("POST", "/");
+            fail("The engine accepted a POST");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void requestsFailOnceTheEngineIsShutDown() throws Exception {
+        engine.shutdown();
+        try {
+            send("GET", "/").await();
+            fail("A request was sent after the shutdown");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+}
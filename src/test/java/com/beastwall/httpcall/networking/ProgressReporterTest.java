@@ -0,0 +1,121 @@
+package com.beastwall.httpcall.networking;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressReporterTest {
+
+    /**
+     * A ui thread the tests run by hand
+     */
+    private static final class QueueHandler extends Handler {
+        final List<Runnable> posted = new ArrayList<>();
+
+        QueueHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        public boolean post(Runnable runnable) {
+            posted.add(runnable);
+            return true;
+        }
+
+        void runAll() {
+            List<Runnable> runnables = new ArrayList<>(posted);
+            posted.clear();
+            for (Runnable runnable : runnables) runnable.run();
+        }
+    }
+
+    /**
+     * Keeps the deliveries
+     */
+    private static final class Deliveries implements ProgressReporter.Listener {
+        final List<Short> percentages = new ArrayList<>();
+        long bytesPerSecond;
+        long etaMillis;
+
+        @Override
+        public void onProgress(short percentage, long downloadSize, long numberOfReadBytes, long numberOfDecodedBytes,
+                               long bytesPerSecond, long etaMillis) {
+            percentages.add(percentage);
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaMillis = etaMillis;
+        }
+    }
+
+    @Test
+    public void updatesWaitingForTheUiThreadShowTheLatestProgress() {
+        QueueHandler handler = new QueueHandler();
+        Deliveries deliveries = new Deliveries();
+        ProgressReporter reporter = new ProgressReporter(handler, deliveries, 0, 1);
+        reporter.update(10, 100);
+        reporter.update(20, 100);
+        reporter.update(30, 100);
+        assertEquals(1, handler.posted.size());
+        handler.runAll();
+        assertEquals(1, deliveries.percentages.size());
+        assertEquals(30, (short) deliveries.percentages.get(0));
+    }
+
+    @Test
+    public void updatesCloserThanTheThrottleAreDroppedButNotTheLast() {
+        QueueHandler handler = new QueueHandler();
+        Deliveries deliveries = new Deliveries();
+        ProgressReporter reporter = new ProgressReporter(handler, deliveries, 60_000, 1);
+        reporter.update(1, 1000);
+        handler.runAll();
+        reporter.update(500, 1000);
+        assertTrue(handler.posted.isEmpty());
+        reporter.update(1000, 1000);
+        handler.runAll();
+        assertEquals(0, (short) deliveries.percentages.get(0));
+        assertEquals(100, (short) deliveries.percentages.get(1));
+        assertEquals(0, deliveries.etaMillis);
+    }
+
+    @Test
+    public void smallerStepThanTheMinimumPercentageIsDropped() {
+        QueueHandler handler = new QueueHandler();
+        ProgressReporter reporter = new ProgressReporter(handler, new Deliveries(), 0, 10);
+        reporter.update(0, 100);
+        handler.runAll();
+        reporter.update(5, 100);
+        assertTrue(handler.posted.isEmpty());
+        reporter.update(10, 100);
+        assertEquals(1, handler.posted.size());
+    }
+
+    @Test
+    public void throughputAndRemainingTimeAreEstimated() throws InterruptedException {
+        QueueHandler handler = new QueueHandler();
+        Deliveries deliveries = new Deliveries();
+        ProgressReporter reporter = new ProgressReporter(handler, deliveries, 0, 0);
+        reporter.update(0, 100_000);
+        handler.runAll();
+        assertEquals(-1, deliveries.bytesPerSecond);
+        assertEquals(-1, deliveries.etaMillis);
+
+        Thread.sleep(ProgressReporter.SAMPLE_INTERVAL_MILLIS + 10);
+        reporter.update(10_000, 100_000);
+        handler.runAll();
+        assertTrue(deliveries.bytesPerSecond > 0);
+        assertTrue(deliveries.etaMillis > 0);
+    }
+
+    @Test
+    public void unknownSizeIsAHundredPercent() {
+        assertEquals(100, ProgressReporter.percentageOf(10, -1));
+        assertEquals(25, ProgressReporter.percentageOf(25, 100));
+        assertEquals(100, ProgressReporter.percentageOf(200, 100));
+    }
+}
@@ -0,0 +1,173 @@
+package com.beastwall.httpcall.networking;
+
+import com.beastwall.httpcall.items.Field;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseMemoryCacheTest {
+
+    /**
+     * every result weighs its length, or 1
+     */
+    private static final ResponseMemoryCache.Weigher LENGTH = new ResponseMemoryCache.Weigher() {
+        @Override
+        public int weigh(String key, Object value) {
+            return value instanceof String ? ((String) value).length() : 1;
+        }
+    };
+
+    private static ResponseMemoryCache oneStripe(long maxWeight, long timeToLiveMillis) {
+        return new ResponseMemoryCache(maxWeight, timeToLiveMillis, LENGTH, 1);
+    }
+
+    @Test
+    public void leastRecentlyUsedResultsAreEvictedFirst() {
+        ResponseMemoryCache cache = oneStripe(3, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        /**
+         * reading a makes b the eldest
+         */
+        assertEquals("1", cache.get("a"));
+        cache.put("d", "4");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getWeight());
+    }
+
+    @Test
+    public void heavyResultEvictsSeveralLightOnes() {
+        ResponseMemoryCache cache = oneStripe(4, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.put("d", "444");
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(4, cache.getWeight());
+    }
+
+    @Test
+    public void resultHeavierThanItsStripeIsNotStored() {
+        ResponseMemoryCache cache = oneStripe(4, 0);
+        cache.put("a", "1");
+        cache.put("a", "12345");
+        /**
+         * the result it replaces is dropped too
+         */
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void replacingAResultUpdatesTheWeight() {
+        ResponseMemoryCache cache = oneStripe(10, 0);
+        cache.put("a", "12345");
+        cache.put("a", "12");
+        assertEquals(2, cache.getWeight());
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void expiredResultsAreDropped() throws InterruptedException {
+        ResponseMemoryCache cache = oneStripe(10, 20);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(40);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void resultsWithoutTimeToLiveStay() throws InterruptedException {
+        ResponseMemoryCache cache = oneStripe(10, 0);
+        cache.put("a", "1");
+        Thread.sleep(20);
+        assertEquals("1", cache.get("a"));
+    }
+
+    @Test
+    public void stripesShareTheMaxWeight() {
+        ResponseMemoryCache cache = new ResponseMemoryCache(30, 0, LENGTH, 3);
+        /**
+         * 3 stripes are rounded up to 4 of weight 7
+         */
+        cache.put("a", "1234567");
+        cache.put("b", "12345678");
+        assertEquals("1234567", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(30, cache.getMaxWeight());
+    }
+
+    @Test
+    public void statsAndInvalidation() {
+        ResponseMemoryCache cache = oneStripe(10, 0);
+        assertEquals(1.0, cache.getHitRate(), 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.get("missing");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0);
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getWeight());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void urlInvalidationDropsTheResultsOfEveryRequestHeader() {
+        ResponseMemoryCache cache = new ResponseMemoryCache(10_000, 0, LENGTH, 16);
+        String url = "http://example.com/a";
+        String plain = ResponseMemoryCache.keyOf(url, null);
+        String json = ResponseMemoryCache.keyOf(url, new RequestHeader(new Field("Accept", "application/json")));
+        String xml = ResponseMemoryCache.keyOf(url, new RequestHeader(new Field("Accept", "text/xml")));
+        String longer = ResponseMemoryCache.keyOf("http://example.com/ab", null);
+        String other = ResponseMemoryCache.keyOf("http://example.com/b", new RequestHeader(new Field("Accept", "a")));
+        for (String key : new String[]{plain, json, xml, longer, other}) cache.put(key, "1");
+
+        cache.invalidateUrl(url);
+        assertNull(cache.get(plain));
+        assertNull(cache.get(json));
+        assertNull(cache.get(xml));
+        assertEquals("1", cache.get(longer));
+        assertEquals("1", cache.get(other));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getWeight());
+    }
+
+    @Test
+    public void defaultWeigherCountsTheBytesInMemory() {
+        assertEquals(64 + 2 + 2 * 3, ResponseMemoryCache.DEFAULT_WEIGHER.weigh("k", "abc"));
+        assertEquals(64 + 2 + 3, ResponseMemoryCache.DEFAULT_WEIGHER.weigh("k", new byte[3]));
+        assertEquals(64 + 2 + ResponseMemoryCache.DEFAULT_OBJECT_WEIGHT,
+                ResponseMemoryCache.DEFAULT_WEIGHER.weigh("k", new Object()));
+    }
+
+    @Test
+    public void keyIgnoresTheOrderAndCaseOfHeaderNames() {
+        String url = "http://example.com/";
+        assertEquals(url, ResponseMemoryCache.keyOf(url, null));
+        assertEquals(url, ResponseMemoryCache.keyOf(url, new RequestHeader()));
+        String key = ResponseMemoryCache.keyOf(url, new RequestHeader(new Field("Accept", "a"), new Field("X-Id", "1")));
+        assertEquals(key, ResponseMemoryCache.keyOf(url, new RequestHeader(new Field("x-id", "1"), new Field("ACCEPT", "a"))));
+        assertNotEquals(key, ResponseMemoryCache.keyOf(url, new RequestHeader(new Field("Accept", "a"), new Field("X-Id", "2"))));
+    }
+}
@@ -0,0 +1,267 @@
+package com.beastwall.httpcall.networking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ResumableDownloadTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    /**
+     * the file served, its ETag, and the Range of every request
+     */
+    private volatile byte[] content;
+    private volatile String etag;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * the next response breaks after this number of body bytes, -1 sends it whole
+     */
+    private volatile int cutAfter = -1;
+    private volatile boolean chunked = false;
+
+    /**
+     * GET /file serves the content, resuming from a Range if its If-Range matches the ETag
+     */
+    private void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/file", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                ranges.add(range);
+                byte[] body = content;
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+
+                int from = 0;
+                int status = 200;
+                if (range != null && etag.equals(ifRange)) {
+                    from = Integer.parseInt(range.replaceAll("bytes=(\\d+)-.*", "$1"));
+                    if (from >= body.length) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                        exchange.sendResponseHeaders(ResumableDownload.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                        exchange.close();
+                        return;
+                    }
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + from + "-" + (body.length - 1) + "/" + body.length);
+                }
+                int length = body.length - from;
+                int cut = cutAfter;
+                cutAfter = -1;
+                exchange.sendResponseHeaders(status, chunked ? 0 : length);
+                OutputStream out = exchange.getResponseBody();
+                if (cut < 0) {
+                    out.write(body, from, length);
+                    out.close();
+                    return;
+                }
+                /**
+                 * the connection is closed before the end of the body
+                 */
+                out.write(body, from, Math.min(cut, length));
+                out.flush();
+                throw new IOException("Transfer broken on purpose");
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        if (server != null) server.stop(0);
+    }
+
+    private void serve(byte[] content, String etag) {
+        this.content = content;
+        this.etag = etag;
+    }
+
+    private Response download() throws Exception {
+        return new HttpConnection().setResumable(true)
+                .getFileAsync("http://127.0.0.1:" + server.getAddress().getPort() + "/file", null,
+                        folder.getRoot().getPath())
+                .get(30, TimeUnit.SECONDS);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return length of the partial file left in the folder, -1 if there is none.
+     */
+    private long partialLength() {
+        File[] files = folder.getRoot().listFiles();
+        if (files != null)
+            for (File file : files)
+                if (file.getName().endsWith(ResumableDownload.PARTIAL_FILE_SUFFIX)) return file.length();
+        return -1;
+    }
+
+    private static byte[] read(Response response) throws IOException {
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        return Files.readAllBytes(new File((String) response.getResult()).toPath());
+    }
+
+    @Test
+    public void brokenDownloadIsResumedWithTheMissingBytes() throws Exception {
+        startServer();
+        byte[] file = randomBytes(100_000, 1);
+        serve(file, "\"v1\"");
+        cutAfter = 40_000;
+        assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, download().getFlag());
+        assertEquals(40_000, partialLength());
+
+        assertArrayEquals(file, read(download()));
+        assertEquals("bytes=40000-", ranges.get(1));
+        assertEquals(-1, partialLength());
+    }
+
+    @Test
+    public void changedFileIsDownloadedAgainFromItsStart() throws Exception {
+        startServer();
+        serve(randomBytes(100_000, 1), "\"v1\"");
+        cutAfter = 40_000;
+        assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, download().getFlag());
+
+        byte[] changed = randomBytes(100_000, 2);
+        serve(changed, "\"v2\"");
+        assertArrayEquals(changed, read(download()));
+        assertEquals("bytes=40000-", ranges.get(1));
+    }
+
+    @Test
+    public void brokenRestartLeavesNoOldBytesBehind() throws Exception {
+        startServer();
+        serve(randomBytes(100_000, 1), "\"v1\"");
+        cutAfter = 30_000;
+        assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, download().getFlag());
+
+        /**
+         * the new version starts over and breaks in the middle of a chunk,
+         * before reaching the end of the old partial file
+         */
+        byte[] changed = randomBytes(50_000, 2);
+        serve(changed, "\"v2\"");
+        chunked = true;
+        cutAfter = 20_000;
+        assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, download().getFlag());
+        assertEquals(20_000, partialLength());
+
+        assertArrayEquals(changed, read(download()));
+        assertEquals("bytes=20000-", ranges.get(2));
+    }
+
+    @Test
+    public void completePartialFileIsKeptWhenTheRangeIsNotSatisfiable() throws Exception {
+        startServer();
+        byte[] file = randomBytes(50_000, 1);
+        serve(file, "\"v1\"");
+        /**
+         * every byte arrives, the last chunk doesn't
+         */
+        chunked = true;
+        cutAfter = 50_000;
+        assertEquals(HttpConnection.FLAG_ERROR_MESSAGE, download().getFlag());
+        assertEquals(50_000, partialLength());
+
+        assertArrayEquals(file, read(download()));
+        assertEquals("bytes=50000-", ranges.get(1));
+    }
+
+    @Test
+    public void totalOfAContentRange() {
+        assertEquals(1000, ResumableDownload.totalOf("bytes 100-199/1000"));
+        assertEquals(1000, ResumableDownload.totalOf("bytes */1000"));
+        assertEquals(1000, ResumableDownload.totalOf("bytes 0-9/ 1000 "));
+    }
+
+    @Test
+    public void unknownTotal() {
+        assertEquals(-1, ResumableDownload.totalOf(null));
+        assertEquals(-1, ResumableDownload.totalOf("bytes 0-9"));
+        assertEquals(-1, ResumableDownload.totalOf("bytes 0-9/*"));
+    }
+
+    @Test
+    public void lastByteOfAContentRange() {
+        assertEquals(199, ResumableDownload.lastOf("bytes 100-199/1000"));
+        assertEquals(9, ResumableDownload.lastOf("bytes 0-9/*"));
+        assertEquals(9, ResumableDownload.lastOf("bytes 0-9"));
+        assertEquals(-1, ResumableDownload.lastOf("bytes */1000"));
+        assertEquals(-1, ResumableDownload.lastOf(null));
+    }
+
+    @Test
+    public void strongEtagIsPreferred() {
+        assertEquals("\"v2\"", ResumableDownload.validatorOf("\"v2\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void weakEtagFallsBackToLastModified() {
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT",
+                ResumableDownload.validatorOf("W/\"v2\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertNull(ResumableDownload.validatorOf("W/\"v2\"", null));
+    }
+
+    @Test
+    public void nothingToValidate() {
+        assertNull(ResumableDownload.validatorOf(null, null));
+        assertNull(ResumableDownload.validatorOf("", ""));
+    }
+
+    @Test
+    public void secondDownloadOfTheSameUrlIsRefused() throws IOException {
+        String directory = folder.getRoot().getPath();
+        ResumableDownload first = new ResumableDownload(directory, "http://example.com/file");
+        ResumableDownload second = new ResumableDownload(directory, "http://example.com/file");
+        ResumableDownload other = new ResumableDownload(directory, "http://example.com/other");
+        first.lock();
+        other.lock();
+        try {
+            second.lock();
+            fail("Both downloads locked the partial file");
+        } catch (IOException expected) {
+        }
+        first.unlock();
+        second.lock();
+        second.unlock();
+        other.unlock();
+        /**
+         * nothing happens when it isn't locked
+         */
+        other.unlock();
+    }
+}
@@ -0,0 +1,44 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void budgetAllowsItsRatioOfTheRequestsOfTheWindow() {
+        RetryBudget budget = new RetryBudget(0.5, 0);
+        for (int i = 0; i < 4; i++) budget.onRequest(100);
+        assertTrue(budget.tryRetry(100));
+        assertTrue(budget.tryRetry(105));
+        assertFalse(budget.tryRetry(105));
+        assertFalse(budget.tryRetry(109));
+        assertEquals(2, budget.getRetryCount());
+        assertEquals(2, budget.getRejectedRetryCount());
+    }
+
+    @Test
+    public void requestsAndRetriesLeaveTheWindow() {
+        RetryBudget budget = new RetryBudget(0.5, 0);
+        for (int i = 0; i < 2; i++) budget.onRequest(100);
+        assertTrue(budget.tryRetry(100));
+        /**
+         * second 110 reuses the slot of second 100
+         */
+        assertFalse(budget.tryRetry(110));
+        budget.onRequest(110);
+        budget.onRequest(110);
+        assertTrue(budget.tryRetry(110));
+        assertFalse(budget.tryRetry(119));
+    }
+
+    @Test
+    public void minRetriesAreAllowedWithoutRequests() {
+        RetryBudget budget = new RetryBudget(0, 1);
+        for (int i = 0; i < RetryBudget.WINDOW_SECONDS; i++) assertTrue(budget.tryRetry(-3));
+        assertFalse(budget.tryRetry(-3));
+    }
+}
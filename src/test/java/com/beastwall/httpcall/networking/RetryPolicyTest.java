@@ -0,0 +1,128 @@
+package com.beastwall.httpcall.networking;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    /**
+     * a budget that never refuses a retry
+     */
+    private static RetryPolicy policy() {
+        return new RetryPolicy().setRetryBudget(new RetryBudget(0, 1000));
+    }
+
+    private static Map<String, List<String>> retryAfter(String value) {
+        return Collections.singletonMap("retry-after", Collections.singletonList(value));
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    @Test
+    public void jitterStaysUnderTheExponentialBound() {
+        RetryPolicy policy = policy().setBackoff(100, 1000);
+        long[] bounds = {100, 200, 400, 800, 1000, 1000};
+        for (int retries = 0; retries < bounds.length; retries++) {
+            long max = 0;
+            for (int i = 0; i < 2000; i++) {
+                long delay = policy.jitteredDelay(retries);
+                assertTrue(delay >= 0 && delay <= bounds[retries]);
+                max = Math.max(max, delay);
+            }
+            /**
+             * the whole range is used, not only its start
+             */
+            assertTrue(max > bounds[retries] / 2);
+        }
+        assertTrue(policy.jitteredDelay(62) <= 1000);
+    }
+
+    @Test
+    public void noBackoffMeansNoWait() {
+        assertEquals(0, policy().setBackoff(0, 0).jitteredDelay(3));
+    }
+
+    @Test
+    public void retryAfterInSeconds() {
+        assertEquals(120_000, RetryPolicy.retryAfterMillis(retryAfter("120"), 0));
+        assertEquals(0, RetryPolicy.retryAfterMillis(retryAfter(" 0 "), 0));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(retryAfter("-5"), 0));
+    }
+
+    @Test
+    public void retryAfterAsADate() {
+        long now = 1_444_000_000_000L;
+        assertEquals(5000, RetryPolicy.retryAfterMillis(retryAfter(httpDate(now + 5000)), now));
+        assertEquals(0, RetryPolicy.retryAfterMillis(retryAfter(httpDate(now - 5000)), now));
+    }
+
+    @Test
+    public void missingOrUnreadableRetryAfter() {
+        assertEquals(-1, RetryPolicy.retryAfterMillis(null, 0));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(Collections.<String, List<String>>emptyMap(), 0));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(retryAfter("soon"), 0));
+        assertEquals(1000, RetryPolicy.retryAfterMillis(
+                Collections.singletonMap("Retry-After", Collections.singletonList("1")), 0));
+    }
+
+    @Test
+    public void onlyIdempotentCallsAreRetriedAfterAnAnswer() {
+        RetryPolicy policy = policy().setBackoff(0, 0);
+        assertEquals(0, policy.delayBeforeRetry("GET", 0, 503, null, null));
+        assertEquals(-1, policy.delayBeforeRetry("POST", 0, 503, null, null));
+        assertEquals(-1, policy.delayBeforeRetry("GET", 0, 404, null, null));
+    }
+
+    @Test
+    public void aRequestThatNeverLeftIsRetriedWhateverItsMethod() {
+        RetryPolicy policy = policy().setBackoff(0, 0);
+        assertEquals(0, policy.delayBeforeRetry("POST", 0, 0, null, new ConnectException()));
+        assertEquals(-1, policy.delayBeforeRetry("POST", 0, 0, null, new SocketTimeoutException()));
+        assertEquals(0, policy.delayBeforeRetry("GET", 0, 0, null, new SocketTimeoutException()));
+        assertEquals(-1, policy.delayBeforeRetry("GET", 0, 0, null, new IOException()));
+    }
+
+    @Test
+    public void attemptsAreLimited() {
+        RetryPolicy policy = policy().setBackoff(0, 0).setMaxAttempts(3);
+        assertEquals(0, policy.delayBeforeRetry("GET", 1, 503, null, null));
+        assertEquals(-1, policy.delayBeforeRetry("GET", 2, 503, null, null));
+    }
+
+    @Test
+    public void retryAfterOverridesAShorterBackoff() {
+        RetryPolicy policy = policy().setBackoff(10, 10).setMaxRetryAfter(5000);
+        assertEquals(3000, policy.delayBeforeRetry("GET", 0, 503, retryAfter("3"), null));
+        assertEquals(-1, policy.delayBeforeRetry("GET", 0, 503, retryAfter("6"), null));
+    }
+
+    @Test
+    public void spentBudgetStopsTheRetries() {
+        RetryBudget budget = new RetryBudget(0, 0);
+        RetryPolicy policy = new RetryPolicy().setRetryBudget(budget).setBackoff(0, 0);
+        assertEquals(-1, policy.delayBeforeRetry("GET", 0, 503, null, null));
+        assertEquals(1, budget.getRejectedRetryCount());
+        /**
+         * a call that isn't retried anyway doesn't spend the budget
+         */
+        policy.delayBeforeRetry("POST", 0, 503, null, null);
+        assertEquals(1, budget.getRejectedRetryCount());
+    }
+}
@@ -0,0 +1,194 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedDownloadTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile byte[] content;
+
+    /**
+     * how the server answers a Range, and the Range of every request
+     */
+    private volatile boolean rangesSent = true;
+    private volatile boolean totalSent = true;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * GET /file serves the content, a Range "bytes=first-last" is answered with a 206
+     */
+    @Before
+    public void startServer() throws IOException {
+        content = new byte[(int) (SegmentedDownload.MIN_SEGMENT_SIZE * 5 / 2)];
+        new Random(1).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/file", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                ranges.add(range);
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                int first = 0;
+                int last = content.length - 1;
+                if (range != null && rangesSent) {
+                    first = Integer.parseInt(range.replaceAll("bytes=(\\d+)-(\\d+)", "$1"));
+                    last = Math.min(last, Integer.parseInt(range.replaceAll("bytes=(\\d+)-(\\d+)", "$2")));
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + first + "-" + last + "/" + (totalSent ? content.length : "*"));
+                    /**
+                     * a server that doesn't know the size doesn't send the length of the range either
+                     */
+                    exchange.sendResponseHeaders(206, totalSent ? last - first + 1 : 0);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                }
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content, first, last - first + 1);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes down, when every connection is opened, how many were handed back for reuse before
+     */
+    private static final class CountingTransport extends UrlConnectionTransport {
+        final AtomicInteger releases = new AtomicInteger();
+        final List<Integer> releasesAtOpen = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @NonNull
+        @Override
+        public HttpURLConnection open(@NonNull URL url) throws IOException {
+            releasesAtOpen.add(releases.get());
+            return super.open(url);
+        }
+
+        @Override
+        public void release(@NonNull HttpURLConnection connection) {
+            releases.incrementAndGet();
+            super.release(connection);
+        }
+    }
+
+    private byte[] download() throws Exception {
+        return download(new UrlConnectionTransport());
+    }
+
+    private byte[] download(Transport transport) throws Exception {
+        Response response = new HttpConnection().setTransport(transport).setSegmentedDownload(4)
+                .getFileAsync("http://127.0.0.1:" + server.getAddress().getPort() + "/file", null,
+                        folder.getRoot().getPath())
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        return Files.readAllBytes(new File((String) response.getResult()).toPath());
+    }
+
+    @Test
+    public void segmentsAreWrittenAtTheirOffsets() throws Exception {
+        assertArrayEquals(content, download());
+        assertEquals("bytes=0-" + (SegmentedDownload.MIN_SEGMENT_SIZE - 1), ranges.get(0));
+        assertEquals(3, ranges.size());
+        assertTrue(ranges.contains("bytes=" + 2 * SegmentedDownload.MIN_SEGMENT_SIZE + "-" + (content.length - 1)));
+    }
+
+    @Test
+    public void executedRequestIsDownloadedInSegments() throws Exception {
+        Response response = new HttpConnection().setSegmentedDownload(4).execute(
+                Request.get("http://127.0.0.1:" + server.getAddress().getPort() + "/file")
+                        .setDataType(HttpConnection.DATATYPE_FILE).setStorageDirectory(folder.getRoot().getPath()));
+        assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+        assertArrayEquals(content, Files.readAllBytes(new File((String) response.getResult()).toPath()));
+        assertEquals(3, ranges.size());
+    }
+
+    @Test
+    public void fileWithoutRangesComesInOnePiece() throws Exception {
+        rangesSent = false;
+        assertArrayEquals(content, download());
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void rangeOfUnknownTotalFallsBackToOneConnection() throws Exception {
+        totalSent = false;
+        assertArrayEquals(content, download());
+        /**
+         * the probe, then the whole file without a Range
+         */
+        assertEquals(2, ranges.size());
+        assertNull(ranges.get(1));
+    }
+
+    @Test
+    public void longUnreadProbeIsNotDrained() throws Exception {
+        totalSent = false;
+        CountingTransport transport = new CountingTransport();
+        assertArrayEquals(content, download(transport));
+        /**
+         * the probe left a whole segment unread, it wasn't handed back
+         */
+        assertEquals(Arrays.asList(0, 0), transport.releasesAtOpen);
+    }
+
+    @Test
+    public void shortUnreadProbeIsDrained() throws Exception {
+        totalSent = false;
+        content = Arrays.copyOf(content, 10_000);
+        CountingTransport transport = new CountingTransport();
+        assertArrayEquals(content, download(transport));
+        assertEquals(Arrays.asList(0, 1), transport.releasesAtOpen);
+    }
+
+    @Test
+    public void segmentSizeHasAFloor() {
+        assertEquals(SegmentedDownload.MIN_SEGMENT_SIZE, SegmentedDownload.segmentSizeOf(1000, 4));
+        assertEquals(10 * SegmentedDownload.MIN_SEGMENT_SIZE,
+                SegmentedDownload.segmentSizeOf(160 * SegmentedDownload.MIN_SEGMENT_SIZE, 4));
+    }
+}
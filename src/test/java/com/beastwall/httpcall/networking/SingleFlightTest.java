@@ -0,0 +1,201 @@
+package com.beastwall.httpcall.networking;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    /**
+     * A request that writes down the flags it's informed with
+     */
+    private static final class Member extends HttpConnection {
+        final List<Integer> flags = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        protected void doInBackgroundThread(int flag, Response response) {
+            flags.add(flag);
+        }
+    }
+
+    /**
+     * Starts calls that never run, and counts them
+     */
+    private static final class Launcher implements SingleFlight.Launcher {
+        final List<HttpConnection> calls = new ArrayList<>();
+
+        @NonNull
+        @Override
+        public HttpConnection launch(@NonNull SingleFlight.Flight flight) {
+            HttpConnection call = new HttpConnection();
+            calls.add(call);
+            return call;
+        }
+    }
+
+    /**
+     * flights are shared by the whole process, every test has its own keys
+     */
+    private static String newKey() {
+        return "GET test " + UUID.randomUUID();
+    }
+
+    private static Response response() {
+        return new Response(null, "");
+    }
+
+    @Test
+    public void identicalRequestsShareOneCall() {
+        String key = newKey();
+        Launcher launcher = new Launcher();
+        Member first = new Member();
+        Member second = new Member();
+        SingleFlight.Flight flight = SingleFlight.join(key, first, launcher);
+        assertSame(flight, SingleFlight.join(key, second, launcher));
+        assertEquals(1, launcher.calls.size());
+
+        flight.onFlag(HttpConnection.FLAG_REQUEST_ACCEPTED, response());
+        flight.onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+        List<Integer> expected = Arrays.asList(HttpConnection.FLAG_REQUEST_ACCEPTED,
+                HttpConnection.FLAG_RESPONSE_IS_READY);
+        assertEquals(expected, first.flags);
+        assertEquals(expected, second.flags);
+    }
+
+    @Test
+    public void lateRequestIsToldTheCallWasAccepted() {
+        String key = newKey();
+        Launcher launcher = new Launcher();
+        SingleFlight.Flight flight = SingleFlight.join(key, new Member(), launcher);
+        flight.onFlag(HttpConnection.FLAG_REQUEST_ACCEPTED, response());
+
+        Member late = new Member();
+        SingleFlight.join(key, late, launcher);
+        assertEquals(Collections.singletonList(HttpConnection.FLAG_REQUEST_ACCEPTED), late.flags);
+    }
+
+    @Test
+    public void resultDoesNotOvertakeTheFlagToldToALateRequest() throws InterruptedException {
+        String key = newKey();
+        Launcher launcher = new Launcher();
+        final SingleFlight.Flight flight = SingleFlight.join(key, new Member(), launcher);
+        flight.onFlag(HttpConnection.FLAG_REQUEST_ACCEPTED, response());
+
+        /**
+         * the call ends while the late request is being told it was accepted
+         */
+        final List<Integer> flags = Collections.synchronizedList(new ArrayList<Integer>());
+        HttpConnection late = new HttpConnection() {
+            @Override
+            protected void doInBackgroundThread(int flag, Response response) {
+                if (flag == HttpConnection.FLAG_REQUEST_ACCEPTED) {
+                    Thread end = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            flight.onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+                        }
+                    });
+                    end.start();
+                    try {
+                        end.join(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                flags.add(flag);
+            }
+        };
+        SingleFlight.join(key, late, launcher);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flags.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(Arrays.asList(HttpConnection.FLAG_REQUEST_ACCEPTED, HttpConnection.FLAG_RESPONSE_IS_READY), flags);
+    }
+
+    @Test
+    public void finishedFlightIsNotJoined() {
+        String key = newKey();
+        Launcher launcher = new Launcher();
+        SingleFlight.Flight flight = SingleFlight.join(key, new Member(), launcher);
+        flight.onFlag(HttpConnection.FLAG_ERROR_MESSAGE, response());
+
+        Member next = new Member();
+        assertNotSame(flight, SingleFlight.join(key, next, launcher));
+        assertEquals(2, launcher.calls.size());
+        assertTrue(next.flags.isEmpty());
+    }
+
+    @Test
+    public void callIsCancelledWhenTheLastRequestLeaves() {
+        String key = newKey();
+        Launcher launcher = new Launcher();
+        Member first = new Member();
+        Member second = new Member();
+        SingleFlight.Flight flight = SingleFlight.join(key, first, launcher);
+        SingleFlight.join(key, second, launcher);
+        HttpConnection call = launcher.calls.get(0);
+
+        flight.leave(first);
+        assertFalse(call.isCancelled());
+        flight.onFlag(HttpConnection.FLAG_REQUEST_ACCEPTED, response());
+        assertTrue(first.flags.isEmpty());
+        assertEquals(Collections.singletonList(HttpConnection.FLAG_REQUEST_ACCEPTED), second.flags);
+
+        flight.leave(second);
+        assertTrue(call.isCancelled());
+        /**
+         * the abandoned flight is replaced
+         */
+        assertNotSame(flight, SingleFlight.join(key, new Member(), launcher));
+        assertEquals(2, launcher.calls.size());
+    }
+
+    @Test
+    public void requestLeavingBeforeTheCallStartsCancelsIt() {
+        final Member member = new Member();
+        final HttpConnection call = new HttpConnection();
+        SingleFlight.join(newKey(), member, new SingleFlight.Launcher() {
+            @NonNull
+            @Override
+            public HttpConnection launch(@NonNull SingleFlight.Flight flight) {
+                flight.leave(member);
+                return call;
+            }
+        });
+        assertTrue(call.isCancelled());
+    }
+
+    @Test
+    public void leavingTwiceOrAfterTheEndChangesNothing() {
+        Launcher launcher = new Launcher();
+        Member member = new Member();
+        SingleFlight.Flight flight = SingleFlight.join(newKey(), member, launcher);
+        flight.onFlag(HttpConnection.FLAG_RESPONSE_IS_READY, response());
+        flight.leave(member);
+        flight.leave(member);
+        assertFalse(launcher.calls.get(0).isCancelled());
+    }
+
+    @Test
+    public void keyTellsTheResultsApart() {
+        String url = "http://example.com/";
+        String key = SingleFlight.keyOf(HttpConnection.DATATYPE_TEXT, url, null, null);
+        assertEquals(key, SingleFlight.keyOf(HttpConnection.DATATYPE_TEXT, url, null, null));
+        assertNotEquals(key, SingleFlight.keyOf(HttpConnection.DATATYPE_FILE, url, null, null));
+        assertNotEquals(SingleFlight.keyOf(HttpConnection.DATATYPE_FILE, url, null, "/a"),
+                SingleFlight.keyOf(HttpConnection.DATATYPE_FILE, url, null, "/b"));
+    }
+}
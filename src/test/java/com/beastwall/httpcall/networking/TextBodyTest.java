@@ -0,0 +1,141 @@
+package com.beastwall.httpcall.networking;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextBodyTest {
+
+    /**
+     * A body arriving a few bytes at a time, like from a socket
+     */
+    private static final class TrickleBody extends ByteArrayInputStream {
+        private final int step;
+
+        TrickleBody(byte[] bytes, int step) {
+            super(bytes);
+            this.step = step;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, step));
+        }
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) text.append(i % 3 == 0 ? 'é' : (char) ('a' + i % 26));
+        return text.toString();
+    }
+
+    @Test
+    public void charsetComesFromTheContentType() {
+        assertEquals(StandardCharsets.ISO_8859_1, TextBody.charsetOf("text/plain; charset=ISO-8859-1"));
+        assertEquals(StandardCharsets.UTF_16BE, TextBody.charsetOf("text/plain;CHARSET=\"utf-16be\""));
+        assertEquals(StandardCharsets.UTF_8, TextBody.charsetOf("application/json"));
+        assertEquals(StandardCharsets.UTF_8, TextBody.charsetOf("text/plain; charset=unknown-charset"));
+        assertEquals(StandardCharsets.UTF_8, TextBody.charsetOf(null));
+    }
+
+    @Test
+    public void characterSplitBetweenTwoReadsIsDecoded() throws IOException {
+        String text = text(1000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        /**
+         * every other é is cut in the middle by the reads
+         */
+        assertEquals(text, TextBody.read(new TrickleBody(bytes, 3), bytes.length, StandardCharsets.UTF_8, null));
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsReadToItsEnd() throws IOException {
+        String text = text(100_000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(text, TextBody.read(new TrickleBody(bytes, 1000), -1, StandardCharsets.UTF_8, null));
+    }
+
+    @Test
+    public void bodyLongerOrShorterThanAnnouncedIsReadAsItIs() throws IOException {
+        String text = text(20_000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(text, TextBody.read(new ByteArrayInputStream(bytes), 100, StandardCharsets.UTF_8, null));
+
+        /**
+         * a huge announced length doesn't allocate more than the initial maximum before the bytes come
+         */
+        assertEquals(text, TextBody.read(new ByteArrayInputStream(bytes), Integer.MAX_VALUE,
+                StandardCharsets.UTF_8, null));
+    }
+
+    @Test
+    public void progressCountsTheReadBytes() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        TextBody.read(new TrickleBody(new byte[10_000], 4000), 10_000, StandardCharsets.UTF_8,
+                new TextBody.ProgressListener() {
+                    @Override
+                    public void onProgress(long numberOfReadBytes) {
+                        progress.add(numberOfReadBytes);
+                    }
+                });
+        assertEquals(3, progress.size());
+        assertEquals(Long.valueOf(10_000), progress.get(2));
+    }
+
+    @Test
+    public void emptyBodyIsEmptyText() throws IOException {
+        assertEquals("", TextBody.read(new InputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+        }, 0, StandardCharsets.UTF_8, null));
+    }
+
+    @Test
+    public void responseIsDecodedWithItsCharset() throws Exception {
+        final String text = "café crème";
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/latin", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = text.getBytes(StandardCharsets.ISO_8859_1);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=ISO-8859-1");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            Response response = new HttpConnection()
+                    .getTextAsync("http://127.0.0.1:" + server.getAddress().getPort() + "/latin", null)
+                    .get(30, TimeUnit.SECONDS);
+            assertEquals(HttpConnection.FLAG_RESPONSE_IS_READY, response.getFlag());
+            assertEquals(text, response.getResult());
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}